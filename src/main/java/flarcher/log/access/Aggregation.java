@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access;
+
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.Statistic;
+import flarcher.log.access.stat.StatisticTimeBucketsFactory;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * The statistics fed by access log lines: the overall ones and the time buckets.
+ */
+@Immutable
+final class Aggregation implements Consumer<AccessLogLine> {
+
+	/**
+	 * @param overallStats The overall statistics, that are read.
+	 * @param overallStatsListener Feeds the overall statistics.
+	 * @param overallStatsSizer Estimates the bytes of the overall statistics.
+	 * @param overallSkippedLineCounter Counts the lines whose section is skipped by the overall statistics.
+	 * @param buckets The time buckets.
+	 */
+	Aggregation(
+			Statistic overallStats,
+			Consumer<AccessLogLine> overallStatsListener,
+			LongSupplier overallStatsSizer,
+			LongSupplier overallSkippedLineCounter,
+			StatisticTimeBucketsFactory.StatisticTimeBuckets buckets) {
+		this.overallStats = Objects.requireNonNull(overallStats);
+		this.overallStatsListener = Objects.requireNonNull(overallStatsListener);
+		this.overallStatsSizer = Objects.requireNonNull(overallStatsSizer);
+		this.overallSkippedLineCounter = Objects.requireNonNull(overallSkippedLineCounter);
+		this.buckets = Objects.requireNonNull(buckets);
+	}
+
+	private final Statistic overallStats;
+	private final Consumer<AccessLogLine> overallStatsListener;
+	private final LongSupplier overallStatsSizer;
+	private final LongSupplier overallSkippedLineCounter;
+	private final StatisticTimeBucketsFactory.StatisticTimeBuckets buckets;
+
+	Statistic getOverallStats() {
+		return overallStats;
+	}
+
+	StatisticTimeBucketsFactory.StatisticTimeBuckets getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return The estimated heap bytes of the overall statistics and of the buckets.
+	 */
+	long getEstimatedBytes() {
+		return overallStatsSizer.getAsLong() + buckets.getEstimatedBytes();
+	}
+
+	/**
+	 * @return The count of lines whose section is skipped because of the section count limit.
+	 */
+	long getSkippedLineCount() {
+		return overallSkippedLineCounter.getAsLong();
+	}
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		overallStatsListener.accept(accessLogLine);
+		buckets.accept(accessLogLine);
+	}
+}
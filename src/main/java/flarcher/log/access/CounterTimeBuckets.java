@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Time buckets of numeric counters (called columns) held in a ring, with a Fenwick tree (binary indexed tree) per
+ * column so that the sum over any range of buckets costs {@code O(log n)} instead of walking every bucket like
+ * {@link TimeBuckets#reduceLatest(long, Duration)} does.
+ *
+ * The ring holds a fixed count of buckets. When the time advances, the ring slots of buckets that are too old get
+ * reused for the new ones, so that the memory usage does not depend on the load.
+ *
+ * Is thread-safe so that {@link #accept(TimeBound)} can be called from a single thread, and the other methods from
+ * others. Since there is a single writer, the values and the trees are updated with ordered writes
+ * ({@link AtomicLongArray#lazySet(int, long)}) instead of atomic additions, while readers use volatile reads. Sums are
+ * weakly consistent: they can miss an update that is done concurrently.
+ *
+ * Listeners can be notified when buckets are closed in event time (see {@link #addBucketCloseListener(LongConsumer)}).
+ *
+ * @param <T> Any type holding time-bound metrics implementing {@link TimeBound}.
+ */
+@ThreadSafe
+public class CounterTimeBuckets<T extends TimeBound> implements Consumer<T> {
+
+	private static final long NO_KEY = Long.MIN_VALUE;
+
+	/**
+	 * @param columns        Extracts the increment of each column from an entry.
+	 * @param bucketDuration The duration of a single bucket.
+	 * @param retention      The greatest duration that can be summed.
+	 */
+	public CounterTimeBuckets(
+			List<? extends ToLongFunction<? super T>> columns,
+			Duration bucketDuration,
+			Duration retention) {
+
+		this.columns = new ArrayList<>(columns);
+		this.bucketDurationMillis = bucketDuration.toMillis();
+		if (bucketDurationMillis <= 0 ) {
+			throw new IllegalArgumentException("Non-positive bucket duration");
+		}
+		// The ring size is a power of two so that the slot of a key is a simple mask
+		long minimumSize = (retention.toMillis() / bucketDurationMillis) + 2;
+		if (minimumSize > (1 << 30)) {
+			throw new IllegalArgumentException("Too long retention " + retention);
+		}
+		this.ringSize = Integer.highestOneBit((int) minimumSize - 1) << 1;
+		this.ringMask = ringSize - 1;
+		this.slotKeys = new AtomicLongArray(ringSize);
+		for (int i = 0; i < ringSize; i++) {
+			slotKeys.set(i, NO_KEY);
+		}
+		this.values = new AtomicLongArray[this.columns.size()];
+		this.trees = new AtomicLongArray[this.columns.size()];
+		for (int c = 0; c < values.length; c++) {
+			values[c] = new AtomicLongArray(ringSize);
+			trees[c] = new AtomicLongArray(ringSize + 1); // Fenwick trees are 1-based
+		}
+	}
+
+	private final List<ToLongFunction<? super T>> columns;
+	private final long bucketDurationMillis;
+	private final int ringSize;
+	private final int ringMask;
+
+	/**
+	 * The key (timestamp divided by {@link #bucketDurationMillis}) held by each slot of the ring.
+	 */
+	private final AtomicLongArray slotKeys;
+
+	/**
+	 * Raw values by column and by slot (needed for removing a bucket from a tree).
+	 */
+	private final AtomicLongArray[] values;
+
+	/**
+	 * Fenwick trees by column.
+	 */
+	private final AtomicLongArray[] trees;
+
+	/**
+	 * The greatest key ever accepted. All slots hold keys in {@code ]latestKey - ringSize, latestKey]}.
+	 */
+	private volatile long latestKey = NO_KEY;
+
+	@Nullable
+	private LongConsumer bucketCloseListener = null;
+
+	/**
+	 * Makes the listener notified of each closed bucket, that is when an entry of a newer bucket comes (the entries
+	 * being expected in chronological order). It is called from the writer's thread, before the newer entry is
+	 * counted, so that the sums up to the closed bucket are complete. After a gap, the empty buckets in between are
+	 * closed too (up to the ring size). Listeners are called in the order they are added. Is not thread safe, and
+	 * should be called before feeding the buckets.
+	 * @param listener Is given the end instant (excluded) of the closed bucket in millis.
+	 */
+	public void addBucketCloseListener(LongConsumer listener) {
+		Objects.requireNonNull(listener);
+		this.bucketCloseListener = bucketCloseListener == null ? listener : bucketCloseListener.andThen(listener);
+	}
+
+	public Duration getBucketDuration() {
+		return Duration.ofMillis(bucketDurationMillis);
+	}
+
+	public int getColumnCount() {
+		return columns.size();
+	}
+
+	public int getBucketCount() {
+		return ringSize;
+	}
+
+	/**
+	 * @return The estimated bytes of the ring: the keys, the values and the index of each column.
+	 */
+	public long getEstimatedBytes() {
+		return (long) Long.BYTES * ringSize * (1 + 2 * columns.size()) + Long.BYTES * columns.size();
+	}
+
+	/**
+	 * Adds to an element of an array that only the writer's thread updates.
+	 */
+	private static void increment(AtomicLongArray array, int index, long delta) {
+		array.lazySet(index, array.get(index) + delta);
+	}
+
+	private void treeAdd(AtomicLongArray tree, int slot, long delta) {
+		for (int i = slot + 1; i <= ringSize; i += i & (-i)) {
+			increment(tree, i, delta);
+		}
+	}
+
+	/**
+	 * @return The sum of slots from 0 to the given one (included).
+	 */
+	private long treePrefixSum(AtomicLongArray tree, int slot) {
+		long sum = 0;
+		for (int i = slot + 1; i > 0; i -= i & (-i)) {
+			sum += tree.get(i);
+		}
+		return sum;
+	}
+
+	private void evict(int slot) {
+		for (int c = 0; c < values.length; c++) {
+			long value = values[c].get(slot);
+			if (value != 0) {
+				values[c].lazySet(slot, 0);
+				treeAdd(trees[c], slot, -value);
+			}
+		}
+	}
+
+	/**
+	 * Reuses the slots between the previous latest key and the new one, since they hold keys that are too old.
+	 */
+	private void advance(long key) {
+		long previousKey = latestKey;
+		long fromKey = previousKey == NO_KEY ? key : Math.max(previousKey + 1, key - ringMask);
+		for (long k = fromKey; k <= key; k++) {
+			int slot = (int) (k & ringMask);
+			if (slotKeys.get(slot) != NO_KEY) {
+				evict(slot);
+			}
+			slotKeys.set(slot, k);
+		}
+		latestKey = key;
+	}
+
+	@Override
+	public void accept(T t) {
+		long key = t.getTimeInMillis() / bucketDurationMillis;
+		if (key > latestKey) {
+			if (bucketCloseListener != null && latestKey != NO_KEY) {
+				for (long closedKey = latestKey; closedKey < key && closedKey < latestKey + ringSize; closedKey++) {
+					bucketCloseListener.accept((closedKey + 1) * bucketDurationMillis);
+				}
+			}
+			advance(key);
+		}
+		else if (key <= latestKey - ringSize) {
+			return; // Too late for being kept
+		}
+		int slot = (int) (key & ringMask);
+		for (int c = 0; c < values.length; c++) {
+			long increment = columns.get(c).applyAsLong(t);
+			if (increment != 0) {
+				increment(values[c], slot, increment);
+				treeAdd(trees[c], slot, increment);
+			}
+		}
+	}
+
+	/**
+	 * @return The longest time frame that can be summed.
+	 */
+	public Duration getRetention() {
+		return Duration.ofMillis(bucketDurationMillis * ringMask);
+	}
+
+	/**
+	 * @return Whether the buckets from the given instant are still retained, so that a sum since this instant is
+	 * complete. Is weakly consistent, like the sums.
+	 */
+	public boolean isRetainedSince(long sinceMillis) {
+		long latest = latestKey;
+		return latest == NO_KEY || sinceMillis / bucketDurationMillis > latest - ringSize;
+	}
+
+	/**
+	 * Sums a column over the buckets between two instants (both included), in {@code O(log n)}.
+	 * The buckets whose slots have already been reused are not considered (see {@link #isRetainedSince(long)}).
+	 * @param column The column index.
+	 * @param sinceMillis Start instant of the time frame.
+	 * @param untilMillis End instant of the time frame.
+	 * @return The sum of the column values.
+	 * @throws IllegalArgumentException If the time frame is longer than the retention (see {@link #getRetention()}).
+	 */
+	public long sum(int column, long sinceMillis, long untilMillis) {
+		if (untilMillis / bucketDurationMillis - sinceMillis / bucketDurationMillis > ringMask) {
+			throw new IllegalArgumentException("The time frame is longer than the retention of " + getRetention());
+		}
+		long latest = latestKey;
+		if (latest == NO_KEY) {
+			return 0;
+		}
+		long sinceKey = Math.max(sinceMillis / bucketDurationMillis, latest - ringMask);
+		long untilKey = Math.min(untilMillis / bucketDurationMillis, latest);
+		if (sinceKey > untilKey) {
+			return 0;
+		}
+		AtomicLongArray tree = trees[column];
+		int sinceSlot = (int) (sinceKey & ringMask);
+		int untilSlot = (int) (untilKey & ringMask);
+		long sinceExcluded = sinceSlot == 0 ? 0 : treePrefixSum(tree, sinceSlot - 1);
+		if (sinceSlot <= untilSlot) {
+			return treePrefixSum(tree, untilSlot) - sinceExcluded;
+		}
+		else { // The range wraps around the ring
+			return treePrefixSum(tree, ringMask) - sinceExcluded + treePrefixSum(tree, untilSlot);
+		}
+	}
+
+	/**
+	 * Same time frame definition as {@link TimeBuckets#reduceLatest(long, Duration)}.
+	 * @param column The column index.
+	 * @param untilMillis End instant of the time frame.
+	 * @param duration Duration of the time frame.
+	 * @return The sum of the column values over the time frame.
+	 */
+	public long sumLatest(int column, long untilMillis, Duration duration) {
+		return sum(column, untilMillis - duration.toMillis(), untilMillis);
+	}
+}
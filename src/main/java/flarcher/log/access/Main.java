@@ -6,7 +6,11 @@ package flarcher.log.access;
 
 import flarcher.log.access.alert.AlertConfig;
 import flarcher.log.access.alert.AlertEvent;
+import flarcher.log.access.alert.AlertRules;
 import flarcher.log.access.alert.AlertState;
+import flarcher.log.access.alert.BurnRateAlerting;
+import flarcher.log.access.alert.EventTimeAlerting;
+import flarcher.log.access.alert.SectionAlerting;
 import flarcher.log.access.config.Argument;
 import flarcher.log.access.config.Configuration;
 import flarcher.log.access.display.AlertPrinter;
@@ -15,6 +19,7 @@ import flarcher.log.access.display.Printer;
 import flarcher.log.access.read.AccessLogLine;
 import flarcher.log.access.read.AccessLogParser;
 import flarcher.log.access.read.AccessLogReadTask;
+import flarcher.log.access.read.PathNormalizer;
 import flarcher.log.access.stat.*;
 
 import java.io.IOException;
@@ -25,8 +30,12 @@ import java.time.Duration;
 import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
@@ -68,12 +77,16 @@ public class Main {
 		Duration latestStatsDuration = checkDuration(configuration, Argument.STATISTICS_LATEST_DURATION, mainIdle);
 		Duration displayRefreshDuration = checkDuration(configuration, Argument.DISPLAY_PERIOD_DURATION, mainIdle);
 		Duration alertingDuration = checkDuration(configuration, Argument.ALERTING_DURATION, mainIdle);
+		List<Duration> rollupDurations = parseRollupDurations(configuration, mainIdle);
 
 		//--- Statistics specific configuration
 
 		int topSectionCount = Integer.parseInt(configuration.getArgument(Argument.TOP_SECTION_COUNT));
 		int maxSectionCountRatio = Integer.parseInt(configuration.getArgument(Argument.MAX_SECTION_COUNT_RATIO));
 		int maxSectionCount = topSectionCount * maxSectionCountRatio;
+		StatisticTimeBucketsFactory.Store bucketStore = StatisticTimeBucketsFactory.Store.valueOf(
+				configuration.getArgument(Argument.BUCKET_STORE).toUpperCase());
+		Duration freezeDelay = DurationConverter.fromString(configuration.getArgument(Argument.FREEZE_DELAY));
 
 		//--- Initializing the reader and its listeners
 
@@ -81,17 +94,172 @@ public class Main {
 		Comparator<Statistic.ScopedStatistic> statsComparator = ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT;
 		// A listener that supplies the latest entry (needed for the clock definition of watching tasks)
 		LatestConsumer<AccessLogLine> latestLogLineConsumer = new LatestConsumer<>();
-		// Simple single-step aggregation for overall metrics (no consideration about any "duration" of last entries).
-		StatisticAggregator overallStats = new StatisticAggregator(statsComparator, maxSectionCount);
-		// More complex 2-step aggregation for getting metrics in some "duration of last entries"
-		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = StatisticTimeBucketsFactory.create(statsComparator, mainIdle, maxSectionCount);
+		List<Dimension> dimensions = GroupByKeys.parseDimensions(configuration.getArgument(Argument.GROUP_BY));
+		boolean isGroupedBySection = dimensions.equals(Collections.singletonList(Dimension.SECTION));
+		String pathDepth = configuration.getArgument(Argument.PATH_DEPTH);
+		if (!pathDepth.isEmpty() && !isGroupedBySection) {
+			System.err.println("The argument " + Argument.PATH_DEPTH.name() + " requires to group by section only");
+			System.exit(1);
+			return;
+		}
+		String pathTopDepth = configuration.getArgument(Argument.PATH_TOP_DEPTH);
+		if (!pathTopDepth.isEmpty()
+				&& (pathDepth.isEmpty() || Integer.parseInt(pathTopDepth) > Integer.parseInt(pathDepth))) {
+			System.err.println("The argument " + Argument.PATH_TOP_DEPTH.name() + " requires a greater or equal "
+					+ Argument.PATH_DEPTH.name());
+			System.exit(1);
+			return;
+		}
+		String shardCountValue = configuration.getArgument(Argument.SHARD_COUNT);
+		if (!shardCountValue.isEmpty() && (!isGroupedBySection || !pathDepth.isEmpty())) {
+			System.err.println("The argument " + Argument.SHARD_COUNT.name() + " requires to group by section only");
+			System.exit(1);
+			return;
+		}
+		String combinedLineCount = configuration.getArgument(Argument.COMBINED_LINE_COUNT);
+		if (!combinedLineCount.isEmpty() && (!isGroupedBySection || !pathDepth.isEmpty())) {
+			System.err.println("The argument " + Argument.COMBINED_LINE_COUNT.name() + " requires to group by section only");
+			System.exit(1);
+			return;
+		}
+		boolean evictSections = Boolean.parseBoolean(configuration.getArgument(Argument.EVICT_SECTIONS));
+		Supplier<Aggregation> aggregationFactory;
+		if (!pathDepth.isEmpty()) {
+			// Aggregations by path prefixes, whose identifiers are shared
+			aggregationFactory = () -> {
+				PathTrie pathTrie = new PathTrie(Integer.parseInt(pathDepth), maxSectionCount);
+				ColumnarStatistic pathStats = new ColumnarStatistic(pathTrie, statsComparator);
+				return new Aggregation(pathStats, pathStats, pathStats::estimateBytes, pathStats::getSkippedLineCount,
+						StatisticTimeBucketsFactory.create(statsComparator, mainIdle, rollupDurations, pathTrie));
+			};
+		}
+		else if (isGroupedBySection) {
+			aggregationFactory = () -> {
+				// Simple single-step aggregation for overall metrics (no consideration about any "duration" of last entries).
+				// Only one thread (the reader or a shard worker) updates it, so that it does not need atomic operations.
+				SingleWriterStatisticAggregator sectionStats = new SingleWriterStatisticAggregator(statsComparator, maxSectionCount);
+				// The sections that were hot long ago do not hide the current ones
+				sectionStats.setEvicting(evictSections);
+				// More complex 2-step aggregation for getting metrics in some "duration of last entries"
+				// The lines can be combined by section before updating the shared buckets
+				StatisticTimeBucketsFactory.StatisticTimeBuckets sectionBuckets = StatisticTimeBucketsFactory.create(
+						statsComparator, mainIdle, rollupDurations, maxSectionCount, bucketStore, freezeDelay,
+						combinedLineCount.isEmpty() ? 0 : Integer.parseInt(combinedLineCount));
+				return new Aggregation(sectionStats, sectionStats, sectionStats::estimateBytes,
+						sectionStats::getSkippedLineCount, sectionBuckets);
+			};
+		}
+		else {
+			aggregationFactory = () -> {
+				// Same aggregations, grouped by composite keys whose dimension values are shared
+				GroupByKeys keys = new GroupByKeys(dimensions, maxSectionCount);
+				CubeStatistic cubeStats = new CubeStatistic(keys, statsComparator, maxSectionCount);
+				return new Aggregation(cubeStats, cubeStats, cubeStats::estimateBytes, cubeStats::getSkippedLineCount,
+						StatisticTimeBucketsFactory.createGroupBy(statsComparator, mainIdle, rollupDurations, keys,
+							maxSectionCount));
+			};
+		}
+		Statistic overallStats;
+		Consumer<AccessLogLine> aggregationListener;
+		StatisticTimeBucketsFactory.ReducibleTimeBuckets buckets;
+		LongSupplier aggregationSizer;
+		LongSupplier skippedLineCounter;
+		Runnable onReaderWait;
+		if (shardCountValue.isEmpty()) {
+			Aggregation aggregation = aggregationFactory.get();
+			overallStats = aggregation.getOverallStats();
+			aggregationListener = aggregation;
+			buckets = aggregation.getBuckets();
+			aggregationSizer = aggregation::getEstimatedBytes;
+			skippedLineCounter = aggregation::getSkippedLineCount;
+			shardedAggregation = null;
+			onReaderWait = aggregation.getBuckets()::flush;
+		}
+		else {
+			// Sections partitioned among aggregating threads, the reader only routing the lines
+			shardedAggregation = new ShardedAggregation(Integer.parseInt(shardCountValue), aggregationFactory, statsComparator,
+					mainIdle);
+			overallStats = shardedAggregation.getOverallStats();
+			aggregationListener = shardedAggregation;
+			buckets = shardedAggregation.getBuckets();
+			aggregationSizer = shardedAggregation::getEstimatedBytes;
+			skippedLineCounter = shardedAggregation::getSkippedLineCount;
+			onReaderWait = shardedAggregation::flush;
+		}
+		String parallelReduceThreshold = configuration.getArgument(Argument.PARALLEL_REDUCE_THRESHOLD);
+		if (!parallelReduceThreshold.isEmpty()) {
+			buckets.setParallelReduce(ForkJoinPool.commonPool(), Integer.parseInt(parallelReduceThreshold));
+		}
+		// Overall counters with an index that makes possible to sum over any time range cheaply
+		Duration longestWatcherDuration = Stream.of(latestStatsDuration, alertingDuration).max(Comparator.naturalOrder()).get();
+		String counterRetentionValue = configuration.getArgument(Argument.COUNTER_RETENTION);
+		Duration counterRetention = counterRetentionValue.isEmpty() ? longestWatcherDuration
+				: DurationConverter.fromString(counterRetentionValue);
+		if (counterRetention.compareTo(longestWatcherDuration) < 0) {
+			System.err.println("The counter retention must not be shorter than "
+					+ DurationConverter.toString(longestWatcherDuration));
+			System.exit(1);
+			return;
+		}
+		CounterTimeBuckets<AccessLogLine> counters = CounterColumn.createTimeBuckets(mainIdle, counterRetention);
+		// Moving averages of request rates, that need no reduction
+		EwmaRates rates = new EwmaRates(maxSectionCount);
+		// The parser, whose paths are normalized (if enabled) before any aggregation
+		Function<String, AccessLogLine> parser = new AccessLogParser(configuration.getArgument(Argument.DATE_TIME_FORMAT));
+		PathNormalizer pathNormalizer = null;
+		if (Boolean.parseBoolean(configuration.getArgument(Argument.NORMALIZE_PATHS))) {
+			pathNormalizer = new PathNormalizer(
+					PathNormalizer.parsePatterns(configuration.getArgument(Argument.PATH_PATTERNS)),
+					PathNormalizer.DEFAULT_CACHE_SIZE, PathNormalizer.DEFAULT_MAX_TEMPLATE_COUNT);
+			parser = parser.andThen(pathNormalizer);
+		}
+		// Notifies the console and the alerts file (they are initialized before the reader is started)
+		Consumer<AlertEvent<?>> alertListener = alert -> {
+				if (enableConsole) {
+					console.onAlert(alert);
+				}
+				alertEventPrinter.accept(alert);
+				onAlert.accept(alert);
+			};
+		// Per-section alerts, evaluated when a bucket is closed, whatever the count of known sections
+		List<Consumer<AccessLogLine>> readerListeners = new ArrayList<>(
+				Arrays.asList(aggregationListener, counters, rates, latestLogLineConsumer));
+		String alertSectionThreshold = configuration.getArgument(Argument.ALERT_SECTION_THRESHOLD);
+		if (!alertSectionThreshold.isEmpty()) {
+			// Fed after the counters, that close its buckets
+			SectionAlerting sectionAlerting = new SectionAlerting(Long.parseLong(alertSectionThreshold),
+					"High section traffic", alertListener::accept, alertingDuration, counters.getBucketDuration(),
+					Integer.parseInt(configuration.getArgument(Argument.ALERT_SECTION_MAX_COUNT)));
+			counters.addBucketCloseListener(sectionAlerting);
+			readerListeners.add(sectionAlerting);
+		}
+		String alertErrorBudget = configuration.getArgument(Argument.ALERT_ERROR_BUDGET);
+		if (!alertErrorBudget.isEmpty()) {
+			// Multi-window burn-rate alerts, fed after the counters, that close their slots
+			double errorBudget = Double.parseDouble(alertErrorBudget) / 100D;
+			for (BurnRateAlerting burnRateAlerting : Arrays.asList(
+					new BurnRateAlerting(errorBudget, 14.4D, Arrays.asList(Duration.ofHours(1), Duration.ofMinutes(5)),
+							counters.getBucketDuration(), "Fast error budget burn", alertListener::accept),
+					new BurnRateAlerting(errorBudget, 6D, Arrays.asList(Duration.ofHours(6), Duration.ofMinutes(30)),
+							counters.getBucketDuration(), "Slow error budget burn", alertListener::accept))) {
+				counters.addBucketCloseListener(burnRateAlerting);
+				readerListeners.add(burnRateAlerting);
+			}
+		}
 		// The reading runnable task
 		reader = new AccessLogReadTask(
-				Arrays.asList(overallStats, buckets, latestLogLineConsumer), // Listeners
-				new AccessLogParser(configuration.getArgument(Argument.DATE_TIME_FORMAT)), // Parser
+				readerListeners, // Listeners
+				parser, // Parser
 				Paths.get(configuration.getArgument(Argument.ACCESS_LOG_FILE_LOCATION)), // File location
-				() -> {},
+				onReaderWait,
 				DurationConverter.fromString(configuration.getArgument(Argument.READ_IDLE_DURATION)).toMillis());
+		String parserWorkerCount = configuration.getArgument(Argument.PARSER_WORKER_COUNT);
+		if (!parserWorkerCount.isEmpty()) {
+			// Parsing by batches in other threads, the reader still handing the lines over in the file order
+			int workerCount = Integer.parseInt(parserWorkerCount);
+			parserPool = createParserPool(workerCount);
+			reader.setParallelParsing(parserPool, 2 * workerCount);
+		}
 
 		//--- Initializing display
 		ZoneId timeZone = ZoneId.of(configuration.getArgument(Argument.TIME_ZONE));
@@ -105,25 +273,58 @@ public class Main {
 			return;
 		}
 		console = enableConsole ? new Console(printer) : null;
+		if (enableConsole) {
+			console.setRates(rates, topSectionCount);
+			if (!pathTopDepth.isEmpty()) {
+				// The path prefixes of other depths are still aggregated (and can be listed by another run)
+				console.setSectionFilter(PathTrie.atDepth(Integer.parseInt(pathTopDepth)));
+			}
+		}
 
 		//--- Alerting specific configuration
 
 		// We basically read the configuration in order to define alerting rules
 		int alertReqPerSecThreshold = Integer.parseInt(
 				configuration.getArgument(Argument.ALERT_LOAD_THRESHOLD));
-		Consumer<AlertEvent<Integer>> alertListener = alert -> {
-				if (enableConsole) {
-					console.onAlert(alert);
-				}
-				alertEventPrinter.accept(alert);
-				onAlert.accept(alert);
-			};
 		AlertConfig<Integer> throughputAlertConfig = new AlertConfig<>(
 				(stats, duration) -> (int) (stats.overall().requestCount() / duration.getSeconds()),
 				throughput -> throughput  >= alertReqPerSecThreshold,
 				"High traffic",
-				alertListener);
-		// Note: we could create many alert states with various configuration / thresholds / durations ...
+				alertListener::accept);
+		List<AlertState<?>> alertStates = new ArrayList<>();
+		// The alerts on overall scalar values are evaluated from the counters, whatever the count of sections
+		List<AlertState<?>> counterAlertStates = new ArrayList<>();
+		List<AlertState<?>> rateAlertStates = new ArrayList<>();
+		String alertLoadAverage = configuration.getArgument(Argument.ALERT_LOAD_AVERAGE);
+		if (alertLoadAverage.isEmpty()) {
+			counterAlertStates.add(new AlertState<>(throughputAlertConfig, alertingDuration));
+		}
+		else {
+			// Same extractor, on the request count of the moving average over its window
+			rateAlertStates.add(new AlertState<>(throughputAlertConfig, DurationConverter.fromString(alertLoadAverage)));
+		}
+		String alertErrorThreshold = configuration.getArgument(Argument.ALERT_ERROR_THRESHOLD);
+		if (!alertErrorThreshold.isEmpty()) {
+			int alertErrorPercentThreshold = Integer.parseInt(alertErrorThreshold);
+			AlertConfig<Integer> errorAlertConfig = new AlertConfig<>(
+					(stats, duration) -> (int) (stats.overall().statusCounts().getServerErrorRatio() * 100),
+					errorPercent -> errorPercent >= alertErrorPercentThreshold,
+					"High server error rate (%)",
+					alertListener::accept);
+			counterAlertStates.add(new AlertState<>(errorAlertConfig, alertingDuration));
+		}
+		String alertRulesFile = configuration.getArgument(Argument.ALERT_RULES_FILE);
+		AlertRules alertRules = null;
+		if (!alertRulesFile.isEmpty()) {
+			// Many alerts with various metrics / thresholds / durations
+			try {
+				alertRules = AlertRules.read(alertRulesFile, alertListener::accept);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+				return;
+			}
+		}
 
 		//--- Initializing watching task
 
@@ -146,17 +347,43 @@ public class Main {
 		watcherTask.setOverallStats(overallContext);
 		watcherTask.setLatestStats(Collections.singletonList(StatisticContext.createTimeRangeContext(
 				latestStatsDuration, topSectionCount, statsComparator, statsListener)));
-		watcherTask.setAlertStates(Collections.singletonList(new AlertState<>(throughputAlertConfig, alertingDuration)));
+		watcherTask.setAlertStates(alertStates);
+		if (alertRules != null) {
+			watcherTask.setAlertRules(alertRules);
+		}
+		watcherTask.setRateAlertStates(rates, rateAlertStates);
+		if (Boolean.parseBoolean(configuration.getArgument(Argument.ALERT_EVENT_TIME))) {
+			// Evaluated by the thread of the counters, at each bucket boundary
+			counters.addBucketCloseListener(new EventTimeAlerting(counters, counterAlertStates));
+		}
+		else {
+			watcherTask.setCounterAlertStates(counters, counterAlertStates);
+		}
+		String memoryBudgetValue = configuration.getArgument(Argument.MEMORY_BUDGET);
+		MemoryBudget memoryBudget = null;
+		if (!memoryBudgetValue.isEmpty()) {
+			// The buckets are coarsened sooner when the footprint gets close to the budget, and the oldest ones are
+			// removed when it is exceeded
+			memoryBudget = new MemoryBudget(Long.parseLong(memoryBudgetValue) * 1024L * 1024L,
+					() -> aggregationSizer.getAsLong() + StatisticTimeBucketsFactory.getOffHeapBytes()
+							+ counters.getEstimatedBytes() + rates.getEstimatedBytes(),
+					level -> buckets.setAgeDivisor(level.getAgeDivisor()),
+					buckets::removeOldestBuckets);
+			watcherTask.setMemoryBudget(memoryBudget);
+		}
 
 		//--- JMX
 		if (enableConsole) {
-			Monitoring.register(buckets,
+			Monitoring.register(overallStats, skippedLineCounter, buckets, counters, pathNormalizer, reader, memoryBudget,
 					overallContext::getDuration,
-					Stream.of(latestStatsDuration, alertingDuration).max(Comparator.naturalOrder()).get());
+					longestWatcherDuration);
 		}
 
 		//--- Starting the engine...
-		executorService = createExecutorService(enableConsole ? 3 : 2);
+		List<Runnable> shardWorkers = shardedAggregation == null
+				? Collections.emptyList()
+				: shardedAggregation.getWorkers();
+		executorService = createExecutorService((enableConsole ? 3 : 2) + shardWorkers.size());
 		if (enableConsole) {
 			console.init(displayRefreshDuration, () -> {
 				reader.requestStop();
@@ -170,6 +397,8 @@ public class Main {
 			if (enableConsole) {
 				executorService.scheduleWithFixedDelay(console::readInput, 200, 100, TimeUnit.MILLISECONDS);
 			}
+			// Shard workers (running until the reader stops)
+			shardWorkers.forEach(executorService::submit);
 			// Reader (always running until the end of the program)
 			executorService.submit(reader).get(); // Does not return until any interrupt request
 		}
@@ -186,6 +415,8 @@ public class Main {
 			reader.requestStop();
 		}
 		finally {
+			Optional.ofNullable(shardedAggregation).ifPresent(ShardedAggregation::requestStop);
+			Optional.ofNullable(parserPool).ifPresent(Main::awaitTermination);
 			alertEventPrinter.close();
 			awaitTermination(executorService);
 			Optional.ofNullable(console).ifPresent(Console::destroy);
@@ -193,6 +424,8 @@ public class Main {
 	}
 
 	private AccessLogReadTask reader;
+	private ShardedAggregation shardedAggregation;
+	private ExecutorService parserPool;
 	private AlertPrinter alertEventPrinter;
 	private Console console;
 	private ScheduledExecutorService executorService;
@@ -205,6 +438,12 @@ public class Main {
 		if (reader != null) {
 			reader.requestStop();
 		}
+		if (shardedAggregation != null) {
+			shardedAggregation.requestStop();
+		}
+		if (parserPool != null) {
+			awaitTermination(parserPool);
+		}
 		if (console != null) {
 			console.destroy();
 		}
@@ -228,6 +467,26 @@ public class Main {
 		return configuredDuration;
 	}
 
+	private static List<Duration> parseRollupDurations(Configuration configuration, Duration minimumDuration) {
+		List<Duration> durations = new ArrayList<>();
+		Duration previous = minimumDuration;
+		for (String durationStr : configuration.getArgument(Argument.ROLLUP_DURATIONS).split(",")) {
+			if (durationStr.trim().isEmpty()) {
+				continue;
+			}
+			Duration duration = DurationConverter.fromString(durationStr);
+			if (duration.compareTo(previous) <= 0 || duration.toMillis() % previous.toMillis() != 0) {
+				System.err.println("The roll-up duration " + DurationConverter.toString(duration)
+					+ " must be a greater multiple of " + DurationConverter.toString(previous));
+				System.exit(1);
+				return null; // Never executed
+			}
+			durations.add(duration);
+			previous = duration;
+		}
+		return durations;
+	}
+
 	private static void handleThrowable(Throwable t) {
 		t.printStackTrace(System.err); // TODO: use some logging?
 	}
@@ -246,6 +505,16 @@ public class Main {
 			});
 	}
 
+	private static ExecutorService createParserPool(int workerCount) {
+		AtomicInteger workerIndex = new AtomicInteger(0);
+		return Executors.newFixedThreadPool(workerCount,
+			runnable -> {
+				Thread t = new Thread(runnable, "Parser-" + workerIndex.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+	}
+
 	private static void awaitTermination(ExecutorService executorService) {
 		if (!executorService.isTerminated()) {
 			try {
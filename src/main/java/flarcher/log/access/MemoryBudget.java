@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the memory of the aggregations within a budget, from their estimated footprint (like
+ * {@link flarcher.log.access.stat.StatisticTimeBucketsFactory.ReducibleTimeBuckets#getEstimatedBytes()}, plus the
+ * overall statistics, the counters and the rates).
+ *
+ * When the footprint gets close to the budget, the listener is notified of a degraded {@link Level}, so that the buckets
+ * are coarsened sooner (the precision of the time frame edges being lowered instead of failing), which frees memory only
+ * when there are roll-up tiers. When the budget is exceeded, the shedder is asked to free the memory above the
+ * {@link #PRESSURE_RATIO} of the budget (like by removing the oldest buckets), so that the budget holds in any case.
+ * The section count limit by statistics still applies.
+ *
+ * Is checked from the watcher's thread, so that the ingest path does not pay for the estimation.
+ */
+@ThreadSafe
+public final class MemoryBudget {
+
+	/**
+	 * The budget usage level, with the divisor of the ages of roll-up and freezing of the buckets.
+	 */
+	public enum Level {
+
+		/**
+		 * The usual ages.
+		 */
+		NORMAL(1),
+
+		/**
+		 * The footprint is above {@link #PRESSURE_RATIO} of the budget: the buckets are coarsened sooner.
+		 */
+		PRESSURE(10),
+
+		/**
+		 * The footprint is above the budget: the buckets are coarsened as soon as possible.
+		 */
+		EXCEEDED(TimeBuckets.ROLLUP_AGE_FACTOR),
+		;
+
+		Level(int ageDivisor) {
+			this.ageDivisor = ageDivisor;
+		}
+
+		private final int ageDivisor;
+
+		public int getAgeDivisor() {
+			return ageDivisor;
+		}
+	}
+
+	static final double PRESSURE_RATIO = 0.8D;
+
+	/**
+	 * A level is left only when the footprint gets lower than its threshold by this ratio of the budget, so that the
+	 * level does not flap when the coarsening frees some memory.
+	 */
+	static final double HYSTERESIS_RATIO = 0.1D;
+
+	/**
+	 * @param limitBytes The budget in bytes.
+	 * @param estimator Estimates the footprint in bytes.
+	 * @param onLevelChange Is notified of a new level (from the checking thread).
+	 * @param shedder Is given the bytes to free when the budget is exceeded (from the checking thread).
+	 */
+	public MemoryBudget(long limitBytes, LongSupplier estimator, Consumer<Level> onLevelChange, LongConsumer shedder) {
+		if (limitBytes <= 0) {
+			throw new IllegalArgumentException("The memory budget must be strictly positive");
+		}
+		this.limitBytes = limitBytes;
+		this.estimator = Objects.requireNonNull(estimator);
+		this.onLevelChange = Objects.requireNonNull(onLevelChange);
+		this.shedder = Objects.requireNonNull(shedder);
+	}
+
+	private final long limitBytes;
+	private final LongSupplier estimator;
+	private final Consumer<Level> onLevelChange;
+	private final LongConsumer shedder;
+
+	private volatile long estimatedBytes = 0L;
+	private volatile Level level = Level.NORMAL;
+
+	public long getLimitBytes() {
+		return limitBytes;
+	}
+
+	/**
+	 * @return The footprint estimated by the latest check.
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Estimates the footprint, sheds memory if the budget is exceeded, and notifies the listener if the level changes.
+	 * Should be called from a single thread.
+	 */
+	public void check() {
+		long bytes = estimator.getAsLong();
+		if (bytes >= limitBytes) {
+			// Down to the pressure level, so that the shedding does not happen at each check
+			shedder.accept(bytes - (long) (PRESSURE_RATIO * limitBytes));
+			bytes = estimator.getAsLong();
+		}
+		estimatedBytes = bytes;
+		Level current = level;
+		Level next = levelOf((double) bytes / limitBytes, current);
+		if (next != current) {
+			level = next;
+			onLevelChange.accept(next);
+		}
+	}
+
+	private static Level levelOf(double ratio, Level current) {
+		if (ratio >= 1D || (current == Level.EXCEEDED && ratio >= 1D - HYSTERESIS_RATIO)) {
+			return Level.EXCEEDED;
+		}
+		if (ratio >= PRESSURE_RATIO || (current != Level.NORMAL && ratio >= PRESSURE_RATIO - HYSTERESIS_RATIO)) {
+			return Level.PRESSURE;
+		}
+		return Level.NORMAL;
+	}
+}
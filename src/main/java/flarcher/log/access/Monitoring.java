@@ -5,13 +5,20 @@
 
 package flarcher.log.access;
 
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.read.AccessLogReadTask;
+import flarcher.log.access.read.PathNormalizer;
+import flarcher.log.access.stat.CounterColumn;
 import flarcher.log.access.stat.Statistic;
 import flarcher.log.access.stat.StatisticTimeBucketsFactory;
 
+import javax.annotation.Nullable;
 import javax.management.MXBean;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 
 /**
@@ -20,13 +27,20 @@ import java.util.function.Supplier;
 public final class Monitoring {
 
 	public static void register(
-			StatisticTimeBucketsFactory.StatisticTimeBuckets buckets,
+			Statistic overallStats,
+			LongSupplier skippedLineCounter,
+			StatisticTimeBucketsFactory.ReducibleTimeBuckets buckets,
+			CounterTimeBuckets<AccessLogLine> counters,
+			@Nullable PathNormalizer pathNormalizer,
+			AccessLogReadTask reader,
+			@Nullable MemoryBudget memoryBudget,
 			Supplier<Duration> readTime,
 			Duration maxDuration) {
 
 		try {
 			ManagementFactory.getPlatformMBeanServer().registerMBean(
-					new MetricsGetterIml(buckets, readTime, maxDuration),
+					new MetricsGetterIml(overallStats, skippedLineCounter, buckets, counters, pathNormalizer, reader, memoryBudget,
+						readTime, maxDuration),
 					new ObjectName("name.larcher.fabrice.logncat.metrics:type=metrics"));
 		}
 		catch (Exception e) {
@@ -38,13 +52,31 @@ public final class Monitoring {
 
 	private static class MetricsGetterIml implements MetricsGetter {
 
-		private MetricsGetterIml(StatisticTimeBucketsFactory.StatisticTimeBuckets buckets, Supplier<Duration> readTime, Duration maxDuration) {
+		private MetricsGetterIml(Statistic overallStats, LongSupplier skippedLineCounter,
+				StatisticTimeBucketsFactory.ReducibleTimeBuckets buckets,
+				CounterTimeBuckets<AccessLogLine> counters, @Nullable PathNormalizer pathNormalizer,
+				AccessLogReadTask reader, @Nullable MemoryBudget memoryBudget, Supplier<Duration> readTime,
+				Duration maxDuration) {
+			this.overallStats = overallStats;
+			this.skippedLineCounter = skippedLineCounter;
 			this.buckets = buckets;
+			this.counters = counters;
+			this.pathNormalizer = pathNormalizer;
+			this.reader = reader;
+			this.memoryBudget = memoryBudget;
 			this.readTime = readTime;
 			this.maxDuration = maxDuration;
 		}
 
-		private final StatisticTimeBucketsFactory.StatisticTimeBuckets buckets;
+		private final Statistic overallStats;
+		private final LongSupplier skippedLineCounter;
+		private final StatisticTimeBucketsFactory.ReducibleTimeBuckets buckets;
+		private final CounterTimeBuckets<AccessLogLine> counters;
+		@Nullable
+		private final PathNormalizer pathNormalizer;
+		private final AccessLogReadTask reader;
+		@Nullable
+		private final MemoryBudget memoryBudget;
 		private final Supplier<Duration> readTime;
 		private final Duration maxDuration;
 
@@ -53,6 +85,11 @@ public final class Monitoring {
 			return StatisticTimeBucketsFactory.MAX_SECTION_COUNT_EVER.get();
 		}
 
+		@Override
+		public long getSkippedSectionLineCount() {
+			return skippedLineCounter.getAsLong();
+		}
+
 		@Override
 		public String getReadDuration() {
 			return DurationConverter.toString(readTime.get());
@@ -68,6 +105,100 @@ public final class Monitoring {
 			return buckets.getBucketCount();
 		}
 
+		@Override
+		public long getOverallWeightP50() {
+			return overallStats.overall().weightHistogram().getValueAtPercentile(50D);
+		}
+
+		@Override
+		public long getOverallWeightP90() {
+			return overallStats.overall().weightHistogram().getValueAtPercentile(90D);
+		}
+
+		@Override
+		public long getOverallWeightP99() {
+			return overallStats.overall().weightHistogram().getValueAtPercentile(99D);
+		}
+
+		@Override
+		public int getOverallWeightMax() {
+			return overallStats.overall().weightHistogram().getMax();
+		}
+
+		@Override
+		public double getPathCacheHitRatio() {
+			return pathNormalizer != null ? pathNormalizer.getCacheHitRatio() : 0D;
+		}
+
+		@Override
+		public int getPathTemplateCount() {
+			return pathNormalizer != null ? pathNormalizer.getTemplateCount() : 0;
+		}
+
+		@Override
+		public long getOffHeapBytes() {
+			return StatisticTimeBucketsFactory.getOffHeapBytes();
+		}
+
+		@Override
+		public long getEstimatedBytes() {
+			return memoryBudget != null
+				? memoryBudget.getEstimatedBytes()
+				: buckets.getEstimatedBytes() + StatisticTimeBucketsFactory.getOffHeapBytes();
+		}
+
+		@Override
+		public long getMemoryBudgetBytes() {
+			return memoryBudget != null ? memoryBudget.getLimitBytes() : 0L;
+		}
+
+		@Override
+		public String getMemoryBudgetLevel() {
+			return memoryBudget != null ? memoryBudget.getLevel().name() : MemoryBudget.Level.NORMAL.name();
+		}
+
+		@Override
+		public long getReadLineCount() {
+			return reader.getLineCount(AccessLogReadTask.Stage.READ);
+		}
+
+		@Override
+		public double getReadThroughput() {
+			return reader.getThroughput(AccessLogReadTask.Stage.READ);
+		}
+
+		@Override
+		public double getParseThroughput() {
+			return reader.getThroughput(AccessLogReadTask.Stage.PARSE);
+		}
+
+		@Override
+		public double getDispatchThroughput() {
+			return reader.getThroughput(AccessLogReadTask.Stage.DISPATCH);
+		}
+
+		@Override
+		public long countRequestsBetween(String since, String until) {
+			return sumBetween(CounterColumn.REQUEST_COUNT, since, until);
+		}
+
+		@Override
+		public long countBytesBetween(String since, String until) {
+			return sumBetween(CounterColumn.WEIGHT, since, until);
+		}
+
+		/**
+		 * @throws IllegalArgumentException If the counters do not retain the whole time range.
+		 */
+		private long sumBetween(CounterColumn column, String since, String until) {
+			long sinceMillis = Instant.parse(since).toEpochMilli();
+			if (!counters.isRetainedSince(sinceMillis)) {
+				throw new IllegalArgumentException("The counters are not retained since " + since
+						+ " (see the counter retention option)");
+			}
+			return column.sum(counters, sinceMillis, Instant.parse(until).toEpochMilli());
+		}
+
 	}
 
 	@MXBean
@@ -78,6 +209,12 @@ public final class Monitoring {
 		 */
 		int getMaxSectionCount();
 
+		/**
+		 * @return The count of lines whose section is not held by the overall statistics because of the section count
+		 * limit, summed over the shards (the overall totals still count them).
+		 */
+		long getSkippedSectionLineCount();
+
 		/**
 		 * @return The overall run time in milliseconds.
 		 */
@@ -92,5 +229,95 @@ public final class Monitoring {
 		 * @return The current count of buckets in {@link TimeBuckets}.
 		 */
 		int getBucketCount();
+
+		/**
+		 * @return The median response size in bytes since the start (upper bound).
+		 */
+		long getOverallWeightP50();
+
+		/**
+		 * @return The 90th percentile of response sizes in bytes since the start (upper bound).
+		 */
+		long getOverallWeightP90();
+
+		/**
+		 * @return The 99th percentile of response sizes in bytes since the start (upper bound).
+		 */
+		long getOverallWeightP99();
+
+		/**
+		 * @return The greatest response size in bytes since the start.
+		 */
+		int getOverallWeightMax();
+
+		/**
+		 * @return The ratio of paths whose template is found in the cache of the path normalizer (zero if the paths are
+		 * not normalized).
+		 */
+		double getPathCacheHitRatio();
+
+		/**
+		 * @return The count of distinct normalized paths (zero if the paths are not normalized).
+		 */
+		int getPathTemplateCount();
+
+		/**
+		 * @return The bytes allocated off-heap by the time buckets (zero unless the store is off-heap).
+		 */
+		long getOffHeapBytes();
+
+		/**
+		 * @return The estimated memory of the time buckets in bytes, off-heap ones included (as of the latest check
+		 * when there is a memory budget).
+		 */
+		long getEstimatedBytes();
+
+		/**
+		 * @return The memory budget in bytes (zero if none).
+		 */
+		long getMemoryBudgetBytes();
+
+		/**
+		 * @return The level of the memory budget usage (see {@link MemoryBudget.Level}).
+		 */
+		String getMemoryBudgetLevel();
+
+		/**
+		 * @return The count of lines read from the access log file.
+		 */
+		long getReadLineCount();
+
+		/**
+		 * @return The count of lines read by second spent reading.
+		 */
+		double getReadThroughput();
+
+		/**
+		 * @return The count of lines parsed by second spent parsing (by parser worker if any).
+		 */
+		double getParseThroughput();
+
+		/**
+		 * @return The count of parsed lines handed over to the aggregations by second spent in the listeners.
+		 */
+		double getDispatchThroughput();
+
+		/**
+		 * @param since ISO-8601 instant like {@literal 2018-05-09T14:02:00Z}.
+		 * @param until ISO-8601 instant.
+		 * @return The request count between both instants.
+		 * @throws IllegalArgumentException If the counters do not retain the whole time range (see the counter
+		 * retention option).
+		 */
+		long countRequestsBetween(String since, String until);
+
+		/**
+		 * @param since ISO-8601 instant like {@literal 2018-05-09T14:02:00Z}.
+		 * @param until ISO-8601 instant.
+		 * @return The byte count between both instants.
+		 * @throws IllegalArgumentException If the counters do not retain the whole time range (see the counter
+		 * retention option).
+		 */
+		long countBytesBetween(String since, String until);
 	}
 }
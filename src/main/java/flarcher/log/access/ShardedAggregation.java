@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access;
+
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.ConcatenatedStatistic;
+import flarcher.log.access.stat.Statistic;
+import flarcher.log.access.stat.StatisticTimeBucketsFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Partitions the aggregation of lines by section among several {@link Aggregation}s (shards), each one being fed by
+ * its own worker thread, so that the aggregation is not bound to the reader's thread.
+ * The reader hashes the section of each line and hands the lines over to the workers by batches. The partial batches
+ * are handed over at each bucket boundary (in the time of the lines) and whenever the reader waits for new lines, so
+ * that the lines of a shard with few lines are not held for longer.
+ *
+ * A failure of a worker is thrown to the reader by its next hand over, so that the reader does not wait for a shard
+ * that will never consume its lines.
+ *
+ * Since the shards have disjoint sections, the statistics of the shards are concatenated instead of being merged
+ * (see {@link ConcatenatedStatistic}).
+ */
+@ThreadSafe
+final class ShardedAggregation implements Consumer<AccessLogLine> {
+
+	static final int BATCH_SIZE = 256;
+	private static final int QUEUE_CAPACITY = 64; // Batches by shard
+	private static final long POLL_TIMEOUT_MILLIS = 100L;
+
+	/**
+	 * @param shardCount The count of shards (and of workers).
+	 * @param shardFactory Creates the aggregation of a shard.
+	 * @param comparator The comparator of sections.
+	 * @param bucketDuration The duration of the finest buckets of the shards.
+	 */
+	ShardedAggregation(int shardCount, Supplier<Aggregation> shardFactory, Comparator<Statistic.ScopedStatistic> comparator,
+			Duration bucketDuration) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("The shard count must be strictly positive");
+		}
+		this.comparator = Objects.requireNonNull(comparator);
+		this.bucketDurationMillis = bucketDuration.toMillis();
+		this.shards = new ArrayList<>(shardCount);
+		List<Statistic> shardOverallStats = new ArrayList<>(shardCount);
+		for (int i = 0; i < shardCount; i++) {
+			Shard shard = new Shard(i, shardFactory.get());
+			shards.add(shard);
+			shardOverallStats.add(shard.aggregation.getOverallStats());
+		}
+		this.overallStats = new ConcatenatedStatistic(comparator, shardOverallStats);
+	}
+
+	private final Comparator<Statistic.ScopedStatistic> comparator;
+	private final long bucketDurationMillis;
+	private final List<Shard> shards;
+
+	/**
+	 * The time of the next line that makes the partial batches to be handed over (is used by the reader only).
+	 */
+	private long nextHandOverMillis = Long.MIN_VALUE;
+	private final Statistic overallStats;
+	private final AtomicBoolean running = new AtomicBoolean(true);
+
+	private final class Shard implements Runnable {
+
+		private Shard(int index, Aggregation aggregation) {
+			this.index = index;
+			this.aggregation = aggregation;
+		}
+
+		private final int index;
+		private final Aggregation aggregation;
+		private final BlockingQueue<AccessLogLine[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+		/**
+		 * The failure that stopped the worker, if any.
+		 */
+		@Nullable
+		private volatile Throwable failure = null;
+
+		/**
+		 * Lines of the next batch (written by the reader only).
+		 */
+		private AccessLogLine[] batch = new AccessLogLine[BATCH_SIZE];
+		private int batchSize = 0;
+
+		private void add(AccessLogLine accessLogLine) {
+			batch[batchSize++] = accessLogLine;
+			if (batchSize == BATCH_SIZE) {
+				handOver(batch);
+				batch = new AccessLogLine[BATCH_SIZE];
+				batchSize = 0;
+			}
+		}
+
+		private void flush() {
+			if (batchSize > 0) {
+				handOver(Arrays.copyOf(batch, batchSize));
+				batchSize = 0;
+			}
+		}
+
+		private void handOver(AccessLogLine[] lines) {
+			try {
+				checkWorker();
+				// Blocks the reader if the shard is late, as long as its worker runs
+				while (!queue.offer(lines, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					checkWorker();
+				}
+			}
+			catch (InterruptedException e) {
+				// The lines would be lost
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while handing lines over to the shard " + index, e);
+			}
+		}
+
+		/**
+		 * @throws IllegalStateException If the worker has failed.
+		 */
+		private void checkWorker() {
+			Throwable workerFailure = failure;
+			if (workerFailure != null) {
+				throw new IllegalStateException("The worker of the shard " + index + " has failed", workerFailure);
+			}
+		}
+
+		@Override
+		public void run() {
+			Thread.currentThread().setName("Shard-" + index);
+			try {
+				while (running.get() || !queue.isEmpty()) {
+					AccessLogLine[] lines = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+					if (lines != null) {
+						for (AccessLogLine line : lines) {
+							aggregation.accept(line);
+						}
+					}
+					// The combined lines are flushed at bucket changes, or after a bucket duration for a quiet shard
+					aggregation.getBuckets().flushDelayed(System.nanoTime());
+				}
+				aggregation.getBuckets().flush();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (RuntimeException | Error e) {
+				// Is thrown to the reader, since nobody reads the result of the worker
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * @return The tasks feeding the shards, to be run until {@link #requestStop()}.
+	 */
+	List<Runnable> getWorkers() {
+		return Collections.unmodifiableList(shards);
+	}
+
+	/**
+	 * Should be called from the reader's thread.
+	 */
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		long timeInMillis = accessLogLine.getTimeInMillis();
+		if (timeInMillis >= nextHandOverMillis) {
+			flush();
+			nextHandOverMillis = (timeInMillis / bucketDurationMillis + 1) * bucketDurationMillis;
+		}
+		int hash = accessLogLine.getSection().hashCode();
+		shards.get(Math.floorMod(hash ^ (hash >>> 16), shards.size())).add(accessLogLine);
+	}
+
+	/**
+	 * Hands the pending lines over to the workers (like when the reader waits for new lines).
+	 * Should be called from the reader's thread.
+	 */
+	void flush() {
+		shards.forEach(Shard::flush);
+	}
+
+	/**
+	 * Stops the workers once they have consumed the handed over lines.
+	 */
+	void requestStop() {
+		running.set(false);
+	}
+
+	Statistic getOverallStats() {
+		return overallStats;
+	}
+
+	/**
+	 * @return Time buckets whose reductions concatenate the reductions of the shards.
+	 */
+	StatisticTimeBucketsFactory.ReducibleTimeBuckets getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return The estimated heap bytes of the aggregations of the shards.
+	 */
+	long getEstimatedBytes() {
+		return shards.stream().mapToLong(shard -> shard.aggregation.getEstimatedBytes()).sum();
+	}
+
+	/**
+	 * @return The count of lines whose section is skipped by the overall statistics of the shards.
+	 */
+	long getSkippedLineCount() {
+		return shards.stream().mapToLong(shard -> shard.aggregation.getSkippedLineCount()).sum();
+	}
+
+	private final class ShardAccumulators implements StatisticTimeBucketsFactory.Accumulators {
+
+		private ShardAccumulators(int count) {
+			this.accumulatorsByShard = new ArrayList<>(shards.size());
+			shards.forEach(shard -> accumulatorsByShard.add(shard.aggregation.getBuckets().createAccumulators(count)));
+		}
+
+		private final List<StatisticTimeBucketsFactory.Accumulators> accumulatorsByShard;
+	}
+
+	private final StatisticTimeBucketsFactory.ReducibleTimeBuckets buckets = new StatisticTimeBucketsFactory.ReducibleTimeBuckets() {
+
+		@Override
+		public List<? extends Statistic> reduceLatest(long untilMillis, List<Duration> requestDurations) {
+			List<List<? extends Statistic>> reducedByShard = new ArrayList<>(shards.size());
+			shards.forEach(shard -> reducedByShard.add(
+					shard.aggregation.getBuckets().reduceLatest(untilMillis, requestDurations)));
+			return concatenate(reducedByShard, requestDurations.size());
+		}
+
+		@Override
+		public StatisticTimeBucketsFactory.Accumulators createAccumulators(int count) {
+			return new ShardAccumulators(count);
+		}
+
+		@Override
+		public List<? extends Statistic> reduceLatest(long untilMillis, List<Duration> requestDurations,
+				StatisticTimeBucketsFactory.Accumulators accumulators) {
+
+			if (!(accumulators instanceof ShardAccumulators)) {
+				throw new IllegalArgumentException("Accumulators created by other buckets");
+			}
+			List<StatisticTimeBucketsFactory.Accumulators> accumulatorsByShard =
+					((ShardAccumulators) accumulators).accumulatorsByShard;
+			List<List<? extends Statistic>> reducedByShard = new ArrayList<>(shards.size());
+			for (int i = 0; i < shards.size(); i++) {
+				reducedByShard.add(shards.get(i).aggregation.getBuckets()
+						.reduceLatest(untilMillis, requestDurations, accumulatorsByShard.get(i)));
+			}
+			return concatenate(reducedByShard, requestDurations.size());
+		}
+
+		private List<Statistic> concatenate(List<List<? extends Statistic>> reducedByShard, int durationCount) {
+			List<Statistic> concatenated = new ArrayList<>(durationCount);
+			for (int i = 0; i < durationCount; i++) {
+				List<Statistic> parts = new ArrayList<>(reducedByShard.size());
+				for (List<? extends Statistic> reduced : reducedByShard) {
+					parts.add(reduced.get(i));
+				}
+				concatenated.add(new ConcatenatedStatistic(comparator, parts));
+			}
+			return concatenated;
+		}
+
+		@Override
+		public int getBucketCount() {
+			return shards.stream().mapToInt(shard -> shard.aggregation.getBuckets().getBucketCount()).sum();
+		}
+
+		@Override
+		public void setParallelReduce(ForkJoinPool pool, int minBucketCount) {
+			shards.forEach(shard -> shard.aggregation.getBuckets().setParallelReduce(pool, minBucketCount));
+		}
+
+		@Override
+		public long getEstimatedBytes() {
+			return shards.stream().mapToLong(shard -> shard.aggregation.getBuckets().getEstimatedBytes()).sum();
+		}
+
+		/**
+		 * Removes the oldest buckets of each shard, in proportion to the estimated bytes of its buckets.
+		 */
+		@Override
+		public long removeOldestBuckets(long bytes) {
+			long totalBytes = getEstimatedBytes();
+			long removedBytes = 0L;
+			if (totalBytes > 0L) {
+				for (Shard shard : shards) {
+					StatisticTimeBucketsFactory.StatisticTimeBuckets shardBuckets = shard.aggregation.getBuckets();
+					double share = (double) shardBuckets.getEstimatedBytes() / totalBytes;
+					removedBytes += shardBuckets.removeOldestBuckets((long) Math.ceil(bytes * share));
+				}
+			}
+			return removedBytes;
+		}
+
+		@Override
+		public void setAgeDivisor(int divisor) {
+			shards.forEach(shard -> shard.aggregation.getBuckets().setAgeDivisor(divisor));
+		}
+	};
+}
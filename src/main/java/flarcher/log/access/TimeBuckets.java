@@ -7,13 +7,19 @@ package flarcher.log.access;
 
 import flarcher.log.access.stat.Statistic;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -24,6 +30,15 @@ import java.util.stream.IntStream;
  *
  * Is thread-safe so that {@link #accept(TimeBound)} can be called from one thread, and the other methods from another.
  *
+ * Buckets can optionally be rolled up into coarser tiers as they age, so that long durations are reduced from a
+ * bounded count of buckets: the latest entries are kept in fine buckets, while older ones are merged into buckets of
+ * the next tier once they are older than {@link #ROLLUP_AGE_FACTOR} times its bucket duration.
+ * The precision of a time frame edge is then the bucket duration of the tier that holds it. The roll-up is done by
+ * the writer's thread when a newer bucket is opened, so that no entry is written into a bucket while it is merged.
+ *
+ * Buckets can optionally be frozen once closed (see {@link #setFreezer(UnaryOperator, Duration)}), so that the
+ * retained buckets use a compact representation.
+ *
  * @param <T> Any type holding time-bound metrics implementing {@link TimeBound}.
  * @param <A> An aggregate of {@code <T>} over a short period of time called {@literal a time bucket}. It can be
  *           {@link Statistic} for example.
@@ -36,44 +51,119 @@ public class TimeBuckets<
 		implements Consumer<T> {
 
 	/**
-	 * @param reducer        Same idiom as for {@link java.util.stream.Stream#reduce(Object, BinaryOperator)}. The
-	 *                       reducer should not care about time precedence between buckets metrics.
-	 * @param factory        Creates a metric instance {@code i} so that: {@code reducer.apply(i, i).equals(i)}.
-	 * @param bucketDuration The duration of a single bucket.
+	 * A bucket of a tier is rolled up into the next tier when it is older than this count of the next tier buckets.
+	 */
+	static final int ROLLUP_AGE_FACTOR = 60;
+
+	/**
+	 * @param reducer         Same idiom as for {@link java.util.stream.Stream#reduce(Object, BinaryOperator)}. The
+	 *                        reducer should not care about time precedence between buckets metrics.
+	 * @param factory         Creates a metric instance {@code i} so that: {@code reducer.apply(i, i).equals(i)}.
+	 * @param merger          Aggregates the second metric into the first one (used for roll-ups only, so that it is
+	 *                        never called without roll-up durations).
+	 * @param bucketDuration  The duration of a single bucket of the finest tier.
+	 * @param rollupDurations The bucket durations of the coarser tiers, sorted from the shortest to the greatest.
+	 *                        Each one must be a multiple of the previous one.
 	 */
 	public TimeBuckets(
 			Supplier<A> factory,
 			BinaryOperator<A> reducer,
-			Duration bucketDuration) {
+			BiConsumer<A, A> merger,
+			Duration bucketDuration,
+			List<Duration> rollupDurations) {
 
 		this.metricReducer = Objects.requireNonNull(reducer);
 		this.metricFactory = Objects.requireNonNull(factory);
-		this.bucketDurationMillis = bucketDuration.toMillis();
-		if (bucketDurationMillis <= 0 ) {
-			throw new IllegalArgumentException("Non-positive bucket duration");
+		this.metricMerger = Objects.requireNonNull(merger);
+
+		List<Duration> tierDurations = new ArrayList<>(rollupDurations.size() + 1);
+		tierDurations.add(bucketDuration);
+		tierDurations.addAll(rollupDurations);
+		this.tiers = new ArrayList<>(tierDurations.size());
+		for (int i = 0; i < tierDurations.size(); i++) {
+			long durationMillis = tierDurations.get(i).toMillis();
+			if (durationMillis <= 0 ) {
+				throw new IllegalArgumentException("Non-positive bucket duration");
+			}
+			if (i > 0 && durationMillis % tiers.get(i - 1).bucketDurationMillis != 0) {
+				throw new IllegalArgumentException("The bucket duration " + tierDurations.get(i) +
+					" is not a multiple of " + tierDurations.get(i - 1));
+			}
+			tiers.add(new Tier(durationMillis));
 		}
-		// We use reversed chronological order because new entries are young
-		this.buckets = new ConcurrentSkipListMap<>(
-			Comparator.<Long> naturalOrder().reversed());
+		this.bucketDurationMillis = tiers.get(0).bucketDurationMillis;
+		this.buckets = tiers.get(0).buckets;
 	}
 
 	private final Supplier<A> metricFactory;
 	private final BinaryOperator<A> metricReducer;
+	private final BiConsumer<A, A> metricMerger;
+
+	/**
+	 * Buckets of a given duration.
+	 */
+	private class Tier {
+
+		private Tier(long bucketDurationMillis) {
+			this.bucketDurationMillis = bucketDurationMillis;
+			// We use reversed chronological order because new entries are young
+			this.buckets = new ConcurrentSkipListMap<>(
+				Comparator.<Long> naturalOrder().reversed());
+		}
+
+		private final long bucketDurationMillis;
+
+		/**
+		 * Contains aggregates by timestamps divided by {@link #bucketDurationMillis}.
+		 */
+		private final ConcurrentSkipListMap<Long, A> buckets;
+	}
+
+	/**
+	 * Tiers from the finest to the coarsest. Only the first one is fed by {@link #accept(TimeBound)}.
+	 */
+	private final List<Tier> tiers;
 
 	private final long bucketDurationMillis;
 
 	/**
-	 * Contains aggregates by timestamps divided by {@link #bucketDurationMillis}.
+	 * The buckets of the finest tier.
 	 */
 	private final ConcurrentSkipListMap<Long, A> buckets;
 
+	/**
+	 * The estimated bytes of a map entry of a bucket (excluding its aggregate).
+	 */
+	private static final long ENTRY_BYTES = 64L;
+
+	/**
+	 * @param sizer Estimates the bytes of an aggregate.
+	 * @return The estimated bytes of the buckets of all tiers.
+	 */
+	public long estimateBytes(ToLongFunction<? super A> sizer) {
+		long bytes = 0L;
+		for (Tier tier : tiers) {
+			for (A aggregate : tier.buckets.values()) {
+				bytes += ENTRY_BYTES + sizer.applyAsLong(aggregate);
+			}
+		}
+		return bytes;
+	}
+
 	public int getBucketCount() {
-		return buckets.size();
+		int count = 0;
+		for (Tier tier : tiers) {
+			count += tier.buckets.size();
+		}
+		return count;
 	}
 
 	@Override
 	public final void accept(T t) {
 		long key = t.getTimeInMillis() / bucketDurationMillis;
+		if (key > latestKey) {
+			open(key);
+		}
 		buckets.compute(key, (k, v) -> {
 			if (v == null) {
 				v = metricFactory.get();
@@ -83,6 +173,47 @@ public class TimeBuckets<
 		});
 	}
 
+	/**
+	 * Updates the bucket of the given time at once (like with entries that are pre-aggregated by the caller).
+	 * Must be called from the same thread as {@link #accept(TimeBound)}.
+	 * @param timeInMillis A time of the bucket.
+	 * @param updater Updates the aggregate of the bucket.
+	 */
+	public final void update(long timeInMillis, Consumer<? super A> updater) {
+		long key = timeInMillis / bucketDurationMillis;
+		if (key > latestKey) {
+			open(key);
+		}
+		buckets.compute(key, (k, v) -> {
+			if (v == null) {
+				v = metricFactory.get();
+			}
+			updater.accept(v);
+			return v;
+		});
+	}
+
+	/**
+	 * Rolls up and freezes the older buckets, before a newer bucket is written (from the writer's thread).
+	 * @param key The new greatest key.
+	 */
+	private void open(long key) {
+		latestKey = key;
+		if (tiers.size() > 1) {
+			rollUp(key * bucketDurationMillis);
+		}
+		if (freezer != null) {
+			freezeBefore(key);
+		}
+	}
+
+	/**
+	 * @return The key of the bucket of the finest tier for the given time.
+	 */
+	public final long getBucketKey(long timeInMillis) {
+		return timeInMillis / bucketDurationMillis;
+	}
+
 	private void cleanAggregate(A aggregate) {
 		try {
 			aggregate.close();
@@ -96,16 +227,101 @@ public class TimeBuckets<
 	 * @param duration Duration of the time range.
 	 */
 	public final void cleanUpOldest(long untilMillis, Duration duration) {
-		long keyLimit = (untilMillis - duration.toMillis()) / bucketDurationMillis;
-		Iterator<Map.Entry<Long, A>> reversedIterator = buckets.descendingMap().entrySet().iterator();
-		while (reversedIterator.hasNext()) {
-			Map.Entry<Long, A> entry = reversedIterator.next();
-			if (entry.getKey() < keyLimit) {
-				cleanAggregate(entry.getValue());
+		for (Tier tier : tiers) {
+			long keyLimit = (untilMillis - duration.toMillis()) / tier.bucketDurationMillis;
+			Iterator<Map.Entry<Long, A>> reversedIterator = tier.buckets.descendingMap().entrySet().iterator();
+			while (reversedIterator.hasNext()) {
+				Map.Entry<Long, A> entry = reversedIterator.next();
+				if (entry.getKey() < keyLimit) {
+					cleanAggregate(entry.getValue());
+					reversedIterator.remove();
+				}
+				else {
+					break; // Because it is sorted
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest buckets, from the coarsest tier to the finest, until their estimated bytes reach the given
+	 * ones (like when the memory is short). The latest bucket of the finest tier is kept, since it is being written.
+	 * @param bytes The bytes to free.
+	 * @param sizer Estimates the bytes of an aggregate.
+	 * @return The estimated bytes of the removed buckets.
+	 */
+	public final long removeOldest(long bytes, ToLongFunction<? super A> sizer) {
+		long removedBytes = 0L;
+		for (int i = tiers.size() - 1; i >= 0 && removedBytes < bytes; i--) {
+			ConcurrentSkipListMap<Long, A> tierBuckets = tiers.get(i).buckets;
+			Iterator<Map.Entry<Long, A>> reversedIterator = tierBuckets.descendingMap().entrySet().iterator();
+			while (reversedIterator.hasNext() && removedBytes < bytes) {
+				Map.Entry<Long, A> entry = reversedIterator.next();
+				if (i == 0 && !reversedIterator.hasNext()) {
+					break; // The latest bucket
+				}
+				removedBytes += ENTRY_BYTES + sizer.applyAsLong(entry.getValue());
 				reversedIterator.remove();
+				cleanAggregate(entry.getValue());
 			}
-			else {
-				break; // Because it is sorted
+		}
+		return removedBytes;
+	}
+
+	/**
+	 * The greatest key fed so far (is used by the writer's thread only).
+	 */
+	private long latestKey = Long.MIN_VALUE;
+
+	/**
+	 * The ages of roll-up and freezing are divided by this value (see {@link #setAgeDivisor(int)}).
+	 */
+	private volatile int ageDivisor = 1;
+
+	/**
+	 * Shortens the age after which the buckets are rolled up into the next tier (and frozen, if enabled), so that the
+	 * buckets take less memory at the cost of the precision of the time frame edges. Can be called from any thread.
+	 * @param divisor The ages are divided by this value, down to a single bucket of the next tier ({@code 1} restores
+	 *                the usual ages).
+	 */
+	public void setAgeDivisor(int divisor) {
+		if (divisor <= 0) {
+			throw new IllegalArgumentException("The age divisor must be strictly positive");
+		}
+		this.ageDivisor = divisor;
+	}
+
+	/**
+	 * Moves the buckets that got too old for their tier into the next tier. Is called from the writer's thread when a
+	 * newer bucket is opened: a bucket is then removed from its tier before being merged, and a late entry of its time
+	 * goes to a new bucket of the same tier, that is rolled up later.
+	 * @param untilMillis The current time in millis.
+	 */
+	final void rollUp(long untilMillis) {
+		int ageFactor = Math.max(1, ROLLUP_AGE_FACTOR / ageDivisor);
+		for (int i = 0; i < tiers.size() - 1; i++) {
+			Tier tier = tiers.get(i);
+			Tier nextTier = tiers.get(i + 1);
+			long keyLimit = (untilMillis - ageFactor * nextTier.bucketDurationMillis) / tier.bucketDurationMillis;
+			Iterator<Map.Entry<Long, A>> reversedIterator = tier.buckets.descendingMap().entrySet().iterator();
+			while (reversedIterator.hasNext()) {
+				Map.Entry<Long, A> entry = reversedIterator.next();
+				if (entry.getKey() < keyLimit) {
+					A aggregate = entry.getValue();
+					reversedIterator.remove();
+					long nextKey = (entry.getKey() * tier.bucketDurationMillis) / nextTier.bucketDurationMillis;
+					nextTier.buckets.compute(nextKey, (k, v) -> {
+						if (v == null) {
+							v = metricFactory.get();
+						}
+						metricMerger.accept(v, aggregate);
+						return v;
+					});
+					cleanAggregate(aggregate);
+				}
+				else {
+					break; // Because it is sorted
+				}
 			}
 		}
 	}
@@ -117,21 +333,23 @@ public class TimeBuckets<
 	 * @return The reduced metrics over the time frame.
 	 */
 	public final A reduceLatest(long untilMillis, Duration duration) {
-		long sinceKey = (untilMillis - duration.toMillis()) / bucketDurationMillis;
-		long untilKey = untilMillis / bucketDurationMillis;
 		A reduced = metricFactory.get();
-		Iterator<Map.Entry<Long, A>> iterator = buckets.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Map.Entry<Long, A> entry = iterator.next();
-			if (entry.getKey() > untilKey) {
-				// Too young for the time frame (the value would be used later)
-			}
-			else if (entry.getKey() >= sinceKey) {
-				reduced = metricReducer.apply(reduced, entry.getValue());
-			}
-			else {
-				// Too old; since it is sorted, we can stop there
-				break;
+		for (Tier tier : tiers) {
+			long sinceKey = (untilMillis - duration.toMillis()) / tier.bucketDurationMillis;
+			long untilKey = untilMillis / tier.bucketDurationMillis;
+			Iterator<Map.Entry<Long, A>> iterator = tier.buckets.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<Long, A> entry = iterator.next();
+				if (entry.getKey() > untilKey) {
+					// Too young for the time frame (the value would be used later)
+				}
+				else if (entry.getKey() >= sinceKey) {
+					reduced = metricReducer.apply(reduced, entry.getValue());
+				}
+				else {
+					// Too old; since it is sorted, we can stop there
+					break;
+				}
 			}
 		}
 		return reduced;
@@ -152,39 +370,207 @@ public class TimeBuckets<
 			throw new IllegalArgumentException();
 		}
 
-		long untilKey = untilMillis / bucketDurationMillis;
 		List<A> reducedValues = IntStream.range(0, durations.size())
 				.mapToObj(index -> metricFactory.get())
 				.collect(Collectors.toList());
-		Duration greatestDuration = durations.stream()
-				.max(Comparator.naturalOrder())
-				.get();
-		long oldestKey = (untilMillis - greatestDuration.toMillis()) / bucketDurationMillis;
-
-		Iterator<Map.Entry<Long, A>> iterator = buckets.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Map.Entry<Long, A> entry = iterator.next();
-			if (entry.getKey() > untilKey) {
-				// Too young for the time frame (the value would be used later)
-			}
-			else if (entry.getKey() >= oldestKey) {
-				// Iterating over durations
-				for (int i = 0; i < durations.size(); i++) {
-					Duration duration = durations.get(i);
-					A reducedValue = reducedValues.get(i);
-					if (duration == greatestDuration /* Is always considered */
-						|| entry.getKey() >= ((untilMillis - duration.toMillis()) / bucketDurationMillis)) {
-
-						reducedValues.set(i, metricReducer.apply(reducedValue, entry.getValue()));
+		return reduceLatestAndClean(untilMillis, durations, reducedValues);
+	}
+
+	/**
+	 * Does the same as {@link #reduceLatestAndClean(long, List)}, but reduces the buckets into the given initial
+	 * values instead of new ones, so that the caller can reuse them from one call to another (after a reset).
+	 *
+	 * @param untilMillis   End instant of all the time frames.
+	 * @param durations     Durations of the time frames. They must be sorted from the shortest range to the greatest.
+	 * @param reducedValues The initial values by duration, that are replaced with the reduced metrics (the reducer
+	 *                      should then update and return them).
+	 * @return The given list of reduced values.
+	 */
+	public final List<A> reduceLatestAndClean(long untilMillis, List<Duration> durations, List<A> reducedValues) {
+
+		if (durations == null || durations.isEmpty() || reducedValues.size() != durations.size()) {
+			throw new IllegalArgumentException();
+		}
+
+		Duration greatestDuration = durations.get(0);
+		for (Duration duration : durations) {
+			if (duration.compareTo(greatestDuration) > 0) {
+				greatestDuration = duration;
+			}
+		}
+
+		// The buckets by duration are collected only for a parallel reduction
+		List<List<A>> bucketsByDuration = null;
+		if (parallelReducePool != null) {
+			bucketsByDuration = new ArrayList<>(durations.size());
+			for (int i = 0; i < durations.size(); i++) {
+				bucketsByDuration.add(new ArrayList<>());
+			}
+		}
+
+		for (Tier tier : tiers) {
+			long untilKey = untilMillis / tier.bucketDurationMillis;
+			long oldestKey = (untilMillis - greatestDuration.toMillis()) / tier.bucketDurationMillis;
+
+			Iterator<Map.Entry<Long, A>> iterator = tier.buckets.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<Long, A> entry = iterator.next();
+				if (entry.getKey() > untilKey) {
+					// Too young for the time frame (the value would be used later)
+				}
+				else if (entry.getKey() >= oldestKey) {
+					// Iterating over durations
+					for (int i = 0; i < durations.size(); i++) {
+						Duration duration = durations.get(i);
+						A reducedValue = reducedValues.get(i);
+						if (duration == greatestDuration /* Is always considered */
+							|| entry.getKey() >= ((untilMillis - duration.toMillis()) / tier.bucketDurationMillis)) {
+
+							if (bucketsByDuration != null) {
+								bucketsByDuration.get(i).add(entry.getValue());
+							}
+							else {
+								reducedValues.set(i, metricReducer.apply(reducedValue, entry.getValue()));
+							}
+						}
 					}
 				}
+				else {
+					// Too old for being used by any duration -> cleaning it up
+					cleanAggregate(entry.getValue());
+					iterator.remove();
+				}
 			}
-			else {
-				// Too old for being used by any duration -> cleaning it up
-				cleanAggregate(entry.getValue());
-				iterator.remove();
+		}
+
+		if (bucketsByDuration != null) {
+			for (int i = 0; i < durations.size(); i++) {
+				reducedValues.set(i, reduce(reducedValues.get(i), bucketsByDuration.get(i)));
 			}
 		}
 		return reducedValues;
 	}
+
+	//--- Freezing
+
+	@Nullable
+	private UnaryOperator<A> freezer = null;
+	private long freezeDelayBucketCount = 0L;
+
+	/**
+	 * The buckets of lower keys are frozen already (is used by the writer's thread only).
+	 */
+	private long frozenUntilKey = Long.MIN_VALUE;
+
+	/**
+	 * Enables the freezing of the buckets of the finest tier once they are closed, that is when a line of a bucket
+	 * that is younger by the given delay comes. The freezing is done by the writer's thread, so that a bucket is not
+	 * written while it is frozen. A frozen bucket must still accept the late entries. Is not thread safe, and should
+	 * be called before feeding the buckets.
+	 * @param freezer Returns the compact copy of a bucket, or the bucket itself if it is frozen already.
+	 * @param delay The delay after which a bucket is considered as closed.
+	 */
+	public void setFreezer(UnaryOperator<A> freezer, Duration delay) {
+		if (delay.isNegative()) {
+			throw new IllegalArgumentException("Negative freeze delay");
+		}
+		this.freezer = Objects.requireNonNull(freezer);
+		this.freezeDelayBucketCount = Math.max(1L, (delay.toMillis() + bucketDurationMillis - 1) / bucketDurationMillis);
+	}
+
+	/**
+	 * Freezes the buckets that got closed since the previous call.
+	 * @param key The new greatest key.
+	 */
+	private void freezeBefore(long key) {
+		assert freezer != null;
+		long limitKey = key - Math.max(1L, freezeDelayBucketCount / ageDivisor);
+		// The map is in reversed order, so that its tail has the lower keys (from the youngest)
+		for (Long closedKey : buckets.tailMap(limitKey, false).keySet()) {
+			if (closedKey < frozenUntilKey) {
+				break; // Because it is sorted
+			}
+			buckets.computeIfPresent(closedKey, (k, v) -> freezer.apply(v));
+		}
+		frozenUntilKey = Math.max(frozenUntilKey, limitKey);
+	}
+
+	//--- Parallel reduction
+
+	/**
+	 * The least count of buckets reduced by a single task.
+	 */
+	private static final int MIN_TASK_BUCKET_COUNT = 16;
+
+	private ForkJoinPool parallelReducePool = null;
+	private int parallelReduceMinBucketCount = Integer.MAX_VALUE;
+
+	/**
+	 * Enables the parallel reduction of buckets, since the reducer is associative. Is not thread safe, and should be
+	 * called before any reduction.
+	 * @param pool The pool running the reduction tasks.
+	 * @param minBucketCount The least count of buckets of a time frame for its reduction to be parallel, so that
+	 *                       short time frames do not pay the fork/join overhead.
+	 */
+	public void setParallelReduce(ForkJoinPool pool, int minBucketCount) {
+		if (minBucketCount <= 0) {
+			throw new IllegalArgumentException("The bucket count must be strictly positive");
+		}
+		this.parallelReducePool = Objects.requireNonNull(pool);
+		this.parallelReduceMinBucketCount = minBucketCount;
+	}
+
+	private A reduce(A initialValue, List<A> aggregates) {
+		if (aggregates.isEmpty()) {
+			return initialValue;
+		}
+		if (aggregates.size() < parallelReduceMinBucketCount) {
+			A reduced = initialValue;
+			for (A aggregate : aggregates) {
+				reduced = metricReducer.apply(reduced, aggregate);
+			}
+			return reduced;
+		}
+		int taskBucketCount = Math.max(MIN_TASK_BUCKET_COUNT,
+				aggregates.size() / (4 * parallelReducePool.getParallelism()));
+		return metricReducer.apply(initialValue,
+				parallelReducePool.invoke(new ReduceTask(aggregates, 0, aggregates.size(), taskBucketCount)));
+	}
+
+	/**
+	 * Reduces a range of buckets, by splitting it in halves down to a given size. The buckets are only read, and
+	 * the partial results are created by the reducer (like any reduction).
+	 */
+	private final class ReduceTask extends RecursiveTask<A> {
+
+		private static final long serialVersionUID = 1L;
+
+		private ReduceTask(List<A> aggregates, int fromIndex, int toIndex, int taskBucketCount) {
+			this.aggregates = aggregates;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+			this.taskBucketCount = taskBucketCount;
+		}
+
+		private final List<A> aggregates;
+		private final int fromIndex;
+		private final int toIndex;
+		private final int taskBucketCount;
+
+		@Override
+		protected A compute() {
+			if (toIndex - fromIndex <= taskBucketCount) {
+				A reduced = aggregates.get(fromIndex);
+				for (int i = fromIndex + 1; i < toIndex; i++) {
+					reduced = metricReducer.apply(reduced, aggregates.get(i));
+				}
+				return reduced;
+			}
+			int middleIndex = (fromIndex + toIndex) >>> 1;
+			ReduceTask left = new ReduceTask(aggregates, fromIndex, middleIndex, taskBucketCount);
+			left.fork();
+			A right = new ReduceTask(aggregates, middleIndex, toIndex, taskBucketCount).compute();
+			return metricReducer.apply(left.join(), right);
+		}
+	}
 }
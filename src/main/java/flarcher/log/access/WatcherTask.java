@@ -5,7 +5,11 @@
 
 package flarcher.log.access;
 
+import flarcher.log.access.alert.AlertRules;
 import flarcher.log.access.alert.AlertState;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.CounterColumn;
+import flarcher.log.access.stat.EwmaRates;
 import flarcher.log.access.stat.Statistic;
 import flarcher.log.access.stat.StatisticContext;
 import flarcher.log.access.stat.StatisticTimeBucketsFactory;
@@ -25,7 +29,7 @@ class WatcherTask implements Runnable {
 
 	WatcherTask(
 			Statistic overallStats,
-			StatisticTimeBucketsFactory.StatisticTimeBuckets statsBuckets,
+			StatisticTimeBucketsFactory.ReducibleTimeBuckets statsBuckets,
 			Runnable waiting,
 			Consumer<Instant> before,
 			Consumer<Instant> after,
@@ -40,7 +44,7 @@ class WatcherTask implements Runnable {
 	}
 
 	private final Statistic overallStats;
-	private final StatisticTimeBucketsFactory.StatisticTimeBuckets timeBuckets;
+	private final StatisticTimeBucketsFactory.ReducibleTimeBuckets timeBuckets;
 	private final Runnable waiting;
 	private final Consumer<Instant> before;
 	private final Consumer<Instant> after;
@@ -54,6 +58,15 @@ class WatcherTask implements Runnable {
 	private StatisticContext overallStatsContext;
 	private Map<Duration, StatisticContext> latestStatsByDuration = Collections.emptyMap();
 	private Map<Duration, List<AlertState<?>>> alertStatesByDuration = Collections.emptyMap();
+	private AlertRules alertRules;
+
+	/** Reused by each reduction, since the reduced statistics are only read during a run */
+	private StatisticTimeBucketsFactory.Accumulators accumulators;
+	private EwmaRates rates;
+	private Map<AlertState<?>, EwmaRates.Window> rateWindowsByAlertState = Collections.emptyMap();
+	private CounterTimeBuckets<AccessLogLine> counters;
+	private List<AlertState<?>> counterAlertStates = Collections.emptyList();
+	private MemoryBudget memoryBudget;
 
 	private void addDurations(List<Duration> durations) {
 		// We use a Set, in order to avoid duplicates
@@ -61,6 +74,7 @@ class WatcherTask implements Runnable {
 		set.addAll(durations);
 		allDurations = new ArrayList<>(set);
 		allDurations.sort(Comparator.naturalOrder());
+		accumulators = null; // Their count depends on the durations
 	}
 
 	//--- Setters (not thread safe!)
@@ -87,6 +101,47 @@ class WatcherTask implements Runnable {
 				.collect(Collectors.toList()));
 	}
 
+	/**
+	 * @param alertRules Are checked with the statistics reduced over their durations (the reductions being shared
+	 *                   with the other alerts and latest statistics).
+	 */
+	void setAlertRules(AlertRules alertRules) {
+		this.alertRules = Objects.requireNonNull(alertRules);
+		addDurations(alertRules.getDurations());
+	}
+
+	/**
+	 * @param rates The moving averages used instead of reduced statistics.
+	 * @param alertStates Alert states whose durations are the ones of {@link EwmaRates.Window}s.
+	 * @throws IllegalArgumentException If a duration is not the one of a window.
+	 */
+	void setRateAlertStates(EwmaRates rates, List<AlertState<?>> alertStates) {
+		Map<AlertState<?>, EwmaRates.Window> windows = new LinkedHashMap<>();
+		for (AlertState<?> alertState : alertStates) {
+			windows.put(alertState, EwmaRates.Window.of(alertState.getDuration()).orElseThrow(
+					() -> new IllegalArgumentException("No moving average over " + alertState.getDuration())));
+		}
+		this.rates = Objects.requireNonNull(rates);
+		this.rateWindowsByAlertState = windows;
+	}
+
+	/**
+	 * @param counters The counters used instead of reduced statistics.
+	 * @param alertStates Alert states whose extractors only read the overall request count, weight or status classes
+	 *                    (see {@link CounterColumn#snapshot(CounterTimeBuckets, long, Duration)}).
+	 */
+	void setCounterAlertStates(CounterTimeBuckets<AccessLogLine> counters, List<AlertState<?>> alertStates) {
+		this.counters = Objects.requireNonNull(counters);
+		this.counterAlertStates = new ArrayList<>(alertStates);
+	}
+
+	/**
+	 * @param memoryBudget Is checked after each reduction (that cleans the oldest buckets).
+	 */
+	void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = Objects.requireNonNull(memoryBudget);
+	}
+
 	@Override
 	public void run() {
 		Thread.currentThread().setName("watcher");
@@ -101,7 +156,10 @@ class WatcherTask implements Runnable {
 			// Overall stats (does not need "latest" data)
 			overallStatsContext.notify(overallStats);
 
-			List<? extends Statistic> latestStatisticsList = timeBuckets.reduceLatest(instantMillis, allDurations);
+			if (accumulators == null) {
+				accumulators = timeBuckets.createAccumulators(allDurations.size());
+			}
+			List<? extends Statistic> latestStatisticsList = timeBuckets.reduceLatest(instantMillis, allDurations, accumulators);
 			for (int i = 0; i < allDurations.size(); i++) {
 				Duration duration = allDurations.get(i);
 				Statistic stats = latestStatisticsList.get(i);
@@ -119,7 +177,21 @@ class WatcherTask implements Runnable {
 						// Will potentially notify listeners depending on the alert states
 						alertState -> alertState.check(stats, instantMillis));
 				}
+				if (alertRules != null) {
+					alertRules.check(duration, stats, instantMillis);
+				}
 			}
+
+			// Alerting on moving averages (no reduction)
+			rateWindowsByAlertState.forEach((alertState, window) ->
+					alertState.check(rates.snapshot(window, instantMillis), instantMillis));
+
+			// Alerting on counters (no reduction)
+			counterAlertStates.forEach(alertState -> alertState.check(
+					CounterColumn.snapshot(counters, instantMillis, alertState.getDuration()), instantMillis));
+		}
+		if (memoryBudget != null) {
+			memoryBudget.check();
 		}
 		after.accept(instant);
 	}
@@ -7,6 +7,7 @@ package flarcher.log.access.alert;
 
 import flarcher.log.access.stat.Statistic;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.time.Duration;
 import java.util.Objects;
@@ -38,11 +39,28 @@ public class AlertConfig<M> {
 		this.extractor = Objects.requireNonNull(extractor);
 	}
 
+	/**
+	 * For alerts whose metric is computed from their own counts instead of statistics (it cannot be checked by an
+	 * {@link AlertState}).
+	 */
+	public AlertConfig(
+			Predicate<M> predicate,
+			String description,
+			Consumer<AlertEvent<M>> listener) {
+
+		this.predicate = Objects.requireNonNull(predicate);
+		this.description = Objects.requireNonNull(description);
+		this.listener = Objects.requireNonNull(listener);
+		this.extractor = null;
+	}
+
+	@Nullable
 	private final BiFunction<Statistic, Duration, M> extractor;
 	private final Predicate<M> predicate;
 	private final String description;
 	private final Consumer<AlertEvent<M>> listener;
 
+	@Nullable
 	public BiFunction<Statistic, Duration, M> getExtractor() {
 		return extractor;
 	}
@@ -66,7 +84,7 @@ public class AlertConfig<M> {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		AlertConfig<?> that = (AlertConfig<?>) o;
-		return extractor.equals(that.extractor) &&
+		return Objects.equals(extractor, that.extractor) &&
 				predicate.equals(that.predicate);
 	}
 
@@ -20,17 +20,25 @@ import java.util.Objects;
 @Immutable
 public class AlertEvent<M> {
 
-	AlertEvent(AlertConfig config, Duration overDuration,
+	AlertEvent(AlertConfig<?> config, Duration overDuration,
 			   M valueAtSince,
 			   Instant since, @Nullable Instant until) {
+		this(config, overDuration, valueAtSince, since, until, null);
+	}
+
+	AlertEvent(AlertConfig<?> config, Duration overDuration,
+			   M valueAtSince,
+			   Instant since, @Nullable Instant until,
+			   @Nullable String section) {
 		this.config = Objects.requireNonNull(config);
+		this.section = section; // Nullable
 		this.overDuration = Objects.requireNonNull(overDuration);
 		this.since = Objects.requireNonNull(since);
 		this.until = until; // Nullable
 		this.valueAtSince = Objects.requireNonNull(valueAtSince);
 	}
 
-	private final AlertConfig config;
+	private final AlertConfig<?> config;
 	private final Duration overDuration;
 	private final Instant since;
 	private final M valueAtSince;
@@ -38,9 +46,12 @@ public class AlertEvent<M> {
 	@Nullable
 	private final Instant until;
 
+	@Nullable
+	private final String section;
+
 	//--- Getters
 
-	public AlertConfig getConfig() {
+	public AlertConfig<?> getConfig() {
 		return config;
 	}
 
@@ -65,6 +76,14 @@ public class AlertEvent<M> {
 		return until;
 	}
 
+	/**
+	 * @return The section of a per-section alert, or {@code null} for an alert on the overall statistics.
+	 */
+	@Nullable
+	public String getSection() {
+		return section;
+	}
+
 	/**
 	 * @return The metric value when the alert was triggered first (that is at the time of {@link #getSince()}.
 	 */
@@ -81,11 +100,12 @@ public class AlertEvent<M> {
 		AlertEvent<?> that = (AlertEvent<?>) o;
 		return config.equals(that.config) &&
 				overDuration.equals(that.overDuration) &&
-				since.equals(that.since);
+				since.equals(that.since) &&
+				Objects.equals(section, that.section);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(config, overDuration, since);
+		return Objects.hash(config, overDuration, since, section);
 	}
 }
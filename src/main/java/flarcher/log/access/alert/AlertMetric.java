@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.stat.Statistic;
+import flarcher.log.access.stat.StatusCounts;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The metrics that alert rules can be based on (see {@link AlertRules}), extracted from the overall statistics over a
+ * duration.
+ */
+public enum AlertMetric {
+
+	REQUEST_COUNT {
+		@Override
+		long extract(Statistic stats, Duration duration) {
+			return stats.overall().requestCount();
+		}
+	},
+
+	/**
+	 * Requests per second.
+	 */
+	REQUEST_RATE {
+		@Override
+		long extract(Statistic stats, Duration duration) {
+			return perSecond(stats.overall().requestCount(), duration);
+		}
+	},
+
+	/**
+	 * Weight (bytes) per second.
+	 */
+	BANDWIDTH {
+		@Override
+		long extract(Statistic stats, Duration duration) {
+			return perSecond(stats.overall().weight(), duration);
+		}
+	},
+
+	AVERAGE_WEIGHT {
+		@Override
+		long extract(Statistic stats, Duration duration) {
+			long requestCount = stats.overall().requestCount();
+			return requestCount == 0 ? 0L : stats.overall().weight() / requestCount;
+		}
+	},
+
+	WEIGHT_P99 {
+		@Override
+		long extract(Statistic stats, Duration duration) {
+			return stats.overall().weightHistogram().getValueAtPercentile(99D);
+		}
+	},
+
+	CLIENT_ERROR_PERCENT {
+		@Override
+		long extract(Statistic stats, Duration duration) {
+			return classPercent(stats, 4);
+		}
+	},
+
+	SERVER_ERROR_PERCENT {
+		@Override
+		long extract(Statistic stats, Duration duration) {
+			return classPercent(stats, 5);
+		}
+	},
+	;
+
+	abstract long extract(Statistic stats, Duration duration);
+
+	/**
+	 * @return The name used by rule files (like {@code request_rate}).
+	 */
+	public String getRuleName() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+
+	static Optional<AlertMetric> ofRuleName(String ruleName) {
+		for (AlertMetric metric : values()) {
+			if (metric.getRuleName().equals(ruleName)) {
+				return Optional.of(metric);
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static long perSecond(long value, Duration duration) {
+		return value * 1000L / duration.toMillis();
+	}
+
+	/**
+	 * @return The percentage of the class among requests with a known status (like
+	 * {@link StatusCounts#getServerErrorRatio()}).
+	 */
+	private static long classPercent(Statistic stats, int statusClass) {
+		StatusCounts statusCounts = stats.overall().statusCounts();
+		long total = 0;
+		for (int c = 1; c < StatusCounts.CLASS_COUNT; c++) {
+			total += statusCounts.getClassCount(c);
+		}
+		return total == 0 ? 0L : statusCounts.getClassCount(statusClass) * 100L / total;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.DurationConverter;
+import flarcher.log.access.stat.Statistic;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Alert rules read from a file, with one rule by line:
+ * <pre>
+ * # duration metric operator threshold description
+ * 2m request_rate &gt;= 10 High traffic
+ * 5m server_error_percent &gt; 5 High server error rate (%)
+ * </pre>
+ * The metric is the rule name of an {@link AlertMetric}, and the operator one of {@code >=}, {@code >}, {@code <=} and
+ * {@code <}. Empty lines and lines starting with {@code #} are ignored.
+ *
+ * The rules are compiled into {@link AlertState}s grouped by duration, so that a single reduction is needed by
+ * distinct duration (see {@link #getDurations()}). Within a group, a metric shared by several rules is extracted once
+ * by check, the extractors of the compiled {@link AlertConfig}s only reading the extracted values.
+ *
+ * Is checked from the watcher's thread only.
+ */
+@NotThreadSafe
+public final class AlertRules {
+
+	private enum Operator {
+
+		GREATER_OR_EQUAL(">=") {
+			@Override
+			boolean test(long value, long threshold) {
+				return value >= threshold;
+			}
+		},
+		GREATER(">") {
+			@Override
+			boolean test(long value, long threshold) {
+				return value > threshold;
+			}
+		},
+		LESS_OR_EQUAL("<=") {
+			@Override
+			boolean test(long value, long threshold) {
+				return value <= threshold;
+			}
+		},
+		LESS("<") {
+			@Override
+			boolean test(long value, long threshold) {
+				return value < threshold;
+			}
+		},
+		;
+
+		Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		private final String symbol;
+
+		abstract boolean test(long value, long threshold);
+
+		private static Optional<Operator> ofSymbol(String symbol) {
+			return Arrays.stream(values()).filter(o -> o.symbol.equals(symbol)).findFirst();
+		}
+	}
+
+	/**
+	 * The rules of a duration, with the values of their metrics for the current check.
+	 */
+	private static final class Group {
+
+		private final List<AlertMetric> metrics = new ArrayList<>();
+		private final List<AlertState<Long>> states = new ArrayList<>();
+		private long[] values = new long[0];
+
+		private int indexOf(AlertMetric metric) {
+			int index = metrics.indexOf(metric);
+			if (index < 0) {
+				metrics.add(metric);
+				values = new long[metrics.size()];
+				index = metrics.size() - 1;
+			}
+			return index;
+		}
+
+		private void check(Statistic stats, Duration duration, long at) {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = metrics.get(i).extract(stats, duration);
+			}
+			for (AlertState<Long> state : states) {
+				state.check(stats, at);
+			}
+		}
+	}
+
+	/**
+	 * @param fileLocation The location of the rule file.
+	 * @param listener Is notified of the events of all the rules.
+	 * @throws IllegalArgumentException If the file can not be read, or has an invalid rule.
+	 */
+	public static AlertRules read(String fileLocation, Consumer<AlertEvent<Long>> listener) {
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileLocation), StandardCharsets.UTF_8)) {
+			List<String> lines = new ArrayList<>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+			return parse(lines, listener);
+		}
+		catch (InvalidPathException ipe) {
+			throw new IllegalArgumentException("Invalid alert rules file path " + fileLocation, ipe);
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Unable to read alert rules from file " + fileLocation, e);
+		}
+	}
+
+	/**
+	 * @param lines The lines of a rule file.
+	 * @param listener Is notified of the events of all the rules.
+	 * @throws IllegalArgumentException If a line has an invalid rule.
+	 */
+	public static AlertRules parse(List<String> lines, Consumer<AlertEvent<Long>> listener) {
+		Objects.requireNonNull(listener);
+		AlertRules rules = new AlertRules();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				rules.add(line, i + 1, listener);
+			}
+		}
+		return rules;
+	}
+
+	private AlertRules() {}
+
+	/** Sorted by duration */
+	private final SortedMap<Duration, Group> groupsByDuration = new TreeMap<>();
+	private int ruleCount = 0;
+
+	private void add(String line, int lineNumber, Consumer<AlertEvent<Long>> listener) {
+		String[] tokens = line.split("\\s+", 5);
+		if (tokens.length < 5) {
+			throw invalidRule(lineNumber, "A duration, a metric, an operator, a threshold and a description are expected");
+		}
+		Duration duration = DurationConverter.fromString(tokens[0]);
+		if (duration == null || duration.isZero() || duration.isNegative()) {
+			throw invalidRule(lineNumber, "Invalid duration '" + tokens[0] + "'");
+		}
+		AlertMetric metric = AlertMetric.ofRuleName(tokens[1]).orElseThrow(
+				() -> invalidRule(lineNumber, "Unknown metric '" + tokens[1] + "'"));
+		Operator operator = Operator.ofSymbol(tokens[2]).orElseThrow(
+				() -> invalidRule(lineNumber, "Unknown operator '" + tokens[2] + "'"));
+		long threshold;
+		try {
+			threshold = Long.parseLong(tokens[3]);
+		}
+		catch (@SuppressWarnings("unused") NumberFormatException nfe) {
+			throw invalidRule(lineNumber, "Invalid threshold '" + tokens[3] + "'");
+		}
+
+		Group group = groupsByDuration.computeIfAbsent(duration, d -> new Group());
+		int metricIndex = group.indexOf(metric);
+		AlertConfig<Long> config = new AlertConfig<>(
+				(stats, d) -> group.values[metricIndex], // Extracted by the group
+				value -> operator.test(value, threshold),
+				tokens[4],
+				listener);
+		group.states.add(new AlertState<>(config, duration));
+		ruleCount++;
+	}
+
+	private static IllegalArgumentException invalidRule(int lineNumber, String message) {
+		return new IllegalArgumentException("Invalid alert rule at line " + lineNumber + ": " + message);
+	}
+
+	public int getRuleCount() {
+		return ruleCount;
+	}
+
+	/**
+	 * @return The distinct durations of the rules.
+	 */
+	public List<Duration> getDurations() {
+		return new ArrayList<>(groupsByDuration.keySet());
+	}
+
+	/**
+	 * Checks the rules of a duration.
+	 * @param duration A duration of {@link #getDurations()} (nothing is checked otherwise).
+	 * @param stats The statistics reduced over the duration.
+	 * @param at The end instant of the duration.
+	 */
+	public void check(Duration duration, Statistic stats, long at) {
+		Group group = groupsByDuration.get(duration);
+		if (group != null) {
+			group.check(stats, duration, at);
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.util.function.BiConsumer;
 public class AlertState<M> implements BiConsumer<Statistic, Instant> {
 
 	public AlertState(AlertConfig<M> config, Duration duration) {
+		Objects.requireNonNull(config.getExtractor(), "The alert configuration has no extractor");
 		this.config = config;
 		this.duration = duration;
 	}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.StatusCounts;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Raises an alert when the error budget of the server errors is burnt too fast over several windows at once (like
+ * 14.4 times the budget over both the latest hour and the latest 5 minutes), in the way of multi-window burn-rate
+ * alerts. The long window makes the alert significant, the short one makes it released soon after a recovery.
+ *
+ * The burn rate is the ratio of {@literal 5xx} responses among requests with a known status, divided by the error
+ * budget. The windows share a ring of coarse slots (about {@value #SLOT_COUNT_BY_SHORTEST_WINDOW} by shortest window),
+ * each holding the count of requests and of server errors, so that the counters need not retain the longest window.
+ * When a slot is closed, by a bucket close of the counters (see
+ * {@link CounterTimeBuckets#addBucketCloseListener(LongConsumer)}), the running totals of each window get the counts of
+ * the closed slot minus those of the slot that leaves it, so that a check costs {@code O(1)} by window, whatever their
+ * lengths.
+ *
+ * Is fed with the lines after the counters, from their writer's thread.
+ */
+@NotThreadSafe
+public final class BurnRateAlerting implements Consumer<AccessLogLine>, LongConsumer {
+
+	/**
+	 * The count of slots over the shortest window, that defines the precision of the window edges.
+	 */
+	static final int SLOT_COUNT_BY_SHORTEST_WINDOW = 60;
+
+	private static final long NO_KEY = Long.MIN_VALUE;
+
+	/**
+	 * @param errorBudget The allowed ratio of server errors (like {@code 0.001} for a 99.9% objective).
+	 * @param burnRateThreshold The alert is raised when the burn rate is greater or equal over all the windows.
+	 * @param windows The durations of the windows.
+	 * @param bucketDuration The bucket duration of the counters, whose multiple is the slot duration.
+	 * @param description The description of the alerts.
+	 * @param listener Is notified of the events, with the burn rate over the longest window, from the counters'
+	 *                 writer thread.
+	 */
+	public BurnRateAlerting(double errorBudget, double burnRateThreshold, List<Duration> windows,
+			Duration bucketDuration, String description, Consumer<AlertEvent<Double>> listener) {
+		if (errorBudget <= 0D || errorBudget >= 1D) {
+			throw new IllegalArgumentException("The error budget must be a ratio between 0 and 1 (both excluded)");
+		}
+		if (windows.isEmpty()) {
+			throw new IllegalArgumentException("At least one window is expected");
+		}
+		List<Duration> sortedWindows = new ArrayList<>(windows);
+		sortedWindows.sort(null);
+		Duration shortestWindow = sortedWindows.get(0);
+		if (bucketDuration.isZero() || bucketDuration.isNegative() || shortestWindow.compareTo(bucketDuration) < 0) {
+			throw new IllegalArgumentException("The windows must be longer than a strictly positive bucket duration");
+		}
+		this.errorBudget = errorBudget;
+		this.config = new AlertConfig<>(
+				burnRate -> burnRate >= burnRateThreshold,
+				description,
+				listener);
+		this.longestWindow = sortedWindows.get(sortedWindows.size() - 1);
+		long bucketDurationMillis = bucketDuration.toMillis();
+		this.slotDurationMillis = bucketDurationMillis * Math.max(1L,
+				shortestWindow.toMillis() / SLOT_COUNT_BY_SHORTEST_WINDOW / bucketDurationMillis);
+		this.windowSlotCounts = new int[sortedWindows.size()];
+		for (int w = 0; w < windowSlotCounts.length; w++) {
+			windowSlotCounts[w] = (int) ((sortedWindows.get(w).toMillis() + slotDurationMillis - 1) / slotDurationMillis);
+		}
+		this.slotCount = windowSlotCounts[windowSlotCounts.length - 1];
+		this.ringRequestCounts = new long[slotCount];
+		this.ringErrorCounts = new long[slotCount];
+		this.windowRequestCounts = new long[windowSlotCounts.length];
+		this.windowErrorCounts = new long[windowSlotCounts.length];
+	}
+
+	private final double errorBudget;
+	private final AlertConfig<Double> config;
+	private final Duration longestWindow;
+	private final long slotDurationMillis;
+	private final int slotCount;
+
+	//--- By window, from the shortest to the longest
+
+	private final int[] windowSlotCounts;
+	/** Running totals over the closed slots of the window */
+	private final long[] windowRequestCounts;
+	private final long[] windowErrorCounts;
+
+	//--- By slot
+
+	/** Counts of the open slot */
+	private long currentRequestCount = 0L;
+	private long currentErrorCount = 0L;
+	/** Counts of the closed slots of the longest window */
+	private final long[] ringRequestCounts;
+	private final long[] ringErrorCounts;
+	private long lastClosedKey = NO_KEY;
+
+	//--- Alert state
+
+	private boolean isActive = false;
+	private long sinceMillis;
+	private double valueAtSince;
+
+	@Override
+	public void accept(AccessLogLine line) {
+		int statusClass = StatusCounts.classOf(line.getStatus());
+		if (statusClass != 0) {
+			currentRequestCount++;
+			if (statusClass == 5) {
+				currentErrorCount++;
+			}
+		}
+	}
+
+	/**
+	 * Closes the slots that end before the end of the closed bucket, if any, and checks the windows after each of them.
+	 * @param closedUntilMillis The end instant (excluded) of the closed bucket.
+	 */
+	@Override
+	public void accept(long closedUntilMillis) {
+		long closedKey = closedUntilMillis / slotDurationMillis - 1;
+		if (lastClosedKey == NO_KEY) {
+			lastClosedKey = closedKey - 1;
+		}
+		else if (closedKey - lastClosedKey > slotCount) {
+			// After a gap, all the slots (including the open one) have left the windows
+			Arrays.fill(ringRequestCounts, 0L);
+			Arrays.fill(ringErrorCounts, 0L);
+			Arrays.fill(windowRequestCounts, 0L);
+			Arrays.fill(windowErrorCounts, 0L);
+			currentRequestCount = 0L;
+			currentErrorCount = 0L;
+			lastClosedKey = closedKey - 1;
+		}
+		while (lastClosedKey < closedKey) {
+			close(++lastClosedKey);
+			check((lastClosedKey + 1) * slotDurationMillis);
+		}
+	}
+
+	/**
+	 * Moves the counts of the open slot to the windows, in place of the slots leaving them.
+	 */
+	private void close(long key) {
+		for (int w = 0; w < windowSlotCounts.length; w++) {
+			// Is the slot of the closed one for the longest window, that is overwritten below
+			int expiredSlot = (int) Math.floorMod(key - windowSlotCounts[w], (long) slotCount);
+			windowRequestCounts[w] += currentRequestCount - ringRequestCounts[expiredSlot];
+			windowErrorCounts[w] += currentErrorCount - ringErrorCounts[expiredSlot];
+		}
+		int slot = (int) Math.floorMod(key, (long) slotCount);
+		ringRequestCounts[slot] = currentRequestCount;
+		ringErrorCounts[slot] = currentErrorCount;
+		currentRequestCount = 0L;
+		currentErrorCount = 0L;
+	}
+
+	private void check(long endMillis) {
+		boolean eval = true;
+		double burnRate = 0D;
+		// The longest window is evaluated last, so that its burn rate is the one of the event
+		for (int w = 0; w < windowSlotCounts.length && eval; w++) {
+			long requestCount = windowRequestCounts[w];
+			burnRate = requestCount == 0L ? 0D : (double) windowErrorCounts[w] / requestCount / errorBudget;
+			eval = config.getPredicate().test(burnRate);
+		}
+		if (isActive != eval) {
+			isActive = eval;
+			Instant until;
+			if (eval) {
+				sinceMillis = endMillis - longestWindow.toMillis();
+				valueAtSince = Math.round(burnRate * 100D) / 100D; // Rounded for display
+				until = null;
+			}
+			else {
+				until = Instant.ofEpochMilli(endMillis);
+			}
+			config.getListener().accept(
+					new AlertEvent<>(config, longestWindow, valueAtSince, Instant.ofEpochMilli(sinceMillis), until));
+		}
+	}
+
+	public boolean isActive() {
+		return isActive;
+	}
+}
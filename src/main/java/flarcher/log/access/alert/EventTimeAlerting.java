@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.CounterColumn;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+
+/**
+ * Evaluates alerts in event time: each time a bucket of the counters is closed, the windows ending with this bucket
+ * are evaluated (see {@link CounterTimeBuckets#addBucketCloseListener(LongConsumer)}). The events are then stamped
+ * with bucket boundaries instead of display refresh instants, and no window is skipped whatever the reading speed
+ * (like when replaying a file).
+ *
+ * The alert extractors must only read the overall request count, weight or status classes (see
+ * {@link CounterColumn#snapshot(CounterTimeBuckets, long, long)}). Is called from the writer's thread
+ * of the counters only; an alert is then released by the first line that comes after the quiet period.
+ */
+@NotThreadSafe
+public final class EventTimeAlerting implements LongConsumer {
+
+	public EventTimeAlerting(CounterTimeBuckets<AccessLogLine> counters, List<AlertState<?>> alertStates) {
+		this.counters = Objects.requireNonNull(counters);
+		this.alertStates = new ArrayList<>(alertStates);
+	}
+
+	private final CounterTimeBuckets<AccessLogLine> counters;
+	private final List<AlertState<?>> alertStates;
+
+	/**
+	 * @param closedUntilMillis The end instant (excluded) of the closed bucket.
+	 */
+	@Override
+	public void accept(long closedUntilMillis) {
+		for (AlertState<?> alertState : alertStates) {
+			// The window is made of the latest whole buckets
+			long sinceMillis = closedUntilMillis - alertState.getDuration().toMillis();
+			alertState.check(CounterColumn.snapshot(counters, sinceMillis, closedUntilMillis - 1), closedUntilMillis);
+		}
+	}
+}
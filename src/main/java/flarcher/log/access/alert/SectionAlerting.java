@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.ScopeDictionary;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Raises an alert for any section whose request rate over a duration reaches a threshold, without any
+ * {@link AlertState} by section.
+ *
+ * The sections get dense identifiers that index primitive state arrays: the request count over the window, the
+ * activity flag and the instant and value of the raise. The window is a ring of buckets, each bucket only holding the
+ * identifiers and counts of the sections that got lines during it. When a bucket of the counters is closed (see
+ * {@link CounterTimeBuckets#addBucketCloseListener(LongConsumer)}), only the sections of the closed bucket and of the
+ * bucket leaving the window are checked, so that the cost follows the active sections, not the known ones. A section
+ * that has no more request over the window gives its identifier back, so that the section count limit only bounds the
+ * sections that are followed at once.
+ *
+ * Is fed with the lines after the counters, from their writer's thread.
+ */
+@NotThreadSafe
+public final class SectionAlerting implements Consumer<AccessLogLine>, LongConsumer {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * @param requestRateThreshold The alert is raised for a section whose request rate (per second) over the duration
+	 *                             is greater or equal.
+	 * @param description The description of the alerts.
+	 * @param listener Is notified of the events of all the sections, from the reader's thread.
+	 * @param duration The duration of the window.
+	 * @param bucketDuration The bucket duration of the counters, that defines the precision of the window edges.
+	 * @param maxSectionCount Limit of the count of sections that are followed at once (robustness about memory
+	 *                        consumption).
+	 */
+	public SectionAlerting(long requestRateThreshold, String description, Consumer<AlertEvent<Long>> listener,
+			Duration duration, Duration bucketDuration, int maxSectionCount) {
+		if (bucketDuration.isZero() || bucketDuration.isNegative() || duration.compareTo(bucketDuration) < 0) {
+			throw new IllegalArgumentException("The duration must be longer than a strictly positive bucket duration");
+		}
+		this.config = new AlertConfig<>(
+				rate -> rate >= requestRateThreshold,
+				description,
+				listener);
+		this.duration = duration;
+		this.bucketDurationMillis = bucketDuration.toMillis();
+		this.bucketCount = (int) ((duration.toMillis() + bucketDurationMillis - 1) / bucketDurationMillis);
+		this.maxSectionCount = maxSectionCount;
+		this.ringIds = new int[bucketCount][];
+		this.ringCounts = new int[bucketCount][];
+		this.ringSizes = new int[bucketCount];
+		for (int slot = 0; slot < bucketCount; slot++) {
+			ringIds[slot] = new int[INITIAL_CAPACITY];
+			ringCounts[slot] = new int[INITIAL_CAPACITY];
+		}
+	}
+
+	private final AlertConfig<Long> config;
+	private final Duration duration;
+	private final long bucketDurationMillis;
+	private final int bucketCount;
+
+	//--- Section identifiers
+
+	private final int maxSectionCount;
+	private final Map<String, Integer> idsBySection = new HashMap<>();
+	private String[] sections = new String[INITIAL_CAPACITY];
+	/** The identifiers given back, that are reused first */
+	private int[] freeIds = new int[INITIAL_CAPACITY];
+	private int freeIdCount = 0;
+	private int nextId = 0;
+	private long skippedLineCount = 0L;
+
+	//--- By section identifier (grown with the identifiers)
+
+	/** Counts of the open bucket */
+	private int[] currentCounts = new int[INITIAL_CAPACITY];
+	/** Counts of the closed buckets of the window */
+	private long[] windowCounts = new long[INITIAL_CAPACITY];
+	private final BitSet actives = new BitSet();
+	private long[] sinceMillis = new long[INITIAL_CAPACITY];
+	private long[] valuesAtSince = new long[INITIAL_CAPACITY];
+
+	//--- By bucket
+
+	/** The sections that got lines during the open bucket */
+	private int[] touchedIds = new int[INITIAL_CAPACITY];
+	private int touchedCount = 0;
+	/** The sections and counts of the closed buckets of the window, by slot */
+	private final int[][] ringIds;
+	private final int[][] ringCounts;
+	private final int[] ringSizes;
+
+	@Override
+	public void accept(AccessLogLine line) {
+		int id = idOf(line.getSection());
+		if (id == ScopeDictionary.NO_ID) {
+			skippedLineCount++;
+			return;
+		}
+		if (currentCounts[id]++ == 0) {
+			if (touchedCount == touchedIds.length) {
+				touchedIds = Arrays.copyOf(touchedIds, touchedCount * 2);
+			}
+			touchedIds[touchedCount++] = id;
+		}
+	}
+
+	/**
+	 * @return The identifier of the section, that is created if needed. Is {@link ScopeDictionary#NO_ID} when the
+	 * limit is reached.
+	 */
+	private int idOf(String section) {
+		Integer known = idsBySection.get(section);
+		if (known != null) {
+			return known;
+		}
+		int id;
+		if (freeIdCount > 0) {
+			id = freeIds[--freeIdCount];
+		}
+		else if (nextId < maxSectionCount) {
+			id = nextId++;
+			ensureCapacity(id);
+		}
+		else {
+			return ScopeDictionary.NO_ID;
+		}
+		sections[id] = section;
+		idsBySection.put(section, id);
+		return id;
+	}
+
+	/**
+	 * Gives the identifier of a section back, once the section has no request over the window.
+	 */
+	private void release(int id) {
+		idsBySection.remove(sections[id]);
+		sections[id] = null;
+		if (freeIdCount == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+		}
+		freeIds[freeIdCount++] = id;
+	}
+
+	private void ensureCapacity(int id) {
+		if (id >= currentCounts.length) {
+			int capacity = Math.max(id + 1, currentCounts.length * 2);
+			sections = Arrays.copyOf(sections, capacity);
+			currentCounts = Arrays.copyOf(currentCounts, capacity);
+			windowCounts = Arrays.copyOf(windowCounts, capacity);
+			sinceMillis = Arrays.copyOf(sinceMillis, capacity);
+			valuesAtSince = Arrays.copyOf(valuesAtSince, capacity);
+		}
+	}
+
+	/**
+	 * Moves the counts of the open bucket to the window, in place of the bucket leaving it, and checks the sections
+	 * of both.
+	 * @param closedUntilMillis The end instant (excluded) of the closed bucket.
+	 */
+	@Override
+	public void accept(long closedUntilMillis) {
+		long closedKey = closedUntilMillis / bucketDurationMillis - 1;
+		int slot = (int) Math.floorMod(closedKey, (long) bucketCount);
+
+		// The bucket leaving the window
+		int[] expiredIds = ringIds[slot];
+		int[] expiredCounts = ringCounts[slot];
+		int expiredSize = ringSizes[slot];
+		for (int i = 0; i < expiredSize; i++) {
+			windowCounts[expiredIds[i]] -= expiredCounts[i];
+		}
+		// The closed bucket
+		for (int i = 0; i < touchedCount; i++) {
+			windowCounts[touchedIds[i]] += currentCounts[touchedIds[i]];
+		}
+
+		// Only the sections whose window count changed (a section of both is checked twice, harmlessly)
+		for (int i = 0; i < expiredSize; i++) {
+			check(expiredIds[i], closedUntilMillis);
+		}
+		for (int i = 0; i < touchedCount; i++) {
+			check(touchedIds[i], closedUntilMillis);
+		}
+
+		// The sections that left the window with the expired bucket are in no other bucket
+		for (int i = 0; i < expiredSize; i++) {
+			int id = expiredIds[i];
+			if (windowCounts[id] == 0 && currentCounts[id] == 0 && !actives.get(id)) {
+				release(id);
+			}
+		}
+
+		// The slot arrays are reused when large enough
+		int[] ids = expiredIds.length >= touchedCount ? expiredIds : new int[touchedIds.length];
+		int[] counts = expiredCounts.length >= touchedCount ? expiredCounts : new int[touchedIds.length];
+		for (int i = 0; i < touchedCount; i++) {
+			int id = touchedIds[i];
+			ids[i] = id;
+			counts[i] = currentCounts[id];
+			currentCounts[id] = 0;
+		}
+		ringIds[slot] = ids;
+		ringCounts[slot] = counts;
+		ringSizes[slot] = touchedCount;
+		touchedCount = 0;
+	}
+
+	private void check(int id, long endMillis) {
+		long rate = windowCounts[id] * 1000L / duration.toMillis();
+		boolean eval = config.getPredicate().test(rate);
+		if (actives.get(id) != eval) {
+			actives.set(id, eval);
+			Instant until;
+			if (eval) {
+				sinceMillis[id] = endMillis - duration.toMillis();
+				valuesAtSince[id] = rate;
+				until = null;
+			}
+			else {
+				until = Instant.ofEpochMilli(endMillis);
+			}
+			config.getListener().accept(new AlertEvent<>(config, duration, valuesAtSince[id],
+					Instant.ofEpochMilli(sinceMillis[id]), until, sections[id]));
+		}
+	}
+
+	/**
+	 * @return The count of sections with a raised alert.
+	 */
+	public int getActiveSectionCount() {
+		return actives.cardinality();
+	}
+
+	/**
+	 * @return The count of sections that are followed at the moment.
+	 */
+	public int getSectionCount() {
+		return idsBySection.size();
+	}
+
+	/**
+	 * @return The count of lines whose section was skipped, since the section count limit was reached.
+	 */
+	public long getSkippedLineCount() {
+		return skippedLineCount;
+	}
+}
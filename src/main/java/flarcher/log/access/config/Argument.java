@@ -6,13 +6,20 @@
 package flarcher.log.access.config;
 
 import flarcher.log.access.DurationConverter;
+import flarcher.log.access.read.PathNormalizer;
+import flarcher.log.access.stat.Dimension;
+import flarcher.log.access.stat.EwmaRates;
+import flarcher.log.access.stat.GroupByKeys;
+import flarcher.log.access.stat.StatisticTimeBucketsFactory;
 
 import java.nio.file.*;
 import java.time.DateTimeException;
 import java.time.Duration;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Configuration argument for the program.
@@ -78,6 +85,229 @@ public enum Argument {
 		}
 	},
 
+	ROLLUP_DURATIONS("ROLLUP_DURATIONS", 'u',
+			"Comma-separated bucket durations of coarser tiers (like '1s,1m,1h') into which aging statistics are rolled up. " +
+			"It bounds the memory and CPU usage of long durations, at the cost of the precision of old time frame edges. " +
+			"Each duration must be a multiple of the previous one (and of the minimum duration). None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return Arrays.stream(value.split(","))
+					.map(String::trim)
+					.filter(durStr -> !durStr.isEmpty())
+					.map(Argument::isDuration)
+					.filter(Optional::isPresent)
+					.findFirst()
+					.orElse(Optional.empty());
+		}
+	},
+
+	BUCKET_STORE("BUCKET_STORE", 'k',
+			"How the statistics of time buckets are stored: 'map' (objects by section in each bucket), 'columns' " +
+			"(primitive arrays indexed by section identifiers shared by all buckets, for a lower memory usage) or " +
+			"'off_heap' (fixed-width records by section in direct memory, for long retentions without heap growth)") {
+
+		@Override
+		public String getDefaultValue() {
+			return StatisticTimeBucketsFactory.Store.MAP.name().toLowerCase();
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return Arrays.stream(StatisticTimeBucketsFactory.Store.values())
+					.anyMatch(store -> store.name().equalsIgnoreCase(value))
+				? Optional.empty()
+				: Optional.of("Unknown bucket store '" + value + "'");
+		}
+	},
+
+	FREEZE_DELAY("FREEZE_DELAY", 'F',
+			"Delay after which a closed time bucket of the 'map' store is frozen into a compact copy. The late lines " +
+			"of a frozen bucket are aggregated apart, so that it should exceed the usual lateness of the lines.") {
+
+		@Override
+		public String getDefaultValue() {
+			return DurationConverter.toString(Duration.ofSeconds(2));
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return isDuration(value);
+		}
+	},
+
+	GROUP_BY("GROUP_BY", 'g',
+			"Comma-separated dimensions that statistics are grouped by, among 'section', 'method', 'status_class', " +
+			"'user' and 'host'. With other dimensions than the section only, the bucket store option is ignored.") {
+
+		@Override
+		public String getDefaultValue() {
+			return Dimension.SECTION.name().toLowerCase();
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			try {
+				GroupByKeys.parseDimensions(value);
+				return Optional.empty();
+			}
+			catch (IllegalArgumentException e) {
+				return Optional.of("Invalid dimensions '" + value + "': " + e.getMessage());
+			}
+		}
+	},
+
+	PATH_DEPTH("PATH_DEPTH", 'n',
+			"When set, statistics are aggregated by path prefixes up to this count of path segments (like 'api' and " +
+			"'api/user' with 2) instead of sections, each prefix including the requests of longer paths. " +
+			"Is not compatible with other dimensions than the section. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	PATH_TOP_DEPTH("PATH_TOP_DEPTH", 'N',
+			"When set with the path depth, only the path prefixes of this count of segments (like 'api/user' with 2) " +
+			"are listed in the top sections, that otherwise mix all depths. All depths by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means all
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	NORMALIZE_PATHS("NORMALIZE_PATHS", 'x',
+			"Whether the numeric, UUID and hexadecimal path segments (and the ones matching the path patterns) are " +
+			"replaced with placeholders like '{num}' before aggregation, so that '/api/user/12345' and " +
+			"'/api/user/987' are counted together as '/api/user/{num}'") {
+
+		@Override
+		public String getDefaultValue() {
+			return Boolean.FALSE.toString();
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return isBoolean(value);
+		}
+	},
+
+	PATH_PATTERNS("PATH_PATTERNS", 'j',
+			"Space-separated regular expressions of path segments to be replaced with the '{param}' placeholder " +
+			"when paths are normalized. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			try {
+				PathNormalizer.parsePatterns(value);
+				return Optional.empty();
+			}
+			catch (PatternSyntaxException e) {
+				return Optional.of("Invalid path pattern: " + e.getDescription());
+			}
+		}
+	},
+
+	PARALLEL_REDUCE_THRESHOLD("PARALLEL_REDUCE_THRESHOLD", 'b',
+			"When set, the time frames having at least this count of buckets are reduced in parallel by the common " +
+			"fork/join pool, so that long durations do not delay the display refresh. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	SHARD_COUNT("SHARD_COUNT", 'i',
+			"When set, the sections are partitioned by hash among this count of aggregating threads, so that the " +
+			"aggregation is not bound to the reader's thread. The section count limit applies by shard. " +
+			"Requires to group by section only. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	PARSER_WORKER_COUNT("PARSER_WORKER_COUNT", 'q',
+			"When set, the lines are parsed by batches by this count of threads, so that the reader's thread only " +
+			"reads the lines and hands the parsed ones over in the file order. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	COMBINED_LINE_COUNT("COMBINED_LINE_COUNT", 'y',
+			"When set, the consecutive lines of a same time bucket are combined by section, up to this count of lines, " +
+			"before updating the bucket. The combined lines are visible once flushed, at least every minimum duration " +
+			"and whenever the reader waits for new lines. Requires to group by section only. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	MEMORY_BUDGET("MEMORY_BUDGET", 'M',
+			"When set, the estimated memory of the statistics (in megabytes) is kept within this budget: close to " +
+			"the budget, the buckets are rolled up into the coarser tiers and frozen sooner; above it, the oldest " +
+			"buckets are removed. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
 	/**
 	 * The value must be compliant with {@link DateTimeFormatter}.
 	 * Is not the value of access log configuration {@literal LogFileDateExt}.
@@ -136,6 +366,22 @@ public enum Argument {
 		}
 	},
 
+	EVICT_SECTIONS("EVICT_SECTIONS", 'E',
+			"Whether the least recently updated section of the overall statistics is evicted for a new one once the " +
+			"section count limit is reached (otherwise the new sections are ignored). Applies when grouping by " +
+			"section only.") {
+
+		@Override
+		public String getDefaultValue() {
+			return Boolean.TRUE.toString();
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return isBoolean(value);
+		}
+	},
+
 	STATISTICS_LATEST_DURATION("STATS_DURATION", 's',
 			"Statistics refresh period in millis") {
 
@@ -178,6 +424,22 @@ public enum Argument {
 		}
 	},
 
+	COUNTER_RETENTION("COUNTER_RETENTION", 'C',
+			"Time duration the overall counters are retained for, that bounds the time ranges they can sum (like " +
+			"over JMX). Must not be shorter than the latest statistics and the alerting durations, whose longest " +
+			"one is the default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means the longest duration they are summed over
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isDuration(value);
+		}
+	},
+
 	ALERT_LOAD_THRESHOLD("ALERT_LOAD_THRESHOLD", 'l',
 			"Threshold for raising an alert related to the load. The value is the request count per second.") {
 
@@ -192,6 +454,74 @@ public enum Argument {
 		}
 	},
 
+	ALERT_LOAD_AVERAGE("ALERT_LOAD_AVERAGE", 'v',
+			"When set to '1s', '1m' or '5m', the load alert compares its threshold with the moving average of the " +
+			"request rate having this decay, instead of the request rate over the alerting duration. " +
+			"It is smoother and cheaper. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			if (value.isEmpty()) {
+				return Optional.empty();
+			}
+			Duration duration = DurationConverter.fromString(value);
+			return duration != null && EwmaRates.Window.of(duration).isPresent()
+					? Optional.empty()
+					: Optional.of("Invalid moving average duration '" + value + "'. Use '1s', '1m' or '5m'.");
+		}
+	},
+
+	ALERT_ERROR_THRESHOLD("ALERT_ERROR_THRESHOLD", 'e',
+			"Threshold for raising an alert related to server errors. The value is the percentage of 5xx responses. " +
+			"None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	ALERT_ERROR_BUDGET("ALERT_ERROR_BUDGET", 'B',
+			"Error budget of the server errors, as a percentage of the requests (like '0.1' for a 99.9% objective). " +
+			"Enables the burn-rate alerts: 14.4 times the budget over both 1h and 5m, and 6 times the budget over " +
+			"both 6h and 30m. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPercentage(value);
+		}
+	},
+
+	ALERT_EVENT_TIME("ALERT_EVENT_TIME", 'T',
+			"Whether the traffic and error alerts are evaluated each time a bucket of the counters is closed, their " +
+			"events being stamped with the time of the logs (otherwise they are evaluated at each display refresh).") {
+
+		@Override
+		public String getDefaultValue() {
+			return Boolean.FALSE.toString();
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return isBoolean(value);
+		}
+	},
+
 	TIME_ZONE("TIME_ZONE", 'z',
 			"IANA Timezone ID to be used. Uses the system's timezone if not provided.") {
 
@@ -212,6 +542,51 @@ public enum Argument {
 		}
 	},
 
+	ALERT_SECTION_THRESHOLD("ALERT_SECTION_THRESHOLD", 'S',
+			"Threshold for raising an alert related to the load of any section. The value is the request count per " +
+			"second over the alerting duration. None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : isPositiveInteger(value);
+		}
+	},
+
+	ALERT_SECTION_MAX_COUNT("ALERT_SECTION_MAX_COUNT", 'K',
+			"Maximum count of sections that are followed at once by the section alerts (technical limit in order to " +
+			"cap memory usage). A section is forgotten once it has no request over the alerting duration.") {
+
+		@Override
+		public String getDefaultValue() {
+			return String.valueOf(10_000);
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return isPositiveInteger(value);
+		}
+	},
+
+	ALERT_RULES_FILE("ALERT_RULES_FILE", 'R',
+			"Location of a file of alert rules, with one rule by line like '2m request_rate >= 10 High traffic' " +
+			"(duration, metric, operator, threshold and description). None by default.") {
+
+		@Override
+		public String getDefaultValue() {
+			return ""; // Means none
+		}
+
+		@Override
+		Optional<String> validate(String value) {
+			return value.isEmpty() ? Optional.empty() : canRead(value);
+		}
+	},
+
 	ALERTS_FILE("ALERTS_FILE", 'o',
 			"Location of the alerts file (none by default)") {
 
@@ -267,6 +642,25 @@ public enum Argument {
 		}
 	}
 
+	private static Optional<String> isPercentage(String percentStr) {
+		try {
+			double percent = Double.parseDouble(percentStr);
+			if (percent <= 0D || percent >= 100D) {
+				return Optional.of("'" + percentStr + "' is not a percentage between 0 and 100 (both excluded)");
+			}
+			return Optional.empty();
+		}
+		catch (@SuppressWarnings("unused") NumberFormatException e) {
+			return Optional.of("Invalid number '" + percentStr + "'");
+		}
+	}
+
+	private static Optional<String> isBoolean(String boolStr) {
+		return Boolean.TRUE.toString().equalsIgnoreCase(boolStr) || Boolean.FALSE.toString().equalsIgnoreCase(boolStr)
+				? Optional.empty()
+				: Optional.of("Invalid boolean '" + boolStr + "'. Use 'true' or 'false'.");
+	}
+
 	private static Optional<String> isDuration(String durStr) {
 		return DurationConverter.fromString(durStr) != null
 				? Optional.empty()
@@ -14,6 +14,7 @@ import com.googlecode.lanterna.terminal.DefaultTerminalFactory;
 import com.googlecode.lanterna.terminal.Terminal;
 import flarcher.log.access.DurationConverter;
 import flarcher.log.access.alert.AlertEvent;
+import flarcher.log.access.stat.EwmaRates;
 import flarcher.log.access.stat.Statistic;
 import flarcher.log.access.stat.StatisticContext;
 
@@ -23,6 +24,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -61,13 +63,26 @@ public class Console implements Closeable {
 	private Runnable onQuit;
 	private Duration refreshPeriodMillis;
 
+	// Optional rates
+	private EwmaRates rates;
+	private int topRateCount;
+
+	// Selects the listed sections
+	private Predicate<String> sectionFilter = section -> true;
+
 	// Mutable state
 	private int nextRow = 0;
 	private final Deque<AlertEvent<?>> alertsDeque = new ConcurrentLinkedDeque<>(); // Used as a LIFO queue
 
+	/**
+	 * The count of printed alerts, the oldest ones being dropped.
+	 */
+	private static final int MAX_ALERT_COUNT = 100;
+
 	public synchronized void beforePrint(Instant instant) {
 		screen.clear();
 		tg.clearModifiers();
+		updateWidth();
 		nextRow = 0;
 		// Top of screen
 		for (String line : Printer.printBeforeRun(refreshPeriodMillis)) {
@@ -78,8 +93,27 @@ public class Console implements Closeable {
 		// ... stats are printed from calls to `onStat`
 	}
 
+	/**
+	 * @param rates Moving averages of request rates, printed after the statistics.
+	 * @param topRateCount The count of printed sections (having the highest rates over a minute).
+	 */
+	public synchronized void setRates(EwmaRates rates, int topRateCount) {
+		this.rates = Objects.requireNonNull(rates);
+		this.topRateCount = topRateCount;
+	}
+
+	/**
+	 * @param sectionFilter Selects the sections of the top sections, by name (like the path prefixes of a depth).
+	 */
+	public synchronized void setSectionFilter(Predicate<String> sectionFilter) {
+		this.sectionFilter = Objects.requireNonNull(sectionFilter);
+	}
+
 	public synchronized void afterPrint(Instant instant) {
 		// ...
+		if (rates != null && instant != null) {
+			printRates(instant.toEpochMilli());
+		}
 		printAlertHistory();
 		// Bottom of screen
 
@@ -97,28 +131,72 @@ public class Console implements Closeable {
 
 	private static final TextColor RECTANGLE_FOREGROUND_COLOR = new TextColor.Indexed(242);
 	private static final TextColor RECTANGLE_BACKGROUND_COLOR = new TextColor.RGB(0,0,0);
-	private static final int RECTANGLE_WIDTH = 80;
+	/**
+	 * The least width of the rectangles, that is a standard terminal width.
+	 */
+	private static final int MIN_RECTANGLE_WIDTH = 80;
 	private static final int METRICS_WIDTH = 25;
+	/**
+	 * The width left to the section names on the left of the metrics.
+	 */
+	private static final int SECTION_WIDTH = 30;
+
+	/**
+	 * A metric column of the statistics.
+	 */
+	private interface MetricColumn {
+
+		String print(Statistic.ScopedStatistic value, Duration duration);
+	}
+
+	private static final String[] METRICS_HEADERS = {
+			"Count", "Bytes", "Size p50/p90/p99/max", "Status 2xx/3xx/4xx/5xx" };
+
+	/**
+	 * The metric columns, from the most important one (the last ones being printed when the terminal is wide enough).
+	 */
+	private static final MetricColumn[] METRICS_COLUMNS = {
+			(value, duration) -> Printer.getValueWithRatio(value.requestCount(), duration),
+			(value, duration) -> Printer.getValueWithRatio(value.weight(), duration),
+			(value, duration) -> Printer.getPercentiles(value.weightHistogram()),
+			(value, duration) -> Printer.getStatusClasses(value.statusCounts()) };
+
+	/**
+	 * Is sized from the terminal before each print.
+	 */
+	private int rectangleWidth = MIN_RECTANGLE_WIDTH;
+	private int metricsColumnCount = 2;
+
+	private void updateWidth() {
+		screen.doResizeIfNecessary();
+		rectangleWidth = Math.max(MIN_RECTANGLE_WIDTH, screen.getTerminalSize().getColumns());
+		metricsColumnCount = Math.min(METRICS_COLUMNS.length, (rectangleWidth - SECTION_WIDTH) / METRICS_WIDTH);
+	}
+
+	private int metricsColumnOf(int index) {
+		return rectangleWidth - ((metricsColumnCount - index) * METRICS_WIDTH);
+	}
 
 	public synchronized void onStat(StatisticContext context, Statistic stats) {
 
 		Duration duration = context.getDuration();
-		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> sectionStats = stats.topSections()
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> sectionStats = stats.topSections(sectionFilter)
 				.stream()
 				.limit(context.getTopSectionCount())
 				.collect(Collectors.toList());
 
 		tg.drawRectangle(
 				new TerminalPosition(0, nextRow),
-				new TerminalSize(RECTANGLE_WIDTH, sectionStats.size() + 3),
+				new TerminalSize(rectangleWidth, sectionStats.size() + 3),
 				new TextCharacter('·', RECTANGLE_FOREGROUND_COLOR, RECTANGLE_BACKGROUND_COLOR));
 		tg.setModifiers(EnumSet.of(SGR.UNDERLINE, SGR.BOLD));
 		tg.putString(4, nextRow, context.isDynamic()
 				? "Overall (" + DurationConverter.toString(duration) + ")"
 				: "Latest " + DurationConverter.toString(duration));
 		tg.clearModifiers();
-		tg.putString(RECTANGLE_WIDTH - (2 * METRICS_WIDTH), nextRow, "Count");
-		tg.putString(RECTANGLE_WIDTH - METRICS_WIDTH, nextRow, "Bytes");
+		for (int i = 0; i < metricsColumnCount; i++) {
+			tg.putString(metricsColumnOf(i), nextRow, METRICS_HEADERS[i]);
+		}
 		nextRow++;
 
 		onScopedStat(null, stats.overall(), duration);
@@ -129,14 +207,42 @@ public class Console implements Closeable {
 
 	private void onScopedStat(String section, Statistic.ScopedStatistic value, Duration duration) {
 		tg.putString(2, nextRow, section == null ? "«total»" : "/" + section);
-		tg.putString(RECTANGLE_WIDTH - (2 * METRICS_WIDTH), nextRow, Printer.getValueWithRatio(value.requestCount(), duration));
-		tg.putString(RECTANGLE_WIDTH - METRICS_WIDTH, nextRow, Printer.getValueWithRatio(value.weight(), duration));
+		for (int i = 0; i < metricsColumnCount; i++) {
+			tg.putString(metricsColumnOf(i), nextRow, METRICS_COLUMNS[i].print(value, duration));
+		}
+		nextRow++;
+	}
+
+	private void printRates(long millis) {
+		List<String> sections = rates.topSections(EwmaRates.Window.ONE_MINUTE, millis, topRateCount);
+		tg.drawRectangle(
+				new TerminalPosition(0, nextRow),
+				new TerminalSize(rectangleWidth, sections.size() + 3),
+				new TextCharacter('·', RECTANGLE_FOREGROUND_COLOR, RECTANGLE_BACKGROUND_COLOR));
+		tg.setModifiers(EnumSet.of(SGR.UNDERLINE, SGR.BOLD));
+		tg.putString(4, nextRow, "Trends (moving averages)");
+		tg.clearModifiers();
+		tg.putString(rectangleWidth - METRICS_WIDTH, nextRow, "Requests/s 1s/1m/5m");
+		nextRow++;
+
+		tg.putString(2, nextRow, "«total»");
+		tg.putString(rectangleWidth - METRICS_WIDTH, nextRow, Printer.getRates(rates, null, millis));
+		nextRow++;
+		for (String section : sections) {
+			tg.putString(2, nextRow, "/" + section);
+			tg.putString(rectangleWidth - METRICS_WIDTH, nextRow, Printer.getRates(rates, section, millis));
+			nextRow++;
+		}
+
 		nextRow++;
 	}
 
 	public void onAlert(AlertEvent<?> event) {
 		// We insert as the first so that the latest entries get printed first -> LIFO
 		alertsDeque.addFirst(event);
+		while (alertsDeque.size() > MAX_ALERT_COUNT) { // Is bounded, so that counting is cheap
+			alertsDeque.pollLast();
+		}
 	}
 
 	private void printAlertHistory() {
@@ -7,7 +7,11 @@ package flarcher.log.access.display;
 
 import flarcher.log.access.DurationConverter;
 import flarcher.log.access.alert.AlertEvent;
+import flarcher.log.access.stat.EwmaRates;
+import flarcher.log.access.stat.StatusCounts;
+import flarcher.log.access.stat.WeightHistogram;
 
+import javax.annotation.Nullable;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -63,7 +67,10 @@ public final class Printer {
 	private static final int MAX_DECIMAL_COUNT = 2;
 
 	private static String getRatio(long value, long by) {
-		double ratio = ((double) value) / by;
+		return getDecimal(((double) value) / by);
+	}
+
+	private static String getDecimal(double ratio) {
 		if (ratio < 1_000D) {
 			String str = Double.toString(ratio);
 			int commaIndex = str.indexOf('.');
@@ -84,6 +91,33 @@ public final class Printer {
 		return getSI(value) + " (" + getRatio(value, duration.getSeconds()) + "/s)";
 	}
 
+	static String getPercentiles(WeightHistogram histogram) {
+		return getSI(histogram.getValueAtPercentile(50D)).trim() + '/' +
+				getSI(histogram.getValueAtPercentile(90D)).trim() + '/' +
+				getSI(histogram.getValueAtPercentile(99D)).trim() + '/' +
+				getSI(histogram.getMax()).trim();
+	}
+
+	static String getStatusClasses(StatusCounts statusCounts) {
+		return getSI(statusCounts.getClassCount(2)).trim() + '/' +
+				getSI(statusCounts.getClassCount(3)).trim() + '/' +
+				getSI(statusCounts.getClassCount(4)).trim() + '/' +
+				getSI(statusCounts.getClassCount(5)).trim();
+	}
+
+	static String getRates(EwmaRates rates, @Nullable String section, long millis) {
+		StringBuilder sb = new StringBuilder();
+		for (EwmaRates.Window window : EwmaRates.Window.values()) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(getDecimal(section == null
+					? rates.overallRate(window, millis)
+					: rates.sectionRate(section, window, millis)));
+		}
+		return sb.toString();
+	}
+
 	String formatInstant(Instant instant) {
 		return DateTimeFormatter.ISO_DATE_TIME.format(LocalDateTime.ofInstant(instant, timeZone));
 	}
@@ -96,6 +130,8 @@ public final class Printer {
 			(event.isRaised() ? "! RAISED ! " : "!RELEASED! ") +
 			// “High traffic generated an alert
 			"\"" + event.getConfig().getDescription() + "\" " +
+			// On a section
+			(event.getSection() != null ? "section = {" + event.getSection() + "} " : "") +
 			//  - hits = {value}"
 			"hits = {" + event.getValueAtSince().toString() + "}";
 		if (event.isReleased()) {
@@ -7,25 +7,119 @@ package flarcher.log.access.read;
 
 import flarcher.log.access.TimeBound;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.time.Instant;
 import java.util.Objects;
 
 /**
  * Holds meta data of an access log line.
+ *
+ * A parsed line may hold the indexes of its path, user and host in the raw text instead of their strings, that are
+ * then only created on first access (like when a dimension needs them). Such a line retains its raw text.
  */
 @Immutable
 public class AccessLogLine implements TimeBound {
 
 	public AccessLogLine(Instant instant, String section, int length) {
+		this(instant, section, length, UNKNOWN_STATUS);
+	}
+
+	public AccessLogLine(Instant instant, String section, int length, int status) {
+		this(instant, section, section, length, status, UNKNOWN_FIELD, UNKNOWN_FIELD, UNKNOWN_FIELD);
+	}
+
+	public AccessLogLine(Instant instant, String section, String path, int length, int status,
+			String method, String user, String host) {
+		this.instant = instant;
+		this.section = section;
+		this.path = path;
+		this.length = length;
+		this.status = status;
+		this.method = method;
+		this.user = user;
+		this.host = host;
+		this.text = null;
+		this.pathStartIndex = NO_INDEX;
+		this.pathEndIndex = NO_INDEX;
+		this.userStartIndex = NO_INDEX;
+		this.userEndIndex = NO_INDEX;
+		this.hostEndIndex = NO_INDEX;
+	}
+
+	/**
+	 * @param text The raw text of the line.
+	 * @param pathStartIndex The start index of the path in the text, or {@link #NO_INDEX} if the path is the section.
+	 * @param userStartIndex The start index of the user in the text, or {@link #NO_INDEX} if it is unknown.
+	 * @param hostEndIndex The end index of the host (that starts the text), or {@link #NO_INDEX} if it is unknown.
+	 */
+	AccessLogLine(Instant instant, String section, int length, int status, String method, String text,
+			int pathStartIndex, int pathEndIndex, int userStartIndex, int userEndIndex, int hostEndIndex) {
 		this.instant = instant;
 		this.section = section;
 		this.length = length;
+		this.status = status;
+		this.method = method;
+		this.text = text;
+		this.pathStartIndex = pathStartIndex;
+		this.pathEndIndex = pathEndIndex;
+		this.userStartIndex = userStartIndex;
+		this.userEndIndex = userEndIndex;
+		this.hostEndIndex = hostEndIndex;
+	}
+
+	/**
+	 * @return A line having another section and path, whose other fields are the ones of this line (without creating
+	 * the strings of the user and of the host).
+	 */
+	public AccessLogLine withPath(String section, String path) {
+		AccessLogLine line = new AccessLogLine(instant, section, length, status, method, text,
+				NO_INDEX, NO_INDEX, userStartIndex, userEndIndex, hostEndIndex);
+		line.path = path;
+		line.user = user;
+		line.host = host;
+		return line;
 	}
 
+	/**
+	 * The status of a line whose status could not be parsed.
+	 */
+	public static final int UNKNOWN_STATUS = 0;
+
+	/**
+	 * The value of a text field that could not be parsed.
+	 */
+	public static final String UNKNOWN_FIELD = "";
+
+	/**
+	 * The index of a field that is not in the raw text.
+	 */
+	static final int NO_INDEX = -1;
+
 	private final Instant instant;
 	private final String section;
 	private final int length;
+	private final int status;
+	private final String method;
+
+	//--- Created on first access, when not given (racy but harmless, like String#hashCode())
+
+	@Nullable
+	private String path;
+	@Nullable
+	private String user;
+	@Nullable
+	private String host;
+
+	//--- Indexes in the raw text
+
+	@Nullable
+	private final String text;
+	private final int pathStartIndex;
+	private final int pathEndIndex;
+	private final int userStartIndex;
+	private final int userEndIndex;
+	private final int hostEndIndex;
 
 	public Instant getInstant() {
 		return instant;
@@ -35,6 +129,19 @@ public class AccessLogLine implements TimeBound {
 		return section;
 	}
 
+	/**
+	 * @return The requested path without the query string (like {@literal /api/user}). Is the section when the path
+	 * has not been parsed.
+	 */
+	public String getPath() {
+		String path = this.path;
+		if (path == null) {
+			path = pathStartIndex == NO_INDEX ? section : text.substring(pathStartIndex, pathEndIndex);
+			this.path = path;
+		}
+		return path;
+	}
+
 	/**
 	 * @return Content length as a byte count.
 	 */
@@ -42,6 +149,44 @@ public class AccessLogLine implements TimeBound {
 		return length;
 	}
 
+	/**
+	 * @return The HTTP status code, or {@link #UNKNOWN_STATUS}.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The HTTP method (like {@literal GET}), or {@link #UNKNOWN_FIELD}.
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The authenticated user ({@literal -} when there is none), or {@link #UNKNOWN_FIELD}.
+	 */
+	public String getUser() {
+		String user = this.user;
+		if (user == null) {
+			user = userStartIndex == NO_INDEX ? UNKNOWN_FIELD : text.substring(userStartIndex, userEndIndex);
+			this.user = user;
+		}
+		return user;
+	}
+
+	/**
+	 * @return The remote host, or {@link #UNKNOWN_FIELD}.
+	 */
+	public String getHost() {
+		String host = this.host;
+		if (host == null) {
+			host = hostEndIndex == NO_INDEX ? UNKNOWN_FIELD : text.substring(0, hostEndIndex);
+			this.host = host;
+		}
+		return host;
+	}
+
 	@Override
 	public long getTimeInMillis() {
 		return instant.toEpochMilli();
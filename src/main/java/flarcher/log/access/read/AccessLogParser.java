@@ -92,8 +92,82 @@ public class AccessLogParser implements Function<String, AccessLogLine> {
 		return line.substring(previousIndex, nextIndex);
 	}
 
-	private int getLength(String line) {
-		int lastSpaceIndex = line.lastIndexOf(' ');
+	/**
+	 * @return The start index of the requested path, or {@link AccessLogLine#NO_INDEX} if there is none.
+	 */
+	private static int getPathStartIndex(String line, int startIndex) {
+		int nextIndex = line.indexOf('"', startIndex);
+		if (nextIndex < 0) {
+			return AccessLogLine.NO_INDEX;
+		}
+		// In between lies the HTTP method
+		int pathStartIndex = line.indexOf(' ', nextIndex + 1) + 1;
+		if (pathStartIndex == 0 || pathStartIndex == line.length()) {
+			return AccessLogLine.NO_INDEX;
+		}
+		return pathStartIndex;
+	}
+
+	/**
+	 * @return The end index of the requested path, before the query string.
+	 */
+	private static int getPathEndIndex(String line, int pathStartIndex) {
+		int pathEndIndex = pathStartIndex;
+		while (pathEndIndex < line.length()) {
+			char c = line.charAt(pathEndIndex);
+			if (c == ' ' || c == '?' || c == '"') {
+				break;
+			}
+			pathEndIndex++;
+		}
+		return pathEndIndex;
+	}
+
+	/**
+	 * Known methods, so that no string is created for them.
+	 */
+	private static final String[] METHODS = { "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH", "CONNECT", "TRACE" };
+
+	private static String getMethod(String line, int startIndex) {
+		int methodStartIndex = line.indexOf('"', startIndex) + 1;
+		if (methodStartIndex == 0) {
+			return AccessLogLine.UNKNOWN_FIELD;
+		}
+		int methodEndIndex = line.indexOf(' ', methodStartIndex);
+		if (methodEndIndex < 0) {
+			return AccessLogLine.UNKNOWN_FIELD;
+		}
+		int methodLength = methodEndIndex - methodStartIndex;
+		for (String method : METHODS) {
+			if (method.length() == methodLength && line.regionMatches(methodStartIndex, method, 0, methodLength)) {
+				return method;
+			}
+		}
+		return line.substring(methodStartIndex, methodEndIndex);
+	}
+
+	/**
+	 * @return The start index of the field before the date, being the authenticated user, or
+	 * {@link AccessLogLine#NO_INDEX} if there is none. It ends before {@literal " ["}.
+	 */
+	private static int getUserStartIndex(String line, int dateBracketIndex) {
+		int userEndIndex = dateBracketIndex - 1; // Before " ["
+		if (userEndIndex <= 0 || line.charAt(userEndIndex) != ' ') {
+			return AccessLogLine.NO_INDEX;
+		}
+		return line.lastIndexOf(' ', userEndIndex - 1) + 1;
+	}
+
+	/**
+	 * @return The end index of the first field, being the remote host, or {@link AccessLogLine#NO_INDEX} if there is
+	 * none.
+	 */
+	private static int getHostEndIndex(String line) {
+		int hostEndIndex = line.indexOf(' ');
+		return hostEndIndex > 0 ? hostEndIndex : AccessLogLine.NO_INDEX;
+	}
+
+	private static int getLength(String line, int lastSpaceIndex) {
 		String byteCountStr = line.substring(lastSpaceIndex + 1);
 		try {
 			return Integer.parseUnsignedInt(byteCountStr);
@@ -103,6 +177,25 @@ public class AccessLogParser implements Function<String, AccessLogLine> {
 		}
 	}
 
+	/**
+	 * Reads the 3 digits before the byte count without creating a string.
+	 */
+	private static int getStatus(String line, int lastSpaceIndex) {
+		int startIndex = lastSpaceIndex - 3;
+		if (startIndex < 1 || line.charAt(startIndex - 1) != ' ') {
+			return AccessLogLine.UNKNOWN_STATUS;
+		}
+		int status = 0;
+		for (int i = startIndex; i < lastSpaceIndex; i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9') {
+				return AccessLogLine.UNKNOWN_STATUS;
+			}
+			status = status * 10 + (c - '0');
+		}
+		return status;
+	}
+
 	// Input example: 127.0.0.1 - frank [09/May/2018:16:00:42 +0000] "POST /api/user HTTP/1.0" 200 34
 	@Nullable
 	@Override
@@ -135,7 +228,19 @@ public class AccessLogParser implements Function<String, AccessLogLine> {
 			section = UNKNOWN_SECTION;
 		}
 
-		int length = getLength(line);
-		return new AccessLogLine(instant, section, length);
+		// The path, the user and the host are only created when needed (the path being the section when unknown)
+		int pathStartIndex = getPathStartIndex(line, dateEndIndex + 1);
+		int pathEndIndex = pathStartIndex == AccessLogLine.NO_INDEX ? AccessLogLine.NO_INDEX
+				: getPathEndIndex(line, pathStartIndex);
+
+		int lastSpaceIndex = line.lastIndexOf(' ');
+		int length = getLength(line, lastSpaceIndex);
+		int status = getStatus(line, lastSpaceIndex);
+		return new AccessLogLine(instant, section, length, status,
+				getMethod(line, dateEndIndex + 1),
+				line,
+				pathStartIndex, pathEndIndex,
+				getUserStartIndex(line, dateStartIndex - 1), dateStartIndex - 2,
+				getHostEndIndex(line));
 	}
 }
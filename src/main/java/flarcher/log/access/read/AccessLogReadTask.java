@@ -5,28 +5,50 @@
 
 package flarcher.log.access.read;
 
+import javax.annotation.Nullable;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
- * Single-threaded task that reads the access log file.
+ * Task that reads the access log file.
+ * The lines are read by batches, that are parsed either by the reader's thread or by a pool of parser workers (see
+ * {@link #setParallelParsing(ExecutorService, int)}). In both cases, the parsed lines are handed over to the listeners
+ * from the reader's thread, in the order of the file.
  */
 public class AccessLogReadTask implements Runnable {
 
+	static final int BATCH_SIZE = 512;
+
+	/**
+	 * Stages of the reading, whose throughputs are measured.
+	 */
+	public enum Stage {
+		/** Lines read from the file. */
+		READ,
+		/** Lines parsed (the time being summed over the parser workers). */
+		PARSE,
+		/** Parsed lines handed over to the listeners. */
+		DISPATCH
+	}
+
 	/**
 	 * @param listeners         Listeners called each time a new line has been parsed. They are called in the reader's
 	 *                          thread, so they can have a significant impact on the reading throughput.
 	 * @param parser			Parser function
 	 * @param accessLogFilePath The path of the access log file.
+	 * @param isWaiting         Called from the reader's thread when all the read lines are handed over to the
+	 *                          listeners, before waiting for new lines.
 	 * @param idleWaitMillis    Minimum milliseconds count spent when waiting for new lines (only in case when the
 	 *                          reader reached the last line).
 	 */
@@ -41,6 +63,10 @@ public class AccessLogReadTask implements Runnable {
 		this.idleWaitMillis = idleWaitMillis;
 		this.parser = Objects.requireNonNull(parser);
 		this.isWaiting = Objects.requireNonNull(isWaiting);
+		for (Stage stage : Stage.values()) {
+			lineCounts.put(stage, new LongAdder());
+			busyNanos.put(stage, new LongAdder());
+		}
 	}
 
 	private final Function<String, AccessLogLine> parser;
@@ -49,6 +75,29 @@ public class AccessLogReadTask implements Runnable {
 	private final Path accessLogFilePath;
 	private final AtomicBoolean running = new AtomicBoolean(false); // Will be updated concurrently
 	private final Runnable isWaiting;
+	private final Map<Stage, LongAdder> lineCounts = new EnumMap<>(Stage.class);
+	private final Map<Stage, LongAdder> busyNanos = new EnumMap<>(Stage.class);
+
+	@Nullable
+	private ExecutorService parserPool = null;
+	private int maxPendingBatchCount = 0;
+
+	/**
+	 * Makes the parsing of the batches of lines to be done by the given pool, so that the reader's thread only reads
+	 * the lines and hands the parsed ones over to the listeners. The parsed batches are re-sequenced in the reading
+	 * order, so that the listeners get the lines in the same order as without the pool.
+	 * Must be called before running the task.
+	 * @param parserPool           The parser workers.
+	 * @param maxPendingBatchCount The count of batches being parsed above which the reader waits for the oldest one
+	 *                             (that bounds the memory usage when the parsing is slower than the reading).
+	 */
+	public void setParallelParsing(ExecutorService parserPool, int maxPendingBatchCount) {
+		if (maxPendingBatchCount <= 0) {
+			throw new IllegalArgumentException("The count of pending batches must be strictly positive");
+		}
+		this.parserPool = Objects.requireNonNull(parserPool);
+		this.maxPendingBatchCount = maxPendingBatchCount;
+	}
 
 	@Override
 	public void run() {
@@ -61,33 +110,42 @@ public class AccessLogReadTask implements Runnable {
 		catch (IOException e) {
 			throw new IllegalStateException("Unable to open " + accessLogFilePath, e);
 		}
+		// Batches being parsed, in the reading order
+		Deque<Future<AccessLogLine[]>> pendingBatches = new ArrayDeque<>();
 		running.set(true); // Let's go!
 		try {
 			while (running.get()) {
+				String[] batch = new String[BATCH_SIZE];
+				int batchSize = 0;
 				String line;
 				try {
+					long readStartNanos = System.nanoTime();
 					while ((line = reader.readLine()) != null) {
-						AccessLogLine parsed = parser.apply(line);
-						if (parsed != null) { // Garbage or blank line ?
-							// Note: listeners are called from this thread,
-							// so their implementations have a big impact on the throughput
-							listeners.forEach(listener -> listener.accept(parsed));
-						}
-						// We need to check after some reading because it can happen that the process is late
-						// and do not get into the wait until a long time
-						if (!running.get()) {
-							return;
-						}
-						// We should detect thread interruption in this processing part also
-						if (currentThread.isInterrupted()) {
-							running.set(false);
-							return; // No need for an exception
+						batch[batchSize++] = line;
+						if (batchSize == BATCH_SIZE) {
+							addStageTime(Stage.READ, batchSize, readStartNanos);
+							if (!handOver(batch, batchSize, pendingBatches)) {
+								return;
+							}
+							batch = new String[BATCH_SIZE];
+							batchSize = 0;
+							readStartNanos = System.nanoTime();
 						}
 					}
+					addStageTime(Stage.READ, batchSize, readStartNanos);
 				} catch (IOException e) {
 					running.set(false);
 					throw new IllegalStateException("Error while reading " + accessLogFilePath, e);
 				}
+				if (batchSize > 0 && !handOver(batch, batchSize, pendingBatches)) {
+					return;
+				}
+				// All the read lines must reach the listeners before waiting
+				while (!pendingBatches.isEmpty()) {
+					if (!dispatch(pendingBatches.poll())) {
+						return;
+					}
+				}
 
 				// We processed all incoming input and should wait for the next lines
 				try {
@@ -101,7 +159,8 @@ public class AccessLogReadTask implements Runnable {
 			}
 		}
 		finally {
-			assert !running.get(); // Invariant
+			running.set(false); // Also when the reading is stopped by an exception from a listener or the parser
+			pendingBatches.forEach(future -> future.cancel(false));
 			try {
 				reader.close();
 			}
@@ -112,6 +171,110 @@ public class AccessLogReadTask implements Runnable {
 		}
 	}
 
+	/**
+	 * Parses a batch of read lines, or submits its parsing to the parser workers.
+	 * @return {@code false} if the reading must stop.
+	 */
+	private boolean handOver(String[] batch, int batchSize, Deque<Future<AccessLogLine[]>> pendingBatches) {
+		ExecutorService pool = parserPool;
+		if (pool == null) {
+			return dispatch(parse(batch, batchSize));
+		}
+		pendingBatches.add(pool.submit(() -> parse(batch, batchSize)));
+		// Hands over the parsed batches as soon as possible, but always in the reading order
+		while (!pendingBatches.isEmpty()
+				&& (pendingBatches.size() > maxPendingBatchCount || pendingBatches.peek().isDone())) {
+			if (!dispatch(pendingBatches.poll())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private AccessLogLine[] parse(String[] batch, int batchSize) {
+		long startNanos = System.nanoTime();
+		AccessLogLine[] parsedLines = new AccessLogLine[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			parsedLines[i] = parser.apply(batch[i]); // Is null for a garbage or blank line
+		}
+		addStageTime(Stage.PARSE, batchSize, startNanos);
+		return parsedLines;
+	}
+
+	/**
+	 * @return {@code false} if the reading must stop.
+	 */
+	private boolean dispatch(Future<AccessLogLine[]> pendingBatch) {
+		try {
+			return dispatch(pendingBatch.get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running.set(false);
+			return false;
+		}
+		catch (ExecutionException e) {
+			running.set(false);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause(); // Like a parsing from the reader's thread
+			}
+			throw new IllegalStateException("Error while parsing " + accessLogFilePath, e.getCause());
+		}
+	}
+
+	/**
+	 * @return {@code false} if the reading must stop.
+	 */
+	private boolean dispatch(AccessLogLine[] parsedLines) {
+		Thread currentThread = Thread.currentThread();
+		long startNanos = System.nanoTime();
+		int dispatchedCount = 0;
+		try {
+			for (AccessLogLine parsed : parsedLines) {
+				if (parsed != null) { // Garbage or blank line ?
+					// Note: listeners are called from this thread,
+					// so their implementations have a big impact on the throughput
+					listeners.forEach(listener -> listener.accept(parsed));
+					dispatchedCount++;
+				}
+				// We need to check after some reading because it can happen that the process is late
+				// and do not get into the wait until a long time
+				if (!running.get()) {
+					return false;
+				}
+				// We should detect thread interruption in this processing part also
+				if (currentThread.isInterrupted()) {
+					running.set(false);
+					return false; // No need for an exception
+				}
+			}
+			return true;
+		}
+		finally {
+			addStageTime(Stage.DISPATCH, dispatchedCount, startNanos);
+		}
+	}
+
+	private void addStageTime(Stage stage, int lineCount, long startNanos) {
+		lineCounts.get(stage).add(lineCount);
+		busyNanos.get(stage).add(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return The count of lines that went through the stage.
+	 */
+	public long getLineCount(Stage stage) {
+		return lineCounts.get(stage).sum();
+	}
+
+	/**
+	 * @return The count of lines by second spent in the stage (by parser worker for {@link Stage#PARSE}).
+	 */
+	public double getThroughput(Stage stage) {
+		long nanos = busyNanos.get(stage).sum();
+		return nanos == 0L ? 0D : lineCounts.get(stage).sum() * 1e9D / nanos;
+	}
+
 	/**
 	 * Stops the reading.
 	 * The effect is not immediate and the delay can be at least of {@link #idleWaitMillis} plus the sum of listeners
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.read;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces the variable segments of request paths (numbers, UUIDs, hexadecimal values and configured patterns) with
+ * placeholders, so that {@literal /api/user/12345/orders/987} becomes {@literal /api/user/{num}/orders/{num}}.
+ * It bounds the cardinality of paths and sections before their aggregation.
+ *
+ * The normalized paths are registered as templates with an identifier. A bounded direct-mapped cache from raw paths
+ * to template identifiers avoids normalizing the hot paths again.
+ */
+@ThreadSafe
+public final class PathNormalizer implements UnaryOperator<AccessLogLine> {
+
+	public static final String NUMBER_PLACEHOLDER = "{num}";
+	public static final String UUID_PLACEHOLDER = "{uuid}";
+	public static final String HEX_PLACEHOLDER = "{hex}";
+	public static final String PATTERN_PLACEHOLDER = "{param}";
+
+	public static final int DEFAULT_CACHE_SIZE = 4096;
+	public static final int DEFAULT_MAX_TEMPLATE_COUNT = 16384;
+
+	/**
+	 * The shortest hexadecimal segment that is replaced (shorter ones are likely to be words like {@literal cafe}).
+	 */
+	private static final int MIN_HEX_LENGTH = 8;
+	private static final int UUID_LENGTH = 36;
+	private static final int NO_ID = -1;
+	private static final char SEPARATOR = '/';
+
+	/**
+	 * @param value Space-separated regular expressions, that are matched against whole path segments.
+	 * @throws java.util.regex.PatternSyntaxException If an expression is invalid.
+	 */
+	public static List<Pattern> parsePatterns(String value) {
+		List<Pattern> patterns = new ArrayList<>();
+		for (String regex : value.trim().split("\\s+")) {
+			if (!regex.isEmpty()) {
+				patterns.add(Pattern.compile(regex));
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * @param patterns Patterns of the segments to be replaced with {@link #PATTERN_PLACEHOLDER}, in addition to
+	 *                 the built-in ones.
+	 * @param cacheSize The count of cached paths (rounded up to a power of 2).
+	 * @param maxTemplateCount Template count limit (robustness about memory consumption).
+	 */
+	public PathNormalizer(List<Pattern> patterns, int cacheSize, int maxTemplateCount) {
+		if (cacheSize <= 0) {
+			throw new IllegalArgumentException("The cache size must be strictly positive");
+		}
+		this.patterns = patterns.toArray(new Pattern[0]);
+		int capacity = Integer.highestOneBit(cacheSize);
+		if (capacity < cacheSize) {
+			capacity <<= 1;
+		}
+		this.cache = new AtomicReferenceArray<>(capacity);
+		this.cacheMask = capacity - 1;
+		this.maxTemplateCount = maxTemplateCount;
+	}
+
+	@Immutable
+	private static final class CacheEntry {
+
+		private CacheEntry(String path, int templateId, boolean isUnchanged) {
+			this.path = path;
+			this.templateId = templateId;
+			this.isUnchanged = isUnchanged;
+		}
+
+		private final String path;
+		private final int templateId;
+		/**
+		 * Whether the path is its own template, so that its line is kept as is.
+		 */
+		private final boolean isUnchanged;
+	}
+
+	@Immutable
+	private static final class Template {
+
+		private Template(String path, String section) {
+			this.path = path;
+			this.section = section;
+		}
+
+		private final String path;
+		private final String section;
+	}
+
+	private final Pattern[] patterns;
+	private final AtomicReferenceArray<CacheEntry> cache;
+	private final int cacheMask;
+	private final int maxTemplateCount;
+	private final ConcurrentMap<String, Integer> templateIds = new ConcurrentHashMap<>();
+
+	/**
+	 * Templates by identifier; is copied on write since new templates are rare.
+	 */
+	private volatile Template[] templates = new Template[0];
+
+	private boolean isFullWarned = false;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+
+	@Nullable
+	@Override
+	public AccessLogLine apply(@Nullable AccessLogLine line) {
+		if (line == null) {
+			return null; // Not parsed
+		}
+		String path = line.getPath();
+		int slot = cacheSlotOf(path);
+		CacheEntry entry = cache.get(slot);
+		if (entry != null && entry.path.equals(path)) {
+			hitCount.increment();
+		}
+		else {
+			missCount.increment();
+			String normalized = normalize(path);
+			int templateId = templateIdOf(normalized);
+			if (templateId == NO_ID) {
+				return line.withPath(sectionOf(normalized), normalized);
+			}
+			entry = new CacheEntry(path, templateId, normalized.equals(path));
+			cache.set(slot, entry);
+		}
+		if (entry.isUnchanged) {
+			return line;
+		}
+		Template template = templates[entry.templateId];
+		return line.withPath(template.section, template.path);
+	}
+
+	private int cacheSlotOf(String path) {
+		int h = path.hashCode();
+		return (h ^ (h >>> 16)) & cacheMask;
+	}
+
+	private int templateIdOf(String template) {
+		Integer id = templateIds.get(template);
+		return id != null ? id : register(template);
+	}
+
+	private synchronized int register(String template) {
+		Integer id = templateIds.get(template);
+		if (id != null) {
+			return id;
+		}
+		Template[] current = templates;
+		if (current.length >= maxTemplateCount) {
+			if (!isFullWarned) {
+				isFullWarned = true;
+				System.err.println("New path templates are not cached from now on in order to limit memory usage");
+			}
+			return NO_ID;
+		}
+		Template[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = new Template(template, sectionOf(template));
+		templates = updated;
+		templateIds.put(template, current.length);
+		return current.length;
+	}
+
+	/**
+	 * @return The first segment of the path, like the section computed by {@link AccessLogParser}.
+	 */
+	static String sectionOf(String path) {
+		int startIndex = !path.isEmpty() && path.charAt(0) == SEPARATOR ? 1 : 0;
+		int endIndex = path.indexOf(SEPARATOR, startIndex);
+		return path.substring(startIndex, endIndex < 0 ? path.length() : endIndex);
+	}
+
+	/**
+	 * @return The path whose variable segments are replaced with placeholders (is the path itself if unchanged).
+	 */
+	String normalize(String path) {
+		StringBuilder sb = null; // Is created on the first replaced segment only
+		int segmentStartIndex = 0;
+		while (segmentStartIndex <= path.length()) {
+			int segmentEndIndex = path.indexOf(SEPARATOR, segmentStartIndex);
+			if (segmentEndIndex < 0) {
+				segmentEndIndex = path.length();
+			}
+			String placeholder = placeholderOf(path, segmentStartIndex, segmentEndIndex);
+			if (placeholder != null && sb == null) {
+				sb = new StringBuilder(path.length()).append(path, 0, segmentStartIndex);
+			}
+			if (sb != null) {
+				if (placeholder != null) {
+					sb.append(placeholder);
+				}
+				else {
+					sb.append(path, segmentStartIndex, segmentEndIndex);
+				}
+				if (segmentEndIndex < path.length()) {
+					sb.append(SEPARATOR);
+				}
+			}
+			segmentStartIndex = segmentEndIndex + 1;
+		}
+		return sb == null ? path : sb.toString();
+	}
+
+	/**
+	 * The built-in checks are plain character scans; the patterns are matched only if none applies.
+	 * @return The placeholder of the segment, or {@code null} if it is kept.
+	 */
+	@Nullable
+	private String placeholderOf(String path, int startIndex, int endIndex) {
+		if (endIndex == startIndex) {
+			return null;
+		}
+		if (isNumber(path, startIndex, endIndex)) {
+			return NUMBER_PLACEHOLDER;
+		}
+		if (isUuid(path, startIndex, endIndex)) {
+			return UUID_PLACEHOLDER;
+		}
+		if (isHex(path, startIndex, endIndex)) {
+			return HEX_PLACEHOLDER;
+		}
+		if (patterns.length > 0) {
+			CharSequence segment = path.subSequence(startIndex, endIndex);
+			for (Pattern pattern : patterns) {
+				if (pattern.matcher(segment).matches()) {
+					return PATTERN_PLACEHOLDER;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean isNumber(String path, int startIndex, int endIndex) {
+		for (int i = startIndex; i < endIndex; i++) {
+			if (!isDigit(path.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isUuid(String path, int startIndex, int endIndex) {
+		if (endIndex - startIndex != UUID_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < UUID_LENGTH; i++) {
+			char c = path.charAt(startIndex + i);
+			boolean isDash = i == 8 || i == 13 || i == 18 || i == 23;
+			if (isDash ? c != '-' : !isHexDigit(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Whether the segment is a long enough hexadecimal value having at least a decimal digit.
+	 */
+	private static boolean isHex(String path, int startIndex, int endIndex) {
+		if (endIndex - startIndex < MIN_HEX_LENGTH) {
+			return false;
+		}
+		boolean hasDigit = false;
+		for (int i = startIndex; i < endIndex; i++) {
+			char c = path.charAt(i);
+			if (!isHexDigit(c)) {
+				return false;
+			}
+			hasDigit |= isDigit(c);
+		}
+		return hasDigit;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isHexDigit(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	/**
+	 * @return The ratio of paths found in the cache, or zero if no path has been normalized yet.
+	 */
+	public double getCacheHitRatio() {
+		long hits = hitCount.sum();
+		long total = hits + missCount.sum();
+		return total == 0 ? 0D : (double) hits / total;
+	}
+
+	public int getTemplateCount() {
+		return templates.length;
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Statistics stored in primitive columns, whose rows are the scopes of a {@link ScopeDictionary} (like the sections of
+ * a {@link SectionDictionary} or the path prefixes of a {@link PathTrie}). The first row holds the overall statistics,
+ * and the other rows are appended on demand, in the order of their first line, so that an instance holds only the
+ * scopes of its lines. The row of a scope identifier is found in a primitive open-addressing index (is used by the
+ * writer only).
+ *
+ * Compared to {@link StatisticAggregator}, an instance holds a few arrays whatever the section count, and the
+ * aggregation of another instance is a loop over its rows.
+ *
+ * Is written from a single thread and read from others.
+ */
+@ThreadSafe
+public class ColumnarStatistic implements Statistic.Accumulator, Consumer<AccessLogLine> {
+
+	private static final int OVERALL_ROW = 0;
+	private static final int SLOT_COUNT = WeightHistogram.SLOT_COUNT;
+	private static final int STATUS_SLOT_COUNT = StatusCounts.SLOT_COUNT;
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * @param dictionary The scope identifiers, shared by all instances that are aggregated together.
+	 * @param comparator A comparator for sorting stats.
+	 */
+	public ColumnarStatistic(ScopeDictionary dictionary, Comparator<ScopedStatistic> comparator) {
+		this.dictionary = Objects.requireNonNull(dictionary);
+		this.comparator = Objects.requireNonNull(comparator);
+		this.columns = new Columns(INITIAL_CAPACITY);
+		this.ids = new int[dictionary.getMaxIdCount()];
+	}
+
+	/**
+	 * Primitive columns by row, with the index of the rows by scope identifier.
+	 */
+	private static final class Columns {
+
+		private Columns(int capacity) {
+			this.scopeIds = new int[capacity];
+			this.scopeIds[OVERALL_ROW] = ScopeDictionary.NO_ID;
+			this.index = new int[capacity * 2];
+			this.counts = new long[capacity];
+			this.weights = new long[capacity];
+			this.maxWeights = new int[capacity];
+			this.histograms = new long[capacity * SLOT_COUNT];
+			this.statuses = new long[capacity * STATUS_SLOT_COUNT];
+			this.rowCount = OVERALL_ROW + 1;
+		}
+
+		private Columns(Columns previous, int capacity) {
+			this.scopeIds = Arrays.copyOf(previous.scopeIds, capacity);
+			this.index = new int[capacity * 2];
+			this.counts = Arrays.copyOf(previous.counts, capacity);
+			this.weights = Arrays.copyOf(previous.weights, capacity);
+			this.maxWeights = Arrays.copyOf(previous.maxWeights, capacity);
+			this.histograms = Arrays.copyOf(previous.histograms, capacity * SLOT_COUNT);
+			this.statuses = Arrays.copyOf(previous.statuses, capacity * STATUS_SLOT_COUNT);
+			this.rowCount = previous.rowCount;
+			for (int row = OVERALL_ROW + 1; row < rowCount; row++) {
+				index(row);
+			}
+		}
+
+		/**
+		 * The scope identifier by row ({@link ScopeDictionary#NO_ID} for the overall row).
+		 */
+		private final int[] scopeIds;
+
+		/**
+		 * Open-addressing (linear probing) index of the rows, that holds {@code row + 1} (zero for a free slot).
+		 */
+		private final int[] index;
+
+		private final long[] counts;
+		private final long[] weights;
+		private final int[] maxWeights;
+
+		/**
+		 * The {@link WeightHistogram} slots, {@link #SLOT_COUNT} values per row.
+		 */
+		private final long[] histograms;
+
+		/**
+		 * The {@link StatusCounts} slots, {@link #STATUS_SLOT_COUNT} values per row.
+		 */
+		private final long[] statuses;
+
+		/**
+		 * Is read after the acquire semantic of {@link #readColumns()}.
+		 */
+		private int rowCount;
+
+		private int capacity() {
+			return counts.length;
+		}
+
+		private static int hash(int scopeId) {
+			int h = scopeId * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		/**
+		 * @return The row of the scope, or a negative value if it is absent.
+		 */
+		private int find(int scopeId) {
+			int mask = index.length - 1;
+			for (int slot = hash(scopeId) & mask; ; slot = (slot + 1) & mask) {
+				int row = index[slot] - 1;
+				if (row < 0 || scopeIds[row] == scopeId) {
+					return row;
+				}
+			}
+		}
+
+		private void index(int row) {
+			int mask = index.length - 1;
+			int slot = hash(scopeIds[row]) & mask;
+			while (index[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			index[slot] = row + 1;
+		}
+
+		/**
+		 * Appends the row of a scope; the columns must have a free row.
+		 */
+		private int append(int scopeId) {
+			int row = rowCount;
+			scopeIds[row] = scopeId;
+			index(row);
+			rowCount = row + 1;
+			return row;
+		}
+
+		private void record(int row, int length, int status) {
+			counts[row]++;
+			StatusCounts.record(statuses, row * STATUS_SLOT_COUNT, status);
+			weights[row] += length;
+			if (length >= 0) {
+				histograms[row * SLOT_COUNT + WeightHistogram.slotOf(length)]++;
+				if (length > maxWeights[row]) {
+					maxWeights[row] = length;
+				}
+			}
+		}
+
+		private void addRow(int row, Columns other, int otherRow) {
+			counts[row] += other.counts[otherRow];
+			weights[row] += other.weights[otherRow];
+			maxWeights[row] = Math.max(maxWeights[row], other.maxWeights[otherRow]);
+			int offset = row * SLOT_COUNT;
+			int otherOffset = otherRow * SLOT_COUNT;
+			for (int i = 0; i < SLOT_COUNT; i++) {
+				histograms[offset + i] += other.histograms[otherOffset + i];
+			}
+			offset = row * STATUS_SLOT_COUNT;
+			otherOffset = otherRow * STATUS_SLOT_COUNT;
+			for (int i = 0; i < STATUS_SLOT_COUNT; i++) {
+				statuses[offset + i] += other.statuses[otherOffset + i];
+			}
+		}
+
+		private void addRow(int row, ScopedStatistic scopedStatistic) {
+			counts[row] += scopedStatistic.requestCount();
+			weights[row] += scopedStatistic.weight();
+			WeightHistogram histogram = scopedStatistic.weightHistogram();
+			histogram.addTo(histograms, row * SLOT_COUNT);
+			maxWeights[row] = Math.max(maxWeights[row], histogram.getMax());
+			scopedStatistic.statusCounts().addTo(statuses, row * STATUS_SLOT_COUNT);
+		}
+
+		/**
+		 * Resets the values; the rows are kept, since a reused instance is likely to get the same scopes.
+		 */
+		private void clear() {
+			Arrays.fill(counts, 0);
+			Arrays.fill(weights, 0);
+			Arrays.fill(maxWeights, 0);
+			Arrays.fill(histograms, 0);
+			Arrays.fill(statuses, 0);
+		}
+	}
+
+	private final ScopeDictionary dictionary;
+	private final Comparator<ScopedStatistic> comparator;
+
+	/**
+	 * Scope identifiers of the line being written (is used by the writer only).
+	 */
+	private final int[] ids;
+
+	/**
+	 * Is replaced when rows are added over the capacity.
+	 */
+	private volatile Columns columns;
+
+	/**
+	 * Is updated (with a release semantic) after each write, so that readers see the written values.
+	 */
+	private final AtomicInteger writeCount = new AtomicInteger();
+
+	/**
+	 * Lines whose scopes are skipped because of the scope count limit (is written by the writer only).
+	 */
+	private volatile long skippedLineCount = 0L;
+
+	private void published() {
+		writeCount.lazySet(writeCount.get() + 1);
+	}
+
+	private Columns readColumns() {
+		writeCount.get(); // Acquire semantic
+		return columns;
+	}
+
+	/**
+	 * @return The row of the scope, that is appended if needed (see {@link #columns} for the updated columns).
+	 */
+	private int writableRowOf(int scopeId) {
+		Columns current = columns;
+		int row = current.find(scopeId);
+		if (row < 0) {
+			if (current.rowCount == current.capacity()) {
+				current = new Columns(current, current.capacity() * 2);
+				columns = current;
+			}
+			row = current.append(scopeId);
+		}
+		return row;
+	}
+
+	ScopeDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @return The estimated bytes of the columns and of their index.
+	 */
+	public long estimateBytes() {
+		long rowBytes = Long.BYTES * (2 + SLOT_COUNT + STATUS_SLOT_COUNT) + Integer.BYTES * 4;
+		return readColumns().capacity() * rowBytes + ids.length * Integer.BYTES;
+	}
+
+	/**
+	 * @return The count of lines whose scopes are skipped because of the scope count limit, that are still counted overall.
+	 */
+	public long getSkippedLineCount() {
+		return skippedLineCount;
+	}
+
+	int getSectionCount() {
+		Columns current = readColumns();
+		int count = 0;
+		for (int row = OVERALL_ROW + 1; row < current.rowCount; row++) {
+			if (current.counts[row] != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		int idCount = dictionary.idsOf(accessLogLine, ids);
+		if (dictionary.isSkipped(accessLogLine, idCount)) {
+			skippedLineCount++;
+		}
+		columns.record(OVERALL_ROW, accessLogLine.getLength(), accessLogLine.getStatus());
+		for (int i = 0; i < idCount; i++) {
+			int row = writableRowOf(ids[i]);
+			columns.record(row, accessLogLine.getLength(), accessLogLine.getStatus());
+		}
+		published();
+	}
+
+	@Override
+	public ScopedStatistic overall() {
+		return new ScopedView(readColumns(), OVERALL_ROW);
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return comparator;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>();
+		forEachSection((section, scopedStats) -> list.add(new AbstractMap.SimpleImmutableEntry<>(section, scopedStats)));
+		list.sort(Comparator.comparing(Map.Entry::getValue, comparator));
+		return list;
+	}
+
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		Columns current = readColumns();
+		for (int row = OVERALL_ROW + 1; row < current.rowCount; row++) {
+			if (current.counts[row] != 0) {
+				action.accept(dictionary.nameOf(current.scopeIds[row]), new ScopedView(current, row));
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		columns.clear();
+		published();
+	}
+
+	@Override
+	public void add(Statistic other) {
+		if (other instanceof ColumnarStatistic && ((ColumnarStatistic) other).dictionary == dictionary) {
+			Columns otherColumns = ((ColumnarStatistic) other).readColumns();
+			columns.addRow(OVERALL_ROW, otherColumns, OVERALL_ROW);
+			for (int otherRow = OVERALL_ROW + 1; otherRow < otherColumns.rowCount; otherRow++) {
+				if (otherColumns.counts[otherRow] != 0) {
+					int row = writableRowOf(otherColumns.scopeIds[otherRow]);
+					columns.addRow(row, otherColumns, otherRow);
+				}
+			}
+		}
+		else {
+			columns.addRow(OVERALL_ROW, other.overall());
+			other.forEachSection((section, otherSectionStats) -> {
+				int id = dictionary.idOf(section);
+				if (id != ScopeDictionary.NO_ID) {
+					int row = writableRowOf(id);
+					columns.addRow(row, otherSectionStats);
+				}
+			});
+		}
+		published();
+	}
+
+	/**
+	 * Read-only view on a row.
+	 */
+	@Immutable
+	private static final class ScopedView implements ScopedStatistic {
+
+		private ScopedView(Columns columns, int row) {
+			this.columns = columns;
+			this.row = row;
+			this.count = columns.counts[row];
+			this.weight = columns.weights[row];
+		}
+
+		private final Columns columns;
+		private final int row;
+		private final long count;
+		private final long weight;
+
+		@Override
+		public long requestCount() {
+			return count;
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		@Override
+		public WeightHistogram weightHistogram() {
+			// Is created on demand only (usually for top sections)
+			WeightHistogram histogram = new WeightHistogram();
+			histogram.addFrom(columns.histograms, row * SLOT_COUNT, columns.maxWeights[row]);
+			return histogram;
+		}
+
+		@Override
+		public StatusCounts statusCounts() {
+			// Is created on demand only
+			StatusCounts statusCounts = new StatusCounts();
+			statusCounts.addFrom(columns.statuses, row * STATUS_SLOT_COUNT);
+			return statusCounts;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Read-only statistics made of parts having disjoint sections (like shards partitioned by section), so that the
+ * sections of the parts are concatenated instead of being merged by name.
+ */
+@ThreadSafe
+public final class ConcatenatedStatistic implements Statistic {
+
+	/**
+	 * @param parts Statistics whose sections are disjoint.
+	 */
+	public ConcatenatedStatistic(Comparator<ScopedStatistic> comparator, List<? extends Statistic> parts) {
+		this.comparator = Objects.requireNonNull(comparator);
+		this.parts = Collections.unmodifiableList(new ArrayList<>(parts));
+	}
+
+	private final Comparator<ScopedStatistic> comparator;
+	private final List<? extends Statistic> parts;
+
+	@Override
+	public ScopedStatistic overall() {
+		// Is computed on demand, since the parts can be updated
+		SummedScopedStatistic overall = new SummedScopedStatistic();
+		parts.forEach(part -> overall.add(part.overall()));
+		return overall;
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return comparator;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>();
+		parts.forEach(part -> list.addAll(part.topSections()));
+		// The parts are sorted runs, that are merged by the sort
+		list.sort(Comparator.comparing(Map.Entry::getValue, comparator));
+		return list;
+	}
+
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		parts.forEach(part -> part.forEachSection(action));
+	}
+
+	@NotThreadSafe
+	private static final class SummedScopedStatistic implements ScopedAccumulator {
+
+		private long count = 0L;
+		private long weight = 0L;
+		private final WeightHistogram histogram = new WeightHistogram();
+		private final StatusCounts statusCounts = new StatusCounts();
+
+		@Override
+		public long requestCount() {
+			return count;
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		@Override
+		public WeightHistogram weightHistogram() {
+			return histogram;
+		}
+
+		@Override
+		public StatusCounts statusCounts() {
+			return statusCounts;
+		}
+
+		@Override
+		public void add(ScopedStatistic other) {
+			count += other.requestCount();
+			weight += other.weight();
+			histogram.add(other.weightHistogram());
+			statusCounts.add(other.statusCounts());
+		}
+	}
+}
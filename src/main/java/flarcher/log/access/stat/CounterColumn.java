@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+/**
+ * The overall numeric aggregates held by {@link CounterTimeBuckets}.
+ * The ordinal of a value is its column index.
+ */
+public enum CounterColumn implements ToLongFunction<AccessLogLine> {
+
+	REQUEST_COUNT {
+		@Override
+		public long applyAsLong(AccessLogLine line) {
+			return 1;
+		}
+	},
+
+	WEIGHT {
+		@Override
+		public long applyAsLong(AccessLogLine line) {
+			return Math.max(0, line.getLength());
+		}
+	},
+
+	/**
+	 * The requests of the status class {@literal 1xx}.
+	 */
+	INFORMATIONAL_COUNT(1),
+
+	SUCCESS_COUNT(2),
+
+	REDIRECTION_COUNT(3),
+
+	CLIENT_ERROR_COUNT(4),
+
+	SERVER_ERROR_COUNT(5),
+
+	;
+
+	CounterColumn() {
+		this(NO_STATUS_CLASS);
+	}
+
+	/**
+	 * @param statusClass The status class whose requests are counted (see {@link StatusCounts#classOf(int)}).
+	 */
+	CounterColumn(int statusClass) {
+		this.statusClass = statusClass;
+	}
+
+	private static final int NO_STATUS_CLASS = -1;
+
+	private final int statusClass;
+
+	/**
+	 * The columns by status class, whatever their declaration order.
+	 */
+	private static final CounterColumn[] BY_STATUS_CLASS = new CounterColumn[StatusCounts.CLASS_COUNT];
+
+	static {
+		for (CounterColumn column : values()) {
+			if (column.statusClass != NO_STATUS_CLASS) {
+				BY_STATUS_CLASS[column.statusClass] = column;
+			}
+		}
+	}
+
+	/**
+	 * Counts the requests of the status class of the column (is overridden by the other columns).
+	 */
+	@Override
+	public long applyAsLong(AccessLogLine line) {
+		return StatusCounts.classOf(line.getStatus()) == statusClass ? 1 : 0;
+	}
+
+	/**
+	 * @param statusClass A known status class (from {@literal 1} to {@literal 5}).
+	 * @return The column counting the requests of the class.
+	 */
+	public static CounterColumn ofStatusClass(int statusClass) {
+		CounterColumn column = statusClass > 0 && statusClass < BY_STATUS_CLASS.length ? BY_STATUS_CLASS[statusClass] : null;
+		if (column == null) {
+			throw new IllegalArgumentException("No column for the status class " + statusClass);
+		}
+		return column;
+	}
+
+	/**
+	 * @param bucketDuration The duration of the smallest time range (bucket).
+	 * @param retention      The greatest duration of a time range.
+	 * @return Counters buckets with all columns.
+	 */
+	public static CounterTimeBuckets<AccessLogLine> createTimeBuckets(Duration bucketDuration, Duration retention) {
+		return new CounterTimeBuckets<>(Arrays.asList(values()), bucketDuration, retention);
+	}
+
+	/**
+	 * Gives the overall counters to the extractors of alerts that only need scalar values (like the throughput or the
+	 * server error ratio), without reducing any {@link flarcher.log.access.TimeBuckets}: it only sums a few columns,
+	 * whatever the count of sections.
+	 * @param untilMillis End instant of the time frame.
+	 * @param duration Duration of the time frame.
+	 * @return Read-only overall statistics with the request count, the weight and the counts by status class. It has
+	 * no section, and no weight distribution (see {@link OverallSnapshot}).
+	 */
+	public static Statistic snapshot(CounterTimeBuckets<AccessLogLine> buckets, long untilMillis, Duration duration) {
+		return snapshot(buckets, untilMillis - duration.toMillis(), untilMillis);
+	}
+
+	/**
+	 * Same as {@link #snapshot(CounterTimeBuckets, long, Duration)}, over the buckets between two instants.
+	 * @param sinceMillis Start instant of the time frame (included).
+	 * @param untilMillis End instant of the time frame (included).
+	 */
+	public static Statistic snapshot(CounterTimeBuckets<AccessLogLine> buckets, long sinceMillis, long untilMillis) {
+		long[] classCounts = new long[StatusCounts.CLASS_COUNT];
+		for (int statusClass = 1; statusClass < StatusCounts.CLASS_COUNT; statusClass++) {
+			classCounts[statusClass] = ofStatusClass(statusClass).sum(buckets, sinceMillis, untilMillis);
+		}
+		return new OverallSnapshot(
+				REQUEST_COUNT.sum(buckets, sinceMillis, untilMillis),
+				WEIGHT.sum(buckets, sinceMillis, untilMillis),
+				classCounts);
+	}
+
+	public long sum(CounterTimeBuckets<AccessLogLine> buckets, long sinceMillis, long untilMillis) {
+		return buckets.sum(ordinal(), sinceMillis, untilMillis);
+	}
+
+	public long sumLatest(CounterTimeBuckets<AccessLogLine> buckets, long untilMillis, Duration duration) {
+		return buckets.sumLatest(ordinal(), untilMillis, duration);
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Statistics grouped by the composite keys of {@link GroupByKeys} (a {@literal cube} over some {@link Dimension}s).
+ * The scopes are stored in a primitive open-addressing hash table by key, so that the aggregation of another
+ * instance is a loop over its table, whatever the count of dimensions. The {@link #topSections()} are labelled with
+ * {@link GroupByKeys#labelOf(long)}.
+ *
+ * Is written from a single thread and read from others (like {@link ColumnarStatistic}).
+ */
+@ThreadSafe
+public class CubeStatistic implements Statistic.Accumulator, Consumer<AccessLogLine> {
+
+	private static final long EMPTY_KEY = Long.MIN_VALUE;
+	private static final long OVERALL_KEY = GroupByKeys.NO_KEY;
+	private static final int SLOT_COUNT = WeightHistogram.SLOT_COUNT;
+	private static final int STATUS_SLOT_COUNT = StatusCounts.SLOT_COUNT;
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * @param keys The composite keys, shared by all instances that are aggregated together.
+	 * @param comparator A comparator for sorting stats.
+	 * @param maxScopeCount Limit of the count of keys (robustness about memory consumption).
+	 */
+	public CubeStatistic(GroupByKeys keys, Comparator<ScopedStatistic> comparator, int maxScopeCount) {
+		this.keys = Objects.requireNonNull(keys);
+		this.comparator = Objects.requireNonNull(comparator);
+		this.maxScopeCount = maxScopeCount;
+		Table initial = new Table(INITIAL_CAPACITY);
+		initial.rowOf(OVERALL_KEY);
+		this.table = initial;
+	}
+
+	/**
+	 * Open-addressing (linear probing) table with primitive columns by row.
+	 */
+	private static final class Table {
+
+		private Table(int capacity) {
+			this.keys = new long[capacity];
+			Arrays.fill(keys, EMPTY_KEY);
+			this.counts = new long[capacity];
+			this.weights = new long[capacity];
+			this.maxWeights = new int[capacity];
+			this.histograms = new long[capacity * SLOT_COUNT];
+			this.statuses = new long[capacity * STATUS_SLOT_COUNT];
+		}
+
+		private final long[] keys;
+		private final long[] counts;
+		private final long[] weights;
+		private final int[] maxWeights;
+		private final long[] histograms;
+		private final long[] statuses;
+		private int size = 0;
+		private int overallRow = -1;
+
+		private int capacity() {
+			return keys.length;
+		}
+
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+
+		/**
+		 * @return The row of the key, or a negative value if it is absent.
+		 */
+		private int find(long key) {
+			int mask = keys.length - 1;
+			for (int row = hash(key) & mask; ; row = (row + 1) & mask) {
+				if (keys[row] == key) {
+					return row;
+				}
+				if (keys[row] == EMPTY_KEY) {
+					return -1;
+				}
+			}
+		}
+
+		/**
+		 * Inserts the key if needed; the table must have a free row.
+		 */
+		private int rowOf(long key) {
+			int mask = keys.length - 1;
+			for (int row = hash(key) & mask; ; row = (row + 1) & mask) {
+				if (keys[row] == key) {
+					return row;
+				}
+				if (keys[row] == EMPTY_KEY) {
+					keys[row] = key;
+					size++;
+					if (key == OVERALL_KEY) {
+						overallRow = row;
+					}
+					return row;
+				}
+			}
+		}
+
+		private Table resized() {
+			Table resized = new Table(keys.length * 2);
+			for (int row = 0; row < keys.length; row++) {
+				if (keys[row] != EMPTY_KEY) {
+					resized.addRow(resized.rowOf(keys[row]), this, row);
+				}
+			}
+			return resized;
+		}
+
+		private void record(int row, int length, int status) {
+			counts[row]++;
+			weights[row] += length;
+			StatusCounts.record(statuses, row * STATUS_SLOT_COUNT, status);
+			if (length >= 0) {
+				histograms[row * SLOT_COUNT + WeightHistogram.slotOf(length)]++;
+				if (length > maxWeights[row]) {
+					maxWeights[row] = length;
+				}
+			}
+		}
+
+		private void addRow(int row, Table other, int otherRow) {
+			counts[row] += other.counts[otherRow];
+			weights[row] += other.weights[otherRow];
+			maxWeights[row] = Math.max(maxWeights[row], other.maxWeights[otherRow]);
+			int offset = row * SLOT_COUNT;
+			int otherOffset = otherRow * SLOT_COUNT;
+			for (int i = 0; i < SLOT_COUNT; i++) {
+				histograms[offset + i] += other.histograms[otherOffset + i];
+			}
+			offset = row * STATUS_SLOT_COUNT;
+			otherOffset = otherRow * STATUS_SLOT_COUNT;
+			for (int i = 0; i < STATUS_SLOT_COUNT; i++) {
+				statuses[offset + i] += other.statuses[otherOffset + i];
+			}
+		}
+
+		private void addRow(int row, ScopedStatistic scopedStatistic) {
+			counts[row] += scopedStatistic.requestCount();
+			weights[row] += scopedStatistic.weight();
+			WeightHistogram histogram = scopedStatistic.weightHistogram();
+			histogram.addTo(histograms, row * SLOT_COUNT);
+			maxWeights[row] = Math.max(maxWeights[row], histogram.getMax());
+			scopedStatistic.statusCounts().addTo(statuses, row * STATUS_SLOT_COUNT);
+		}
+
+		private void clear() {
+			Arrays.fill(counts, 0);
+			Arrays.fill(weights, 0);
+			Arrays.fill(maxWeights, 0);
+			Arrays.fill(histograms, 0);
+			Arrays.fill(statuses, 0);
+		}
+	}
+
+	private final GroupByKeys keys;
+	private final Comparator<ScopedStatistic> comparator;
+	private final int maxScopeCount;
+
+	/**
+	 * Is replaced when the table is resized.
+	 */
+	private volatile Table table;
+
+	/**
+	 * Is updated (with a release semantic) after each write, so that readers see the written values.
+	 */
+	private final AtomicInteger writeCount = new AtomicInteger();
+
+	/**
+	 * Lines whose key is skipped because of a dictionary or of the scope count limit (is written by the writer only).
+	 */
+	private volatile long skippedLineCount = 0L;
+
+	private void published() {
+		writeCount.lazySet(writeCount.get() + 1);
+	}
+
+	private Table readTable() {
+		writeCount.get(); // Acquire semantic
+		return table;
+	}
+
+	/**
+	 * @return The row of the key (inserted if needed), or a negative value if the scope count limit is reached.
+	 */
+	private int writableRowOf(long key) {
+		Table current = table;
+		int row = current.find(key);
+		if (row >= 0) {
+			return row;
+		}
+		if (current.size > maxScopeCount) { // The overall row is not counted
+			return -1;
+		}
+		if (2 * (current.size + 1) > current.capacity()) {
+			current = current.resized();
+			table = current;
+		}
+		return current.rowOf(key);
+	}
+
+	GroupByKeys getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return The estimated bytes of the table.
+	 */
+	public long estimateBytes() {
+		long rowBytes = Long.BYTES * (3 + SLOT_COUNT + STATUS_SLOT_COUNT) + Integer.BYTES;
+		return readTable().capacity() * rowBytes;
+	}
+
+	/**
+	 * @return The count of lines whose key is skipped because of a limit, that are still counted overall.
+	 */
+	public long getSkippedLineCount() {
+		return skippedLineCount;
+	}
+
+	int getScopeCount() {
+		return readTable().size - 1;
+	}
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		int length = accessLogLine.getLength();
+		int status = accessLogLine.getStatus();
+		long key = keys.keyOf(accessLogLine);
+		int row = key == GroupByKeys.NO_KEY ? -1 : writableRowOf(key);
+		Table current = table;
+		current.record(current.overallRow, length, status);
+		if (row >= 0) {
+			current.record(row, length, status);
+		}
+		else {
+			skippedLineCount++;
+		}
+		published();
+	}
+
+	@Override
+	public ScopedStatistic overall() {
+		Table current = readTable();
+		return new ScopedView(current, current.overallRow);
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return comparator;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		Table current = readTable();
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>(current.size);
+		for (int row = 0; row < current.capacity(); row++) {
+			long key = current.keys[row];
+			if (key != EMPTY_KEY && key != OVERALL_KEY && current.counts[row] != 0) {
+				list.add(new AbstractMap.SimpleImmutableEntry<>(keys.labelOf(key), new ScopedView(current, row)));
+			}
+		}
+		list.sort(Comparator.comparing(Map.Entry::getValue, comparator));
+		return list;
+	}
+
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		Table current = readTable();
+		for (int row = 0; row < current.capacity(); row++) {
+			long key = current.keys[row];
+			if (key != EMPTY_KEY && key != OVERALL_KEY && current.counts[row] != 0) {
+				action.accept(keys.labelOf(key), new ScopedView(current, row));
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		table.clear();
+		published();
+	}
+
+	@Override
+	public void add(Statistic other) {
+		if (other instanceof CubeStatistic && ((CubeStatistic) other).keys == keys) {
+			Table otherTable = ((CubeStatistic) other).readTable();
+			for (int otherRow = 0; otherRow < otherTable.capacity(); otherRow++) {
+				long key = otherTable.keys[otherRow];
+				if (key != EMPTY_KEY && otherTable.counts[otherRow] != 0) {
+					int row = writableRowOf(key);
+					if (row >= 0) {
+						table.addRow(row, otherTable, otherRow);
+					}
+				}
+			}
+		}
+		else {
+			Table current = table;
+			current.addRow(current.overallRow, other.overall());
+			other.forEachSection((label, otherScopeStats) -> {
+				long key = keys.keyOfLabel(label);
+				int row = key == GroupByKeys.NO_KEY ? -1 : writableRowOf(key);
+				if (row >= 0) {
+					table.addRow(row, otherScopeStats);
+				}
+			});
+		}
+		published();
+	}
+
+	/**
+	 * Read-only view on a row.
+	 */
+	@Immutable
+	private static final class ScopedView implements ScopedStatistic {
+
+		private ScopedView(Table table, int row) {
+			this.table = table;
+			this.row = row;
+			this.count = table.counts[row];
+			this.weight = table.weights[row];
+		}
+
+		private final Table table;
+		private final int row;
+		private final long count;
+		private final long weight;
+
+		@Override
+		public long requestCount() {
+			return count;
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		@Override
+		public WeightHistogram weightHistogram() {
+			// Is created on demand only (usually for top sections)
+			WeightHistogram histogram = new WeightHistogram();
+			histogram.addFrom(table.histograms, row * SLOT_COUNT, table.maxWeights[row]);
+			return histogram;
+		}
+
+		@Override
+		public StatusCounts statusCounts() {
+			// Is created on demand only
+			StatusCounts statusCounts = new StatusCounts();
+			statusCounts.addFrom(table.statuses, row * STATUS_SLOT_COUNT);
+			return statusCounts;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+/**
+ * A dimension that statistics can be grouped by (see {@link GroupByKeys}).
+ * Each dimension value has an identifier that is packed into a composite key with a fixed count of bits, so that all
+ * dimensions fit in a {@code long}.
+ */
+public enum Dimension {
+
+	SECTION(20) {
+		@Override
+		String extract(AccessLogLine line) {
+			return line.getSection();
+		}
+	},
+
+	METHOD(5) {
+		@Override
+		String extract(AccessLogLine line) {
+			return line.getMethod();
+		}
+	},
+
+	/**
+	 * Its identifier is the status class itself, so that it needs no dictionary. Its value is like {@literal 2xx}.
+	 */
+	STATUS_CLASS(3) {
+		@Override
+		String extract(AccessLogLine line) {
+			return labelOfStatusClass(StatusCounts.classOf(line.getStatus()));
+		}
+
+		@Override
+		boolean hasDictionary() {
+			return false;
+		}
+	},
+
+	USER(16) {
+		@Override
+		String extract(AccessLogLine line) {
+			return line.getUser();
+		}
+	},
+
+	HOST(19) {
+		@Override
+		String extract(AccessLogLine line) {
+			return line.getHost();
+		}
+	},
+
+	;
+
+	Dimension(int bits) {
+		this.bits = bits;
+	}
+
+	private final int bits;
+
+	int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return The greatest count of distinct values.
+	 */
+	int getMaxValueCount() {
+		return 1 << bits;
+	}
+
+	/**
+	 * @return The value of a line.
+	 */
+	abstract String extract(AccessLogLine line);
+
+	boolean hasDictionary() {
+		return true;
+	}
+
+	private static final String UNKNOWN_STATUS_CLASS = "-";
+
+	/**
+	 * @return The value of the {@link #STATUS_CLASS} dimension for the class (see {@link StatusCounts#classOf(int)}).
+	 */
+	static String labelOfStatusClass(int statusClass) {
+		return statusClass == 0 ? UNKNOWN_STATUS_CLASS : statusClass + "xx";
+	}
+
+	/**
+	 * Is the reverse of {@link #labelOfStatusClass(int)}.
+	 * @return The status class, or {@link ScopeDictionary#NO_ID} if the value is invalid.
+	 */
+	static int statusClassOf(String label) {
+		if (UNKNOWN_STATUS_CLASS.equals(label)) {
+			return 0;
+		}
+		int statusClass = label.length() == 3 && label.endsWith("xx") ? Character.digit(label.charAt(0), 10) : -1;
+		return statusClass > 0 && statusClass < StatusCounts.CLASS_COUNT ? statusClass : ScopeDictionary.NO_ID;
+	}
+}
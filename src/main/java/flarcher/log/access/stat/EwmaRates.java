@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Exponentially weighted moving averages of the request rate, overall and by section (like the Unix load averages).
+ * Each line adds an impulse to the rates of its scopes, after they are decayed by the time elapsed since their latest
+ * update, so that an update costs the same whatever the duration. The rates are decayed the same way when they are
+ * read, and no {@link TimeBuckets} is reduced.
+ *
+ * The count of sections is bounded. Once it is reached, the sections whose 5-minute rate has become negligible (with
+ * no line since about 5 minutes) are evicted, at most once by second, so that new sections get rates again.
+ *
+ * The time is the one of the lines (event time). Is written from a single thread and read from others; the rates of
+ * distinct windows may then be read from slightly distinct updates.
+ */
+@ThreadSafe
+public final class EwmaRates implements Consumer<AccessLogLine> {
+
+	/**
+	 * The decay windows (time constants) of the averages.
+	 */
+	public enum Window {
+
+		ONE_SECOND(Duration.ofSeconds(1)),
+		ONE_MINUTE(Duration.ofMinutes(1)),
+		FIVE_MINUTES(Duration.ofMinutes(5)),
+		;
+
+		Window(Duration duration) {
+			this.duration = duration;
+			this.tauMillis = duration.toMillis();
+		}
+
+		private final Duration duration;
+		private final double tauMillis;
+
+		public Duration getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return The window of the duration, if any.
+		 */
+		public static Optional<Window> of(Duration duration) {
+			return Arrays.stream(values()).filter(window -> window.duration.equals(duration)).findFirst();
+		}
+	}
+
+	private static final Window[] WINDOWS = Window.values();
+	private static final long NO_TIME = Long.MIN_VALUE;
+
+	/**
+	 * The 5-minute rate of a single line, once decayed for 5 minutes, under which a section can be evicted.
+	 */
+	private static final double NEGLIGIBLE_RATE = 1_000D / Window.FIVE_MINUTES.tauMillis / Math.E;
+
+	/**
+	 * The least time between two sweeps of the sections, when their count limit is reached.
+	 */
+	private static final long SWEEP_INTERVAL_MILLIS = 1_000L;
+
+	/**
+	 * @param maxSectionCount Limit of the count of sections (robustness about memory consumption).
+	 */
+	public EwmaRates(int maxSectionCount) {
+		this.maxSectionCount = maxSectionCount;
+	}
+
+	/**
+	 * The rates of a scope, in requests per second.
+	 */
+	private static final class Rates {
+
+		private final double[] values = new double[WINDOWS.length];
+		private long latestMillis = NO_TIME;
+
+		private void record(long millis) {
+			if (latestMillis == NO_TIME) {
+				latestMillis = millis;
+			}
+			long elapsedMillis = millis - latestMillis;
+			if (elapsedMillis > 0) {
+				for (int i = 0; i < WINDOWS.length; i++) {
+					values[i] *= Math.exp(-elapsedMillis / WINDOWS[i].tauMillis);
+				}
+				latestMillis = millis;
+			}
+			for (int i = 0; i < WINDOWS.length; i++) {
+				double impulse = 1_000D / WINDOWS[i].tauMillis;
+				// A late line is added as it would have been decayed since
+				values[i] += elapsedMillis < 0 ? impulse * Math.exp(elapsedMillis / WINDOWS[i].tauMillis) : impulse;
+			}
+		}
+
+		private double rateAt(Window window, long millis) {
+			long elapsedMillis = Math.max(0L, millis - latestMillis);
+			return values[window.ordinal()] * Math.exp(-elapsedMillis / window.tauMillis);
+		}
+	}
+
+	/**
+	 * The estimated bytes of the rates of a section and of its map entry.
+	 */
+	private static final long RATES_BYTES = Double.BYTES * WINDOWS.length + 128L;
+
+	private final int maxSectionCount;
+	private final Rates overall = new Rates();
+	private final ConcurrentMap<String, Rates> ratesBySection = new ConcurrentHashMap<>();
+	/** Is used by the writer only */
+	private long nextSweepMillis = NO_TIME;
+
+	/**
+	 * Is updated (with a release semantic) after each write, so that readers see the written values.
+	 */
+	private final AtomicInteger writeCount = new AtomicInteger();
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		long millis = accessLogLine.getTimeInMillis();
+		overall.record(millis);
+		Rates sectionRates = ratesBySection.get(accessLogLine.getSection());
+		if (sectionRates == null && ratesBySection.size() >= maxSectionCount && millis >= nextSweepMillis) {
+			sweep(millis);
+		}
+		if (sectionRates == null && ratesBySection.size() < maxSectionCount) {
+			sectionRates = new Rates();
+			ratesBySection.put(accessLogLine.getSection(), sectionRates);
+		}
+		if (sectionRates != null) {
+			sectionRates.record(millis);
+		}
+		writeCount.lazySet(writeCount.get() + 1);
+	}
+
+	/**
+	 * Evicts the sections whose 5-minute rate is negligible (see {@link #NEGLIGIBLE_RATE}).
+	 */
+	private void sweep(long millis) {
+		ratesBySection.values().removeIf(rates -> rates.rateAt(Window.FIVE_MINUTES, millis) < NEGLIGIBLE_RATE);
+		nextSweepMillis = millis + SWEEP_INTERVAL_MILLIS;
+	}
+
+	/**
+	 * @return The estimated bytes of the rates (see {@link #RATES_BYTES}).
+	 */
+	public long getEstimatedBytes() {
+		return (ratesBySection.size() + 1) * RATES_BYTES;
+	}
+
+	/**
+	 * @param millis The current time.
+	 * @return The average overall request count per second.
+	 */
+	public double overallRate(Window window, long millis) {
+		writeCount.get(); // Acquire semantic
+		return overall.rateAt(window, millis);
+	}
+
+	/**
+	 * @param millis The current time.
+	 * @return The average request count per second of the section, or zero if it is unknown.
+	 */
+	public double sectionRate(String section, Window window, long millis) {
+		writeCount.get(); // Acquire semantic
+		Rates rates = ratesBySection.get(section);
+		return rates == null ? 0D : rates.rateAt(window, millis);
+	}
+
+	/**
+	 * Gives the overall rate to the extractors of alerts that expect request counts over a duration (like the
+	 * throughput), without reducing any {@link TimeBuckets}.
+	 * @param millis The current time.
+	 * @return Read-only overall statistics whose request count is the one of the average rate over the window
+	 * duration. It has no section, and neither weights nor statuses.
+	 */
+	public Statistic snapshot(Window window, long millis) {
+		long requestCount = Math.round(overallRate(window, millis) * window.getDuration().getSeconds());
+		return new OverallSnapshot(requestCount, 0L, null);
+	}
+
+	/**
+	 * @param millis The current time.
+	 * @param count The greatest count of sections.
+	 * @return The sections having the highest rates for the window, from the highest.
+	 */
+	public List<String> topSections(Window window, long millis, int count) {
+		writeCount.get(); // Acquire semantic
+		List<Map.Entry<String, Double>> entries = new ArrayList<>(ratesBySection.size());
+		ratesBySection.forEach((section, rates) ->
+				entries.add(new AbstractMap.SimpleImmutableEntry<>(section, rates.rateAt(window, millis))));
+		entries.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+		List<String> sections = new ArrayList<>(Math.min(count, entries.size()));
+		for (int i = 0; i < count && i < entries.size(); i++) {
+			sections.add(entries.get(i).getKey());
+		}
+		return sections;
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact and immutable copy of statistics that are not written anymore (like a closed time bucket).
+ *
+ * The sections are sorted by name, and their counters are held by parallel primitive arrays whose row {@code 0} is the
+ * overall statistics and the row {@code i + 1} those of the section {@code i}. The {@link WeightHistogram} and
+ * {@link StatusCounts} slots are sparse: only the non-zero slots of a row are stored, from {@code slotStarts[row]}
+ * (inclusive) to {@code slotStarts[row + 1]} (exclusive), the status slots following the histogram slots.
+ * Reading all the sections is then a walk on a few arrays.
+ */
+@Immutable
+final class FrozenStatistic implements Statistic {
+
+	private static final int STATUS_SLOT_OFFSET = WeightHistogram.SLOT_COUNT;
+	private static final int OVERALL_ROW = 0;
+
+	/**
+	 * @return A frozen copy of the given statistics.
+	 */
+	static FrozenStatistic freeze(Statistic source) {
+		List<Map.Entry<String, ScopedStatistic>> entries = new ArrayList<>();
+		source.forEachSection((section, stats) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(section, stats)));
+		entries.sort(Map.Entry.comparingByKey());
+		return new FrozenStatistic(source.sectionComparator(), source.overall(), entries);
+	}
+
+	/**
+	 * @return A frozen copy of empty statistics.
+	 */
+	static FrozenStatistic empty(Comparator<ScopedStatistic> comparator) {
+		return new FrozenStatistic(comparator, new PlainScopedStatistic(), Collections.emptyList());
+	}
+
+	private FrozenStatistic(Comparator<ScopedStatistic> comparator, ScopedStatistic overall,
+			List<Map.Entry<String, ScopedStatistic>> sortedEntries) {
+		this.comparator = comparator;
+		int rowCount = sortedEntries.size() + 1;
+		this.sections = new String[sortedEntries.size()];
+		this.counts = new long[rowCount];
+		this.weights = new long[rowCount];
+		this.maxWeights = new int[rowCount];
+		this.slotStarts = new int[rowCount + 1];
+		short[] slotBuffer = new short[rowCount * 8];
+		long[] slotCountBuffer = new long[rowCount * 8];
+		long[] histogram = new long[WeightHistogram.SLOT_COUNT];
+		long[] statuses = new long[StatusCounts.SLOT_COUNT];
+		int slotCount = 0;
+		for (int row = 0; row < rowCount; row++) {
+			ScopedStatistic stats;
+			if (row == OVERALL_ROW) {
+				stats = overall;
+			}
+			else {
+				Map.Entry<String, ScopedStatistic> entry = sortedEntries.get(row - 1);
+				sections[row - 1] = entry.getKey();
+				stats = entry.getValue();
+			}
+			counts[row] = stats.requestCount();
+			weights[row] = stats.weight();
+			WeightHistogram weightHistogram = stats.weightHistogram();
+			maxWeights[row] = weightHistogram.getMax();
+			Arrays.fill(histogram, 0L);
+			weightHistogram.addTo(histogram, 0);
+			Arrays.fill(statuses, 0L);
+			stats.statusCounts().addTo(statuses, 0);
+			slotStarts[row] = slotCount;
+			for (int slot = 0; slot < STATUS_SLOT_OFFSET + StatusCounts.SLOT_COUNT; slot++) {
+				long count = slot < STATUS_SLOT_OFFSET ? histogram[slot] : statuses[slot - STATUS_SLOT_OFFSET];
+				if (count != 0) {
+					if (slotCount == slotBuffer.length) {
+						slotBuffer = Arrays.copyOf(slotBuffer, slotCount * 2);
+						slotCountBuffer = Arrays.copyOf(slotCountBuffer, slotCount * 2);
+					}
+					slotBuffer[slotCount] = (short) slot;
+					slotCountBuffer[slotCount] = count;
+					slotCount++;
+				}
+			}
+		}
+		slotStarts[rowCount] = slotCount;
+		this.slots = Arrays.copyOf(slotBuffer, slotCount);
+		this.slotCounts = Arrays.copyOf(slotCountBuffer, slotCount);
+	}
+
+	private final Comparator<ScopedStatistic> comparator;
+	private final String[] sections;
+	private final long[] counts;
+	private final long[] weights;
+	private final int[] maxWeights;
+	private final int[] slotStarts;
+	private final short[] slots;
+	private final long[] slotCounts;
+
+	/**
+	 * @return The estimated bytes of the arrays (the section names being shared with the original statistics).
+	 */
+	long estimateBytes() {
+		return 8 * 16L + sections.length * 8L
+			+ counts.length * (long) (Long.BYTES * 2 + Integer.BYTES * 2)
+			+ slots.length * (long) (Short.BYTES + Long.BYTES);
+	}
+
+	int getSectionCount() {
+		return sections.length;
+	}
+
+	@Override
+	public ScopedStatistic overall() {
+		return new RowView(OVERALL_ROW);
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return comparator;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>(sections.length);
+		for (int i = 0; i < sections.length; i++) {
+			list.add(new AbstractMap.SimpleImmutableEntry<>(sections[i], new RowView(i + 1)));
+		}
+		list.sort(Comparator.comparing(Map.Entry::getValue, comparator));
+		return list;
+	}
+
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		for (int i = 0; i < sections.length; i++) {
+			action.accept(sections[i], new RowView(i + 1));
+		}
+	}
+
+	/**
+	 * Read-only view on a row.
+	 */
+	@Immutable
+	private final class RowView implements ScopedStatistic {
+
+		private RowView(int row) {
+			this.row = row;
+		}
+
+		private final int row;
+
+		@Override
+		public long requestCount() {
+			return counts[row];
+		}
+
+		@Override
+		public long weight() {
+			return weights[row];
+		}
+
+		@Override
+		public WeightHistogram weightHistogram() {
+			// Is created on demand only (usually for top sections)
+			long[] histogram = new long[WeightHistogram.SLOT_COUNT];
+			for (int i = slotStarts[row]; i < slotStarts[row + 1] && slots[i] < STATUS_SLOT_OFFSET; i++) {
+				histogram[slots[i]] = slotCounts[i];
+			}
+			WeightHistogram weightHistogram = new WeightHistogram();
+			weightHistogram.addFrom(histogram, 0, maxWeights[row]);
+			return weightHistogram;
+		}
+
+		@Override
+		public StatusCounts statusCounts() {
+			// Is created on demand only
+			long[] statuses = new long[StatusCounts.SLOT_COUNT];
+			for (int i = slotStarts[row]; i < slotStarts[row + 1]; i++) {
+				if (slots[i] >= STATUS_SLOT_OFFSET) {
+					statuses[slots[i] - STATUS_SLOT_OFFSET] = slotCounts[i];
+				}
+			}
+			StatusCounts statusCounts = new StatusCounts();
+			statusCounts.addFrom(statuses, 0);
+			return statusCounts;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+
+/**
+ * Maps access log lines to composite keys over some {@link Dimension}s.
+ * The identifiers of dimension values are packed into a {@code long} (no string concatenation), using a
+ * {@link SectionDictionary} by dimension. A single instance is shared by all the time buckets.
+ */
+@ThreadSafe
+public final class GroupByKeys {
+
+	/**
+	 * The key of a line having a value that can not be registered (dictionary limit).
+	 */
+	public static final long NO_KEY = -1L;
+
+	private static final char LABEL_SEPARATOR = ' ';
+
+	/**
+	 * @param value Comma-separated dimension names (like {@literal section,method}).
+	 * @throws IllegalArgumentException If a dimension is unknown or repeated.
+	 */
+	public static List<Dimension> parseDimensions(String value) {
+		List<Dimension> dimensions = new ArrayList<>();
+		for (String name : value.split(",")) {
+			Dimension dimension = Dimension.valueOf(name.trim().toUpperCase());
+			if (dimensions.contains(dimension)) {
+				throw new IllegalArgumentException("Repeated dimension " + name);
+			}
+			dimensions.add(dimension);
+		}
+		return dimensions;
+	}
+
+	/**
+	 * @param dimensions The dimensions, in the order of labels.
+	 * @param maxValueCount The limit of distinct values by dimension (robustness about memory consumption).
+	 */
+	public GroupByKeys(List<Dimension> dimensions, int maxValueCount) {
+		if (dimensions.isEmpty()) {
+			throw new IllegalArgumentException("No dimension");
+		}
+		this.dimensions = Collections.unmodifiableList(new ArrayList<>(dimensions));
+		this.dictionaries = new SectionDictionary[dimensions.size()];
+		this.shifts = new int[dimensions.size()];
+		int shift = 0;
+		for (int i = 0; i < dimensions.size(); i++) {
+			Dimension dimension = dimensions.get(i);
+			if (dimension.hasDictionary()) {
+				dictionaries[i] = new SectionDictionary(Math.min(maxValueCount, dimension.getMaxValueCount()));
+			}
+			shifts[i] = shift;
+			shift += dimension.getBits();
+		}
+	}
+
+	private final List<Dimension> dimensions;
+	private final SectionDictionary[] dictionaries;
+	private final int[] shifts;
+
+	public List<Dimension> getDimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * @return The composite key of the line, or {@link #NO_KEY} if a dictionary limit is reached.
+	 */
+	public long keyOf(AccessLogLine line) {
+		long key = 0L;
+		for (int i = 0; i < dictionaries.length; i++) {
+			int id = dictionaries[i] == null
+					? StatusCounts.classOf(line.getStatus())
+					: dictionaries[i].idOf(dimensions.get(i).extract(line));
+			if (id == SectionDictionary.NO_ID) {
+				return NO_KEY;
+			}
+			key |= ((long) id) << shifts[i];
+		}
+		return key;
+	}
+
+	/**
+	 * @return The estimated bytes of the dimension values (see {@link ScopeDictionary#estimateBytes()}).
+	 */
+	public long estimateBytes() {
+		long bytes = 0L;
+		for (SectionDictionary dictionary : dictionaries) {
+			if (dictionary != null) {
+				bytes += dictionary.estimateBytes();
+			}
+		}
+		return bytes;
+	}
+
+	private int idOf(long key, int dimensionIndex) {
+		return (int) ((key >>> shifts[dimensionIndex]) & (dimensions.get(dimensionIndex).getMaxValueCount() - 1));
+	}
+
+	/**
+	 * @return The dimension values of the key, separated by spaces (none of the values have spaces).
+	 */
+	public String labelOf(long key) {
+		if (dictionaries.length == 1 && dictionaries[0] != null) {
+			return dictionaries[0].nameOf(idOf(key, 0));
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < dictionaries.length; i++) {
+			if (i > 0) {
+				sb.append(LABEL_SEPARATOR);
+			}
+			int id = idOf(key, i);
+			if (dictionaries[i] == null) {
+				sb.append(Dimension.labelOfStatusClass(id));
+			}
+			else {
+				sb.append(dictionaries[i].nameOf(id));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Is the reverse of {@link #labelOf(long)}.
+	 * @return The key of the label, or {@link #NO_KEY} if the label is invalid or if a dictionary limit is reached.
+	 */
+	public long keyOfLabel(String label) {
+		String[] values = dictionaries.length == 1
+				? new String[] { label }
+				: label.split(String.valueOf(LABEL_SEPARATOR), -1);
+		if (values.length != dictionaries.length) {
+			return NO_KEY;
+		}
+		long key = 0L;
+		for (int i = 0; i < dictionaries.length; i++) {
+			int id = dictionaries[i] == null ? Dimension.statusClassOf(values[i]) : dictionaries[i].idOf(values[i]);
+			if (id == SectionDictionary.NO_ID) {
+				return NO_KEY;
+			}
+			key |= ((long) id) << shifts[i];
+		}
+		return key;
+	}
+}
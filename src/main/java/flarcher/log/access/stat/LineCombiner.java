@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.TimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Pre-aggregates the consecutive lines of a same bucket by section before updating the bucket, so that the shared
+ * structures (the map of buckets and the statistics of the bucket) are updated about once by bucket and by section
+ * instead of once by line.
+ *
+ * The combined lines are flushed into the bucket when a line of another bucket comes, when the line count limit is
+ * reached, or by {@link #flush()}. The writer also calls {@link #flushDelayed(long)} regularly (like once by batch of
+ * lines), so that the lines of a bucket with few lines are flushed after the delay limit (in the system time) without
+ * timing each line. Until then, they are not visible by the readers of the buckets.
+ *
+ * Is owned by the writer's thread of the buckets. Its read-only view is passed to
+ * {@link Statistic.Accumulator#add(Statistic)} of the bucket.
+ *
+ * @param <S> The statistics of a bucket, whose scopes must be sections.
+ */
+@NotThreadSafe
+final class LineCombiner<S extends Statistic.Accumulator & Consumer<AccessLogLine>> implements Statistic, Consumer<AccessLogLine> {
+
+	/**
+	 * @param buckets The buckets that the combined lines are flushed into.
+	 * @param comparator The comparator of sections.
+	 * @param maxLineCount The count of combined lines that triggers a flush.
+	 * @param maxDelay The age of the combined lines that triggers a flush (see {@link #flushDelayed(long)}).
+	 */
+	LineCombiner(TimeBuckets<AccessLogLine, S> buckets, Comparator<ScopedStatistic> comparator, int maxLineCount,
+			Duration maxDelay) {
+		if (maxLineCount <= 0) {
+			throw new IllegalArgumentException("The line count limit must be strictly positive");
+		}
+		this.buckets = Objects.requireNonNull(buckets);
+		this.comparator = Objects.requireNonNull(comparator);
+		this.maxLineCount = maxLineCount;
+		this.maxDelayNanos = maxDelay.toNanos();
+	}
+
+	private final TimeBuckets<AccessLogLine, S> buckets;
+	private final Comparator<ScopedStatistic> comparator;
+	private final int maxLineCount;
+	private final long maxDelayNanos;
+
+	private final PlainScopedStatistic overall = new PlainScopedStatistic();
+	private final Map<String, PlainScopedStatistic> statsBySection = new HashMap<>();
+	/**
+	 * Cleared section counters, for reuse.
+	 */
+	private final Deque<PlainScopedStatistic> recycledScopes = new ArrayDeque<>();
+
+	private long bucketKey = 0L;
+	private long bucketTimeMillis = 0L;
+	private int lineCount = 0;
+
+	/**
+	 * The time of the first call to {@link #flushDelayed(long)} that saw the combined lines, or {@link #NO_TIME}.
+	 */
+	private long pendingSinceNanos = NO_TIME;
+	private static final long NO_TIME = Long.MIN_VALUE;
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		long timeInMillis = accessLogLine.getTimeInMillis();
+		long key = buckets.getBucketKey(timeInMillis);
+		if (lineCount > 0 && key != bucketKey) {
+			flush();
+		}
+		if (lineCount == 0) {
+			bucketKey = key;
+			bucketTimeMillis = timeInMillis;
+		}
+		overall.accept(accessLogLine);
+		statsBySection.computeIfAbsent(accessLogLine.getSection(),
+				section -> recycledScopes.isEmpty() ? new PlainScopedStatistic() : recycledScopes.pop())
+			.accept(accessLogLine);
+		lineCount++;
+		if (lineCount >= maxLineCount) {
+			flush();
+		}
+	}
+
+	/**
+	 * Flushes the combined lines if a previous call already saw them at least the delay limit ago.
+	 * @param nanoTime The current {@link System#nanoTime()}.
+	 */
+	void flushDelayed(long nanoTime) {
+		if (lineCount == 0) {
+			return;
+		}
+		if (pendingSinceNanos == NO_TIME) {
+			pendingSinceNanos = nanoTime;
+		}
+		else if (nanoTime - pendingSinceNanos >= maxDelayNanos) {
+			flush();
+		}
+	}
+
+	/**
+	 * Updates the bucket with the combined lines.
+	 */
+	void flush() {
+		if (lineCount == 0) {
+			return;
+		}
+		buckets.update(bucketTimeMillis, bucket -> bucket.add(this));
+		overall.clear();
+		statsBySection.values().forEach(scopedStats -> {
+			scopedStats.clear();
+			recycledScopes.push(scopedStats);
+		});
+		statsBySection.clear();
+		lineCount = 0;
+		pendingSinceNanos = NO_TIME;
+	}
+
+	@Override
+	public ScopedStatistic overall() {
+		return overall;
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return comparator;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>(statsBySection.entrySet());
+		list.sort(Comparator.comparing(Map.Entry::getValue, comparator));
+		return list;
+	}
+
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		statsBySection.forEach(action);
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Fixed-width records stored in chunks of {@link ByteBuffer}s (direct ones for an off-heap storage), so that the
+ * records are neither allocated one by one nor scanned by the garbage collector.
+ * A record is identified by an index, and its bytes are at {@link #offsetOf(int)} in {@link #chunkOf(int)}.
+ *
+ * The records are allocated and freed by a single thread, the owner (like the writer of the buckets), without any lock.
+ * The other threads hand the records over to the owner with {@link #retire(int)}, and the owner reuses them only when
+ * no other thread reads the arena (see {@link #enterRead()}), so that a late write or read into a record that has just
+ * been retired does not alter another record.
+ */
+@ThreadSafe
+final class OffHeapArena {
+
+	/**
+	 * The bytes allocated by all the direct arenas.
+	 */
+	static final AtomicLong DIRECT_BYTES = new AtomicLong();
+
+	private static final int INITIAL_STACK_SIZE = 16;
+
+	/**
+	 * @param recordBytes The width of a record in bytes.
+	 * @param recordsPerChunk The count of records of a chunk.
+	 * @param direct Whether the chunks are direct buffers (off-heap) or heap ones.
+	 */
+	OffHeapArena(int recordBytes, int recordsPerChunk, boolean direct) {
+		if (recordBytes <= 0 || recordsPerChunk <= 0) {
+			throw new IllegalArgumentException("The record width and count must be strictly positive");
+		}
+		if (recordBytes % Long.BYTES != 0) {
+			throw new IllegalArgumentException("The record width must be a multiple of " + Long.BYTES);
+		}
+		this.recordBytes = recordBytes;
+		this.recordsPerChunk = recordsPerChunk;
+		this.direct = direct;
+	}
+
+	private final int recordBytes;
+	private final int recordsPerChunk;
+	private final boolean direct;
+
+	/**
+	 * Is copied on write, since new chunks are rare.
+	 */
+	private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+	//--- Used by the owner only
+
+	private int nextRecord = 0;
+	private int[] freeRecords = new int[INITIAL_STACK_SIZE];
+	private int freeCount = 0;
+
+	/**
+	 * The handed over records, that are reused once no other thread reads the arena.
+	 */
+	private int[] reclaimableRecords = new int[INITIAL_STACK_SIZE];
+	private int reclaimableCount = 0;
+
+	//--- Handed over by the other threads (guarded by this)
+
+	private int[] retiredRecords = new int[INITIAL_STACK_SIZE];
+	private int retiredCount = 0;
+	private volatile boolean hasRetired = false;
+
+	/**
+	 * The count of threads reading the records of other threads (see {@link #enterRead()}).
+	 */
+	private final AtomicInteger readerCount = new AtomicInteger();
+
+	int getRecordBytes() {
+		return recordBytes;
+	}
+
+	private static int[] push(int[] stack, int count, int record) {
+		int[] updated = count < stack.length ? stack : Arrays.copyOf(stack, stack.length * 2);
+		updated[count] = record;
+		return updated;
+	}
+
+	/**
+	 * Must be called by the owner.
+	 * @return The index of a record whose bytes are all zeros.
+	 */
+	int allocate() {
+		int record;
+		if (freeCount > 0) {
+			record = freeRecords[--freeCount];
+		}
+		else {
+			record = nextRecord++;
+			if (record / recordsPerChunk >= chunks.length) {
+				int chunkBytes = recordBytes * recordsPerChunk;
+				ByteBuffer[] updated = Arrays.copyOf(chunks, chunks.length + 1);
+				updated[chunks.length] = direct ? ByteBuffer.allocateDirect(chunkBytes) : ByteBuffer.allocate(chunkBytes);
+				chunks = updated;
+				if (direct) {
+					DIRECT_BYTES.addAndGet(chunkBytes);
+				}
+			}
+		}
+		ByteBuffer chunk = chunkOf(record);
+		int offset = offsetOf(record);
+		for (int i = 0; i < recordBytes; i += Long.BYTES) {
+			chunk.putLong(offset + i, 0L);
+		}
+		return record;
+	}
+
+	/**
+	 * Makes the record reusable. Must be called by the owner.
+	 */
+	void free(int record) {
+		freeRecords = push(freeRecords, freeCount, record);
+		freeCount++;
+	}
+
+	/**
+	 * Hands the record over to the owner, that reuses it with {@link #reclaim(IntConsumer)}. Can be called by any
+	 * thread, once the record is no longer reachable by the new readers.
+	 */
+	synchronized void retire(int record) {
+		retiredRecords = push(retiredRecords, retiredCount, record);
+		retiredCount++;
+		hasRetired = true;
+	}
+
+	/**
+	 * Frees the retired records if no other thread reads the arena, or keeps them for a later call. Must be called by
+	 * the owner, between its writes.
+	 * @param releaser Is given each record before it is freed (like for freeing the records it refers to).
+	 */
+	void reclaim(IntConsumer releaser) {
+		if (hasRetired) {
+			synchronized (this) {
+				for (int i = 0; i < retiredCount; i++) {
+					reclaimableRecords = push(reclaimableRecords, reclaimableCount, retiredRecords[i]);
+					reclaimableCount++;
+				}
+				retiredCount = 0;
+				hasRetired = false;
+			}
+		}
+		// The records were taken before checking the readers, so that a reader of any of them is counted
+		if (reclaimableCount > 0 && readerCount.get() == 0) {
+			while (reclaimableCount > 0) {
+				int record = reclaimableRecords[--reclaimableCount];
+				releaser.accept(record);
+				free(record);
+			}
+		}
+	}
+
+	/**
+	 * Must be called by a thread other than the owner before reading the records, and followed by
+	 * {@link #exitRead()}: the records that it can reach are not reused in between.
+	 */
+	void enterRead() {
+		readerCount.incrementAndGet();
+	}
+
+	void exitRead() {
+		readerCount.decrementAndGet();
+	}
+
+	ByteBuffer chunkOf(int record) {
+		return chunks[record / recordsPerChunk];
+	}
+
+	int offsetOf(int record) {
+		return (record % recordsPerChunk) * recordBytes;
+	}
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Statistics by section stored as fixed-width records of {@link OffHeapArena}s, so that time buckets can be retained
+ * for long durations without growing the heap (nor the work of the garbage collector).
+ *
+ * An instance has a table of record indexes by row (a record of the table arena), the first row being the overall
+ * statistics and the row {@code id + 1} those of the section {@code id} of a {@link SectionDictionary}. The record of
+ * a row (in the record arena) is allocated on its first write, and all the records are freed by {@link #clear()}.
+ * A record holds longs: the count, the weight, the greatest weight, the {@link WeightHistogram} slots and the
+ * {@link StatusCounts} slots.
+ *
+ * Is written from a single thread, that owns the arenas, and read from others within {@link OffHeapArena#enterRead()}
+ * (see {@link #add(Statistic)}). Once closed by any thread, an instance rejects the writes, and its table is handed over
+ * to the writer that frees its records later (see {@link OffHeapArena#retire(int)}).
+ */
+@ThreadSafe
+class OffHeapStatistic implements Statistic.Accumulator, Consumer<AccessLogLine> {
+
+	private static final int OVERALL_ROW = 0;
+	private static final int NO_RECORD = -1;
+	private static final int RETIRED = -2;
+
+	private static final int COUNT = 0;
+	private static final int WEIGHT = 1;
+	private static final int MAX_WEIGHT = 2;
+	private static final int HISTOGRAM = 3;
+	private static final int STATUSES = HISTOGRAM + WeightHistogram.SLOT_COUNT;
+	private static final int RECORD_LONGS = STATUSES + StatusCounts.SLOT_COUNT;
+
+	/**
+	 * The width of a record of statistics.
+	 */
+	static final int RECORD_BYTES = RECORD_LONGS * Long.BYTES;
+
+	/**
+	 * @return The width of a table of record indexes for the given section count (rounded up to longs).
+	 */
+	static int tableBytes(int maxSectionCount) {
+		int bytes = (maxSectionCount + 1) * Integer.BYTES;
+		return (bytes + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+	}
+
+	/**
+	 * @param dictionary The section identifiers, shared by all instances that are aggregated together.
+	 * @param comparator A comparator for sorting stats.
+	 * @param tableArena Holds the tables of record indexes (see {@link #tableBytes(int)}).
+	 * @param recordArena Holds the records (see {@link #RECORD_BYTES}).
+	 */
+	OffHeapStatistic(SectionDictionary dictionary, Comparator<ScopedStatistic> comparator,
+			OffHeapArena tableArena, OffHeapArena recordArena) {
+		if (recordArena.getRecordBytes() != RECORD_BYTES) {
+			throw new IllegalArgumentException("Invalid record width");
+		}
+		this.dictionary = Objects.requireNonNull(dictionary);
+		this.comparator = Objects.requireNonNull(comparator);
+		this.tableArena = tableArena;
+		this.recordArena = recordArena;
+		this.maxRowCount = tableArena.getRecordBytes() / Integer.BYTES;
+	}
+
+	private final SectionDictionary dictionary;
+	private final Comparator<ScopedStatistic> comparator;
+	private final OffHeapArena tableArena;
+	private final OffHeapArena recordArena;
+	private final int maxRowCount;
+
+	/**
+	 * The record of the table (is allocated on the first write), or {@link #RETIRED} once closed.
+	 */
+	private final AtomicInteger table = new AtomicInteger(NO_RECORD);
+
+	/**
+	 * Is updated (with a release semantic) after each write, so that readers see the written values.
+	 */
+	private final AtomicInteger writeCount = new AtomicInteger();
+
+	private void published() {
+		writeCount.lazySet(writeCount.get() + 1);
+	}
+
+	SectionDictionary getDictionary() {
+		return dictionary;
+	}
+
+	int getSectionCount() {
+		int[] count = { 0 };
+		forEachSection((section, stats) -> count[0]++);
+		return count[0];
+	}
+
+	/**
+	 * @return The count of rows that may have a record: the sections known so far (the identifiers being dense and
+	 * never recycled), plus the overall row.
+	 */
+	private int rowCount() {
+		return Math.min(dictionary.size() + 1, maxRowCount);
+	}
+
+	/**
+	 * @return The record of the row, or {@link #NO_RECORD}.
+	 */
+	private int readRecord(int row) {
+		return readRecord(table.get(), row);
+	}
+
+	private int readRecord(int currentTable, int row) {
+		if (currentTable < 0 || row >= maxRowCount) {
+			return NO_RECORD;
+		}
+		return tableArena.chunkOf(currentTable).getInt(tableArena.offsetOf(currentTable) + row * Integer.BYTES) - 1;
+	}
+
+	/**
+	 * @return The record of the row, that is allocated if needed, or {@link #NO_RECORD} if the instance is closed.
+	 */
+	private int writableRecord(int row) {
+		int currentTable = table.get();
+		if (currentTable == RETIRED) {
+			return NO_RECORD;
+		}
+		if (currentTable == NO_RECORD) {
+			// The tables closed by the other threads are freed by the writer, between its writes
+			tableArena.reclaim(this::freeRecords);
+			currentTable = tableArena.allocate();
+			if (!table.compareAndSet(NO_RECORD, currentTable)) {
+				tableArena.free(currentTable); // Closed in between
+				return NO_RECORD;
+			}
+		}
+		ByteBuffer tableChunk = tableArena.chunkOf(currentTable);
+		int index = tableArena.offsetOf(currentTable) + row * Integer.BYTES;
+		int record = tableChunk.getInt(index) - 1;
+		if (record == NO_RECORD) {
+			record = recordArena.allocate();
+			tableChunk.putInt(index, record + 1);
+		}
+		return record;
+	}
+
+	/**
+	 * Frees the records of the table (from the writer).
+	 */
+	private void freeRecords(int tableRecord) {
+		int rowCount = rowCount();
+		for (int row = 0; row < rowCount; row++) {
+			int record = readRecord(tableRecord, row);
+			if (record != NO_RECORD) {
+				recordArena.free(record);
+			}
+		}
+	}
+
+	private static void increment(ByteBuffer chunk, int offset, int slot, long value) {
+		int index = offset + slot * Long.BYTES;
+		chunk.putLong(index, chunk.getLong(index) + value);
+	}
+
+	private void recordRow(int row, int length, int status) {
+		int record = writableRecord(row);
+		if (record == NO_RECORD) {
+			return;
+		}
+		ByteBuffer chunk = recordArena.chunkOf(record);
+		int offset = recordArena.offsetOf(record);
+		increment(chunk, offset, COUNT, 1L);
+		increment(chunk, offset, WEIGHT, length);
+		increment(chunk, offset, STATUSES + StatusCounts.classOf(status), 1L);
+		int codeSlot = StatusCounts.codeSlotOf(status);
+		if (codeSlot >= 0) {
+			increment(chunk, offset, STATUSES + codeSlot, 1L);
+		}
+		if (length >= 0) {
+			increment(chunk, offset, HISTOGRAM + WeightHistogram.slotOf(length), 1L);
+			if (length > chunk.getLong(offset + MAX_WEIGHT * Long.BYTES)) {
+				chunk.putLong(offset + MAX_WEIGHT * Long.BYTES, length);
+			}
+		}
+	}
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		recordRow(OVERALL_ROW, accessLogLine.getLength(), accessLogLine.getStatus());
+		int id = dictionary.idOf(accessLogLine.getSection());
+		if (id != ScopeDictionary.NO_ID) {
+			recordRow(id + 1, accessLogLine.getLength(), accessLogLine.getStatus());
+		}
+		published();
+	}
+
+	@Override
+	public ScopedStatistic overall() {
+		writeCount.get(); // Acquire semantic
+		return new RecordView(readRecord(OVERALL_ROW));
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return comparator;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>();
+		forEachSection((section, stats) -> list.add(new AbstractMap.SimpleImmutableEntry<>(section, stats)));
+		list.sort(Comparator.comparing(Map.Entry::getValue, comparator));
+		return list;
+	}
+
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		writeCount.get(); // Acquire semantic
+		if (table.get() < 0) {
+			return;
+		}
+		int rowCount = rowCount();
+		for (int row = OVERALL_ROW + 1; row < rowCount; row++) {
+			int record = readRecord(row);
+			if (record != NO_RECORD) {
+				RecordView view = new RecordView(record);
+				if (view.count != 0) {
+					action.accept(dictionary.nameOf(row - 1), view);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Frees the records, so that the instance can be reused. Must be called by the writer.
+	 */
+	@Override
+	public void clear() {
+		int currentTable = table.get();
+		if (currentTable < 0) {
+			return;
+		}
+		freeRecords(currentTable);
+		table.set(NO_RECORD);
+		tableArena.free(currentTable);
+		published();
+	}
+
+	/**
+	 * Rejects the next writes, and hands the table over to the writer, that frees it with its records once no other
+	 * thread reads them. Can be called by any thread.
+	 */
+	@Override
+	public void close() {
+		int currentTable = table.getAndSet(RETIRED);
+		if (currentTable >= 0) {
+			tableArena.retire(currentTable);
+		}
+		published();
+	}
+
+	@Override
+	public void add(Statistic other) {
+		if (other instanceof OffHeapStatistic && ((OffHeapStatistic) other).dictionary == dictionary) {
+			OffHeapStatistic otherStats = (OffHeapStatistic) other;
+			otherStats.tableArena.enterRead();
+			try {
+				otherStats.writeCount.get(); // Acquire semantic
+				// Walks the records of the other instance, long by long
+				int otherTable = otherStats.table.get();
+				int otherRowCount = otherStats.rowCount();
+				for (int row = 0; row < otherRowCount; row++) {
+					int otherRecord = otherStats.readRecord(otherTable, row);
+					if (otherRecord != NO_RECORD) {
+						addRecord(row, otherStats.recordArena.chunkOf(otherRecord), otherStats.recordArena.offsetOf(otherRecord));
+					}
+				}
+			}
+			finally {
+				otherStats.tableArena.exitRead();
+			}
+		}
+		else {
+			addRow(OVERALL_ROW, other.overall());
+			other.forEachSection((section, otherSectionStats) -> {
+				int id = dictionary.idOf(section);
+				if (id != ScopeDictionary.NO_ID) {
+					addRow(id + 1, otherSectionStats);
+				}
+			});
+		}
+		published();
+	}
+
+	private void addRecord(int row, ByteBuffer otherChunk, int otherOffset) {
+		int record = writableRecord(row);
+		if (record == NO_RECORD) {
+			return;
+		}
+		ByteBuffer chunk = recordArena.chunkOf(record);
+		int offset = recordArena.offsetOf(record);
+		for (int slot = 0; slot < RECORD_LONGS; slot++) {
+			long value = otherChunk.getLong(otherOffset + slot * Long.BYTES);
+			if (slot == MAX_WEIGHT) {
+				if (value > chunk.getLong(offset + slot * Long.BYTES)) {
+					chunk.putLong(offset + slot * Long.BYTES, value);
+				}
+			}
+			else if (value != 0) {
+				increment(chunk, offset, slot, value);
+			}
+		}
+	}
+
+	private void addRow(int row, ScopedStatistic scopedStatistic) {
+		int record = writableRecord(row);
+		if (record == NO_RECORD) {
+			return;
+		}
+		ByteBuffer chunk = recordArena.chunkOf(record);
+		int offset = recordArena.offsetOf(record);
+		increment(chunk, offset, COUNT, scopedStatistic.requestCount());
+		increment(chunk, offset, WEIGHT, scopedStatistic.weight());
+		WeightHistogram histogram = scopedStatistic.weightHistogram();
+		long[] slots = new long[Math.max(WeightHistogram.SLOT_COUNT, StatusCounts.SLOT_COUNT)];
+		histogram.addTo(slots, 0);
+		for (int i = 0; i < WeightHistogram.SLOT_COUNT; i++) {
+			increment(chunk, offset, HISTOGRAM + i, slots[i]);
+		}
+		if (histogram.getMax() > chunk.getLong(offset + MAX_WEIGHT * Long.BYTES)) {
+			chunk.putLong(offset + MAX_WEIGHT * Long.BYTES, histogram.getMax());
+		}
+		Arrays.fill(slots, 0L);
+		scopedStatistic.statusCounts().addTo(slots, 0);
+		for (int i = 0; i < StatusCounts.SLOT_COUNT; i++) {
+			increment(chunk, offset, STATUSES + i, slots[i]);
+		}
+	}
+
+	/**
+	 * Read-only view on a record.
+	 */
+	@Immutable
+	private final class RecordView implements ScopedStatistic {
+
+		/**
+		 * @param record The record, or {@link #NO_RECORD} for empty statistics.
+		 */
+		private RecordView(int record) {
+			this.record = record;
+			this.count = record == NO_RECORD ? 0L : readSlot(COUNT);
+			this.weight = record == NO_RECORD ? 0L : readSlot(WEIGHT);
+		}
+
+		private final int record;
+		private final long count;
+		private final long weight;
+
+		private long readSlot(int slot) {
+			return recordArena.chunkOf(record).getLong(recordArena.offsetOf(record) + slot * Long.BYTES);
+		}
+
+		private long[] readSlots(int firstSlot, int slotCount) {
+			long[] slots = new long[slotCount];
+			if (record != NO_RECORD) {
+				for (int i = 0; i < slotCount; i++) {
+					slots[i] = readSlot(firstSlot + i);
+				}
+			}
+			return slots;
+		}
+
+		@Override
+		public long requestCount() {
+			return count;
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		@Override
+		public WeightHistogram weightHistogram() {
+			// Is created on demand only (usually for top sections)
+			WeightHistogram histogram = new WeightHistogram();
+			histogram.addFrom(readSlots(HISTOGRAM, WeightHistogram.SLOT_COUNT), 0,
+					record == NO_RECORD ? 0 : (int) readSlot(MAX_WEIGHT));
+			return histogram;
+		}
+
+		@Override
+		public StatusCounts statusCounts() {
+			// Is created on demand only
+			StatusCounts statusCounts = new StatusCounts();
+			statusCounts.addFrom(readSlots(STATUSES, StatusCounts.SLOT_COUNT), 0);
+			return statusCounts;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only overall statistics made of scalar values (without any section, nor weight distribution), for the
+ * extractors of alerts that only need the overall counts. Reading a distribution that is not held fails, instead of
+ * giving an empty one that an alert would silently compare with its threshold.
+ */
+@Immutable
+final class OverallSnapshot implements Statistic {
+
+	/**
+	 * @param classCounts The counts by status class (see {@link StatusCounts#CLASS_COUNT}), or {@code null} if unknown.
+	 */
+	OverallSnapshot(long requestCount, long weight, long[] classCounts) {
+		this.overall = new ScopedSnapshot(requestCount, weight, classCounts);
+	}
+
+	private final ScopedSnapshot overall;
+
+	@Override
+	public ScopedStatistic overall() {
+		return overall;
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		return Collections.emptyList();
+	}
+
+	@Immutable
+	private static final class ScopedSnapshot implements ScopedStatistic {
+
+		private ScopedSnapshot(long requestCount, long weight, long[] classCounts) {
+			this.requestCount = requestCount;
+			this.weight = weight;
+			this.classCounts = classCounts;
+		}
+
+		private final long requestCount;
+		private final long weight;
+		private final long[] classCounts;
+
+		@Override
+		public long requestCount() {
+			return requestCount;
+		}
+
+		@Override
+		public long weight() {
+			return weight;
+		}
+
+		/**
+		 * @throws IllegalStateException Always, since the overall counters have no weight distribution.
+		 */
+		@Override
+		public WeightHistogram weightHistogram() {
+			throw new IllegalStateException("The overall counters have no weight distribution");
+		}
+
+		/**
+		 * @return The counts by status class only (the counts by code being zero).
+		 * @throws IllegalStateException If the counts by status class are unknown.
+		 */
+		@Override
+		public StatusCounts statusCounts() {
+			if (classCounts == null) {
+				throw new IllegalStateException("The overall counters have no status counts");
+			}
+			// The class slots are the first ones
+			long[] slots = new long[StatusCounts.SLOT_COUNT];
+			System.arraycopy(classCounts, 0, slots, 0, classCounts.length);
+			StatusCounts statusCounts = new StatusCounts();
+			statusCounts.addFrom(slots, 0);
+			return statusCounts;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * Maps the path prefixes of requests (like {@literal api}, then {@literal api/user}) to the dense identifiers of
+ * trie nodes, up to a maximum depth. A line has the identifiers of all the nodes of its path, so that each node
+ * holds the statistics of its whole subtree, and the statistics can be drilled down at any depth.
+ *
+ * A single instance is shared by all the time buckets, so that the count of nodes scales with the distinct paths.
+ * Since the top sections then mix the depths, they are usually listed at a given depth (see {@link #atDepth(int)}).
+ */
+@ThreadSafe
+public final class PathTrie implements ScopeDictionary {
+
+	private static final char SEPARATOR = '/';
+
+	/**
+	 * @param maxDepth The greatest count of path segments of a node.
+	 * @param maxNodeCount Node count limit (robustness about memory consumption).
+	 */
+	public PathTrie(int maxDepth, int maxNodeCount) {
+		if (maxDepth <= 0) {
+			throw new IllegalArgumentException("The depth must be strictly positive");
+		}
+		this.maxDepth = maxDepth;
+		this.maxNodeCount = maxNodeCount;
+	}
+
+	private static final class Node {
+
+		private Node(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * The path prefix, without leading and trailing slashes.
+		 */
+		private final String name;
+		private final ConcurrentMap<String, Integer> childIdsBySegment = new ConcurrentHashMap<>();
+	}
+
+	private final int maxDepth;
+	private final int maxNodeCount;
+	private final Node root = new Node("");
+
+	/**
+	 * Nodes by identifier; is copied on write since new paths are rare.
+	 */
+	private volatile Node[] nodes = new Node[0];
+
+	/**
+	 * Is set once the limit is reached.
+	 */
+	private volatile boolean isFull = false;
+
+	/**
+	 * Walks the nodes of the path, that are created if needed.
+	 * @param ids The identifiers of the walked nodes, if not {@code null}.
+	 * @return The count of walked nodes.
+	 */
+	private int walk(String path, @Nullable int[] ids) {
+		Node node = root;
+		int depth = 0;
+		int segmentStartIndex = 0;
+		while (depth < maxDepth && segmentStartIndex < path.length()) {
+			int segmentEndIndex = path.indexOf(SEPARATOR, segmentStartIndex);
+			if (segmentEndIndex < 0) {
+				segmentEndIndex = path.length();
+			}
+			if (segmentEndIndex > segmentStartIndex) { // Empty segments are skipped
+				String segment = path.substring(segmentStartIndex, segmentEndIndex);
+				Integer id = node.childIdsBySegment.get(segment);
+				int childId = id != null ? id : register(node, segment);
+				if (childId == NO_ID) {
+					break;
+				}
+				if (ids != null) {
+					ids[depth] = childId;
+				}
+				depth++;
+				node = nodes[childId];
+			}
+			segmentStartIndex = segmentEndIndex + 1;
+		}
+		return depth;
+	}
+
+	private synchronized int register(Node parent, String segment) {
+		Integer id = parent.childIdsBySegment.get(segment);
+		if (id != null) {
+			return id;
+		}
+		Node[] current = nodes;
+		if (current.length >= maxNodeCount) {
+			if (!isFull) {
+				isFull = true;
+				System.err.println("New paths are skipped from now on in order to limit memory usage"
+					+ " (their lines are counted by JMX)");
+			}
+			return NO_ID;
+		}
+		Node[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = new Node(parent == root ? segment : parent.name + SEPARATOR + segment);
+		nodes = updated;
+		parent.childIdsBySegment.put(segment, current.length);
+		return current.length;
+	}
+
+	@Override
+	public int idsOf(AccessLogLine line, int[] ids) {
+		return walk(line.getPath(), ids);
+	}
+
+	/**
+	 * @return Whether the path is shorter than expected, which is checked once the limit is reached only.
+	 */
+	@Override
+	public boolean isSkipped(AccessLogLine line, int idCount) {
+		return isFull && idCount < Math.min(maxDepth, depthOf(line.getPath()));
+	}
+
+	@Override
+	public int getMaxIdCount() {
+		return maxDepth;
+	}
+
+	/**
+	 * @param name A path prefix, like {@literal api/user}.
+	 */
+	@Override
+	public int idOf(String name) {
+		int[] ids = new int[maxDepth];
+		int depth = walk(name, ids);
+		if (depth == 0 || depth < Math.min(maxDepth, depthOf(name))) {
+			return NO_ID; // The limit is reached
+		}
+		return ids[depth - 1];
+	}
+
+	/**
+	 * @param path A path or a path prefix, like {@literal api/user}.
+	 * @return The count of non-empty path segments (like 2).
+	 */
+	public static int depthOf(String path) {
+		int count = 0;
+		for (int i = 0; i < path.length(); i++) {
+			if (path.charAt(i) != SEPARATOR && (i == 0 || path.charAt(i - 1) == SEPARATOR)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Nullable
+	@Override
+	public String nameOf(int id) {
+		Node[] current = nodes;
+		return id >= 0 && id < current.length ? current[id].name : null;
+	}
+
+	/**
+	 * @return Selects the path prefixes of the given count of segments, for {@link Statistic#topSections(Predicate)}.
+	 */
+	public static Predicate<String> atDepth(int depth) {
+		return name -> depthOf(name) == depth;
+	}
+
+	@Override
+	public int size() {
+		return nodes.length;
+	}
+}
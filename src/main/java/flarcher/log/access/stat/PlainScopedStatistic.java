@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Counters without atomic operations, for statistics that are written and read by the thread that owns them (like
+ * reusable accumulators).
+ */
+@NotThreadSafe
+final class PlainScopedStatistic implements StatisticAggregator.ScopedStatisticAggregator {
+
+	private long count = 0L;
+	private long weight = 0L;
+	private int maxWeight = 0;
+	private final long[] histogram = new long[WeightHistogram.SLOT_COUNT];
+	private final long[] statuses = new long[StatusCounts.SLOT_COUNT];
+
+	@Override
+	public long requestCount() {
+		return count;
+	}
+
+	@Override
+	public long weight() {
+		return weight;
+	}
+
+	@Override
+	public WeightHistogram weightHistogram() {
+		// Is created on demand only (usually for top sections)
+		WeightHistogram weightHistogram = new WeightHistogram();
+		weightHistogram.addFrom(histogram, 0, maxWeight);
+		return weightHistogram;
+	}
+
+	@Override
+	public StatusCounts statusCounts() {
+		// Is created on demand only
+		StatusCounts statusCounts = new StatusCounts();
+		statusCounts.addFrom(statuses, 0);
+		return statusCounts;
+	}
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		int length = accessLogLine.getLength();
+		count++;
+		weight += length;
+		StatusCounts.record(statuses, 0, accessLogLine.getStatus());
+		if (length >= 0) {
+			histogram[WeightHistogram.slotOf(length)]++;
+			maxWeight = Math.max(maxWeight, length);
+		}
+	}
+
+	@Override
+	public void add(Statistic.ScopedStatistic other) {
+		count += other.requestCount();
+		weight += other.weight();
+		WeightHistogram otherHistogram = other.weightHistogram();
+		otherHistogram.addTo(histogram, 0);
+		maxWeight = Math.max(maxWeight, otherHistogram.getMax());
+		other.statusCounts().addTo(statuses, 0);
+	}
+
+	@Override
+	public void clear() {
+		count = 0L;
+		weight = 0L;
+		maxWeight = 0;
+		Arrays.fill(histogram, 0L);
+		Arrays.fill(statuses, 0L);
+	}
+}
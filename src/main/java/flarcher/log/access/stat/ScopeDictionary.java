@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maps the scopes of access log lines to dense integer identifiers, so that statistics can be stored in primitive
+ * columns indexed by identifiers (see {@link ColumnarStatistic}).
+ */
+public interface ScopeDictionary {
+
+	int NO_ID = -1;
+
+	/**
+	 * Writes the identifiers of the scopes of a line, that are created if needed. Scopes over the limit are skipped.
+	 * @param ids An array of at least {@link #getMaxIdCount()} values.
+	 * @return The count of written identifiers.
+	 */
+	int idsOf(AccessLogLine line, int[] ids);
+
+	/**
+	 * @param idCount The count of identifiers written by {@link #idsOf(AccessLogLine, int[])} for the line.
+	 * @return Whether some scopes of the line were skipped because of the limit.
+	 */
+	boolean isSkipped(AccessLogLine line, int idCount);
+
+	/**
+	 * @return The greatest count of scopes of a line.
+	 */
+	int getMaxIdCount();
+
+	/**
+	 * @return The identifier of the named scope, that is created if needed. Is {@link #NO_ID} when the limit is reached.
+	 */
+	int idOf(String name);
+
+	@Nullable
+	String nameOf(int id);
+
+	int size();
+
+	/**
+	 * The estimated bytes of a scope: its name, its map entry and its slot.
+	 */
+	long SCOPE_BYTES = 128L;
+
+	/**
+	 * @return The estimated bytes of the scopes (see {@link #SCOPE_BYTES}).
+	 */
+	default long estimateBytes() {
+		return size() * SCOPE_BYTES;
+	}
+}
@@ -10,7 +10,7 @@ import java.util.Comparator;
 public interface ScopedStatisticComparators {
 
 	Comparator<Statistic.ScopedStatistic> COMPARATOR_BY_REQUEST_COUNT =
-			Comparator.comparing(Statistic.ScopedStatistic::requestCount).reversed();
+			Comparator.comparingLong(Statistic.ScopedStatistic::requestCount).reversed();
 
 	// We can define other comparators here
 
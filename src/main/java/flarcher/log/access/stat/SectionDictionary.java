@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps each section to a dense integer identifier, so that statistics can be stored in primitive columns indexed
+ * by identifiers. A single instance is shared by all the time buckets, so that the count of section strings scales
+ * with sections only.
+ *
+ * The identifiers are never recycled (the buckets would have to be scanned for them), so that the sections that come
+ * after the limit are never counted: their lines are counted by the overall statistics (see
+ * {@link ColumnarStatistic#getSkippedLineCount()}).
+ */
+@ThreadSafe
+public final class SectionDictionary implements ScopeDictionary {
+
+	/**
+	 * @param maxSectionCount Section count limit (robustness about memory consumption).
+	 */
+	public SectionDictionary(int maxSectionCount) {
+		this.maxSectionCount = maxSectionCount;
+	}
+
+	private final int maxSectionCount;
+	private final ConcurrentMap<String, Integer> idsBySection = new ConcurrentHashMap<>();
+
+	/**
+	 * Sections by identifier; is copied on write since new sections are rare.
+	 */
+	private volatile String[] sections = new String[0];
+
+	/**
+	 * Is set once the limit is reached.
+	 */
+	private volatile boolean isFull = false;
+
+	@Override
+	public int idsOf(AccessLogLine line, int[] ids) {
+		int id = idOf(line.getSection());
+		if (id == NO_ID) {
+			return 0;
+		}
+		ids[0] = id;
+		return 1;
+	}
+
+	@Override
+	public boolean isSkipped(AccessLogLine line, int idCount) {
+		return idCount == 0;
+	}
+
+	@Override
+	public int getMaxIdCount() {
+		return 1;
+	}
+
+	/**
+	 * @return The identifier of the section, that is created if needed. Is {@link #NO_ID} when the limit is reached.
+	 */
+	@Override
+	public int idOf(String section) {
+		Integer id = idsBySection.get(section);
+		if (id != null) {
+			return id;
+		}
+		// Once the limit is reached, the new sections are skipped without locking
+		return isFull ? NO_ID : register(section);
+	}
+
+	private synchronized int register(String section) {
+		Integer id = idsBySection.get(section);
+		if (id != null) {
+			return id;
+		}
+		String[] current = sections;
+		if (current.length >= maxSectionCount) {
+			if (!isFull) {
+				isFull = true;
+				System.err.println("New sections are skipped from now on in order to limit memory usage"
+					+ " (their lines are counted by JMX)");
+			}
+			return NO_ID;
+		}
+		String[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = section;
+		sections = updated;
+		idsBySection.put(section, current.length);
+		return current.length;
+	}
+
+	@Nullable
+	@Override
+	public String nameOf(int id) {
+		String[] current = sections;
+		return id >= 0 && id < current.length ? current[id] : null;
+	}
+
+	@Override
+	public int size() {
+		return sections.length;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts by slot, whose consecutive slots are split into segments that are allocated on their first update, so that
+ * the slots that are never counted (like the weights that a section never returns) take no memory. Reading a slot of
+ * a missing segment gives zero.
+ */
+@ThreadSafe
+final class SegmentedCounts {
+
+	/**
+	 * The split of the slots into segments, that is shared by the instances of a type.
+	 */
+	@Immutable
+	static final class Layout {
+
+		/**
+		 * @param segmentStarts The first slot of each segment, in ascending order, the first one being {@code 0}.
+		 * @param slotCount The count of slots.
+		 */
+		Layout(int[] segmentStarts, int slotCount) {
+			if (segmentStarts.length == 0 || segmentStarts[0] != 0) {
+				throw new IllegalArgumentException("The first segment must start at the slot 0");
+			}
+			this.slotCount = slotCount;
+			this.segmentStarts = segmentStarts.clone();
+			this.segmentEnds = new int[segmentStarts.length];
+			this.segmentBySlot = new int[slotCount];
+			for (int s = 0; s < segmentStarts.length; s++) {
+				segmentEnds[s] = s + 1 < segmentStarts.length ? segmentStarts[s + 1] : slotCount;
+				if (segmentEnds[s] <= segmentStarts[s]) {
+					throw new IllegalArgumentException("The segment " + s + " is empty");
+				}
+				for (int slot = segmentStarts[s]; slot < segmentEnds[s]; slot++) {
+					segmentBySlot[slot] = s;
+				}
+			}
+		}
+
+		private final int slotCount;
+		private final int[] segmentStarts;
+		private final int[] segmentEnds;
+		private final int[] segmentBySlot;
+
+		int getSlotCount() {
+			return slotCount;
+		}
+
+		/**
+		 * @return The estimated bytes of an instance having the given count of allocated segments of the given length.
+		 */
+		long estimateBytes(int segmentCount, int segmentLength) {
+			return 32L + Integer.BYTES * segmentStarts.length + segmentCount * (32L + Long.BYTES * segmentLength);
+		}
+	}
+
+	SegmentedCounts(Layout layout) {
+		this.layout = layout;
+		this.segments = new AtomicReferenceArray<>(layout.segmentStarts.length);
+	}
+
+	private final Layout layout;
+	private final AtomicReferenceArray<AtomicLongArray> segments;
+
+	long get(int slot) {
+		int s = layout.segmentBySlot[slot];
+		AtomicLongArray segment = segments.get(s);
+		return segment == null ? 0L : segment.get(slot - layout.segmentStarts[s]);
+	}
+
+	void add(int slot, long delta) {
+		if (delta == 0) {
+			return;
+		}
+		int s = layout.segmentBySlot[slot];
+		AtomicLongArray segment = segments.get(s);
+		if (segment == null) {
+			segment = allocate(s);
+		}
+		segment.addAndGet(slot - layout.segmentStarts[s], delta);
+	}
+
+	private AtomicLongArray allocate(int s) {
+		AtomicLongArray segment = new AtomicLongArray(layout.segmentEnds[s] - layout.segmentStarts[s]);
+		// Another writer may have allocated it meanwhile
+		return segments.compareAndSet(s, null, segment) ? segment : segments.get(s);
+	}
+
+	/**
+	 * Resets the counts, the allocated segments being kept for reuse.
+	 */
+	void clear() {
+		for (int s = 0; s < segments.length(); s++) {
+			AtomicLongArray segment = segments.get(s);
+			if (segment != null) {
+				for (int i = 0; i < segment.length(); i++) {
+					segment.set(i, 0);
+				}
+			}
+		}
+	}
+}
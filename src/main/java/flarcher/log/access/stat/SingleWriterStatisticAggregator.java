@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Statistics gathering from access log lines, like {@link StatisticAggregator}, but for a single writer thread.
+ *
+ * The writer does not use atomic read-modify-write operations: it only does ordered writes, with a sequence number
+ * per scope (a {@literal seqlock}). Readers retry until they copy all the values of a scope between two writes, so that
+ * the request count, the weight, the weight distribution and the status counts are always consistent with each other.
+ *
+ * Once the section count limit is reached, a new section is either ignored, or replaces the least recently updated
+ * section if the eviction is enabled (see {@link #setEvicting(boolean)}), so that the sections that were hot long ago
+ * do not hide the current ones. The recency order is a list linked through the scopes, that the writer updates in
+ * constant time.
+ *
+ * All methods that update the statistics must be called from the same thread. Reading methods can be called from
+ * any thread.
+ */
+@ThreadSafe
+public class SingleWriterStatisticAggregator implements Statistic.Accumulator, Consumer<AccessLogLine> {
+
+	/**
+	 * @param comparator A comparator for sorting stats.
+	 * @param maxSectionCount Section count limit (robustness about memory consumption).
+	 */
+	public SingleWriterStatisticAggregator(Comparator<ScopedStatistic> comparator, int maxSectionCount) {
+		this.comparator = Objects.requireNonNull(comparator);
+		this.maxSectionCount = maxSectionCount;
+	}
+
+	private final Comparator<ScopedStatistic> comparator;
+	private final int maxSectionCount;
+	private final SeqLockScope overallScope = new SeqLockScope(null);
+	// Only the writer thread inserts into the map
+	private final ConcurrentMap<String, SeqLockScope> scopesBySection = new ConcurrentHashMap<>();
+
+	private boolean evicting = false;
+
+	/**
+	 * Lines whose section is skipped because of the section count limit (is written by the writer only).
+	 */
+	private volatile long skippedLineCount = 0L;
+
+	/**
+	 * The ends of the recency list (are used by the writer only, when evicting).
+	 */
+	private SeqLockScope mostRecent = null;
+	private SeqLockScope leastRecent = null;
+
+	/**
+	 * Enables the eviction of the least recently updated section when a new section comes and the section count limit
+	 * is reached. Must be called before any update.
+	 */
+	public void setEvicting(boolean evicting) {
+		this.evicting = evicting;
+	}
+
+	int getSectionCount() {
+		return scopesBySection.size();
+	}
+
+	/**
+	 * @return The count of lines whose section is skipped because of the section count limit, that are still counted overall.
+	 */
+	public long getSkippedLineCount() {
+		return skippedLineCount;
+	}
+
+	/**
+	 * @return The estimated bytes of the counters (see {@link SeqLockScope#BYTES}).
+	 */
+	public long estimateBytes() {
+		return (scopesBySection.size() + 1) * SeqLockScope.BYTES;
+	}
+
+	@Override
+	public ScopedStatistic overall() {
+		return overallScope.snapshot();
+	}
+
+	@Override
+	public Comparator<ScopedStatistic> sectionComparator() {
+		return comparator;
+	}
+
+	@Override
+	public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+		if (scopesBySection.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>(scopesBySection.size());
+		scopesBySection.forEach((section, scope) ->
+			list.add(new AbstractMap.SimpleImmutableEntry<>(section, scope.snapshot())));
+		list.sort(Comparator.comparing(Map.Entry::getValue, comparator));
+		return list;
+	}
+
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		scopesBySection.forEach((section, scope) -> action.accept(section, scope.snapshot()));
+	}
+
+	/**
+	 * @return The scope of the section, or {@code null} if the section count limit is reached (without eviction).
+	 */
+	private SeqLockScope getSectionScope(String section) {
+		SeqLockScope scope = scopesBySection.get(section);
+		if (scope == null) {
+			if (scopesBySection.size() < maxSectionCount) {
+				scope = new SeqLockScope(section);
+				scopesBySection.put(section, scope);
+			}
+			else if (evicting && leastRecent != null) {
+				// A new scope, since readers may still hold the evicted one
+				SeqLockScope evicted = leastRecent;
+				unlink(evicted);
+				scopesBySection.remove(evicted.section);
+				scope = new SeqLockScope(section);
+				scopesBySection.put(section, scope);
+			}
+			else {
+				return null;
+			}
+		}
+		if (evicting && scope != mostRecent) {
+			unlink(scope);
+			scope.older = mostRecent;
+			if (mostRecent != null) {
+				mostRecent.newer = scope;
+			}
+			mostRecent = scope;
+			if (leastRecent == null) {
+				leastRecent = scope;
+			}
+		}
+		return scope;
+	}
+
+	private void unlink(SeqLockScope scope) {
+		if (scope.newer != null) {
+			scope.newer.older = scope.older;
+		}
+		else if (mostRecent == scope) {
+			mostRecent = scope.older;
+		}
+		if (scope.older != null) {
+			scope.older.newer = scope.newer;
+		}
+		else if (leastRecent == scope) {
+			leastRecent = scope.newer;
+		}
+		scope.newer = null;
+		scope.older = null;
+	}
+
+	@Override
+	public void accept(AccessLogLine accessLogLine) {
+		int length = accessLogLine.getLength();
+		int status = accessLogLine.getStatus();
+		overallScope.record(length, status);
+		SeqLockScope sectionScope = getSectionScope(accessLogLine.getSection());
+		if (sectionScope != null) {
+			sectionScope.record(length, status);
+		}
+		else {
+			skippedLineCount++;
+		}
+	}
+
+	@Override
+	public void add(Statistic other) {
+		overallScope.add(other.overall());
+		other.forEachSection((section, otherSectionStats) -> {
+			SeqLockScope sectionScope = getSectionScope(section);
+			if (sectionScope != null) {
+				sectionScope.add(otherSectionStats);
+			}
+		});
+	}
+
+	@Override
+	public void clear() {
+		overallScope.clear();
+		scopesBySection.clear();
+		mostRecent = null;
+		leastRecent = null;
+	}
+
+	/**
+	 * Values of a scope, guarded by a sequence number that is odd while a write is in progress.
+	 * The writer uses ordered writes ({@link AtomicLongArray#lazySet(int, long)}), that are plain stores on most
+	 * platforms, while readers use volatile reads.
+	 */
+	@ThreadSafe
+	private static final class SeqLockScope {
+
+		private static final int SEQUENCE = 0;
+		private static final int COUNT = 1;
+		private static final int WEIGHT = 2;
+		private static final int MAX_WEIGHT = 3;
+		private static final int SLOTS = 4;
+		private static final int STATUS_SLOTS = SLOTS + WeightHistogram.SLOT_COUNT;
+
+		/**
+		 * The estimated bytes of the values of a scope, of its recency links and of its map entry.
+		 */
+		private static final long BYTES = Long.BYTES * (STATUS_SLOTS + StatusCounts.SLOT_COUNT) + 256L;
+
+		private SeqLockScope(String section) {
+			this.section = section;
+		}
+
+		private final AtomicLongArray values = new AtomicLongArray(STATUS_SLOTS + StatusCounts.SLOT_COUNT);
+
+		/**
+		 * The section and the neighbours in the recency list (are used by the writer only, when evicting).
+		 */
+		private final String section;
+		private SeqLockScope newer = null;
+		private SeqLockScope older = null;
+
+		//--- Writer side
+
+		private void increment(int index, long delta) {
+			values.lazySet(index, values.get(index) + delta);
+		}
+
+		private void beginWrite() {
+			increment(SEQUENCE, 1);
+		}
+
+		private void endWrite() {
+			increment(SEQUENCE, 1);
+		}
+
+		private void record(int length, int status) {
+			beginWrite();
+			increment(COUNT, 1);
+			increment(STATUS_SLOTS + StatusCounts.classOf(status), 1);
+			int codeSlot = StatusCounts.codeSlotOf(status);
+			if (codeSlot >= 0) {
+				increment(STATUS_SLOTS + codeSlot, 1);
+			}
+			increment(WEIGHT, length);
+			if (length >= 0) {
+				increment(SLOTS + WeightHistogram.slotOf(length), 1);
+				if (length > values.get(MAX_WEIGHT)) {
+					values.lazySet(MAX_WEIGHT, length);
+				}
+			}
+			endWrite();
+		}
+
+		private void add(ScopedStatistic other) {
+			WeightHistogram otherHistogram = other.weightHistogram();
+			long[] slots = new long[WeightHistogram.SLOT_COUNT + StatusCounts.SLOT_COUNT];
+			otherHistogram.addTo(slots, 0);
+			other.statusCounts().addTo(slots, WeightHistogram.SLOT_COUNT);
+			beginWrite();
+			increment(COUNT, other.requestCount());
+			increment(WEIGHT, other.weight());
+			// The status slots follow the histogram ones in both arrays
+			for (int i = 0; i < slots.length; i++) {
+				if (slots[i] != 0) {
+					increment(SLOTS + i, slots[i]);
+				}
+			}
+			if (otherHistogram.getMax() > values.get(MAX_WEIGHT)) {
+				values.lazySet(MAX_WEIGHT, otherHistogram.getMax());
+			}
+			endWrite();
+		}
+
+		private void clear() {
+			beginWrite();
+			for (int i = COUNT; i < values.length(); i++) {
+				values.lazySet(i, 0);
+			}
+			endWrite();
+		}
+
+		//--- Reader side
+
+		private ScopedSnapshot snapshot() {
+			long[] copy = new long[values.length()];
+			while (true) {
+				long sequence = values.get(SEQUENCE);
+				if ((sequence & 1) == 0) {
+					for (int i = COUNT; i < copy.length; i++) {
+						copy[i] = values.get(i);
+					}
+					if (values.get(SEQUENCE) == sequence) {
+						return new ScopedSnapshot(copy);
+					}
+				}
+				Thread.yield(); // A write is in progress
+			}
+		}
+	}
+
+	/**
+	 * Consistent values of a scope at a given time.
+	 */
+	@Immutable
+	private static final class ScopedSnapshot implements ScopedStatistic {
+
+		private ScopedSnapshot(long[] values) {
+			this.values = values;
+		}
+
+		/**
+		 * A copy of the values of the scope, read between two writes.
+		 */
+		private final long[] values;
+
+		@Override
+		public long requestCount() {
+			return values[SeqLockScope.COUNT];
+		}
+
+		@Override
+		public long weight() {
+			return values[SeqLockScope.WEIGHT];
+		}
+
+		/**
+		 * @return The distribution, built on demand (usually for top sections only) from the copied values.
+		 */
+		@Override
+		public WeightHistogram weightHistogram() {
+			WeightHistogram histogram = new WeightHistogram();
+			histogram.addFrom(values, SeqLockScope.SLOTS, (int) values[SeqLockScope.MAX_WEIGHT]);
+			return histogram;
+		}
+
+		/**
+		 * @return The counts, built on demand from the copied values.
+		 */
+		@Override
+		public StatusCounts statusCounts() {
+			StatusCounts statusCounts = new StatusCounts();
+			statusCounts.addFrom(values, SeqLockScope.STATUS_SLOTS);
+			return statusCounts;
+		}
+	}
+}
@@ -5,14 +5,19 @@
 
 package flarcher.log.access.stat;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 /**
- * Statistics aggregated over time about access logs.
+ * Statistics aggregated over time about access logs, as a read-only view (see {@link Accumulator} for the mutable
+ * instances).
  */
-public interface Statistic extends AutoCloseable {
+public interface Statistic {
 
 	ScopedStatistic overall();
 
@@ -27,34 +32,82 @@ public interface Statistic extends AutoCloseable {
 	List<Map.Entry<String, ? extends ScopedStatistic>> topSections();
 
 	/**
-	 * Resets the stats.
+	 * @param sectionFilter Selects the sections by name.
+	 * @return Sorted list (according to {@link #sectionComparator()}) of the statistics of the selected sections.
 	 */
-	void clear();
+	default List<Map.Entry<String, ? extends ScopedStatistic>> topSections(Predicate<String> sectionFilter) {
+		List<Map.Entry<String, ? extends ScopedStatistic>> list = new ArrayList<>();
+		forEachSection((section, scopedStats) -> {
+			if (sectionFilter.test(section)) {
+				list.add(new AbstractMap.SimpleImmutableEntry<>(section, scopedStats));
+			}
+		});
+		list.sort(Comparator.comparing(Map.Entry::getValue, sectionComparator()));
+		return list;
+	}
 
-	@Override
-	default void close() {
-		clear();
+	/**
+	 * Iterates over the statistics of sections in no particular order, so that an aggregation needs no sort.
+	 * The default implementation iterates over {@link #topSections()}.
+	 */
+	default void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		topSections().forEach(entry -> action.accept(entry.getKey(), entry.getValue()));
 	}
 
 	/**
-	 * Aggregates statistics of another instance.
+	 * Statistics that aggregate the ones of other instances.
 	 */
-	void add(Statistic other);
+	interface Accumulator extends Statistic, AutoCloseable {
+
+		/**
+		 * Resets the stats.
+		 */
+		void clear();
+
+		@Override
+		default void close() {
+			clear();
+		}
+
+		/**
+		 * Aggregates statistics of another instance.
+		 */
+		void add(Statistic other);
+	}
 
 	/**
 	 * Describes metrics provided for a given context/scope.
 	 */
 	interface ScopedStatistic {
 
-		int requestCount();
+		long requestCount();
+
+		/**
+		 * @return The sum of response sizes in bytes.
+		 */
+		long weight();
 
-		int weight();
+		/**
+		 * @return The distribution of weights (response sizes).
+		 */
+		WeightHistogram weightHistogram();
+
+		/**
+		 * @return The request counts by HTTP status class and code.
+		 */
+		StatusCounts statusCounts();
+
+	}
+
+	/**
+	 * Metrics of a context/scope that aggregate the ones of other instances.
+	 */
+	interface ScopedAccumulator extends ScopedStatistic {
 
 		/**
 		 * Aggregates statistics of another instance.
 		 */
 		void add(ScopedStatistic other);
-
 	}
 
 }
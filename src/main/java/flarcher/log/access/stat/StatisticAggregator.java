@@ -11,21 +11,33 @@ import javax.annotation.concurrent.ThreadSafe;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Statistics gathering from access log lines.
  * Is listening to log line from one thread and returning results to another.
  */
 @ThreadSafe
-public class StatisticAggregator implements Statistic, Consumer<AccessLogLine> {
+public class StatisticAggregator implements Statistic.Accumulator, Consumer<AccessLogLine> {
 
 	/**
 	 * @param comparator A comparator for sorting stats.
 	 */
 	public StatisticAggregator(Comparator<ScopedStatistic> comparator, int maxSectionCount) {
+		this(comparator, maxSectionCount, AtomicScopedStatistic::new);
+	}
+
+	/**
+	 * @param scopeFactory Creates the counters of a scope.
+	 */
+	StatisticAggregator(Comparator<ScopedStatistic> comparator, int maxSectionCount,
+			Supplier<? extends ScopedStatisticAggregator> scopeFactory) {
 		this.comparator = Objects.requireNonNull(comparator);
+		this.scopeFactory = Objects.requireNonNull(scopeFactory);
+		this.overallStats = scopeFactory.get();
 
 		// The map will be called from the rendering thread, so it should be concurrent
 		// It has not to be sorted since values are updated after add
@@ -35,7 +47,8 @@ public class StatisticAggregator implements Statistic, Consumer<AccessLogLine> {
 	}
 
 	private final Comparator<ScopedStatistic> comparator;
-	private final ScopedStatisticAggregator overallStats = new ScopedStatisticAggregator();
+	private final Supplier<? extends ScopedStatisticAggregator> scopeFactory;
+	private final ScopedStatisticAggregator overallStats;
 	private final ConcurrentMap<String, ScopedStatisticAggregator> statsBySection;
 	private final int maxSectionCount;
 
@@ -43,6 +56,19 @@ public class StatisticAggregator implements Statistic, Consumer<AccessLogLine> {
 		return maxSectionCount;
 	}
 
+	/**
+	 * The estimated bytes of the atomic counters of a scope and of its map entry, whose histogram and status slots
+	 * are allocated by segments on first use.
+	 */
+	static final long SCOPE_BYTES = WeightHistogram.ESTIMATED_BYTES + StatusCounts.ESTIMATED_BYTES + 256L;
+
+	/**
+	 * @return The estimated bytes of the counters (see {@link #SCOPE_BYTES}).
+	 */
+	long estimateBytes() {
+		return (statsBySection.size() + 1) * SCOPE_BYTES;
+	}
+
 	int getSectionCount() {
 		return statsBySection.size();
 	}
@@ -58,6 +84,18 @@ public class StatisticAggregator implements Statistic, Consumer<AccessLogLine> {
 		statsBySection.clear();
 	}
 
+	/**
+	 * Clears the statistics, and gives the cleared counters of the sections for reuse (see the scope factory).
+	 */
+	void clear(Consumer<? super ScopedStatisticAggregator> recycler) {
+		overallStats.clear();
+		statsBySection.values().forEach(scopedStats -> {
+			scopedStats.clear();
+			recycler.accept(scopedStats);
+		});
+		statsBySection.clear();
+	}
+
 	@Override
 	public ScopedStatistic overall() {
 		return overallStats;
@@ -76,6 +114,11 @@ public class StatisticAggregator implements Statistic, Consumer<AccessLogLine> {
 		return list;
 	}
 
+	@Override
+	public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+		statsBySection.forEach(action);
+	}
+
 	private static void warnAboutSectionSkipping(String section) {
 		// TODO: warn once about not being able to store a new section information
 		System.err.println("Skipped section " + section + " in order to limit memory usage");
@@ -86,25 +129,27 @@ public class StatisticAggregator implements Statistic, Consumer<AccessLogLine> {
 
 		overallStats.accept(accessLogLine);
 
-		String section = accessLogLine.getSection();
-		if (statsBySection.size() >= maxSectionCount) {
-			ScopedStatisticAggregator scopedStats = statsBySection.get(section);
-			if (scopedStats != null) {
-				scopedStats.accept(accessLogLine);
+		ScopedStatisticAggregator scopedStats = getSectionStats(accessLogLine.getSection());
+		if (scopedStats != null) {
+			scopedStats.accept(accessLogLine);
+		}
+	}
+
+	/**
+	 * @return The statistics of the section, or {@code null} if the section count limit is reached.
+	 */
+	private ScopedStatisticAggregator getSectionStats(String section) {
+		// Existing sections are read without locking (several writers may update the same section)
+		ScopedStatisticAggregator scopedStats = statsBySection.get(section);
+		if (scopedStats == null) {
+			if (statsBySection.size() >= maxSectionCount) {
+				warnAboutSectionSkipping(section);
 			}
 			else {
-				warnAboutSectionSkipping(section);
+				scopedStats = statsBySection.computeIfAbsent(section, k -> scopeFactory.get());
 			}
 		}
-		else {
-			statsBySection.compute(section, (k, v) -> {
-				if (v == null) {
-					v = new ScopedStatisticAggregator();
-				}
-				v.accept(accessLogLine);
-				return v;
-			});
-		}
+		return scopedStats;
 	}
 
 	@Override
@@ -112,66 +157,78 @@ public class StatisticAggregator implements Statistic, Consumer<AccessLogLine> {
 
 		overallStats.add(other.overall());
 
-		other.topSections().forEach( otherSectionEntry -> {
-			String section = otherSectionEntry.getKey();
-			ScopedStatistic otherSectionStats = otherSectionEntry.getValue();
-			if (statsBySection.size() >= maxSectionCount) {
-				ScopedStatisticAggregator thisSectionStats = statsBySection.get(section);
-				if (thisSectionStats != null) {
-					thisSectionStats.add(otherSectionStats);
-				}
-				else {
-					warnAboutSectionSkipping(section);
-				}
-			}
-			else {
-				statsBySection.compute(section, (k, v) -> {
-					if (v == null) {
-						v = new ScopedStatisticAggregator();
-					}
-					v.add(otherSectionStats);
-					return v;
-				});
+		// No sort is needed, since the sections are merged into a map
+		other.forEachSection((section, otherSectionStats) -> {
+			ScopedStatisticAggregator thisSectionStats = getSectionStats(section);
+			if (thisSectionStats != null) {
+				thisSectionStats.add(otherSectionStats);
 			}
 		});
 	}
 
+	/**
+	 * Counters of a scope (overall or section).
+	 */
+	interface ScopedStatisticAggregator extends ScopedAccumulator, Consumer<AccessLogLine> {
+
+		void clear();
+	}
+
 	/**
 	 * Is listening to log line from one thread and returning results to another.
 	 */
 	@ThreadSafe
-	private static class ScopedStatisticAggregator implements ScopedStatistic, Consumer<AccessLogLine> {
+	private static class AtomicScopedStatistic implements ScopedStatisticAggregator {
 
-		ScopedStatisticAggregator() {}
+		AtomicScopedStatistic() {}
 
-		private AtomicInteger count = new AtomicInteger(0);
-		private AtomicInteger weight = new AtomicInteger(0);
+		private AtomicLong count = new AtomicLong(0);
+		private AtomicLong weight = new AtomicLong(0);
+		private final WeightHistogram histogram = new WeightHistogram();
+		private final StatusCounts statusCounts = new StatusCounts();
 
 		@Override
-		public int requestCount() {
+		public long requestCount() {
 			return count.get();
 		}
 
 		@Override
-		public int weight() {
+		public long weight() {
 			return weight.get();
 		}
 
+		@Override
+		public WeightHistogram weightHistogram() {
+			return histogram;
+		}
+
+		@Override
+		public StatusCounts statusCounts() {
+			return statusCounts;
+		}
+
 		@Override
 		public void accept(AccessLogLine accessLogLine) {
 			count.incrementAndGet();
 			weight.addAndGet(accessLogLine.getLength());
+			histogram.record(accessLogLine.getLength());
+			statusCounts.record(accessLogLine.getStatus());
 		}
 
 		@Override
 		public void add(ScopedStatistic other) {
 			count.addAndGet(other.requestCount());
 			weight.addAndGet(other.weight());
+			histogram.add(other.weightHistogram());
+			statusCounts.add(other.statusCounts());
 		}
 
-		void clear() {
+		@Override
+		public void clear() {
 			count.set(0);
 			weight.set(0);
+			histogram.clear();
+			statusCounts.clear();
 		}
 	}
 }
@@ -8,12 +8,19 @@ package flarcher.log.access.stat;
 import flarcher.log.access.TimeBuckets;
 import flarcher.log.access.read.AccessLogLine;
 
+import javax.annotation.Nullable;
 import java.time.Duration;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 
 /**
  * Creates some {@link StatisticTimeBuckets} (2-step aggregators) for use with {@link Statistic} instances.
@@ -23,30 +30,228 @@ public final class StatisticTimeBucketsFactory {
 
 	private StatisticTimeBucketsFactory() {}
 
+	/**
+	 * A bucket of the {@link Store#MAP} store, that is either a {@link StatisticForReduce} or a {@link FrozenBucket}.
+	 */
+	private interface MapBucket extends Statistic.Accumulator, Consumer<AccessLogLine> {
+
+		boolean isCreatedDuringReduce();
+
+		int getMaxSectionCount();
+
+		int getSectionCount();
+
+		/**
+		 * @return The estimated bytes of the statistics.
+		 */
+		long estimateBytes();
+	}
+
 	/**
 	 * Makes possible to lower the number of instances during the reduce operation.
 	 * We should not update original values, but this class is intended to use its mutability.
 	 */
-	private static class StatisticForReduce extends StatisticAggregator {
+	private static class StatisticForReduce extends StatisticAggregator implements MapBucket {
 
 		private StatisticForReduce(Comparator<ScopedStatistic> comparator, int maxSectionCount, boolean createdDuringReduce) {
 			super(comparator, maxSectionCount);
 			this.createdDuringReduce = createdDuringReduce;
+			this.recycledScopes = null;
+		}
+
+		/**
+		 * Creates a reusable accumulator, whose section counters are recycled by {@link #reset()}.
+		 */
+		private StatisticForReduce(Comparator<ScopedStatistic> comparator, int maxSectionCount,
+				Deque<ScopedStatisticAggregator> recycledScopes) {
+			super(comparator, maxSectionCount,
+				() -> recycledScopes.isEmpty() ? new PlainScopedStatistic() : recycledScopes.pop());
+			this.createdDuringReduce = true;
+			this.recycledScopes = recycledScopes;
 		}
 
 		private final boolean createdDuringReduce;
+
+		/**
+		 * Cleared section counters (for a reusable accumulator only).
+		 */
+		@Nullable
+		private final Deque<ScopedStatisticAggregator> recycledScopes;
+
+		private void reset() {
+			clear(recycledScopes::push);
+		}
+
+		@Override
+		public boolean isCreatedDuringReduce() {
+			return createdDuringReduce;
+		}
+
+		@Override
+		public int getMaxSectionCount() {
+			return super.getMaxSectionCount();
+		}
+
+		@Override
+		public int getSectionCount() {
+			return super.getSectionCount();
+		}
+
+		@Override
+		public long estimateBytes() {
+			return super.estimateBytes();
+		}
+	}
+
+	/**
+	 * A closed bucket of the {@link Store#MAP} store, whose statistics are held by a {@link FrozenStatistic} instead of
+	 * concurrent maps and atomic counters. The late lines (coming after the freezing) are aggregated apart, so that
+	 * a section may be given twice by {@link #forEachSection(BiConsumer)}, which is fine for an aggregation.
+	 * Is written by the writer's thread only (like any bucket).
+	 */
+	private static final class FrozenBucket implements MapBucket {
+
+		private FrozenBucket(StatisticForReduce bucket) {
+			this.frozen = FrozenStatistic.freeze(bucket);
+			this.maxSectionCount = bucket.getMaxSectionCount();
+		}
+
+		private volatile FrozenStatistic frozen;
+		private final int maxSectionCount;
+
+		@Nullable
+		private volatile StatisticForReduce lateLines = null;
+
+		private StatisticForReduce getLateLines() {
+			StatisticForReduce late = lateLines;
+			if (late == null) {
+				late = new StatisticForReduce(frozen.sectionComparator(), maxSectionCount, false);
+				lateLines = late;
+			}
+			return late;
+		}
+
+		@Override
+		public boolean isCreatedDuringReduce() {
+			return false;
+		}
+
+		@Override
+		public int getMaxSectionCount() {
+			return maxSectionCount;
+		}
+
+		/**
+		 * @return The count of frozen sections, plus the count of sections of the late lines.
+		 */
+		@Override
+		public int getSectionCount() {
+			StatisticForReduce late = lateLines;
+			return frozen.getSectionCount() + (late == null ? 0 : late.getSectionCount());
+		}
+
+		@Override
+		public long estimateBytes() {
+			StatisticForReduce late = lateLines;
+			return frozen.estimateBytes() + (late == null ? 0L : late.estimateBytes());
+		}
+
+		@Override
+		public void accept(AccessLogLine accessLogLine) {
+			getLateLines().accept(accessLogLine);
+		}
+
+		@Override
+		public void add(Statistic other) {
+			getLateLines().add(other);
+		}
+
+		@Override
+		public ScopedStatistic overall() {
+			StatisticForReduce late = lateLines;
+			if (late == null) {
+				return frozen.overall();
+			}
+			PlainScopedStatistic overall = new PlainScopedStatistic();
+			overall.add(frozen.overall());
+			overall.add(late.overall());
+			return overall;
+		}
+
+		@Override
+		public Comparator<ScopedStatistic> sectionComparator() {
+			return frozen.sectionComparator();
+		}
+
+		@Override
+		public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
+			if (lateLines == null) {
+				return frozen.topSections();
+			}
+			StatisticAggregator merged = new StatisticAggregator(frozen.sectionComparator(), maxSectionCount);
+			merged.add(this);
+			return merged.topSections();
+		}
+
+		@Override
+		public void forEachSection(BiConsumer<String, ? super ScopedStatistic> action) {
+			frozen.forEachSection(action);
+			StatisticForReduce late = lateLines;
+			if (late != null) {
+				late.forEachSection(action);
+			}
+		}
+
+		@Override
+		public void clear() {
+			frozen = FrozenStatistic.empty(frozen.sectionComparator());
+			lateLines = null;
+		}
 	}
 
-	private static class StaticticReducer implements BinaryOperator<StatisticForReduce> {
+	private static class StaticticReducer implements BinaryOperator<MapBucket> {
 
 		@Override
-		public StatisticForReduce apply(StatisticForReduce left, StatisticForReduce right) {
+		public MapBucket apply(MapBucket left, MapBucket right) {
 
 			Comparator<Statistic.ScopedStatistic> sectionComparator = left.sectionComparator();
 			assert right.sectionComparator() == sectionComparator;
 			int maxSectionCount = left.getMaxSectionCount();
 			assert right.getMaxSectionCount() == maxSectionCount;
 
+			if (left.isCreatedDuringReduce()) {
+				left.add(right);
+				return left; // One instance less to create
+			} else if (right.isCreatedDuringReduce()) {
+				right.add(left);
+				return right; // One instance less to create
+			} else {
+				// No update for either 'left' or 'right' since they might be read later
+				StatisticForReduce aggr = new StatisticForReduce(sectionComparator, maxSectionCount, true);
+				aggr.add(left);
+				aggr.add(right);
+				return aggr;
+			}
+		}
+	}
+
+	/**
+	 * Makes possible to lower the number of instances during the reduce operation (like {@link StatisticForReduce}).
+	 */
+	private static class ColumnarForReduce extends ColumnarStatistic {
+
+		private ColumnarForReduce(ScopeDictionary dictionary, Comparator<ScopedStatistic> comparator, boolean createdDuringReduce) {
+			super(dictionary, comparator);
+			this.createdDuringReduce = createdDuringReduce;
+		}
+
+		private final boolean createdDuringReduce;
+	}
+
+	private static class ColumnarReducer implements BinaryOperator<ColumnarForReduce> {
+
+		@Override
+		public ColumnarForReduce apply(ColumnarForReduce left, ColumnarForReduce right) {
 			if (left.createdDuringReduce) {
 				left.add(right);
 				return left; // One instance less to create
@@ -55,7 +260,90 @@ public final class StatisticTimeBucketsFactory {
 				return right; // One instance less to create
 			} else {
 				// No update for either 'left' or 'right' since they might be read later
-				StatisticForReduce aggr = new StatisticForReduce(sectionComparator, maxSectionCount, true);
+				ColumnarForReduce aggr = new ColumnarForReduce(left.getDictionary(), left.sectionComparator(), true);
+				aggr.add(left);
+				aggr.add(right);
+				return aggr;
+			}
+		}
+	}
+
+	/**
+	 * Makes possible to lower the number of instances during the reduce operation (like {@link StatisticForReduce}).
+	 */
+	private static class CubeForReduce extends CubeStatistic {
+
+		private CubeForReduce(GroupByKeys keys, Comparator<ScopedStatistic> comparator, int maxScopeCount,
+				boolean createdDuringReduce) {
+			super(keys, comparator, maxScopeCount);
+			this.maxScopeCount = maxScopeCount;
+			this.createdDuringReduce = createdDuringReduce;
+		}
+
+		private final int maxScopeCount;
+		private final boolean createdDuringReduce;
+	}
+
+	private static class CubeReducer implements BinaryOperator<CubeForReduce> {
+
+		@Override
+		public CubeForReduce apply(CubeForReduce left, CubeForReduce right) {
+			if (left.createdDuringReduce) {
+				left.add(right);
+				return left; // One instance less to create
+			} else if (right.createdDuringReduce) {
+				right.add(left);
+				return right; // One instance less to create
+			} else {
+				// No update for either 'left' or 'right' since they might be read later
+				CubeForReduce aggr = new CubeForReduce(left.getKeys(), left.sectionComparator(), left.maxScopeCount, true);
+				aggr.add(left);
+				aggr.add(right);
+				return aggr;
+			}
+		}
+	}
+
+	/**
+	 * Makes possible to lower the number of instances during the reduce operation (like {@link StatisticForReduce}).
+	 * The instances created during the reduce operation are stored in their own heap arenas, so that they need no
+	 * release.
+	 */
+	private static class OffHeapForReduce extends OffHeapStatistic {
+
+		private static final int HEAP_RECORDS_PER_CHUNK = 16;
+
+		private OffHeapForReduce(SectionDictionary dictionary, Comparator<ScopedStatistic> comparator,
+				OffHeapArena tableArena, OffHeapArena recordArena) {
+			super(dictionary, comparator, tableArena, recordArena);
+			this.createdDuringReduce = false;
+			this.tableBytes = tableArena.getRecordBytes();
+		}
+
+		private OffHeapForReduce(SectionDictionary dictionary, Comparator<ScopedStatistic> comparator, int tableBytes) {
+			super(dictionary, comparator, new OffHeapArena(tableBytes, 1, false),
+				new OffHeapArena(RECORD_BYTES, HEAP_RECORDS_PER_CHUNK, false));
+			this.createdDuringReduce = true;
+			this.tableBytes = tableBytes;
+		}
+
+		private final boolean createdDuringReduce;
+		private final int tableBytes;
+	}
+
+	private static class OffHeapReducer implements BinaryOperator<OffHeapForReduce> {
+
+		@Override
+		public OffHeapForReduce apply(OffHeapForReduce left, OffHeapForReduce right) {
+			if (left.createdDuringReduce) {
+				left.add(right);
+				return left; // One instance less to create
+			} else if (right.createdDuringReduce) {
+				right.add(left);
+				return right; // One instance less to create
+			} else {
+				// No update for either 'left' or 'right' since they might be read later
+				OffHeapForReduce aggr = new OffHeapForReduce(left.getDictionary(), left.sectionComparator(), left.tableBytes);
 				aggr.add(left);
 				aggr.add(right);
 				return aggr;
@@ -63,15 +351,129 @@ public final class StatisticTimeBucketsFactory {
 		}
 	}
 
-	public interface StatisticTimeBuckets extends Consumer<AccessLogLine> {
+	/**
+	 * How the statistics of a bucket are stored.
+	 */
+	public enum Store {
+
+		/**
+		 * Each bucket is a {@link StatisticAggregator}, with a map of objects by section. A closed bucket is frozen
+		 * into a compact {@link FrozenStatistic}.
+		 */
+		MAP,
+
+		/**
+		 * Each bucket is a {@link ColumnarStatistic}, with primitive columns indexed by section identifiers that are
+		 * shared by all buckets. The section count limit is then global instead of being by bucket.
+		 */
+		COLUMNS,
+
+		/**
+		 * Each bucket is an {@link OffHeapStatistic}, with fixed-width records by section in direct buffers shared by
+		 * all buckets, so that the retained buckets neither grow the heap nor the garbage collection work. The records
+		 * of a bucket are allocated by section on demand, and freed when the bucket is cleaned.
+		 */
+		OFF_HEAP,
+	}
+
+	/**
+	 * Reusable statistics that buckets are reduced into, owned by the reading thread.
+	 */
+	public interface Accumulators {}
+
+	/**
+	 * The side of the buckets that is used by the readers, whatever the way the buckets are fed.
+	 */
+	public interface ReducibleTimeBuckets {
 
 		List<? extends Statistic> reduceLatest(long untilMillis, List<Duration> requestDurations);
 
+		/**
+		 * @param count The count of durations of the reductions.
+		 * @return Accumulators for {@link #reduceLatest(long, List, Accumulators)}.
+		 */
+		Accumulators createAccumulators(int count);
+
+		/**
+		 * Does the same as {@link #reduceLatest(long, List)}, but reduces the buckets into the given accumulators
+		 * after resetting them, so that a reduction allocates (almost) nothing.
+		 * @param accumulators Accumulators created by {@link #createAccumulators(int)} with the count of durations.
+		 * @return Statistics that are valid until the next call with the same accumulators.
+		 */
+		List<? extends Statistic> reduceLatest(long untilMillis, List<Duration> requestDurations, Accumulators accumulators);
+
 		int getBucketCount();
+
+		/**
+		 * Enables the parallel reduction of the time frames having many buckets (see
+		 * {@link TimeBuckets#setParallelReduce(ForkJoinPool, int)}).
+		 */
+		void setParallelReduce(ForkJoinPool pool, int minBucketCount);
+
+		/**
+		 * @return The estimated bytes of the buckets held on the heap, and of the scope identifiers they share (see
+		 * {@link #getOffHeapBytes()} for the others).
+		 */
+		long getEstimatedBytes();
+
+		/**
+		 * Removes the oldest buckets (see {@link TimeBuckets#removeOldest(long, ToLongFunction)}), like when the memory
+		 * is short. Can be called from any thread.
+		 * @param bytes The bytes to free.
+		 * @return The estimated bytes of the removed buckets.
+		 */
+		long removeOldestBuckets(long bytes);
+
+		/**
+		 * Shortens the ages after which the buckets are rolled up and frozen (see
+		 * {@link TimeBuckets#setAgeDivisor(int)}), like when the memory is short. Can be called from any thread.
+		 */
+		void setAgeDivisor(int divisor);
+	}
+
+	/**
+	 * Buckets fed by a single thread, the writer.
+	 */
+	public interface StatisticTimeBuckets extends ReducibleTimeBuckets, Consumer<AccessLogLine> {
+
+		/**
+		 * Updates the buckets with the combined lines, if any (like when the reader waits for new lines).
+		 * Must be called from the writer.
+		 */
+		void flush();
+
+		/**
+		 * Updates the buckets with the combined lines once they have waited for a bucket duration, as seen by the
+		 * successive calls (see {@link LineCombiner#flushDelayed(long)}). Must be called from the writer, regularly
+		 * (like once by batch of lines or by idle wait).
+		 * @param nanoTime The current {@link System#nanoTime()}.
+		 */
+		void flushDelayed(long nanoTime);
 	}
 
 	public static final AtomicInteger MAX_SECTION_COUNT_EVER = new AtomicInteger();
 
+	/**
+	 * The default delay after which a bucket of the {@link Store#MAP} store is frozen (see {@link FrozenStatistic}).
+	 * The lines are usually logged in order, and this leaves some room for the others.
+	 */
+	private static final Duration DEFAULT_FREEZE_DELAY = Duration.ofSeconds(2);
+
+	/**
+	 * The estimated heap bytes of a bucket of the {@link Store#OFF_HEAP} store (its records being off-heap).
+	 */
+	private static final long OFF_HEAP_BUCKET_HEAP_BYTES = 64L;
+
+	private static final int OFF_HEAP_TABLES_PER_CHUNK = 1024;
+	private static final int OFF_HEAP_RECORDS_PER_CHUNK = 1024;
+
+	/**
+	 * @return The bytes allocated off-heap by the buckets of the {@link Store#OFF_HEAP} store.
+	 */
+	public static long getOffHeapBytes() {
+		return OffHeapArena.DIRECT_BYTES.get();
+	}
+
 	/**
 	 * The statsHolderFactory method that binds the {@link TimeBuckets} with the {@link Statistic} class.
 	 * @param comparator Comparator used for comparison between sections/scopes.
@@ -83,21 +485,266 @@ public final class StatisticTimeBucketsFactory {
 			Comparator<Statistic.ScopedStatistic> comparator,
 			Duration bucketDuration,
 			int maxSectionCount) {
+		return create(comparator, bucketDuration, Collections.emptyList(), maxSectionCount, Store.MAP);
+	}
+
+	/**
+	 * The statsHolderFactory method that binds the {@link TimeBuckets} with the {@link Statistic} class.
+	 * @param comparator Comparator used for comparison between sections/scopes.
+	 * @param bucketDuration The duration of the smallest time range (bucket).
+	 * @param rollupDurations The bucket durations of coarser tiers that older buckets are rolled up into.
+	 * @param maxSectionCount Section count limit.
+	 * @param store How the statistics of a bucket are stored.
+	 * @return A {@link TimeBuckets} like construct that returns {@link Statistic} instances.
+	 */
+	public static StatisticTimeBuckets create(
+			Comparator<Statistic.ScopedStatistic> comparator,
+			Duration bucketDuration,
+			List<Duration> rollupDurations,
+			int maxSectionCount,
+			Store store) {
+		return create(comparator, bucketDuration, rollupDurations, maxSectionCount, store, DEFAULT_FREEZE_DELAY);
+	}
+
+	/**
+	 * The statsHolderFactory method that binds the {@link TimeBuckets} with the {@link Statistic} class.
+	 * @param comparator Comparator used for comparison between sections/scopes.
+	 * @param bucketDuration The duration of the smallest time range (bucket).
+	 * @param rollupDurations The bucket durations of coarser tiers that older buckets are rolled up into.
+	 * @param maxSectionCount Section count limit.
+	 * @param store How the statistics of a bucket are stored.
+	 * @param freezeDelay The delay after which a closed bucket of the {@link Store#MAP} store is frozen (see
+	 *                    {@link TimeBuckets#setFreezer(UnaryOperator, Duration)}).
+	 * @return A {@link TimeBuckets} like construct that returns {@link Statistic} instances.
+	 */
+	public static StatisticTimeBuckets create(
+			Comparator<Statistic.ScopedStatistic> comparator,
+			Duration bucketDuration,
+			List<Duration> rollupDurations,
+			int maxSectionCount,
+			Store store,
+			Duration freezeDelay) {
+		return create(comparator, bucketDuration, rollupDurations, maxSectionCount, store, freezeDelay, 0);
+	}
+
+	/**
+	 * The statsHolderFactory method that binds the {@link TimeBuckets} with the {@link Statistic} class.
+	 * @param comparator Comparator used for comparison between sections/scopes.
+	 * @param bucketDuration The duration of the smallest time range (bucket).
+	 * @param rollupDurations The bucket durations of coarser tiers that older buckets are rolled up into.
+	 * @param maxSectionCount Section count limit.
+	 * @param store How the statistics of a bucket are stored.
+	 * @param freezeDelay The delay after which a closed bucket of the {@link Store#MAP} store is frozen (see
+	 *                    {@link TimeBuckets#setFreezer(UnaryOperator, Duration)}).
+	 * @param combinedLineCount When strictly positive, the consecutive lines of a same bucket are combined by section
+	 *                          (up to this count of lines) before updating the bucket (see {@link LineCombiner}). The
+	 *                          combined lines are flushed after a bucket duration at most (see
+	 *                          {@link StatisticTimeBuckets#flushDelayed(long)}).
+	 * @return A {@link TimeBuckets} like construct that returns {@link Statistic} instances.
+	 */
+	public static StatisticTimeBuckets create(
+			Comparator<Statistic.ScopedStatistic> comparator,
+			Duration bucketDuration,
+			List<Duration> rollupDurations,
+			int maxSectionCount,
+			Store store,
+			Duration freezeDelay,
+			int combinedLineCount) {
+
+		switch (store) {
+			case MAP:
+				TimeBuckets<AccessLogLine, MapBucket> mapBuckets = new TimeBuckets<>(
+						() -> new StatisticForReduce(comparator, maxSectionCount, false),
+						new StaticticReducer(),
+						MapBucket::add,
+						bucketDuration,
+						rollupDurations);
+				mapBuckets.setFreezer(
+						bucket -> bucket instanceof FrozenBucket ? bucket : new FrozenBucket((StatisticForReduce) bucket),
+						freezeDelay);
+				return wrap(mapBuckets,
+					MapBucket::getSectionCount,
+					MapBucket::estimateBytes,
+					() -> 0L,
+					() -> new StatisticForReduce(comparator, maxSectionCount, new ArrayDeque<>()),
+					bucket -> ((StatisticForReduce) bucket).reset(),
+					createCombiner(mapBuckets, comparator, combinedLineCount, bucketDuration));
+			case COLUMNS:
+				return createColumns(comparator, bucketDuration, rollupDurations, new SectionDictionary(maxSectionCount),
+						combinedLineCount);
+			case OFF_HEAP:
+				SectionDictionary dictionary = new SectionDictionary(maxSectionCount);
+				int tableBytes = OffHeapStatistic.tableBytes(maxSectionCount);
+				OffHeapArena tableArena = new OffHeapArena(tableBytes, OFF_HEAP_TABLES_PER_CHUNK, true);
+				OffHeapArena recordArena = new OffHeapArena(
+						OffHeapStatistic.RECORD_BYTES, OFF_HEAP_RECORDS_PER_CHUNK, true);
+				TimeBuckets<AccessLogLine, OffHeapForReduce> offHeapBuckets = new TimeBuckets<>(
+						() -> new OffHeapForReduce(dictionary, comparator, tableArena, recordArena),
+						new OffHeapReducer(),
+						OffHeapStatistic::add,
+						bucketDuration,
+						rollupDurations);
+				return wrap(offHeapBuckets,
+					OffHeapStatistic::getSectionCount,
+					bucket -> OFF_HEAP_BUCKET_HEAP_BYTES,
+					dictionary::estimateBytes,
+					() -> new OffHeapForReduce(dictionary, comparator, tableBytes),
+					OffHeapStatistic::clear,
+					createCombiner(offHeapBuckets, comparator, combinedLineCount, bucketDuration));
+			default:
+				throw new IllegalArgumentException("Unsupported store " + store);
+		}
+	}
+
+	/**
+	 * Creates buckets of {@link ColumnarStatistic} (see {@link Store#COLUMNS}) with the given scope identifiers.
+	 * @param comparator Comparator used for comparison between scopes.
+	 * @param bucketDuration The duration of the smallest time range (bucket).
+	 * @param rollupDurations The bucket durations of coarser tiers that older buckets are rolled up into.
+	 * @param dictionary The scope identifiers (like a {@link PathTrie}), shared by all buckets.
+	 * @return A {@link TimeBuckets} like construct that returns {@link Statistic} instances.
+	 */
+	public static StatisticTimeBuckets create(
+			Comparator<Statistic.ScopedStatistic> comparator,
+			Duration bucketDuration,
+			List<Duration> rollupDurations,
+			ScopeDictionary dictionary) {
+		return createColumns(comparator, bucketDuration, rollupDurations, dictionary, 0);
+	}
+
+	/**
+	 * @param combinedLineCount See {@link #create(Comparator, Duration, List, int, Store, Duration, int)} (the
+	 *                          scopes of the dictionary must then be sections).
+	 */
+	private static StatisticTimeBuckets createColumns(
+			Comparator<Statistic.ScopedStatistic> comparator,
+			Duration bucketDuration,
+			List<Duration> rollupDurations,
+			ScopeDictionary dictionary,
+			int combinedLineCount) {
+
+		TimeBuckets<AccessLogLine, ColumnarForReduce> columnarBuckets = new TimeBuckets<>(
+				() -> new ColumnarForReduce(dictionary, comparator, false),
+				new ColumnarReducer(),
+				ColumnarStatistic::add,
+				bucketDuration,
+				rollupDurations);
+		return wrap(columnarBuckets,
+			ColumnarStatistic::getSectionCount,
+			ColumnarStatistic::estimateBytes,
+			dictionary::estimateBytes,
+			() -> new ColumnarForReduce(dictionary, comparator, true),
+			ColumnarStatistic::clear,
+			createCombiner(columnarBuckets, comparator, combinedLineCount, bucketDuration));
+	}
+
+	/**
+	 * @return A combiner of the lines by section, or {@code null} if the line count is not strictly positive.
+	 */
+	@Nullable
+	private static <S extends Statistic.Accumulator & Consumer<AccessLogLine>> LineCombiner<S> createCombiner(
+			TimeBuckets<AccessLogLine, S> buckets,
+			Comparator<Statistic.ScopedStatistic> comparator,
+			int combinedLineCount,
+			Duration bucketDuration) {
+		return combinedLineCount > 0 ? new LineCombiner<>(buckets, comparator, combinedLineCount, bucketDuration) : null;
+	}
+
+	/**
+	 * Creates buckets of {@link CubeStatistic}, grouped by composite keys instead of sections.
+	 * @param comparator Comparator used for comparison between scopes.
+	 * @param bucketDuration The duration of the smallest time range (bucket).
+	 * @param rollupDurations The bucket durations of coarser tiers that older buckets are rolled up into.
+	 * @param keys The composite keys, shared by all buckets.
+	 * @param maxScopeCount Limit of the count of keys by bucket.
+	 * @return A {@link TimeBuckets} like construct that returns {@link Statistic} instances.
+	 */
+	public static StatisticTimeBuckets createGroupBy(
+			Comparator<Statistic.ScopedStatistic> comparator,
+			Duration bucketDuration,
+			List<Duration> rollupDurations,
+			GroupByKeys keys,
+			int maxScopeCount) {
+
+		return wrap(new TimeBuckets<>(
+				() -> new CubeForReduce(keys, comparator, maxScopeCount, false),
+				new CubeReducer(),
+				CubeStatistic::add,
+				bucketDuration,
+				rollupDurations),
+			CubeStatistic::getScopeCount,
+			CubeStatistic::estimateBytes,
+			keys::estimateBytes,
+			() -> new CubeForReduce(keys, comparator, maxScopeCount, true),
+			CubeStatistic::clear,
+			null);
+	}
+
+	/**
+	 * @param sizer Estimates the bytes of a bucket.
+	 * @param sharedSizer Estimates the bytes of the scope identifiers shared by the buckets.
+	 * @param accumulatorFactory Creates reusable accumulators, that the reducer updates.
+	 * @param accumulatorResetter Resets an accumulator before its reuse.
+	 * @param combiner Combines the lines before updating the buckets, or {@code null}.
+	 */
+	private static <S extends Statistic.Accumulator & Consumer<AccessLogLine>> StatisticTimeBuckets wrap(
+			TimeBuckets<AccessLogLine, S> buckets,
+			ToIntFunction<? super S> sectionCounter,
+			ToLongFunction<? super S> sizer,
+			LongSupplier sharedSizer,
+			Supplier<S> accumulatorFactory,
+			Consumer<? super S> accumulatorResetter,
+			@Nullable LineCombiner<S> combiner) {
 
-		TimeBuckets<AccessLogLine, StatisticForReduce> buckets = new TimeBuckets<>(
-				() -> new StatisticForReduce(comparator, maxSectionCount, false),
-				new StaticticReducer(),
-				bucketDuration);
+		final class OwnAccumulators implements Accumulators {
+
+			private OwnAccumulators(int count) {
+				this.values = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					values.add(accumulatorFactory.get());
+				}
+				this.initialValues = new ArrayList<>(values);
+			}
+
+			/**
+			 * Are the values reduced by the buckets.
+			 */
+			private final List<S> values;
+			private final List<S> initialValues;
+		}
 
 		return new StatisticTimeBuckets() {
 
 			@Override
 			public List<? extends Statistic> reduceLatest(long untilMillis, List<Duration> requestDurations) {
+				return updateMaxSectionCount(buckets.reduceLatestAndClean(untilMillis, requestDurations));
+			}
 
-				List<StatisticForReduce> statisticForReduces = buckets.reduceLatestAndClean(untilMillis, requestDurations);
+			@Override
+			public Accumulators createAccumulators(int count) {
+				return new OwnAccumulators(count);
+			}
+
+			@Override
+			public List<? extends Statistic> reduceLatest(long untilMillis, List<Duration> requestDurations,
+					Accumulators accumulators) {
+
+				if (!(accumulators instanceof OwnAccumulators)) {
+					throw new IllegalArgumentException("Accumulators created by other buckets");
+				}
+				OwnAccumulators own = (OwnAccumulators) accumulators;
+				for (int i = 0; i < own.initialValues.size(); i++) {
+					S accumulator = own.initialValues.get(i);
+					accumulatorResetter.accept(accumulator);
+					own.values.set(i, accumulator);
+				}
+				return updateMaxSectionCount(buckets.reduceLatestAndClean(untilMillis, requestDurations, own.values));
+			}
+
+			private List<S> updateMaxSectionCount(List<S> statisticForReduces) {
 				if (!statisticForReduces.isEmpty()) {
 					MAX_SECTION_COUNT_EVER.accumulateAndGet(
-							statisticForReduces.get(statisticForReduces.size() - 1).getSectionCount(),
+							sectionCounter.applyAsInt(statisticForReduces.get(statisticForReduces.size() - 1)),
 							Math::max);
 				}
 				return statisticForReduces;
@@ -105,13 +752,52 @@ public final class StatisticTimeBucketsFactory {
 
 			@Override
 			public void accept(AccessLogLine accessLogLine) {
-				buckets.accept(accessLogLine);
+				if (combiner != null) {
+					combiner.accept(accessLogLine);
+				}
+				else {
+					buckets.accept(accessLogLine);
+				}
+			}
+
+			@Override
+			public void flush() {
+				if (combiner != null) {
+					combiner.flush();
+				}
+			}
+
+			@Override
+			public void flushDelayed(long nanoTime) {
+				if (combiner != null) {
+					combiner.flushDelayed(nanoTime);
+				}
 			}
 
 			@Override
 			public int getBucketCount() {
 				return buckets.getBucketCount();
 			}
+
+			@Override
+			public long getEstimatedBytes() {
+				return buckets.estimateBytes(sizer) + sharedSizer.getAsLong();
+			}
+
+			@Override
+			public long removeOldestBuckets(long bytes) {
+				return buckets.removeOldest(bytes, sizer);
+			}
+
+			@Override
+			public void setAgeDivisor(int divisor) {
+				buckets.setAgeDivisor(divisor);
+			}
+
+			@Override
+			public void setParallelReduce(ForkJoinPool pool, int minBucketCount) {
+				buckets.setParallelReduce(pool, minBucketCount);
+			}
 		};
 	}
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+
+/**
+ * Request counts by HTTP status class ({@literal 1xx} to {@literal 5xx}) and by exact status code.
+ *
+ * The slot count is fixed: the first {@link #CLASS_COUNT} slots hold the counts by class (the class {@code 0} being
+ * for {@link AccessLogLine#UNKNOWN_STATUS} and invalid statuses), and the next ones the counts of the standard codes
+ * of {@link #CODES}. Recording a status is then two array increments and merging two instances is an array addition.
+ * Non-standard codes are only counted in their class. The code slots of a class are only allocated when a code of it
+ * is first counted (see {@link SegmentedCounts}).
+ */
+@ThreadSafe
+public final class StatusCounts {
+
+	/**
+	 * Classes from {@code 0} (unknown) to {@code 5} ({@literal 5xx}).
+	 */
+	public static final int CLASS_COUNT = 6;
+
+	/**
+	 * The status codes that have their own slot.
+	 */
+	static final int[] CODES = {
+			100, 101,
+			200, 201, 202, 203, 204, 206,
+			301, 302, 303, 304, 307, 308,
+			400, 401, 403, 404, 405, 406, 408, 409, 410, 411, 412, 413, 414, 415, 416, 429,
+			500, 501, 502, 503, 504 };
+
+	private static final int MAX_CODE = 599;
+	private static final byte[] SLOT_BY_CODE = new byte[MAX_CODE + 1];
+	static {
+		Arrays.fill(SLOT_BY_CODE, (byte) -1);
+		for (int i = 0; i < CODES.length; i++) {
+			SLOT_BY_CODE[CODES[i]] = (byte) (CLASS_COUNT + i);
+		}
+	}
+
+	static final int SLOT_COUNT = CLASS_COUNT + CODES.length;
+
+	/**
+	 * A segment for the classes, then one by class for its codes.
+	 */
+	private static final SegmentedCounts.Layout LAYOUT;
+	static {
+		int[] segmentStarts = new int[CLASS_COUNT];
+		int segmentCount = 1;
+		for (int i = 0; i < CODES.length; i++) {
+			if (i == 0 || CODES[i] / 100 != CODES[i - 1] / 100) {
+				segmentStarts[segmentCount++] = CLASS_COUNT + i;
+			}
+		}
+		LAYOUT = new SegmentedCounts.Layout(Arrays.copyOf(segmentStarts, segmentCount), SLOT_COUNT);
+	}
+
+	/**
+	 * The estimated bytes of counts having the classes and the codes of a couple of classes.
+	 */
+	static final long ESTIMATED_BYTES = LAYOUT.estimateBytes(3, CLASS_COUNT) + 16L;
+
+	/**
+	 * @return The class of the status, between {@code 1} and {@code 5}, or {@code 0} if the status is unknown.
+	 */
+	public static int classOf(int status) {
+		int statusClass = status / 100;
+		return statusClass > 0 && statusClass < CLASS_COUNT ? statusClass : 0;
+	}
+
+	/**
+	 * @return The slot of the exact code, or a negative value if the code has no slot.
+	 */
+	static int codeSlotOf(int status) {
+		return status >= 0 && status <= MAX_CODE ? SLOT_BY_CODE[status] : -1;
+	}
+
+	/**
+	 * Increments the slots of a status in a primitive column.
+	 * @param target A column holding {@link #SLOT_COUNT} values per row.
+	 * @param offset The index of the row's first slot in the column.
+	 */
+	static void record(long[] target, int offset, int status) {
+		target[offset + classOf(status)]++;
+		int codeSlot = codeSlotOf(status);
+		if (codeSlot >= 0) {
+			target[offset + codeSlot]++;
+		}
+	}
+
+	public StatusCounts() {}
+
+	private final SegmentedCounts counts = new SegmentedCounts(LAYOUT);
+
+	public void record(int status) {
+		counts.add(classOf(status), 1);
+		int codeSlot = codeSlotOf(status);
+		if (codeSlot >= 0) {
+			counts.add(codeSlot, 1);
+		}
+	}
+
+	/**
+	 * Aggregates the counts of another instance.
+	 */
+	public void add(StatusCounts other) {
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			counts.add(i, other.counts.get(i));
+		}
+	}
+
+	/**
+	 * Adds the slot counts into a primitive column.
+	 * @param target A column holding {@link #SLOT_COUNT} values per row.
+	 * @param offset The index of the row's first slot in the column.
+	 */
+	void addTo(long[] target, int offset) {
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			target[offset + i] += counts.get(i);
+		}
+	}
+
+	/**
+	 * Aggregates counts held by a primitive column.
+	 * @param source A column holding {@link #SLOT_COUNT} values per row.
+	 * @param offset The index of the row's first slot in the column.
+	 */
+	void addFrom(long[] source, int offset) {
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			counts.add(i, source[offset + i]);
+		}
+	}
+
+	public void clear() {
+		counts.clear();
+	}
+
+	/**
+	 * @param statusClass A class between {@code 1} and {@code 5}, or {@code 0} for unknown statuses.
+	 * @return The request count of the class.
+	 */
+	public long getClassCount(int statusClass) {
+		if (statusClass < 0 || statusClass >= CLASS_COUNT) {
+			throw new IllegalArgumentException("Invalid status class " + statusClass);
+		}
+		return counts.get(statusClass);
+	}
+
+	/**
+	 * @return The request count of the exact code, or {@code -1} if the code has no slot (see {@link #CODES}).
+	 */
+	public long getCodeCount(int status) {
+		int codeSlot = codeSlotOf(status);
+		return codeSlot >= 0 ? counts.get(codeSlot) : -1;
+	}
+
+	/**
+	 * @return The ratio of {@literal 5xx} responses among requests with a known status (zero without requests).
+	 */
+	public double getServerErrorRatio() {
+		long total = 0;
+		for (int statusClass = 1; statusClass < CLASS_COUNT; statusClass++) {
+			total += counts.get(statusClass);
+		}
+		return total == 0 ? 0D : (double) counts.get(5) / total;
+	}
+}
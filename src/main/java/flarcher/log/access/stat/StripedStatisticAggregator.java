@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics gathering from access log lines, like {@link StatisticAggregator}, but for several writer threads.
+ *
+ * Counters are {@link LongAdder}s: concurrent writers update distinct cells instead of contending on a single
+ * value, at the cost of slower reads (that sum the cells) and of a bigger footprint per scope.
+ * The {@link WeightHistogram} and the {@link StatusCounts} are striped the same way: each scope has a few cells
+ * (created on the first write of a thread that maps to them) holding their own distribution and counts, that are
+ * merged on read.
+ * A value that is read while writers are running is not an atomic snapshot, so the request count and the weight
+ * of a scope may be slightly inconsistent with each other.
+ */
+@ThreadSafe
+public class StripedStatisticAggregator extends StatisticAggregator {
+
+	/**
+	 * The cell count of a scope, a power of two that is not lower than the processor count.
+	 */
+	private static final int CELL_COUNT =
+			Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+	/**
+	 * @return The index of the cell of the current thread.
+	 */
+	private static int cellIndex() {
+		long id = Thread.currentThread().getId();
+		return Long.hashCode(id * 0x9E3779B97F4A7C15L) & (CELL_COUNT - 1);
+	}
+
+	/**
+	 * @param comparator A comparator for sorting stats.
+	 * @param maxSectionCount Section count limit (robustness about memory consumption).
+	 */
+	public StripedStatisticAggregator(Comparator<ScopedStatistic> comparator, int maxSectionCount) {
+		super(comparator, maxSectionCount, StripedScopedStatistic::new);
+	}
+
+	/**
+	 * The distribution and the counts that a subset of the writer threads update.
+	 */
+	@ThreadSafe
+	private static final class Cell {
+
+		private final WeightHistogram histogram = new WeightHistogram();
+		private final StatusCounts statusCounts = new StatusCounts();
+	}
+
+	@ThreadSafe
+	private static class StripedScopedStatistic implements ScopedStatisticAggregator {
+
+		StripedScopedStatistic() {}
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder weight = new LongAdder();
+		private final AtomicReferenceArray<Cell> cells = new AtomicReferenceArray<>(CELL_COUNT);
+
+		private Cell cell() {
+			int index = cellIndex();
+			Cell cell = cells.get(index);
+			if (cell == null) {
+				Cell created = new Cell();
+				cell = cells.compareAndSet(index, null, created) ? created : cells.get(index);
+			}
+			return cell;
+		}
+
+		@Override
+		public long requestCount() {
+			return count.sum();
+		}
+
+		@Override
+		public long weight() {
+			return weight.sum();
+		}
+
+		/**
+		 * @return The merged distribution of the cells.
+		 */
+		@Override
+		public WeightHistogram weightHistogram() {
+			WeightHistogram histogram = new WeightHistogram();
+			for (int i = 0; i < CELL_COUNT; i++) {
+				Cell cell = cells.get(i);
+				if (cell != null) {
+					histogram.add(cell.histogram);
+				}
+			}
+			return histogram;
+		}
+
+		/**
+		 * @return The merged counts of the cells.
+		 */
+		@Override
+		public StatusCounts statusCounts() {
+			StatusCounts statusCounts = new StatusCounts();
+			for (int i = 0; i < CELL_COUNT; i++) {
+				Cell cell = cells.get(i);
+				if (cell != null) {
+					statusCounts.add(cell.statusCounts);
+				}
+			}
+			return statusCounts;
+		}
+
+		@Override
+		public void accept(AccessLogLine accessLogLine) {
+			count.increment();
+			weight.add(accessLogLine.getLength());
+			Cell cell = cell();
+			cell.histogram.record(accessLogLine.getLength());
+			cell.statusCounts.record(accessLogLine.getStatus());
+		}
+
+		@Override
+		public void add(ScopedStatistic other) {
+			count.add(other.requestCount());
+			weight.add(other.weight());
+			Cell cell = cell();
+			cell.histogram.add(other.weightHistogram());
+			cell.statusCounts.add(other.statusCounts());
+		}
+
+		@Override
+		public void clear() {
+			count.reset();
+			weight.reset();
+			for (int i = 0; i < CELL_COUNT; i++) {
+				Cell cell = cells.get(i);
+				if (cell != null) {
+					cell.histogram.clear();
+					cell.statusCounts.clear();
+				}
+			}
+		}
+	}
+}
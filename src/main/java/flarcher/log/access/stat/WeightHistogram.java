@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distribution of weights (response sizes in bytes) using a log-linear bucketing, like HDR histograms do.
+ *
+ * Each power of two is split into {@link #SUB_BUCKET_COUNT} linear slots, so that a value is known with a relative
+ * error lower than {@code 1 / SUB_BUCKET_COUNT} (12.5%). The slot count is fixed, so that recording a value is a
+ * single array increment and merging two histograms is an array addition. The slots of a power of two are only
+ * allocated when a value of it is first counted (see {@link SegmentedCounts}), since the weights of a scope usually
+ * span a few powers of two.
+ */
+@ThreadSafe
+public final class WeightHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+	/**
+	 * Covers all positive {@code int} values.
+	 */
+	static final int SLOT_COUNT = (Integer.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	/**
+	 * A segment by power of two (the first one holding the values lower than {@link #SUB_BUCKET_COUNT}).
+	 */
+	private static final SegmentedCounts.Layout LAYOUT;
+	static {
+		int[] segmentStarts = new int[SLOT_COUNT / SUB_BUCKET_COUNT];
+		for (int s = 0; s < segmentStarts.length; s++) {
+			segmentStarts[s] = s * SUB_BUCKET_COUNT;
+		}
+		LAYOUT = new SegmentedCounts.Layout(segmentStarts, SLOT_COUNT);
+	}
+
+	/**
+	 * The estimated bytes of a histogram whose values span a few powers of two.
+	 */
+	static final long ESTIMATED_BYTES = LAYOUT.estimateBytes(4, SUB_BUCKET_COUNT) + 32L;
+
+	static int slotOf(int value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return value;
+		}
+		int exponent = (Integer.SIZE - 1) - Integer.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + ((value >>> shift) & SUB_BUCKET_MASK);
+	}
+
+	/**
+	 * @return The greatest value that is recorded in the given slot.
+	 */
+	static long highestValueOf(int slot) {
+		if (slot < SUB_BUCKET_COUNT) {
+			return slot;
+		}
+		int shift = (slot >> SUB_BUCKET_BITS) - 1;
+		long lowest = ((long) (SUB_BUCKET_COUNT + (slot & SUB_BUCKET_MASK))) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public WeightHistogram() {}
+
+	private final SegmentedCounts counts = new SegmentedCounts(LAYOUT);
+	private final AtomicInteger max = new AtomicInteger(0);
+
+	/**
+	 * @param weight A weight in bytes. Negative values (parsing errors) are ignored.
+	 */
+	public void record(int weight) {
+		if (weight < 0) {
+			return;
+		}
+		counts.add(slotOf(weight), 1);
+		if (weight > max.get()) {
+			max.accumulateAndGet(weight, Math::max);
+		}
+	}
+
+	/**
+	 * Aggregates the distribution of another instance.
+	 */
+	public void add(WeightHistogram other) {
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			counts.add(i, other.counts.get(i));
+		}
+		int otherMax = other.max.get();
+		if (otherMax > max.get()) {
+			max.accumulateAndGet(otherMax, Math::max);
+		}
+	}
+
+	/**
+	 * Adds the slot counts into a primitive column.
+	 * @param target A column holding {@link #SLOT_COUNT} values per row.
+	 * @param offset The index of the row's first slot in the column.
+	 */
+	void addTo(long[] target, int offset) {
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			target[offset + i] += counts.get(i);
+		}
+	}
+
+	/**
+	 * Aggregates a distribution held by a primitive column.
+	 * @param source A column holding {@link #SLOT_COUNT} values per row.
+	 * @param offset The index of the row's first slot in the column.
+	 * @param otherMax The greatest value of the row.
+	 */
+	void addFrom(long[] source, int offset, int otherMax) {
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			counts.add(i, source[offset + i]);
+		}
+		if (otherMax > max.get()) {
+			max.accumulateAndGet(otherMax, Math::max);
+		}
+	}
+
+	public void clear() {
+		counts.clear();
+		max.set(0);
+	}
+
+	/**
+	 * @return The count of recorded values.
+	 */
+	public long getCount() {
+		long sum = 0;
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			sum += counts.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return The exact greatest recorded value.
+	 */
+	public int getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile A percentile between 0 and 100.
+	 * @return An upper bound of the value at the given percentile (zero if nothing has been recorded).
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100D) / 100D * total));
+		long cumulated = 0;
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			cumulated += counts.get(i);
+			if (cumulated >= rank) {
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+public class CounterTimeBucketsTest {
+
+	private static class TimeBoundInfo implements TimeBound {
+
+		private TimeBoundInfo(int count, long millis) {
+			this.count = count;
+			this.millis = millis;
+		}
+
+		private final int count;
+		private final long millis;
+
+		@Override
+		public long getTimeInMillis() {
+			return millis;
+		}
+	}
+
+	private static final int HITS = 0;
+	private static final int COUNTS = 1;
+
+	private static final Duration BUCKET_DURATION = Duration.ofMillis(10);
+
+	private static CounterTimeBuckets<TimeBoundInfo> createBuckets(Duration retention) {
+		return new CounterTimeBuckets<>(
+				Arrays.<ToLongFunction<TimeBoundInfo>>asList(info -> 1, info -> info.count),
+				BUCKET_DURATION,
+				retention);
+	}
+
+	@Test
+	public void rangeSums() {
+		CounterTimeBuckets<TimeBoundInfo> buckets = createBuckets(Duration.ofMillis(1_000));
+		long start = 1_000_000L;
+		buckets.accept(new TimeBoundInfo(5, start));
+		buckets.accept(new TimeBoundInfo(13, start + 15));
+		buckets.accept(new TimeBoundInfo(20, start + 17));
+		buckets.accept(new TimeBoundInfo(42, start + 30));
+
+		Assert.assertEquals(4, buckets.sum(HITS, start, start + 30));
+		Assert.assertEquals(80, buckets.sum(COUNTS, start, start + 30));
+		Assert.assertEquals(33, buckets.sum(COUNTS, start + 10, start + 19));
+		Assert.assertEquals(75, buckets.sumLatest(COUNTS, start + 30, Duration.ofMillis(20)));
+		Assert.assertEquals(0, buckets.sum(COUNTS, start + 40, start + 100));
+	}
+
+	@Test
+	public void ringReuse() {
+		Duration retention = Duration.ofMillis(100);
+		CounterTimeBuckets<TimeBoundInfo> buckets = createBuckets(retention);
+		int ringSize = buckets.getBucketCount();
+		Assert.assertTrue(ringSize * BUCKET_DURATION.toMillis() > retention.toMillis());
+
+		// Many turns of the ring, compared with a naive computation
+		Random random = new Random(42);
+		long[] countsByBucket = new long[ringSize * 10];
+		for (int bucket = 0; bucket < countsByBucket.length; bucket++) {
+			int count = random.nextInt(100);
+			countsByBucket[bucket] = count;
+			buckets.accept(new TimeBoundInfo(count, bucket * BUCKET_DURATION.toMillis()));
+
+			long since = Math.max(0, bucket - 9);
+			long expected = 0;
+			for (long b = since; b <= bucket; b++) {
+				expected += countsByBucket[(int) b];
+			}
+			Assert.assertEquals(expected, buckets.sum(COUNTS,
+					since * BUCKET_DURATION.toMillis(), bucket * BUCKET_DURATION.toMillis()));
+		}
+
+		// Too late to be kept
+		long latestMillis = (countsByBucket.length - 1) * BUCKET_DURATION.toMillis();
+		long beforeLateEntry = buckets.sumLatest(HITS, latestMillis, buckets.getRetention());
+		buckets.accept(new TimeBoundInfo(1, 0));
+		Assert.assertEquals(beforeLateEntry, buckets.sumLatest(HITS, latestMillis, buckets.getRetention()));
+	}
+
+	@Test
+	public void retention() {
+		CounterTimeBuckets<TimeBoundInfo> buckets = createBuckets(Duration.ofMillis(100));
+		long now = 1_000_000L;
+		buckets.accept(new TimeBoundInfo(42, now));
+		Assert.assertTrue(buckets.getRetention().toMillis() >= 100);
+		Assert.assertEquals(42, buckets.sumLatest(COUNTS, now, buckets.getRetention()));
+		Assert.assertTrue(buckets.isRetainedSince(now - buckets.getRetention().toMillis()));
+
+		// Once the time advances, the oldest buckets are not retained any more
+		buckets.accept(new TimeBoundInfo(1, now + buckets.getRetention().toMillis() + 10));
+		Assert.assertFalse(buckets.isRetainedSince(now));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void longerThanRetention() {
+		CounterTimeBuckets<TimeBoundInfo> buckets = createBuckets(Duration.ofMillis(100));
+		buckets.sumLatest(COUNTS, 1_000_000L, buckets.getRetention().plus(BUCKET_DURATION));
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access;
+
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.ScopedStatisticComparators;
+import flarcher.log.access.stat.StatisticTimeBucketsFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MemoryBudgetTest {
+
+	@Test
+	public void levels() {
+		AtomicLong footprint = new AtomicLong(0L);
+		List<MemoryBudget.Level> levels = new ArrayList<>();
+		List<Long> shedBytes = new ArrayList<>();
+		MemoryBudget budget = new MemoryBudget(1_000L, footprint::get, levels::add, shedBytes::add);
+
+		budget.check();
+		Assert.assertEquals(MemoryBudget.Level.NORMAL, budget.getLevel());
+		footprint.set(850L);
+		budget.check();
+		Assert.assertEquals(850L, budget.getEstimatedBytes());
+		Assert.assertEquals(MemoryBudget.Level.PRESSURE, budget.getLevel());
+		footprint.set(1_200L);
+		budget.check();
+		Assert.assertEquals(MemoryBudget.Level.EXCEEDED, budget.getLevel());
+		// The shedder is asked to go down to the pressure level
+		Assert.assertEquals(Collections.singletonList(400L), shedBytes);
+		// The levels are left with some hysteresis
+		footprint.set(950L);
+		budget.check();
+		Assert.assertEquals(MemoryBudget.Level.EXCEEDED, budget.getLevel());
+		footprint.set(750L);
+		budget.check();
+		Assert.assertEquals(MemoryBudget.Level.PRESSURE, budget.getLevel());
+		footprint.set(600L);
+		budget.check();
+		Assert.assertEquals(MemoryBudget.Level.NORMAL, budget.getLevel());
+
+		Assert.assertEquals(Arrays.asList(MemoryBudget.Level.PRESSURE, MemoryBudget.Level.EXCEEDED,
+				MemoryBudget.Level.PRESSURE, MemoryBudget.Level.NORMAL), levels);
+		Assert.assertEquals(1, shedBytes.size());
+	}
+
+	@Test
+	public void shedding() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = StatisticTimeBucketsFactory.create(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, Duration.ofMillis(100), 100);
+		long startMillis = 1_000_000L;
+		for (int i = 0; i < 1_000; i++) {
+			buckets.accept(new AccessLogLine(Instant.ofEpochMilli(startMillis + i * 10), "section" + i % 10, i, 200));
+		}
+		long bytesAfterFeed = buckets.getEstimatedBytes();
+		// Exceeded without any roll-up tier, so that only the shedding frees memory
+		MemoryBudget budget = new MemoryBudget(bytesAfterFeed / 2, buckets::getEstimatedBytes,
+				level -> buckets.setAgeDivisor(level.getAgeDivisor()), buckets::removeOldestBuckets);
+		budget.check();
+		Assert.assertTrue(budget.getEstimatedBytes() < bytesAfterFeed);
+		Assert.assertTrue(budget.getEstimatedBytes() <= MemoryBudget.PRESSURE_RATIO * budget.getLimitBytes());
+		Assert.assertEquals(budget.getEstimatedBytes(), buckets.getEstimatedBytes());
+		Assert.assertNotEquals(MemoryBudget.Level.EXCEEDED, budget.getLevel());
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access;
+
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class ShardedAggregationTest {
+
+	private static final Comparator<Statistic.ScopedStatistic> COMPARATOR = ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT;
+	private static final Duration BUCKET_DURATION = Duration.ofMillis(100);
+	private static final List<Duration> DURATIONS = Arrays.asList(Duration.ofSeconds(1), Duration.ofSeconds(10));
+	private static final long START_MILLIS = Instant.parse("2018-05-09T16:00:00Z").toEpochMilli();
+
+	private static final Supplier<Aggregation> FACTORY = () -> {
+		SingleWriterStatisticAggregator stats = new SingleWriterStatisticAggregator(COMPARATOR, 100);
+		return new Aggregation(stats, stats, stats::estimateBytes, stats::getSkippedLineCount, StatisticTimeBucketsFactory.create(
+				COMPARATOR, BUCKET_DURATION, Collections.emptyList(), 100, StatisticTimeBucketsFactory.Store.MAP));
+	};
+
+	private static Map<String, Long> toCounts(Statistic statistic) {
+		Map<String, Long> counts = new HashMap<>();
+		statistic.forEachSection((section, stat) -> counts.put(section, stat.requestCount()));
+		return counts;
+	}
+
+	@Test
+	public void sameAsSingleAggregation() throws InterruptedException {
+		Aggregation single = FACTORY.get();
+		ShardedAggregation sharded = new ShardedAggregation(3, FACTORY, COMPARATOR, BUCKET_DURATION);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		sharded.getWorkers().forEach(executor::submit);
+
+		// More lines than a batch, the last ones being handed over by the flush
+		int lineCount = ShardedAggregation.BATCH_SIZE * 7 + 11;
+		for (int i = 0; i < lineCount; i++) {
+			AccessLogLine line = new AccessLogLine(
+					Instant.ofEpochMilli(START_MILLIS + i * 5L), "section" + (i % 13) * (i % 3), 100 + i % 7);
+			single.accept(line);
+			sharded.accept(line);
+		}
+		sharded.flush();
+		sharded.requestStop();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+		Assert.assertEquals(single.getOverallStats().overall().requestCount(), sharded.getOverallStats().overall().requestCount());
+		Assert.assertEquals(single.getOverallStats().overall().weight(), sharded.getOverallStats().overall().weight());
+		Assert.assertEquals(toCounts(single.getOverallStats()), toCounts(sharded.getOverallStats()));
+		// Each shard has its own buckets
+		Assert.assertTrue(sharded.getBuckets().getBucketCount() >= single.getBuckets().getBucketCount());
+
+		long untilMillis = START_MILLIS + lineCount * 5L;
+		List<? extends Statistic> expected = single.getBuckets().reduceLatest(untilMillis, DURATIONS);
+		StatisticTimeBucketsFactory.Accumulators accumulators = sharded.getBuckets().createAccumulators(DURATIONS.size());
+		for (int tick = 0; tick < 2; tick++) { // Accumulators are reused
+			List<? extends Statistic> actual = sharded.getBuckets().reduceLatest(untilMillis, DURATIONS, accumulators);
+			Assert.assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				Assert.assertEquals(expected.get(i).overall().requestCount(), actual.get(i).overall().requestCount());
+				Assert.assertEquals(toCounts(expected.get(i)), toCounts(actual.get(i)));
+				// Sorted by the comparator, once concatenated
+				List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> top = actual.get(i).topSections();
+				for (int j = 1; j < top.size(); j++) {
+					Assert.assertTrue(COMPARATOR.compare(top.get(j - 1).getValue(), top.get(j).getValue()) <= 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void handOverAtBucketBoundary() throws InterruptedException {
+		ShardedAggregation sharded = new ShardedAggregation(2, FACTORY, COMPARATOR, BUCKET_DURATION);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		sharded.getWorkers().forEach(executor::submit);
+		try {
+			sharded.accept(new AccessLogLine(Instant.ofEpochMilli(START_MILLIS), "quiet", 100));
+			sharded.accept(new AccessLogLine(Instant.ofEpochMilli(START_MILLIS + 10L), "busy", 100));
+			// The line of the next bucket makes the partial batches to be handed over, without any flush
+			sharded.accept(new AccessLogLine(Instant.ofEpochMilli(START_MILLIS + BUCKET_DURATION.toMillis()), "busy", 100));
+			long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (sharded.getOverallStats().overall().requestCount() < 2 && System.nanoTime() < deadlineNanos) {
+				Thread.sleep(10L);
+			}
+			Assert.assertEquals(Long.valueOf(1L), toCounts(sharded.getOverallStats()).get("quiet"));
+			Assert.assertEquals(2L, sharded.getOverallStats().overall().requestCount());
+		}
+		finally {
+			sharded.requestStop();
+			executor.shutdown();
+		}
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void workerFailure() throws InterruptedException {
+		Supplier<Aggregation> failingFactory = () -> {
+			Aggregation aggregation = FACTORY.get();
+			return new Aggregation(aggregation.getOverallStats(), line -> {
+				throw new IllegalArgumentException("Unexpected line");
+			}, () -> 0L, () -> 0L, aggregation.getBuckets());
+		};
+		ShardedAggregation sharded = new ShardedAggregation(1, failingFactory, COMPARATOR, BUCKET_DURATION);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		sharded.getWorkers().forEach(executor::submit);
+		try {
+			// The reader would block on the full queue if the failure was not thrown
+			for (int i = 0; i < ShardedAggregation.BATCH_SIZE * 100; i++) {
+				sharded.accept(new AccessLogLine(Instant.ofEpochMilli(START_MILLIS), "section", 100));
+			}
+			Assert.fail("The failure of the worker is expected");
+		}
+		catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		finally {
+			sharded.requestStop();
+			executor.shutdown();
+		}
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
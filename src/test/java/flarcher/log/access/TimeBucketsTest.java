@@ -9,8 +9,10 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -55,6 +57,12 @@ public class TimeBucketsTest {
 			return n;
 		};
 
+	private static BiConsumer<InfoAggregate, InfoAggregate> MERGER = (l, r) -> l.sum += r.sum;
+
+	private static TimeBuckets<TimeBoundInfo, InfoAggregate> createBuckets(Duration bucketDuration) {
+		return new TimeBuckets<>(FACTORY, REDUCER, MERGER, bucketDuration, Collections.emptyList());
+	}
+
 	private static long nowBucketized(Duration bucketDuration) {
 		return (System.currentTimeMillis() / bucketDuration.toMillis()) * bucketDuration.toMillis();
 	}
@@ -62,8 +70,7 @@ public class TimeBucketsTest {
 	@Test
 	public void singleEntry() {
 
-		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
-				Duration.ofMillis(10));
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = createBuckets(Duration.ofMillis(10));
 
 		int value = 42;
 		long now = System.currentTimeMillis();
@@ -79,8 +86,7 @@ public class TimeBucketsTest {
 	public void manyEntries_excludeEarliest() {
 
 		Duration bucketDuration = Duration.ofMillis(10);
-		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
-				bucketDuration);
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = createBuckets(bucketDuration);
 
 		long now = (System.currentTimeMillis() / bucketDuration.toMillis()) * bucketDuration.toMillis();
 		buckets.accept(new TimeBoundInfo(42, now));
@@ -97,8 +103,7 @@ public class TimeBucketsTest {
 	public void manyEntries_excludeOldest() {
 
 		Duration bucketDuration = Duration.ofMillis(10);
-		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
-				bucketDuration);
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = createBuckets(bucketDuration);
 
 		long now = nowBucketized(bucketDuration);
 		buckets.accept(new TimeBoundInfo(5, now - 12)); // Excluded
@@ -115,8 +120,7 @@ public class TimeBucketsTest {
 	public void cleaning() {
 
 		Duration bucketDuration = Duration.ofMillis(10);
-		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
-				bucketDuration);
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = createBuckets(bucketDuration);
 
 		int value = 42;
 		long now = System.currentTimeMillis();
@@ -133,8 +137,7 @@ public class TimeBucketsTest {
 	public void addManyAndClean() {
 
 		Duration bucketDuration = Duration.ofMillis(10);
-		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
-				bucketDuration);
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = createBuckets(bucketDuration);
 
 		long now = nowBucketized(bucketDuration);
 		buckets.accept(new TimeBoundInfo(5, now - 12)); // Excluded & cleaned-up
@@ -160,4 +163,73 @@ public class TimeBucketsTest {
 		Assert.assertEquals(0, reducedValue.sum);
 	}
 
+	@Test
+	public void rollUp() {
+
+		Duration bucketDuration = Duration.ofMillis(10);
+		Duration rollupDuration = Duration.ofMillis(100);
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
+				MERGER, bucketDuration, Collections.singletonList(rollupDuration));
+
+		long now = nowBucketized(rollupDuration);
+		long rollupAge = TimeBuckets.ROLLUP_AGE_FACTOR * rollupDuration.toMillis();
+		for (int i = 0; i < 100; i++) {
+			buckets.accept(new TimeBoundInfo(1, now - rollupAge - 5 * bucketDuration.toMillis() - i)); // Rolled up
+		}
+		Assert.assertEquals(11, buckets.getBucketCount());
+		buckets.accept(new TimeBoundInfo(7, now - 5)); // Stays fine
+		// The writer has merged the fine buckets into 2 coarse buckets when opening a newer bucket
+		Assert.assertEquals(2 + 1, buckets.getBucketCount());
+
+		Duration longDuration = Duration.ofMillis(2 * rollupAge);
+		List<InfoAggregate> reducedValues = buckets.reduceLatestAndClean(now,
+				Arrays.asList(Duration.ofMillis(10), longDuration));
+		Assert.assertEquals(7, reducedValues.get(0).sum);
+		Assert.assertEquals(107, reducedValues.get(1).sum);
+		Assert.assertEquals(3, buckets.getBucketCount());
+		Assert.assertEquals(107, buckets.reduceLatest(now, longDuration).sum);
+	}
+
+	@Test
+	public void lateEntryAfterRollUp() {
+
+		Duration bucketDuration = Duration.ofMillis(10);
+		Duration rollupDuration = Duration.ofMillis(100);
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
+				MERGER, bucketDuration, Collections.singletonList(rollupDuration));
+
+		long now = nowBucketized(rollupDuration);
+		long oldMillis = now - TimeBuckets.ROLLUP_AGE_FACTOR * rollupDuration.toMillis() - 50;
+		buckets.accept(new TimeBoundInfo(1, oldMillis));
+		buckets.accept(new TimeBoundInfo(2, now)); // Rolls the old bucket up
+		buckets.accept(new TimeBoundInfo(4, oldMillis)); // Late, in a new fine bucket
+		buckets.accept(new TimeBoundInfo(8, now + bucketDuration.toMillis())); // Rolls it up too
+
+		Assert.assertEquals(1 + 2, buckets.getBucketCount());
+		Assert.assertEquals(15, buckets.reduceLatest(now + bucketDuration.toMillis(),
+				Duration.ofMillis(now - oldMillis + 100)).sum);
+	}
+
+	@Test
+	public void rollUpWithAgeDivisor() {
+
+		Duration bucketDuration = Duration.ofMillis(10);
+		Duration rollupDuration = Duration.ofMillis(100);
+		TimeBuckets<TimeBoundInfo, InfoAggregate> buckets = new TimeBuckets<>(FACTORY, REDUCER,
+				MERGER, bucketDuration, Collections.singletonList(rollupDuration));
+
+		long now = nowBucketized(rollupDuration);
+		for (int i = 0; i < 100; i++) {
+			buckets.accept(new TimeBoundInfo(1, now - 5 * rollupDuration.toMillis() - 1 - i)); // Young for usual ages
+		}
+		Assert.assertEquals(10, buckets.getBucketCount());
+		Assert.assertEquals(10 * 64L + 10, buckets.estimateBytes(aggregate -> 1L));
+		buckets.rollUp(now);
+		Assert.assertEquals(10, buckets.getBucketCount());
+
+		buckets.setAgeDivisor(TimeBuckets.ROLLUP_AGE_FACTOR);
+		buckets.rollUp(now);
+		Assert.assertEquals(1, buckets.getBucketCount()); // A single coarse bucket
+		Assert.assertEquals(100, buckets.reduceLatest(now, Duration.ofSeconds(1)).sum);
+	}
 }
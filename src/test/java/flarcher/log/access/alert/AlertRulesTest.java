@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.CounterColumn;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class AlertRulesTest {
+
+	private static final List<String> RULES = Arrays.asList(
+			"# duration metric operator threshold description",
+			"10s request_rate >= 10 High traffic",
+			"",
+			"10s request_rate < 1 Low traffic",
+			"1m server_error_percent > 20 High server error rate (%)",
+			"1m request_count >= 1000 Many requests");
+
+	@Test
+	public void groupedByDuration() {
+		AlertRules rules = AlertRules.parse(RULES, event -> {});
+		Assert.assertEquals(4, rules.getRuleCount());
+		Assert.assertEquals(Arrays.asList(Duration.ofSeconds(10), Duration.ofMinutes(1)), rules.getDurations());
+	}
+
+	@Test
+	public void checkRulesOfDuration() {
+		List<AlertEvent<Long>> events = new ArrayList<>();
+		AlertRules rules = AlertRules.parse(RULES, events::add);
+		CounterTimeBuckets<AccessLogLine> counters = CounterColumn.createTimeBuckets(
+				Duration.ofSeconds(1), Duration.ofMinutes(1));
+		long startMillis = 1_000_000L;
+		for (int i = 0; i < 200; i++) { // 20 requests per second, a third of server errors
+			counters.accept(new AccessLogLine(Instant.ofEpochMilli(startMillis + i * 50), "section", 1,
+					i % 3 == 0 ? 500 : 200));
+		}
+		long untilMillis = startMillis + 9_999L;
+		for (Duration duration : rules.getDurations()) {
+			rules.check(duration, CounterColumn.snapshot(counters, untilMillis, duration), untilMillis);
+		}
+		Assert.assertEquals(Arrays.asList("High traffic", "High server error rate (%)"),
+				events.stream().map(event -> event.getConfig().getDescription()).collect(Collectors.toList()));
+		Assert.assertEquals(Long.valueOf(33L), events.get(1).getValueAtSince());
+
+		// Unknown durations are ignored
+		rules.check(Duration.ofSeconds(5), CounterColumn.snapshot(counters, untilMillis, Duration.ofSeconds(5)),
+				untilMillis);
+		Assert.assertEquals(2, events.size());
+	}
+
+	@Test
+	public void invalidRule() {
+		try {
+			AlertRules.parse(Arrays.asList("1m request_rate >= 10 Fine", "1m unknown >= 10 Not fine"), event -> {});
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			Assert.assertEquals("Invalid alert rule at line 2: Unknown metric 'unknown'", e.getMessage());
+		}
+	}
+}
@@ -6,6 +6,8 @@
 package flarcher.log.access.alert;
 
 import flarcher.log.access.stat.Statistic;
+import flarcher.log.access.stat.StatusCounts;
+import flarcher.log.access.stat.WeightHistogram;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -25,7 +27,7 @@ public class AlertStateTest {
 	private AtomicInteger callCount = new AtomicInteger(0);
 
 	private final AlertConfig<Integer> config = new AlertConfig<>(
-			(stat, duration) -> stat.overall().requestCount(),
+			(stat, duration) -> (int) stat.overall().requestCount(),
 			value -> value > 42,
 			"Do not get bigger than 42!",
 			alert -> callCount.incrementAndGet()
@@ -55,18 +57,23 @@ public class AlertStateTest {
 				return new ScopedStatistic() {
 
 					@Override
-					public int requestCount() {
+					public long requestCount() {
 						return reqCount;
 					}
 
 					@Override
-					public int weight() {
+					public long weight() {
 						return 0;
 					}
 
 					@Override
-					public void add(ScopedStatistic other) {
+					public WeightHistogram weightHistogram() {
+						return new WeightHistogram();
+					}
 
+					@Override
+					public StatusCounts statusCounts() {
+						return new StatusCounts();
 					}
 				};
 			}
@@ -80,16 +87,6 @@ public class AlertStateTest {
 			public List<Map.Entry<String, ? extends ScopedStatistic>> topSections() {
 				return null;
 			}
-
-			@Override
-			public void clear() {
-
-			}
-
-			@Override
-			public void add(Statistic other) {
-
-			}
 		};
 	}
 
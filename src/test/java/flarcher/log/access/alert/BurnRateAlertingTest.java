@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.CounterColumn;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BurnRateAlertingTest {
+
+	private static final long START_MILLIS = 1_000_000L;
+
+	private final List<AlertEvent<Double>> events = new ArrayList<>();
+
+	private final CounterTimeBuckets<AccessLogLine> counters =
+			CounterColumn.createTimeBuckets(Duration.ofMillis(100), Duration.ofSeconds(10));
+
+	// 1% of errors allowed, alerting at 10 times the budget over both windows
+	private final BurnRateAlerting alerting = new BurnRateAlerting(0.01D, 10D,
+			Arrays.asList(Duration.ofSeconds(10), Duration.ofSeconds(2)), counters.getBucketDuration(),
+			"Error budget burn", events::add);
+
+	@Before
+	public void setUp() {
+		counters.addBucketCloseListener(alerting);
+	}
+
+	/**
+	 * Feeds the counters, then the alerting, like the reader.
+	 */
+	private void feed(long millis, int status) {
+		AccessLogLine line = new AccessLogLine(Instant.ofEpochMilli(START_MILLIS + millis), "section", 1, status);
+		counters.accept(line);
+		alerting.accept(line);
+	}
+
+	/**
+	 * Feeds 100 requests per second, from a second (included) to another one (excluded).
+	 */
+	private void feed(int fromSecond, int toSecond, boolean withErrors) {
+		for (long millis = fromSecond * 1000L; millis < toSecond * 1000L; millis += 10) {
+			feed(millis, withErrors && millis % 20 == 0 ? 500 : 200);
+		}
+	}
+
+	@Test
+	public void raisedOverAllWindows() {
+		feed(0, 10, false);
+		feed(10, 11, true);
+		Assert.assertTrue("A short burst does not burn the budget of the long window", events.isEmpty());
+
+		feed(11, 25, true);
+		Assert.assertEquals(1, events.size());
+		AlertEvent<Double> raised = events.get(0);
+		Assert.assertTrue(raised.isRaised());
+		Assert.assertEquals(Duration.ofSeconds(10), raised.getOverDuration());
+		Assert.assertTrue(raised.getValueAtSince() >= 10D);
+		Assert.assertTrue(alerting.isActive());
+
+		// Released by the short window soon after the recovery
+		feed(25, 30, false);
+		Assert.assertEquals(2, events.size());
+		AlertEvent<Double> released = events.get(1);
+		Assert.assertTrue(released.isReleased());
+		Assert.assertTrue(released.getUntil().isBefore(Instant.ofEpochMilli(START_MILLIS + 27_000L)));
+		Assert.assertFalse(alerting.isActive());
+	}
+
+	@Test
+	public void unknownStatusesIgnored() {
+		for (long millis = 0; millis < 5_000L; millis += 10) {
+			feed(millis, millis % 20 == 0 ? 500 : 0);
+		}
+		Assert.assertEquals(1, events.size());
+		Assert.assertEquals(Double.valueOf(100D), events.get(0).getValueAtSince());
+	}
+
+	@Test
+	public void rawBurnRateCompared() {
+		// 9.996 times the budget, that is rounded to 10 for display only
+		List<AlertEvent<Double>> rounded = new ArrayList<>();
+		CounterTimeBuckets<AccessLogLine> counters =
+				CounterColumn.createTimeBuckets(Duration.ofSeconds(1), Duration.ofSeconds(10));
+		BurnRateAlerting alerting = new BurnRateAlerting(0.01D, 10D, Collections.singletonList(Duration.ofSeconds(1)),
+				counters.getBucketDuration(), "Error budget burn", rounded::add);
+		counters.addBucketCloseListener(alerting);
+		for (int i = 0; i < 100_000; i++) {
+			AccessLogLine line = new AccessLogLine(Instant.ofEpochMilli(START_MILLIS), "section", 1,
+					i < 9_996 ? 500 : 200);
+			counters.accept(line);
+			alerting.accept(line);
+		}
+		counters.accept(new AccessLogLine(Instant.ofEpochMilli(START_MILLIS + 1_000L), "section", 1, 200));
+		Assert.assertTrue("Not raised below the threshold", rounded.isEmpty());
+	}
+
+	@Test
+	public void windowOverRetention() {
+		// The window is not summed from the counters, whose retention is shorter
+		List<AlertEvent<Double>> longEvents = new ArrayList<>();
+		BurnRateAlerting longAlerting = new BurnRateAlerting(0.01D, 10D,
+				Collections.singletonList(Duration.ofMinutes(1)), counters.getBucketDuration(), "Error budget burn",
+				longEvents::add);
+		counters.addBucketCloseListener(longAlerting);
+		for (long millis = 0; millis < 30_000L; millis += 10) {
+			AccessLogLine line = new AccessLogLine(Instant.ofEpochMilli(START_MILLIS + millis), "section", 1,
+					millis < 20_000L ? 500 : 200);
+			counters.accept(line);
+			longAlerting.accept(line);
+		}
+		Assert.assertEquals(1, longEvents.size());
+		Assert.assertEquals(Duration.ofMinutes(1), longEvents.get(0).getOverDuration());
+		Assert.assertTrue("2 thirds of errors over the minute", longAlerting.isActive());
+	}
+
+	@Test
+	public void releasedAfterGap() {
+		feed(0, 12, true);
+		Assert.assertTrue(alerting.isActive());
+		// The open slot and all the closed ones leave the windows
+		feed(60_000L, 200);
+		feed(60_100L, 200);
+		Assert.assertEquals(2, events.size());
+		Assert.assertTrue(events.get(1).isReleased());
+		Assert.assertFalse(alerting.isActive());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void windowShorterThanBucket() {
+		new BurnRateAlerting(0.01D, 10D, Collections.singletonList(Duration.ofMillis(50)),
+				counters.getBucketDuration(), "Error budget burn", events::add);
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.CounterColumn;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class EventTimeAlertingTest {
+
+	@Test
+	public void eventsAtBucketBoundaries() {
+		Duration bucketDuration = Duration.ofSeconds(1);
+		Duration alertDuration = Duration.ofSeconds(2);
+		CounterTimeBuckets<AccessLogLine> counters = CounterColumn.createTimeBuckets(bucketDuration, Duration.ofSeconds(10));
+		List<AlertEvent<?>> events = new ArrayList<>();
+		AlertConfig<Integer> config = new AlertConfig<>(
+				(stats, duration) -> (int) stats.overall().requestCount(),
+				count -> count > 5,
+				"Too many requests",
+				events::add);
+		counters.addBucketCloseListener(new EventTimeAlerting(counters,
+				Collections.singletonList(new AlertState<>(config, alertDuration))));
+
+		long startMillis = 1_000_000L;
+		for (int i = 0; i < 10; i++) {
+			counters.accept(new AccessLogLine(Instant.ofEpochMilli(startMillis + i * 50), "section", 1, 200));
+		}
+		Assert.assertTrue("Nothing is evaluated before a bucket is closed", events.isEmpty());
+
+		// Closes the buckets in between, whatever the gap
+		counters.accept(new AccessLogLine(Instant.ofEpochMilli(startMillis + 5_000L), "section", 1, 200));
+		Assert.assertEquals(2, events.size());
+		AlertEvent<?> raised = events.get(0);
+		Assert.assertTrue(raised.isRaised());
+		Assert.assertEquals(Instant.ofEpochMilli(startMillis + 1_000L).minus(alertDuration), raised.getSince());
+		Assert.assertEquals(10, raised.getValueAtSince());
+		AlertEvent<?> released = events.get(1);
+		Assert.assertTrue(released.isReleased());
+		Assert.assertEquals(Instant.ofEpochMilli(startMillis + 3_000L), released.getUntil());
+	}
+}
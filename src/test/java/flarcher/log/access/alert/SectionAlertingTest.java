@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.alert;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import flarcher.log.access.stat.CounterColumn;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SectionAlertingTest {
+
+	private static final long START_MILLIS = 1_000_000L;
+
+	private final CounterTimeBuckets<AccessLogLine> counters =
+			CounterColumn.createTimeBuckets(Duration.ofSeconds(1), Duration.ofSeconds(10));
+	private final List<AlertEvent<Long>> events = new ArrayList<>();
+
+	private SectionAlerting createAlerting(int maxSectionCount) {
+		SectionAlerting alerting = new SectionAlerting(5, "High section traffic", events::add,
+				Duration.ofSeconds(2), counters.getBucketDuration(), maxSectionCount);
+		counters.addBucketCloseListener(alerting);
+		return alerting;
+	}
+
+	/**
+	 * Feeds a line after the counters, like the reader does.
+	 */
+	private void feed(SectionAlerting alerting, long offsetMillis, String section) {
+		AccessLogLine line = new AccessLogLine(Instant.ofEpochMilli(START_MILLIS + offsetMillis), section, 1, 200);
+		counters.accept(line);
+		alerting.accept(line);
+	}
+
+	@Test
+	public void raisedAndReleasedBySection() {
+		SectionAlerting alerting = createAlerting(1000);
+		// 12 requests on "/hot" and a few ones on many other sections, during the first second
+		for (int i = 0; i < 12; i++) {
+			feed(alerting, i * 50, "/hot");
+		}
+		for (int i = 0; i < 500; i++) {
+			feed(alerting, 700 + i / 2, "/cold" + i);
+		}
+		Assert.assertTrue("Nothing is checked before a bucket is closed", events.isEmpty());
+
+		feed(alerting, 1_500, "/other");
+		Assert.assertEquals(1, events.size());
+		AlertEvent<Long> raised = events.get(0);
+		Assert.assertTrue(raised.isRaised());
+		Assert.assertEquals("/hot", raised.getSection());
+		Assert.assertEquals(Long.valueOf(6L), raised.getValueAtSince());
+		Assert.assertEquals(Instant.ofEpochMilli(START_MILLIS - 1_000L), raised.getSince());
+		Assert.assertEquals(1, alerting.getActiveSectionCount());
+
+		// The first bucket leaves the window once the third one is closed
+		feed(alerting, 3_100, "/other");
+		Assert.assertEquals(2, events.size());
+		AlertEvent<Long> released = events.get(1);
+		Assert.assertTrue(released.isReleased());
+		Assert.assertEquals("/hot", released.getSection());
+		Assert.assertEquals(Instant.ofEpochMilli(START_MILLIS + 3_000L), released.getUntil());
+		Assert.assertEquals(0, alerting.getActiveSectionCount());
+	}
+
+	@Test
+	public void sameSectionInClosedAndExpiredBuckets() {
+		SectionAlerting alerting = createAlerting(1000);
+		// A steady load of 10 requests per second
+		for (int second = 0; second < 10; second++) {
+			for (int i = 0; i < 10; i++) {
+				feed(alerting, second * 1_000L + i * 100, "/steady");
+			}
+		}
+		Assert.assertEquals("Raised once, without any flapping", 1, events.size());
+	}
+
+	@Test
+	public void sectionsOverLimit() {
+		SectionAlerting alerting = createAlerting(2);
+		feed(alerting, 0, "/a");
+		feed(alerting, 100, "/b");
+		feed(alerting, 200, "/c");
+		Assert.assertEquals(2, alerting.getSectionCount());
+		Assert.assertEquals("Skipped while the limit is reached", 1L, alerting.getSkippedLineCount());
+
+		// The first sections leave the window once the third bucket is closed, and give their identifiers back
+		feed(alerting, 3_100, "/other");
+		Assert.assertEquals(1, alerting.getSectionCount());
+		for (int i = 0; i < 12; i++) {
+			feed(alerting, 3_200 + i * 50, "/hot");
+		}
+		feed(alerting, 4_100, "/other");
+		Assert.assertEquals(1, events.size());
+		Assert.assertEquals("/hot", events.get(0).getSection());
+		Assert.assertEquals(1L, alerting.getSkippedLineCount());
+	}
+}
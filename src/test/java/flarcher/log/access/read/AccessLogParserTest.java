@@ -45,6 +45,37 @@ public class AccessLogParserTest {
 				1525881642000L, "api", 12);
 	}
 
+	@Test
+	public void status() {
+		Assert.assertEquals(503, PARSER_WITH_DEFAULTS.apply(
+				"127.0.0.1 - mary [09/May/2018:16:00:42 +0000] \"POST /api/user HTTP/1.0\" 503 12").getStatus());
+		Assert.assertEquals(AccessLogLine.UNKNOWN_STATUS, PARSER_WITH_DEFAULTS.apply(
+				"127.0.0.1 - mary [09/May/2018:16:00:42 +0000] \"POST /api/user HTTP/1.0\" - 12").getStatus());
+		Assert.assertEquals(AccessLogLine.UNKNOWN_STATUS, PARSER_WITH_DEFAULTS.apply(
+				"127.0.0.1 - mary [09/May/2018:16:00:42 +0000]").getStatus());
+	}
+
+	@Test
+	public void groupByFields() {
+		AccessLogLine line = PARSER_WITH_DEFAULTS.apply(
+				"10.0.0.1 - frank [09/May/2018:16:00:42 +0000] \"POST /api/user HTTP/1.0\" 200 34");
+		Assert.assertEquals("POST", line.getMethod());
+		Assert.assertEquals("frank", line.getUser());
+		Assert.assertEquals("10.0.0.1", line.getHost());
+		// Created once, on first access
+		Assert.assertSame(line.getUser(), line.getUser());
+		Assert.assertEquals(AccessLogLine.UNKNOWN_FIELD, PARSER_WITH_DEFAULTS.apply(
+				"[09/May/2018:16:00:42 +0000] \"POST /api/user HTTP/1.0\" 200 34").getUser());
+	}
+
+	@Test
+	public void path() {
+		Assert.assertEquals("/api/user/12", PARSER_WITH_DEFAULTS.apply(
+				"127.0.0.1 - frank [09/May/2018:16:00:42 +0000] \"GET /api/user/12?full=true HTTP/1.0\" 200 34").getPath());
+		Assert.assertEquals("", PARSER_WITH_DEFAULTS.apply(
+				"127.0.0.1 - mary [09/May/2018:16:00:42 +0000]").getPath());
+	}
+
 	@Test
 	public void noSection() {
 		assertLine("127.0.0.1 - mary [09/May/2018:16:00:42 +0000]",
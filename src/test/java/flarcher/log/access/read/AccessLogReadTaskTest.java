@@ -9,15 +9,21 @@ import flarcher.log.access.TestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class AccessLogReadTaskTest {
 
@@ -90,4 +96,50 @@ public class AccessLogReadTaskTest {
 			Assert.fail();
 		}
 	}
+
+	@Test
+	public void parallelParsingKeepsOrder() throws IOException, InterruptedException {
+		int lineCount = AccessLogReadTask.BATCH_SIZE * 10 + 7;
+		Path logFile = Files.createTempFile("access", ".log");
+		try {
+			List<String> lines = new ArrayList<>(lineCount);
+			for (int i = 0; i < lineCount; i++) {
+				lines.add(i % 100 == 0 ? "" : Integer.toString(i)); // Some blank lines
+			}
+			Files.write(logFile, lines, StandardCharsets.UTF_8);
+			List<String> sections = new ArrayList<>();
+			CountDownLatch waiting = new CountDownLatch(1);
+			AtomicInteger sectionCountWhenWaiting = new AtomicInteger(-1);
+			AccessLogReadTask reader = new AccessLogReadTask(
+					Collections.singletonList(line -> sections.add(line.getSection())), // Only from the reader's thread
+					line -> line.isEmpty() ? null : new AccessLogLine(Instant.now(), line, 0),
+					logFile,
+					() -> {
+						if (sectionCountWhenWaiting.compareAndSet(-1, sections.size())) {
+							waiting.countDown();
+						}
+					},
+					10L);
+			ExecutorService parserPool = Executors.newFixedThreadPool(3);
+			reader.setParallelParsing(parserPool, 2);
+			ExecutorService executorService = Executors.newSingleThreadExecutor();
+			executorService.submit(reader);
+			Assert.assertTrue(waiting.await(5, TimeUnit.SECONDS));
+			reader.requestStop();
+			executorService.shutdown();
+			Assert.assertTrue(executorService.awaitTermination(1, TimeUnit.SECONDS));
+			parserPool.shutdown();
+
+			List<String> expected = lines.stream().filter(line -> !line.isEmpty()).collect(Collectors.toList());
+			Assert.assertEquals(expected.size(), sectionCountWhenWaiting.get()); // All handed over before waiting
+			Assert.assertEquals(expected, sections);
+			Assert.assertEquals(lineCount, reader.getLineCount(AccessLogReadTask.Stage.READ));
+			Assert.assertEquals(lineCount, reader.getLineCount(AccessLogReadTask.Stage.PARSE));
+			Assert.assertEquals(expected.size(), reader.getLineCount(AccessLogReadTask.Stage.DISPATCH));
+			Assert.assertTrue(reader.getThroughput(AccessLogReadTask.Stage.PARSE) > 0D);
+		}
+		finally {
+			Files.delete(logFile);
+		}
+	}
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.read;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Collections;
+
+public class PathNormalizerTest {
+
+	private static final Instant INSTANT = Instant.parse("2018-05-09T16:00:39Z");
+
+	private static AccessLogLine lineOf(String path) {
+		return new AccessLogLine(INSTANT, PathNormalizer.sectionOf(path), path, 123, 200, "GET", "james", "127.0.0.1");
+	}
+
+	@Test
+	public void normalizeBuiltInSegments() {
+		PathNormalizer normalizer = new PathNormalizer(Collections.emptyList(), 16, 16);
+		Assert.assertEquals("/api/user/{num}/orders/{num}", normalizer.normalize("/api/user/12345/orders/987"));
+		Assert.assertEquals("/doc/{uuid}", normalizer.normalize("/doc/123e4567-e89b-12d3-a456-426655440000"));
+		Assert.assertEquals("/commit/{hex}/", normalizer.normalize("/commit/3f9c2a7be1d04c58/"));
+		// Short or digit-free hexadecimal words are kept
+		Assert.assertEquals("/cafe/deadbeef/a1b2", normalizer.normalize("/cafe/deadbeef/a1b2"));
+		String unchanged = "/api/user";
+		Assert.assertSame(unchanged, normalizer.normalize(unchanged));
+	}
+
+	@Test
+	public void normalizeConfiguredPatterns() {
+		PathNormalizer normalizer = new PathNormalizer(PathNormalizer.parsePatterns(" v[0-9]+  [a-z]+@[a-z.]+ "), 16, 16);
+		Assert.assertEquals("/api/{param}/user/{param}/{num}", normalizer.normalize("/api/v2/user/jill@example.com/12"));
+	}
+
+	@Test
+	public void applyWithCache() {
+		PathNormalizer normalizer = new PathNormalizer(Collections.emptyList(), 16, 16);
+		AccessLogLine normalized = normalizer.apply(lineOf("/12/orders/987"));
+		Assert.assertEquals("/{num}/orders/{num}", normalized.getPath());
+		Assert.assertEquals("{num}", normalized.getSection());
+		Assert.assertEquals(123, normalized.getLength());
+		Assert.assertEquals(200, normalized.getStatus());
+		Assert.assertEquals("james", normalized.getUser());
+		Assert.assertEquals(0D, normalizer.getCacheHitRatio(), 0D);
+
+		// Same template, shared instance
+		AccessLogLine normalizedAgain = normalizer.apply(lineOf("/12/orders/987"));
+		Assert.assertSame(normalized.getPath(), normalizedAgain.getPath());
+		Assert.assertSame(normalized.getSection(), normalizedAgain.getSection());
+		Assert.assertEquals(0.5D, normalizer.getCacheHitRatio(), 0D);
+		Assert.assertSame(normalized.getPath(), normalizer.apply(lineOf("/13/orders/988")).getPath());
+		Assert.assertEquals(1, normalizer.getTemplateCount());
+
+		// Lines without variable segments are kept
+		AccessLogLine unchanged = lineOf("/api/user");
+		Assert.assertSame(unchanged, normalizer.apply(unchanged));
+		Assert.assertSame(unchanged, normalizer.apply(unchanged));
+		Assert.assertNull(normalizer.apply(null));
+	}
+
+	@Test
+	public void templateCountLimit() {
+		PathNormalizer normalizer = new PathNormalizer(Collections.emptyList(), 16, 1);
+		Assert.assertEquals("/a/{num}", normalizer.apply(lineOf("/a/1")).getPath());
+		Assert.assertEquals("/b/{num}", normalizer.apply(lineOf("/b/1")).getPath());
+		Assert.assertEquals("b", normalizer.apply(lineOf("/b/2")).getSection());
+		Assert.assertEquals(1, normalizer.getTemplateCount());
+	}
+}
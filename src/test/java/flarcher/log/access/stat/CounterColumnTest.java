@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.CounterTimeBuckets;
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+
+public class CounterColumnTest {
+
+	@Test
+	public void sameOverallAsReduction() {
+		Duration bucketDuration = Duration.ofMillis(100);
+		Duration duration = Duration.ofSeconds(2);
+		CounterTimeBuckets<AccessLogLine> counters = CounterColumn.createTimeBuckets(bucketDuration, duration);
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = StatisticTimeBucketsFactory.create(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, bucketDuration, 10);
+		int[] statuses = { 200, 200, 302, 404, 500, 503, 0 };
+		long startMillis = 1_000_000L;
+		for (int i = 0; i < 500; i++) {
+			AccessLogLine line = new AccessLogLine(Instant.ofEpochMilli(startMillis + i * 10), "section" + (i % 7), i,
+					statuses[i % statuses.length]);
+			counters.accept(line);
+			buckets.accept(line);
+		}
+
+		long untilMillis = startMillis + 4_000L;
+		Statistic.ScopedStatistic expected = buckets.reduceLatest(untilMillis,
+				Collections.singletonList(duration)).get(0).overall();
+		Statistic snapshot = CounterColumn.snapshot(counters, untilMillis, duration);
+		Statistic.ScopedStatistic actual = snapshot.overall();
+		Assert.assertEquals(expected.requestCount(), actual.requestCount());
+		Assert.assertEquals(expected.weight(), actual.weight());
+		for (int statusClass = 1; statusClass < StatusCounts.CLASS_COUNT; statusClass++) {
+			Assert.assertEquals(expected.statusCounts().getClassCount(statusClass),
+					actual.statusCounts().getClassCount(statusClass));
+		}
+		Assert.assertEquals(expected.statusCounts().getServerErrorRatio(),
+				actual.statusCounts().getServerErrorRatio(), 1E-9);
+		Assert.assertTrue(snapshot.topSections().isEmpty());
+	}
+
+	@Test
+	public void statusClassColumns() {
+		AccessLogLine line = new AccessLogLine(Instant.ofEpochMilli(0L), "section", 10, 503);
+		for (int statusClass = 1; statusClass < StatusCounts.CLASS_COUNT; statusClass++) {
+			CounterColumn column = CounterColumn.ofStatusClass(statusClass);
+			Assert.assertEquals(statusClass == 5 ? 1L : 0L, column.applyAsLong(line));
+		}
+		Assert.assertEquals(CounterColumn.SERVER_ERROR_COUNT, CounterColumn.ofStatusClass(5));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void noWeightDistribution() {
+		CounterTimeBuckets<AccessLogLine> counters = CounterColumn.createTimeBuckets(
+				Duration.ofMillis(100), Duration.ofSeconds(1));
+		CounterColumn.snapshot(counters, 1_000L, Duration.ofSeconds(1)).overall().weightHistogram();
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public class CubeStatisticTest {
+
+	private static final Instant INSTANT = Instant.ofEpochMilli(1_000_000L);
+	private static final String[] METHODS = { "GET", "GET", "POST" };
+	private static final int[] STATUSES = { 200, 404, 503, 200 };
+
+	private static AccessLogLine line(int i) {
+		String section = i % 2 == 0 ? "api" : "report";
+		return new AccessLogLine(INSTANT.plusMillis(i), section, "/" + section, i,
+				STATUSES[i % STATUSES.length], METHODS[i % METHODS.length], "user" + (i % 5), "10.0.0." + (i % 3));
+	}
+
+	@Test
+	public void sameAsAggregatorBySection() {
+		StatisticAggregator expected = new StatisticAggregator(ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 10);
+		CubeStatistic actual = new CubeStatistic(new GroupByKeys(Collections.singletonList(Dimension.SECTION), 10),
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 10);
+		for (int i = 0; i < 99; i++) {
+			expected.accept(line(i));
+			actual.accept(line(i));
+		}
+		Assert.assertEquals(expected.overall().requestCount(), actual.overall().requestCount());
+		Assert.assertEquals(expected.overall().weight(), actual.overall().weight());
+		Assert.assertEquals(expected.overall().statusCounts().getClassCount(5),
+				actual.overall().statusCounts().getClassCount(5));
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> expectedSections = expected.topSections();
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> actualSections = actual.topSections();
+		Assert.assertEquals(expectedSections.size(), actualSections.size());
+		for (int i = 0; i < expectedSections.size(); i++) {
+			Assert.assertEquals(expectedSections.get(i).getKey(), actualSections.get(i).getKey());
+			Assert.assertEquals(expectedSections.get(i).getValue().weight(), actualSections.get(i).getValue().weight());
+			Assert.assertEquals(expectedSections.get(i).getValue().weightHistogram().getMax(),
+					actualSections.get(i).getValue().weightHistogram().getMax());
+		}
+	}
+
+	@Test
+	public void severalDimensions() {
+		GroupByKeys keys = new GroupByKeys(Arrays.asList(Dimension.METHOD, Dimension.STATUS_CLASS), 10);
+		CubeStatistic cube = new CubeStatistic(keys, ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 10);
+		for (int i = 0; i < 12; i++) {
+			cube.accept(line(i));
+		}
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> scopes = cube.topSections();
+		// GET 2xx, GET 4xx, GET 5xx, POST 2xx, POST 4xx, POST 5xx
+		Assert.assertEquals(6, scopes.size());
+		long sum = scopes.stream().mapToLong(entry -> entry.getValue().requestCount()).sum();
+		Assert.assertEquals(12, sum);
+		scopes.forEach(entry -> Assert.assertTrue(entry.getKey(), entry.getKey().matches("(GET|POST) [245]xx")));
+	}
+
+	@Test
+	public void labels() {
+		GroupByKeys keys = new GroupByKeys(Arrays.asList(Dimension.SECTION, Dimension.STATUS_CLASS, Dimension.USER), 10);
+		long key = keys.keyOf(line(2));
+		Assert.assertEquals("api 5xx user2", keys.labelOf(key));
+		Assert.assertEquals(key, keys.keyOfLabel("api 5xx user2"));
+		Assert.assertEquals(GroupByKeys.NO_KEY, keys.keyOfLabel("api 7xx user2"));
+		Assert.assertEquals(GroupByKeys.NO_KEY, keys.keyOfLabel("api"));
+	}
+
+	@Test
+	public void statusClassValues() {
+		Assert.assertEquals("5xx", Dimension.STATUS_CLASS.extract(line(2)));
+		Assert.assertEquals("2xx", Dimension.STATUS_CLASS.extract(line(0)));
+		Assert.assertEquals(5, Dimension.statusClassOf(Dimension.STATUS_CLASS.extract(line(2))));
+		Assert.assertEquals(0, Dimension.statusClassOf("-"));
+		Assert.assertEquals(ScopeDictionary.NO_ID, Dimension.statusClassOf("7xx"));
+	}
+
+	@Test
+	public void scopeLimit() {
+		GroupByKeys keys = new GroupByKeys(Collections.singletonList(Dimension.USER), 100);
+		CubeStatistic cube = new CubeStatistic(keys, ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 3);
+		for (int i = 0; i < 100; i++) {
+			cube.accept(line(i));
+		}
+		Assert.assertEquals(100, cube.overall().requestCount());
+		Assert.assertEquals(3, cube.topSections().size());
+		long keptCount = cube.topSections().stream().mapToLong(entry -> entry.getValue().requestCount()).sum();
+		Assert.assertEquals(100L - keptCount, cube.getSkippedLineCount());
+	}
+
+	@Test
+	public void timeBuckets() {
+		GroupByKeys keys = new GroupByKeys(Arrays.asList(Dimension.SECTION, Dimension.HOST), 100);
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = StatisticTimeBucketsFactory.createGroupBy(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, Duration.ofMillis(10),
+				Collections.emptyList(), keys, 100);
+		for (int i = 0; i < 1_000; i++) {
+			buckets.accept(line(i));
+		}
+		Statistic statistic = buckets.reduceLatest(INSTANT.toEpochMilli() + 1_000L,
+				Collections.singletonList(Duration.ofSeconds(1))).get(0);
+		Assert.assertEquals(1_000, statistic.overall().requestCount());
+		Assert.assertEquals(6, statistic.topSections().size());
+	}
+
+	@Test
+	public void parallelReduce() {
+		GroupByKeys keys = new GroupByKeys(Arrays.asList(Dimension.SECTION, Dimension.HOST), 100);
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = StatisticTimeBucketsFactory.createGroupBy(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, Duration.ofMillis(10),
+				Collections.emptyList(), keys, 100);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			buckets.setParallelReduce(pool, 20);
+			for (int i = 0; i < 1_000; i++) {
+				buckets.accept(line(i));
+			}
+			Statistic statistic = buckets.reduceLatest(INSTANT.toEpochMilli() + 1_000L,
+					Collections.singletonList(Duration.ofSeconds(1))).get(0);
+			Assert.assertEquals(1_000, statistic.overall().requestCount());
+			Assert.assertEquals(6, statistic.topSections().size());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class EwmaRatesTest {
+
+	private static final long START_MILLIS = Instant.parse("2018-05-09T16:00:00Z").toEpochMilli();
+
+	private static AccessLogLine lineAt(long millis, String section) {
+		return new AccessLogLine(Instant.ofEpochMilli(millis), section, 100);
+	}
+
+	@Test
+	public void steadyRate() {
+		EwmaRates rates = new EwmaRates(10);
+		// 10 requests per second during 30 minutes, 2 of them for "report"
+		long millis = START_MILLIS;
+		for (int i = 0; i < 30 * 60 * 10; i++) {
+			millis = START_MILLIS + i * 100L;
+			rates.accept(lineAt(millis, i % 5 == 0 ? "report" : "api"));
+		}
+		for (EwmaRates.Window window : EwmaRates.Window.values()) {
+			// The 1-second average saw-tooths between the lines
+			Assert.assertEquals(10D, rates.overallRate(window, millis), 1D);
+			Assert.assertEquals(2D, rates.sectionRate("report", window, millis), 1D);
+		}
+		Assert.assertEquals(0D, rates.sectionRate("unknown", EwmaRates.Window.ONE_MINUTE, millis), 0D);
+		Assert.assertEquals(Arrays.asList("api", "report"), rates.topSections(EwmaRates.Window.ONE_MINUTE, millis, 5));
+		Assert.assertEquals(Collections.singletonList("api"), rates.topSections(EwmaRates.Window.ONE_MINUTE, millis, 1));
+
+		// Decays on read, without any new line
+		long oneMinuteLater = millis + 60_000L;
+		Assert.assertEquals(0D, rates.overallRate(EwmaRates.Window.ONE_SECOND, oneMinuteLater), 0.001D);
+		Assert.assertEquals(10D / Math.E, rates.overallRate(EwmaRates.Window.ONE_MINUTE, oneMinuteLater), 0.5D);
+		Assert.assertTrue(rates.overallRate(EwmaRates.Window.FIVE_MINUTES, oneMinuteLater) > 8D);
+
+		// The load alert extractor gets the request count of the average rate over the window
+		Statistic snapshot = rates.snapshot(EwmaRates.Window.ONE_MINUTE, millis);
+		Assert.assertEquals(600D, snapshot.overall().requestCount(), 30D);
+		Assert.assertTrue(snapshot.topSections().isEmpty());
+	}
+
+	@Test
+	public void lateLines() {
+		EwmaRates inOrder = new EwmaRates(10);
+		inOrder.accept(lineAt(START_MILLIS, "api"));
+		inOrder.accept(lineAt(START_MILLIS + 30_000L, "api"));
+		EwmaRates late = new EwmaRates(10);
+		late.accept(lineAt(START_MILLIS + 30_000L, "api"));
+		late.accept(lineAt(START_MILLIS, "api"));
+		long millis = START_MILLIS + 60_000L;
+		for (EwmaRates.Window window : EwmaRates.Window.values()) {
+			Assert.assertEquals(inOrder.overallRate(window, millis), late.overallRate(window, millis), 1e-9D);
+		}
+	}
+
+	@Test
+	public void sectionCountLimit() {
+		EwmaRates rates = new EwmaRates(1);
+		rates.accept(lineAt(START_MILLIS, "api"));
+		rates.accept(lineAt(START_MILLIS, "report"));
+		Assert.assertEquals(2D / 60D, rates.overallRate(EwmaRates.Window.ONE_MINUTE, START_MILLIS), 1e-9D);
+		Assert.assertEquals(1D / 60D, rates.sectionRate("api", EwmaRates.Window.ONE_MINUTE, START_MILLIS), 1e-9D);
+		Assert.assertEquals(0D, rates.sectionRate("report", EwmaRates.Window.ONE_MINUTE, START_MILLIS), 0D);
+	}
+
+	@Test
+	public void idleSectionEvicted() {
+		EwmaRates rates = new EwmaRates(1);
+		rates.accept(lineAt(START_MILLIS, "api"));
+		// Still active within 5 minutes
+		rates.accept(lineAt(START_MILLIS + 60_000L, "report"));
+		Assert.assertEquals(0D, rates.sectionRate("report", EwmaRates.Window.ONE_MINUTE, START_MILLIS + 60_000L), 0D);
+
+		long millis = START_MILLIS + 6 * 60_000L;
+		rates.accept(lineAt(millis, "report"));
+		Assert.assertEquals(0D, rates.sectionRate("api", EwmaRates.Window.ONE_MINUTE, millis), 0D);
+		Assert.assertEquals(1D / 60D, rates.sectionRate("report", EwmaRates.Window.ONE_MINUTE, millis), 1e-9D);
+		Assert.assertEquals(Collections.singletonList("report"),
+				rates.topSections(EwmaRates.Window.ONE_MINUTE, millis, 5));
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+
+public class OffHeapStatisticTest {
+
+	private static final int MAX_SECTION_COUNT = 10;
+
+	private final SectionDictionary dictionary = new SectionDictionary(MAX_SECTION_COUNT);
+	private final OffHeapArena tableArena = new OffHeapArena(OffHeapStatistic.tableBytes(MAX_SECTION_COUNT), 4, false);
+	private final OffHeapArena recordArena = new OffHeapArena(OffHeapStatistic.RECORD_BYTES, 4, false);
+
+	private OffHeapStatistic create() {
+		return new OffHeapStatistic(dictionary, ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT,
+				tableArena, recordArena);
+	}
+
+	private static AccessLogLine line(String section) {
+		return new AccessLogLine(Instant.EPOCH, section, 100, 200);
+	}
+
+	@Test
+	public void lateWriteAfterClose() {
+		OffHeapStatistic closed = create();
+		closed.accept(line("api"));
+		closed.close();
+		// Rejected instead of allocating a new table
+		closed.accept(line("api"));
+		Assert.assertEquals(0L, closed.overall().requestCount());
+		Assert.assertEquals(0, closed.getSectionCount());
+
+		// The writer (this thread) reuses the table and the 2 records of the closed instance
+		OffHeapStatistic next = create();
+		next.accept(line("report"));
+		Assert.assertEquals(1L, next.overall().requestCount());
+		Assert.assertEquals("report", next.topSections().get(0).getKey());
+		Assert.assertEquals(1, tableArena.allocate());
+		Assert.assertEquals(2, recordArena.allocate());
+	}
+
+	@Test
+	public void readerDelaysReuse() {
+		OffHeapStatistic closed = create();
+		closed.accept(line("api"));
+
+		tableArena.enterRead();
+		closed.close();
+		OffHeapStatistic next = create();
+		next.accept(line("report"));
+		// Not reused while read: the records 0 and 1 are still the closed ones, and the next ones are 2 and 3
+		Assert.assertEquals(4, recordArena.allocate());
+		recordArena.free(4);
+		tableArena.exitRead();
+
+		// The reductions read the other instances
+		OffHeapStatistic reduced = new OffHeapStatistic(dictionary, ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT,
+				new OffHeapArena(OffHeapStatistic.tableBytes(MAX_SECTION_COUNT), 1, false),
+				new OffHeapArena(OffHeapStatistic.RECORD_BYTES, 4, false));
+		reduced.add(next);
+		Assert.assertEquals(1L, reduced.overall().requestCount());
+
+		// Both tables are reclaimed at once
+		next.close();
+		OffHeapStatistic last = create();
+		last.accept(line("download"));
+		Assert.assertEquals(1L, last.overall().requestCount());
+		tableArena.allocate();
+		Assert.assertEquals(2, tableArena.allocate());
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class PathTrieTest {
+
+	private static final Instant INSTANT = Instant.ofEpochMilli(1_000_000L);
+	private static final String[] PATHS = { "/api/user", "/api/user/12", "/api/orders", "/report", "/" };
+
+	private static AccessLogLine line(int i) {
+		String path = PATHS[i % PATHS.length];
+		return new AccessLogLine(INSTANT.plusMillis(i), "", path, 10, 200, "GET", "-", "127.0.0.1");
+	}
+
+	private static Map<String, Long> countsByPath(Statistic statistic) {
+		return statistic.topSections().stream()
+				.collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().requestCount()));
+	}
+
+	@Test
+	public void subtreeCounters() {
+		PathTrie trie = new PathTrie(2, 100);
+		ColumnarStatistic statistic = new ColumnarStatistic(trie, ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT);
+		for (int i = 0; i < 10; i++) {
+			statistic.accept(line(i));
+		}
+		Assert.assertEquals(10, statistic.overall().requestCount());
+		Map<String, Long> counts = countsByPath(statistic);
+		Assert.assertEquals(4, counts.size()); // Is limited to 2 segments
+		Assert.assertEquals(6L, (long) counts.get("api"));
+		Assert.assertEquals(4L, (long) counts.get("api/user"));
+		Assert.assertEquals(2L, (long) counts.get("api/orders"));
+		Assert.assertEquals(2L, (long) counts.get("report"));
+		// The top entry is the one having the whole subtree
+		Assert.assertEquals("api", statistic.topSections().get(0).getKey());
+	}
+
+	@Test
+	public void topAtDepth() {
+		PathTrie trie = new PathTrie(2, 100);
+		ColumnarStatistic statistic = new ColumnarStatistic(trie, ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT);
+		for (int i = 0; i < 10; i++) {
+			statistic.accept(line(i));
+		}
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> top = statistic.topSections(PathTrie.atDepth(2));
+		Assert.assertEquals(2, top.size());
+		Assert.assertEquals("api/user", top.get(0).getKey());
+		Assert.assertEquals("api/orders", top.get(1).getKey());
+		Assert.assertEquals(Arrays.asList("api", "report"), statistic.topSections(PathTrie.atDepth(1)).stream()
+				.map(Map.Entry::getKey)
+				.collect(Collectors.toList()));
+	}
+
+	@Test
+	public void names() {
+		PathTrie trie = new PathTrie(3, 100);
+		int id = trie.idOf("/api/user/");
+		Assert.assertEquals("api/user", trie.nameOf(id));
+		Assert.assertEquals(2, PathTrie.depthOf(trie.nameOf(id)));
+		Assert.assertEquals(id, trie.idOf("api/user"));
+		Assert.assertEquals(2, trie.size());
+		Assert.assertEquals(ScopeDictionary.NO_ID, trie.idOf("/"));
+	}
+
+	@Test
+	public void nodeLimit() {
+		PathTrie trie = new PathTrie(3, 2);
+		Assert.assertNotEquals(ScopeDictionary.NO_ID, trie.idOf("api/user"));
+		Assert.assertEquals(ScopeDictionary.NO_ID, trie.idOf("api/orders"));
+		int[] ids = new int[trie.getMaxIdCount()];
+		Assert.assertEquals(1, trie.idsOf(line(2), ids)); // Only the 'api' node
+		Assert.assertTrue(trie.isSkipped(line(2), 1));
+		Assert.assertFalse(trie.isSkipped(line(4), 0)); // The root path has no node
+	}
+
+	@Test
+	public void timeBuckets() {
+		PathTrie trie = new PathTrie(2, 100);
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = StatisticTimeBucketsFactory.create(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, Duration.ofMillis(10),
+				Collections.emptyList(), trie);
+		for (int i = 0; i < 1_000; i++) {
+			buckets.accept(line(i));
+		}
+		Statistic statistic = buckets.reduceLatest(INSTANT.toEpochMilli() + 1_000L,
+				Collections.singletonList(Duration.ofSeconds(1))).get(0);
+		Assert.assertEquals(1_000, statistic.overall().requestCount());
+		Map<String, Long> counts = countsByPath(statistic);
+		Assert.assertEquals(600L, (long) counts.get("api"));
+		Assert.assertEquals(400L, (long) counts.get("api/user"));
+		// The nodes are shared by all buckets
+		Assert.assertEquals(4, trie.size());
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SegmentedCountsTest {
+
+	private static final SegmentedCounts.Layout LAYOUT = new SegmentedCounts.Layout(new int[]{ 0, 2, 5 }, 8);
+
+	@Test
+	public void addAndClear() {
+		SegmentedCounts counts = new SegmentedCounts(LAYOUT);
+		for (int slot = 0; slot < LAYOUT.getSlotCount(); slot++) {
+			Assert.assertEquals(0L, counts.get(slot));
+		}
+		counts.add(1, 2);
+		counts.add(4, 3);
+		counts.add(4, 1);
+		counts.add(7, 0);
+		Assert.assertEquals(2L, counts.get(1));
+		Assert.assertEquals(0L, counts.get(2));
+		Assert.assertEquals(4L, counts.get(4));
+		Assert.assertEquals(0L, counts.get(7));
+		counts.clear();
+		Assert.assertEquals(0L, counts.get(1));
+		Assert.assertEquals(0L, counts.get(4));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptySegment() {
+		new SegmentedCounts.Layout(new int[]{ 0, 2, 2 }, 8);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SingleWriterStatisticAggregatorTest {
+
+	private static final Instant INSTANT = Instant.now();
+
+	@Test
+	public void sameAsAggregator() {
+		StatisticAggregator expected = new StatisticAggregator(ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 2);
+		SingleWriterStatisticAggregator actual = new SingleWriterStatisticAggregator(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 2);
+		String[] sections = { "api", "api", "report", "other" };
+		for (int i = 0; i < 100; i++) {
+			AccessLogLine line = new AccessLogLine(INSTANT, sections[i % sections.length], i, i % 3 == 0 ? 500 : 200);
+			expected.accept(line);
+			actual.accept(line);
+		}
+		Assert.assertEquals(expected.overall().requestCount(), actual.overall().requestCount());
+		Assert.assertEquals(expected.overall().weight(), actual.overall().weight());
+		Assert.assertEquals(expected.overall().weightHistogram().getValueAtPercentile(50D),
+				actual.overall().weightHistogram().getValueAtPercentile(50D));
+		Assert.assertEquals(expected.overall().statusCounts().getCodeCount(500),
+				actual.overall().statusCounts().getCodeCount(500));
+		Assert.assertEquals(expected.overall().statusCounts().getClassCount(2),
+				actual.overall().statusCounts().getClassCount(2));
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> expectedSections = expected.topSections();
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> actualSections = actual.topSections();
+		Assert.assertEquals(2, actualSections.size());
+		for (int i = 0; i < expectedSections.size(); i++) {
+			Assert.assertEquals(expectedSections.get(i).getKey(), actualSections.get(i).getKey());
+			Assert.assertEquals(expectedSections.get(i).getValue().weight(), actualSections.get(i).getValue().weight());
+		}
+		// The lines of the "other" section
+		Assert.assertEquals(25L, actual.getSkippedLineCount());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		SingleWriterStatisticAggregator aggregator = new SingleWriterStatisticAggregator(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 2);
+		aggregator.setEvicting(true);
+		for (String section : new String[] { "old", "api", "old", "report", "report", "new" }) {
+			aggregator.accept(new AccessLogLine(INSTANT, section, 1));
+		}
+		// "api" was the least recently used when "report" came, then "old" when "new" came
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> sections = aggregator.topSections();
+		Assert.assertEquals(2, sections.size());
+		Assert.assertEquals("report", sections.get(0).getKey());
+		Assert.assertEquals(2L, sections.get(0).getValue().requestCount());
+		Assert.assertEquals("new", sections.get(1).getKey());
+		Assert.assertEquals(6L, aggregator.overall().requestCount());
+		Assert.assertEquals(0L, aggregator.getSkippedLineCount());
+	}
+
+	@Test
+	public void consistentReads() throws InterruptedException {
+		SingleWriterStatisticAggregator aggregator = new SingleWriterStatisticAggregator(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 10);
+		AtomicBoolean running = new AtomicBoolean(true);
+		// Each line weights 3 bytes, so that the weight is always three times the count
+		Thread writer = new Thread(() -> {
+			AccessLogLine line = new AccessLogLine(INSTANT, "api", 3, 200);
+			while (running.get()) {
+				aggregator.accept(line);
+			}
+		});
+		writer.start();
+		try {
+			for (int i = 0; i < 100_000; i++) {
+				Statistic.ScopedStatistic overall = aggregator.overall();
+				Assert.assertEquals(3L * overall.requestCount(), overall.weight());
+				// The distribution and the status counts are from the same snapshot
+				Assert.assertEquals(overall.requestCount(), overall.weightHistogram().getCount());
+				Assert.assertEquals(overall.requestCount(), overall.statusCounts().getClassCount(2));
+			}
+		}
+		finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ingestion throughput of {@link StatisticAggregator} (atomic counters) and of
+ * {@link StripedStatisticAggregator} (striped counters) with 1 to N writer threads.
+ *
+ * Is run by {@link #main(String[])}, or through the JMH runner with the {@code -t} option.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticAggregatorBenchmark {
+
+	private static final String[] SECTIONS = { "api", "report", "download", "user", "admin", "static", "help", "" };
+
+	@Param({ "atomic", "striped" })
+	public String implementation;
+
+	private StatisticAggregator aggregator;
+	private AccessLogLine[] lines;
+
+	@Setup
+	public void setUp() {
+		aggregator = "striped".equals(implementation)
+				? new StripedStatisticAggregator(ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 100)
+				: new StatisticAggregator(ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 100);
+		Instant now = Instant.now();
+		lines = new AccessLogLine[1024];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = new AccessLogLine(now, SECTIONS[i % SECTIONS.length], ThreadLocalRandom.current().nextInt(100_000));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int index;
+	}
+
+	@Benchmark
+	public void accept(Cursor cursor) {
+		aggregator.accept(lines[cursor.index++ & (lines.length - 1)]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+			Options options = new OptionsBuilder()
+					.include(StatisticAggregatorBenchmark.class.getSimpleName())
+					.threads(threads)
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a tick of the watcher (the reduction of the buckets of the latest minute for 2 durations), with new
+ * reduced statistics by tick or with reused accumulators.
+ *
+ * Is run by {@link #main(String[])}, that also reports the allocation rate (GC profiler).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticTimeBucketsBenchmark {
+
+	private static final Duration BUCKET_DURATION = Duration.ofMillis(100);
+	private static final List<Duration> DURATIONS = Arrays.asList(Duration.ofSeconds(10), Duration.ofMinutes(1));
+	private static final int SECTION_COUNT = 50;
+	private static final int LINE_COUNT_BY_BUCKET = 20;
+
+	@Param({ "map", "columns" })
+	public String store;
+
+	@Param({ "false", "true" })
+	public boolean reuse;
+
+	private StatisticTimeBucketsFactory.StatisticTimeBuckets buckets;
+	private StatisticTimeBucketsFactory.Accumulators accumulators;
+	private long untilMillis;
+
+	@Setup
+	public void setUp() {
+		buckets = StatisticTimeBucketsFactory.create(ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT,
+				BUCKET_DURATION, Collections.emptyList(), SECTION_COUNT,
+				StatisticTimeBucketsFactory.Store.valueOf(store.toUpperCase()));
+		long startMillis = Instant.parse("2018-05-09T16:00:00Z").toEpochMilli();
+		int bucketCount = (int) (DURATIONS.get(DURATIONS.size() - 1).toMillis() / BUCKET_DURATION.toMillis());
+		int lineIndex = 0;
+		for (int bucket = 0; bucket < bucketCount; bucket++) {
+			Instant instant = Instant.ofEpochMilli(startMillis + bucket * BUCKET_DURATION.toMillis());
+			for (int i = 0; i < LINE_COUNT_BY_BUCKET; i++) {
+				buckets.accept(new AccessLogLine(instant, "section" + (lineIndex++ % SECTION_COUNT), 100 + i));
+			}
+		}
+		untilMillis = startMillis + bucketCount * BUCKET_DURATION.toMillis();
+		accumulators = buckets.createAccumulators(DURATIONS.size());
+	}
+
+	@Benchmark
+	public List<? extends Statistic> reduceLatest() {
+		return reuse
+				? buckets.reduceLatest(untilMillis, DURATIONS, accumulators)
+				: buckets.reduceLatest(untilMillis, DURATIONS);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(StatisticTimeBucketsBenchmark.class.getSimpleName())
+				.addProfiler("gc")
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Checks every {@link StatisticTimeBucketsFactory.Store} against the reductions of the {@link
+ * StatisticTimeBucketsFactory.Store#MAP} store without roll-up.
+ */
+@RunWith(Parameterized.class)
+public class StatisticTimeBucketsFactoryTest {
+
+	@Parameterized.Parameters(name = "{0}")
+	public static StatisticTimeBucketsFactory.Store[] stores() {
+		return StatisticTimeBucketsFactory.Store.values();
+	}
+
+	public StatisticTimeBucketsFactoryTest(StatisticTimeBucketsFactory.Store store) {
+		this.store = store;
+	}
+
+	private final StatisticTimeBucketsFactory.Store store;
+
+	private static final Duration BUCKET_DURATION = Duration.ofMillis(100);
+	private static final List<Duration> DURATIONS = Arrays.asList(Duration.ofSeconds(1), Duration.ofSeconds(10));
+	// Distinct frequencies so that the top sections order is deterministic
+	private static final String[] SECTIONS = { "api", "api", "api", "api", "report", "report", "report",
+			"download", "download", "" };
+	private static final int[] STATUSES = { 200, 200, 304, 404, 503, 299, 0 };
+
+	private static void feed(Consumer<AccessLogLine> consumer, long startMillis) {
+		for (int i = 0; i < 1_000; i++) {
+			consumer.accept(new AccessLogLine(
+				Instant.ofEpochMilli(startMillis + i * 10), SECTIONS[i % SECTIONS.length], i, STATUSES[i % STATUSES.length]));
+		}
+	}
+
+	private static void assertSameScopedStatistic(Statistic.ScopedStatistic expected, Statistic.ScopedStatistic actual) {
+		Assert.assertEquals(expected.requestCount(), actual.requestCount());
+		Assert.assertEquals(expected.weight(), actual.weight());
+		Assert.assertEquals(expected.weightHistogram().getMax(), actual.weightHistogram().getMax());
+		Assert.assertEquals(expected.weightHistogram().getValueAtPercentile(90D),
+				actual.weightHistogram().getValueAtPercentile(90D));
+		for (int statusClass = 0; statusClass < StatusCounts.CLASS_COUNT; statusClass++) {
+			Assert.assertEquals(expected.statusCounts().getClassCount(statusClass),
+					actual.statusCounts().getClassCount(statusClass));
+		}
+		Assert.assertEquals(expected.statusCounts().getCodeCount(404), actual.statusCounts().getCodeCount(404));
+	}
+
+	private static void assertSameStatistic(Statistic expected, Statistic actual) {
+		assertSameScopedStatistic(expected.overall(), actual.overall());
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> expectedSections = expected.topSections();
+		List<Map.Entry<String, ? extends Statistic.ScopedStatistic>> actualSections = actual.topSections();
+		Assert.assertEquals(expectedSections.size(), actualSections.size());
+		for (int i = 0; i < expectedSections.size(); i++) {
+			Assert.assertEquals(expectedSections.get(i).getKey(), actualSections.get(i).getKey());
+			assertSameScopedStatistic(expectedSections.get(i).getValue(), actualSections.get(i).getValue());
+		}
+	}
+
+	private StatisticTimeBucketsFactory.StatisticTimeBuckets createBuckets(List<Duration> rollupDurations,
+			int maxSectionCount) {
+		return StatisticTimeBucketsFactory.create(ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT,
+				BUCKET_DURATION, rollupDurations, maxSectionCount, store);
+	}
+
+	private static StatisticTimeBucketsFactory.StatisticTimeBuckets createMapBuckets() {
+		return StatisticTimeBucketsFactory.create(ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT,
+				BUCKET_DURATION, Collections.emptyList(), 10, StatisticTimeBucketsFactory.Store.MAP);
+	}
+
+	private void assertSameReductions(List<Duration> rollupDurations) {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets mapBuckets = createMapBuckets();
+		StatisticTimeBucketsFactory.StatisticTimeBuckets otherBuckets = createBuckets(rollupDurations, 10);
+		long startMillis = 1_000_000L;
+		feed(mapBuckets, startMillis);
+		feed(otherBuckets, startMillis);
+
+		long untilMillis = startMillis + 10_000L;
+		List<? extends Statistic> expected = mapBuckets.reduceLatest(untilMillis, DURATIONS);
+		List<? extends Statistic> actual = otherBuckets.reduceLatest(untilMillis, DURATIONS);
+		Assert.assertEquals(DURATIONS.size(), actual.size());
+		for (int i = 0; i < DURATIONS.size(); i++) {
+			assertSameStatistic(expected.get(i), actual.get(i));
+		}
+	}
+
+	@Test
+	public void reduce() {
+		assertSameReductions(Collections.emptyList());
+	}
+
+	@Test
+	public void reduceWithRollUp() {
+		assertSameReductions(Collections.singletonList(Duration.ofSeconds(1)));
+	}
+
+	@Test
+	public void freezeDelay() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets frozenBuckets = StatisticTimeBucketsFactory.create(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, BUCKET_DURATION, Collections.emptyList(), 10,
+				store, Duration.ZERO);
+		StatisticTimeBucketsFactory.StatisticTimeBuckets openBuckets = StatisticTimeBucketsFactory.create(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, BUCKET_DURATION, Collections.emptyList(), 10,
+				store, Duration.ofHours(1));
+		feed(frozenBuckets, 1_000_000L);
+		feed(openBuckets, 1_000_000L);
+		if (store == StatisticTimeBucketsFactory.Store.MAP) {
+			// All the buckets but the latest one are frozen, and take less memory
+			Assert.assertTrue(frozenBuckets.getEstimatedBytes() < openBuckets.getEstimatedBytes());
+		}
+		else {
+			Assert.assertEquals(openBuckets.getEstimatedBytes(), frozenBuckets.getEstimatedBytes());
+		}
+	}
+
+	@Test
+	public void lateLines() {
+		// The map buckets are frozen once closed, while the column ones are not
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = createBuckets(Collections.emptyList(), 10);
+		StatisticTimeBucketsFactory.StatisticTimeBuckets columnBuckets = StatisticTimeBucketsFactory.create(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, BUCKET_DURATION,
+				Collections.emptyList(), 10, StatisticTimeBucketsFactory.Store.COLUMNS);
+		long startMillis = 1_000_000L;
+		feed(buckets, startMillis);
+		feed(columnBuckets, startMillis);
+		// Late lines into the oldest (closed) buckets
+		for (int i = 0; i < 100; i++) {
+			AccessLogLine line = new AccessLogLine(Instant.ofEpochMilli(startMillis + i), "late", i, 200);
+			buckets.accept(line);
+			columnBuckets.accept(line);
+		}
+
+		long untilMillis = startMillis + 10_000L;
+		List<? extends Statistic> expected = columnBuckets.reduceLatest(untilMillis, DURATIONS);
+		List<? extends Statistic> actual = buckets.reduceLatest(untilMillis, DURATIONS);
+		for (int i = 0; i < DURATIONS.size(); i++) {
+			assertSameStatistic(expected.get(i), actual.get(i));
+		}
+		Assert.assertEquals(1_100L, actual.get(1).overall().requestCount());
+	}
+
+	@Test
+	public void reduceWithAccumulators() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = createBuckets(Collections.emptyList(), 10);
+		StatisticTimeBucketsFactory.Accumulators accumulators = buckets.createAccumulators(DURATIONS.size());
+		long startMillis = 1_000_000L;
+		feed(buckets, startMillis);
+		// Several ticks, the latest ones without the sections of the first lines
+		for (long untilMillis = startMillis + 1_000L; untilMillis <= startMillis + 30_000L; untilMillis += 7_000L) {
+			List<? extends Statistic> expected = buckets.reduceLatest(untilMillis, DURATIONS);
+			List<? extends Statistic> actual = buckets.reduceLatest(untilMillis, DURATIONS, accumulators);
+			for (int i = 0; i < DURATIONS.size(); i++) {
+				assertSameStatistic(expected.get(i), actual.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void parallelReduce() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = createBuckets(Collections.emptyList(), 10);
+		StatisticTimeBucketsFactory.StatisticTimeBuckets parallelBuckets = createBuckets(Collections.emptyList(), 10);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			// The 1s duration (10 buckets) is reduced sequentially, and the 10s one (100 buckets) in parallel
+			parallelBuckets.setParallelReduce(pool, 50);
+			long startMillis = 1_000_000L;
+			feed(buckets, startMillis);
+			feed(parallelBuckets, startMillis);
+			StatisticTimeBucketsFactory.Accumulators accumulators = parallelBuckets.createAccumulators(DURATIONS.size());
+			long untilMillis = startMillis + 10_000L;
+			List<? extends Statistic> expected = buckets.reduceLatest(untilMillis, DURATIONS);
+			List<? extends Statistic> actual = parallelBuckets.reduceLatest(untilMillis, DURATIONS);
+			List<? extends Statistic> actualWithAccumulators = parallelBuckets.reduceLatest(untilMillis, DURATIONS, accumulators);
+			for (int i = 0; i < DURATIONS.size(); i++) {
+				assertSameStatistic(expected.get(i), actual.get(i));
+				assertSameStatistic(expected.get(i), actualWithAccumulators.get(i));
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void combining() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = createBuckets(Collections.emptyList(), 10);
+		// Flushed on bucket change (10 lines by bucket) and by the line count limit
+		StatisticTimeBucketsFactory.StatisticTimeBuckets combiningBuckets = StatisticTimeBucketsFactory.create(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, BUCKET_DURATION, Collections.emptyList(), 10,
+				store, Duration.ofSeconds(2), 4);
+		long startMillis = 1_000_000L;
+		feed(buckets, startMillis);
+		feed(combiningBuckets, startMillis);
+		long untilMillis = startMillis + 10_000L;
+		List<Duration> longest = Collections.singletonList(DURATIONS.get(DURATIONS.size() - 1));
+		// The lines of the latest bucket are flushed once seen for a bucket duration
+		combiningBuckets.flushDelayed(0L);
+		combiningBuckets.flushDelayed(BUCKET_DURATION.toNanos() - 1L);
+		Assert.assertEquals(998L, combiningBuckets.reduceLatest(untilMillis, longest).get(0).overall().requestCount());
+		combiningBuckets.flushDelayed(BUCKET_DURATION.toNanos());
+		List<? extends Statistic> expected = buckets.reduceLatest(untilMillis, DURATIONS);
+		List<? extends Statistic> actual = combiningBuckets.reduceLatest(untilMillis, DURATIONS);
+		for (int i = 0; i < DURATIONS.size(); i++) {
+			assertSameStatistic(expected.get(i), actual.get(i));
+		}
+	}
+
+	@Test
+	public void cleaning() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = createBuckets(Collections.emptyList(), 10);
+		long bytesBefore = buckets.getEstimatedBytes() + StatisticTimeBucketsFactory.getOffHeapBytes();
+		feed(buckets, 0L);
+		long bytesAfterFeed = buckets.getEstimatedBytes() + StatisticTimeBucketsFactory.getOffHeapBytes();
+		Assert.assertTrue(bytesAfterFeed > bytesBefore);
+		// The cleaned buckets are released
+		buckets.reduceLatest(100_000L, Collections.singletonList(Duration.ofSeconds(1)));
+		Assert.assertEquals(0, buckets.getBucketCount());
+		// Only the identifiers of the 4 sections are left, if any
+		Assert.assertTrue(buckets.getEstimatedBytes() <= 4 * ScopeDictionary.SCOPE_BYTES);
+	}
+
+	@Test
+	public void removeOldestBuckets() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = createBuckets(Collections.emptyList(), 10);
+		feed(buckets, 0L);
+		Assert.assertEquals(100, buckets.getBucketCount());
+		long bytesAfterFeed = buckets.getEstimatedBytes();
+		long removedBytes = buckets.removeOldestBuckets(bytesAfterFeed / 2);
+		Assert.assertTrue(removedBytes >= bytesAfterFeed / 2);
+		Assert.assertEquals(bytesAfterFeed - removedBytes, buckets.getEstimatedBytes());
+		int bucketCount = buckets.getBucketCount();
+		Assert.assertTrue(bucketCount > 0 && bucketCount <= 50);
+		// The latest buckets are kept
+		List<? extends Statistic> reduced = buckets.reduceLatest(10_000L, DURATIONS);
+		Assert.assertEquals(100L, reduced.get(0).overall().requestCount());
+		Assert.assertEquals(10L * bucketCount, reduced.get(1).overall().requestCount());
+		// Even when more bytes are asked, the latest bucket is kept
+		buckets.removeOldestBuckets(Long.MAX_VALUE);
+		Assert.assertEquals(1, buckets.getBucketCount());
+	}
+
+	@Test
+	public void sectionLimit() {
+		StatisticTimeBucketsFactory.StatisticTimeBuckets buckets = createBuckets(Collections.emptyList(), 2);
+		feed(buckets, 0L);
+		Statistic statistic = buckets.reduceLatest(10_000L, Collections.singletonList(Duration.ofSeconds(10))).get(0);
+		Assert.assertEquals(1_000, statistic.overall().requestCount());
+		Assert.assertEquals(2, statistic.topSections().size());
+	}
+}
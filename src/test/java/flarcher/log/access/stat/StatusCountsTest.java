@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatusCountsTest {
+
+	@Test
+	public void classOf() {
+		Assert.assertEquals(2, StatusCounts.classOf(200));
+		Assert.assertEquals(5, StatusCounts.classOf(599));
+		Assert.assertEquals(0, StatusCounts.classOf(AccessLogLine.UNKNOWN_STATUS));
+		Assert.assertEquals(0, StatusCounts.classOf(99));
+		Assert.assertEquals(0, StatusCounts.classOf(600));
+	}
+
+	@Test
+	public void recordAndAdd() {
+		StatusCounts counts = new StatusCounts();
+		counts.record(200);
+		counts.record(404);
+		counts.record(418); // Has no code slot
+		counts.record(503);
+		Assert.assertEquals(1, counts.getClassCount(2));
+		Assert.assertEquals(2, counts.getClassCount(4));
+		Assert.assertEquals(1, counts.getCodeCount(404));
+		Assert.assertEquals(-1, counts.getCodeCount(418));
+		Assert.assertEquals(0.25D, counts.getServerErrorRatio(), 0D);
+
+		StatusCounts other = new StatusCounts();
+		other.add(counts);
+		other.add(counts);
+		Assert.assertEquals(4, other.getClassCount(4));
+		Assert.assertEquals(2, other.getCodeCount(503));
+
+		long[] column = new long[2 * StatusCounts.SLOT_COUNT];
+		other.addTo(column, StatusCounts.SLOT_COUNT);
+		StatusCounts fromColumn = new StatusCounts();
+		fromColumn.addFrom(column, StatusCounts.SLOT_COUNT);
+		Assert.assertEquals(2, fromColumn.getCodeCount(200));
+	}
+
+	@Test
+	public void noRequest() {
+		Assert.assertEquals(0D, new StatusCounts().getServerErrorRatio(), 0D);
+	}
+}
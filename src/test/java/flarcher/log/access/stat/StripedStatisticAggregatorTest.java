@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import flarcher.log.access.read.AccessLogLine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StripedStatisticAggregatorTest {
+
+	private static final Instant INSTANT = Instant.now();
+
+	@Test
+	public void concurrentWriters() throws InterruptedException {
+		StripedStatisticAggregator aggregator = new StripedStatisticAggregator(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 10);
+		String[] sections = { "api", "report" };
+		int threadCount = 4;
+		int lineCount = 10_000;
+		List<Thread> writers = new ArrayList<>(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			Thread writer = new Thread(() -> {
+				for (int i = 0; i < lineCount; i++) {
+					aggregator.accept(new AccessLogLine(INSTANT, sections[i % sections.length], 3 + i % 2, 200));
+				}
+			});
+			writers.add(writer);
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		Assert.assertEquals(threadCount * lineCount, aggregator.overall().requestCount());
+		Assert.assertEquals(7L * threadCount * lineCount / 2, aggregator.overall().weight());
+		// The cells of the distribution and of the status counts are merged on read
+		Assert.assertEquals(threadCount * lineCount, aggregator.overall().weightHistogram().getCount());
+		Assert.assertEquals(4, aggregator.overall().weightHistogram().getMax());
+		Assert.assertEquals(threadCount * lineCount, aggregator.overall().statusCounts().getCodeCount(200));
+		Assert.assertEquals(2, aggregator.topSections().size());
+		Assert.assertEquals(threadCount * lineCount / 2, aggregator.topSections().get(0).getValue().requestCount());
+	}
+
+	@Test
+	public void weightOverInteger() {
+		StripedStatisticAggregator aggregator = new StripedStatisticAggregator(
+				ScopedStatisticComparators.COMPARATOR_BY_REQUEST_COUNT, 10);
+		AccessLogLine line = new AccessLogLine(INSTANT, "download", Integer.MAX_VALUE);
+		aggregator.accept(line);
+		aggregator.accept(line);
+		Assert.assertEquals(2L * Integer.MAX_VALUE, aggregator.overall().weight());
+		Assert.assertEquals(2L * Integer.MAX_VALUE, aggregator.topSections().get(0).getValue().weight());
+	}
+}
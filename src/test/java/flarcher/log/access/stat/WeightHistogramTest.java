@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2019.
+ * Fabrice Larcher
+ */
+
+package flarcher.log.access.stat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WeightHistogramTest {
+
+	@Test
+	public void slotBoundaries() {
+		int previousSlot = -1;
+		for (int value : new int[]{ 0, 1, 3, 4, 5, 7, 8, 100, 1_000, 65_535, 65_536, Integer.MAX_VALUE }) {
+			int slot = WeightHistogram.slotOf(value);
+			Assert.assertTrue(slot >= previousSlot);
+			Assert.assertTrue(slot < WeightHistogram.SLOT_COUNT);
+			Assert.assertTrue(value <= WeightHistogram.highestValueOf(slot));
+			Assert.assertTrue(slot == 0 || value > WeightHistogram.highestValueOf(slot - 1));
+			previousSlot = slot;
+		}
+		Assert.assertEquals(WeightHistogram.SLOT_COUNT - 1, WeightHistogram.slotOf(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void percentiles() {
+		WeightHistogram histogram = new WeightHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 10);
+		}
+		histogram.record(-1); // Ignored
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(1_000, histogram.getMax());
+		long p50 = histogram.getValueAtPercentile(50D);
+		Assert.assertTrue(p50 >= 500 && p50 < 500 * 1.125);
+		long p99 = histogram.getValueAtPercentile(99D);
+		Assert.assertTrue(p99 >= 990 && p99 <= 1_000);
+		Assert.assertEquals(1_000, histogram.getValueAtPercentile(100D));
+	}
+
+	@Test
+	public void merge() {
+		WeightHistogram few = new WeightHistogram();
+		few.record(1_000_000);
+		WeightHistogram many = new WeightHistogram();
+		for (int i = 0; i < 99; i++) {
+			many.record(10);
+		}
+		many.add(few);
+		Assert.assertEquals(100, many.getCount());
+		Assert.assertEquals(1_000_000, many.getMax());
+		Assert.assertTrue(many.getValueAtPercentile(90D) < 16);
+		many.clear();
+		Assert.assertEquals(0, many.getCount());
+		Assert.assertEquals(0, many.getValueAtPercentile(50D));
+	}
+}